@@ -0,0 +1,98 @@
+package library.circulation.bitmap;
+
+import library.circulation.models.Book;
+import library.circulation.models.Transaction;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BookBitmapIndexTest {
+
+    private final BookBitmapIndex index = new BookBitmapIndex();
+
+    @Test
+    void filtersCombineWithAndValuesWithOr() {
+        Book hobbit = add("FAN_1", "Fantasy", "G");
+        Book dune = add("SCI_1", "Science Fiction", "PG-13");
+        Book it = add("HOR_1", "Horror", "R");
+        Book earthsea = add("FAN_2", "fantasy ", "PG-13");
+
+        assertEquals(List.of(hobbit, earthsea), index.query().genre("FANTASY").books());
+        assertEquals(List.of(earthsea), index.query().genre("Fantasy").contentRating("PG-13").books());
+        assertEquals(List.of(hobbit, dune, earthsea), index.query().genre("Fantasy", "Science Fiction").books());
+        assertEquals(List.of(), index.query().genre("Poetry").books());
+        assertEquals(4, index.query().count());
+        assertEquals(List.of(hobbit, dune, it), index.query().books(3));
+
+        assertEquals(List.of(hobbit), index.query().eligibleFor(12).books());
+        assertEquals(List.of(hobbit, dune, earthsea), index.query().eligibleFor(17).books());
+        assertEquals(4, index.query().eligibleFor(18).count());
+        assertThrows(IllegalArgumentException.class, () -> index.query().genre());
+    }
+
+    @Test
+    void availabilityFollowsRefresh() {
+        Book borrowed = add("FAN_1", "Fantasy", "G");
+        Book removed = add("FAN_2", "Fantasy", "G");
+        Book shelved = add("FAN_3", "Fantasy", "G");
+
+        LocalDate today = LocalDate.now();
+        assertTrue(borrowed.tryMarkAsBorrowed(new Transaction("STU_1", borrowed.getBookID(), today, today.plusDays(7))));
+        removed.removeBook();
+        // nothing changes in the index until it is told
+        assertEquals(3, index.query().available().count());
+
+        index.refresh(borrowed);
+        index.refresh(removed);
+
+        assertEquals(List.of(shelved), index.query().available().books());
+        assertEquals(List.of(borrowed, shelved), index.query().present().books());
+        assertFalse(index.isAvailable(borrowed));
+        assertTrue(index.isAvailable(shelved));
+        // removed copies stay in the unfiltered query
+        assertEquals(3, index.query().genre("Fantasy").count());
+
+        borrowed.markAsReturned();
+        index.refresh(borrowed);
+        assertEquals(List.of(borrowed, shelved), index.query().available().books());
+    }
+
+    @Test
+    void aBookIsIndexedOnce() {
+        Book book = add("FAN_1", "Fantasy", "G");
+        index.add(book);
+        index.addAll(List.of(book));
+
+        assertEquals(1, index.size());
+        assertEquals(1, index.query().genre("Fantasy").count());
+    }
+
+    @Test
+    void ordinalsGrowPastTheFirstTableAndChunk() {
+        List<Book> batch = new ArrayList<>();
+        for (int i = 0; i < 70_000; i++) {
+            batch.add(Book.restore("HIS_" + i, "Title " + i, "Author", i % 2 == 0 ? "History" : "Mystery", "G", true));
+        }
+        index.addAll(batch);
+
+        assertEquals(70_000, index.size());
+        assertEquals(35_000, index.query().genre("History").available().count());
+        List<Book> mysteries = index.query().genre("Mystery").books(3);
+        assertEquals(List.of(batch.get(1), batch.get(3), batch.get(5)), mysteries);
+        assertEquals(batch.get(69_999), index.books(index.query().genre("Mystery").bitmap(), 35_000).get(34_999));
+        assertThrows(IllegalArgumentException.class, () -> index.query().books(0));
+    }
+
+    private Book add(String bookID, String genre, String contentRating) {
+        Book book = Book.restore(bookID, "Title of " + bookID, "Author", genre, contentRating, true);
+        index.add(book);
+        return book;
+    }
+}
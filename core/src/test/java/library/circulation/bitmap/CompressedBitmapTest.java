@@ -0,0 +1,172 @@
+package library.circulation.bitmap;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CompressedBitmapTest {
+
+    private static final int CHUNK = 1 << 16;
+
+    @Test
+    void aChunkTurnsIntoABitmapPastArrayMaxAndBackAtHalf() {
+        CompressedBitmap bitmap = new CompressedBitmap();
+        for (int value = 0; value < CompressedBitmap.ARRAY_MAX; value++) {
+            assertTrue(bitmap.add(value * 3));
+        }
+        assertFalse(bitmap.isBitmapChunk(0));
+
+        assertTrue(bitmap.add(1));
+        assertTrue(bitmap.isBitmapChunk(0));
+        assertEquals(CompressedBitmap.ARRAY_MAX + 1, bitmap.cardinality());
+        assertFalse(bitmap.add(1));
+
+        // down to just above half: still a bitmap, so a count moving around 4096 doesn't flip the chunk each time
+        assertTrue(bitmap.remove(1));
+        for (int value = 0; bitmap.cardinality() > CompressedBitmap.ARRAY_MAX / 2 + 1; value++) {
+            assertTrue(bitmap.remove(value * 3));
+        }
+        assertTrue(bitmap.isBitmapChunk(0));
+        int smallest = bitmap.toArray(1)[0];
+        assertTrue(bitmap.remove(smallest));
+        assertFalse(bitmap.isBitmapChunk(0));
+        assertEquals(CompressedBitmap.ARRAY_MAX / 2, bitmap.cardinality());
+
+        assertFalse(bitmap.contains(smallest));
+        assertTrue(bitmap.contains(smallest + 3));
+        assertFalse(bitmap.remove(smallest));
+    }
+
+    @Test
+    void matchesABitSet() {
+        Random random = new Random(42);
+        for (int round = 0; round < 20; round++) {
+            BitSet leftExpected = new BitSet();
+            BitSet rightExpected = new BitSet();
+            CompressedBitmap left = randomBitmap(random, leftExpected);
+            CompressedBitmap right = randomBitmap(random, rightExpected);
+
+            assertSame(and(leftExpected, rightExpected), left.and(right));
+            assertSame(or(leftExpected, rightExpected), left.or(right));
+            assertSame(andNot(leftExpected, rightExpected), left.andNot(right));
+            assertSame(andNot(rightExpected, leftExpected), right.andNot(left));
+            assertEquals(and(leftExpected, rightExpected).cardinality(), left.andCardinality(right));
+
+            CompressedBitmap[] required = {left, right};
+            BitSet thirdExpected = new BitSet();
+            CompressedBitmap[] excluded = {randomBitmap(random, thirdExpected)};
+            BitSet expected = andNot(and(leftExpected, rightExpected), thirdExpected);
+            assertSame(expected, CompressedBitmap.andAllNot(required, excluded));
+            assertEquals(expected.cardinality(), CompressedBitmap.andAllNotCardinality(required, excluded));
+            assertSame(or(or(leftExpected, rightExpected), thirdExpected), CompressedBitmap.orAll(left, right, excluded[0]));
+
+            // the inputs are left alone
+            assertSame(leftExpected, left);
+            assertSame(rightExpected, right);
+        }
+    }
+
+    @Test
+    void toArrayStopsAtTheLimit() {
+        CompressedBitmap bitmap = new CompressedBitmap();
+        int[] values = {3, 70, CHUNK + 5, 3 * CHUNK, 3 * CHUNK + 1};
+        for (int i = values.length - 1; i >= 0; i--) {
+            bitmap.add(values[i]);
+        }
+
+        assertArrayEquals(values, bitmap.toArray(Integer.MAX_VALUE));
+        assertArrayEquals(new int[] {3, 70, CHUNK + 5}, bitmap.toArray(3));
+        assertArrayEquals(new int[0], bitmap.toArray(0));
+        assertArrayEquals(new int[0], new CompressedBitmap().toArray(10));
+        assertThrows(IllegalArgumentException.class, () -> bitmap.toArray(-1));
+    }
+
+    @Test
+    void aCopyDoesNotFollowTheOriginal() {
+        CompressedBitmap bitmap = new CompressedBitmap();
+        for (int value = 0; value < 10_000; value++) {
+            bitmap.add(value);
+        }
+        bitmap.add(CHUNK + 1);
+
+        CompressedBitmap copy = bitmap.copy();
+        bitmap.remove(5);
+        bitmap.remove(CHUNK + 1);
+        bitmap.add(2 * CHUNK);
+
+        assertEquals(10_001, copy.cardinality());
+        assertTrue(copy.contains(5));
+        assertTrue(copy.contains(CHUNK + 1));
+        assertFalse(copy.contains(2 * CHUNK));
+        assertEquals(10_000, bitmap.cardinality());
+    }
+
+    @Test
+    void emptyChunksAreEmpty() {
+        CompressedBitmap bitmap = new CompressedBitmap();
+        assertTrue(bitmap.isEmpty());
+        assertFalse(bitmap.remove(7));
+        assertFalse(bitmap.contains(-1));
+        assertThrows(IllegalArgumentException.class, () -> bitmap.add(-1));
+
+        bitmap.add(2 * CHUNK + 7);
+        bitmap.remove(2 * CHUNK + 7);
+
+        assertTrue(bitmap.isEmpty());
+        assertEquals(0, bitmap.cardinality());
+    }
+
+    // four chunks, each one empty, sparse, around ARRAY_MAX or dense, so every pair of container kinds meets
+    private static CompressedBitmap randomBitmap(Random random, BitSet expected) {
+        CompressedBitmap bitmap = new CompressedBitmap();
+        for (int chunk = 0; chunk < 4; chunk++) {
+            int count = switch (random.nextInt(4)) {
+                case 0 -> 0;
+                case 1 -> random.nextInt(100);
+                case 2 -> CompressedBitmap.ARRAY_MAX - 50 + random.nextInt(100);
+                default -> 20_000 + random.nextInt(30_000);
+            };
+            for (int i = 0; i < count; i++) {
+                int value = chunk * CHUNK + random.nextInt(CHUNK);
+                bitmap.add(value);
+                expected.set(value);
+            }
+        }
+        return bitmap;
+    }
+
+    private static void assertSame(BitSet expected, CompressedBitmap actual) {
+        assertEquals(expected.cardinality(), actual.cardinality());
+        assertArrayEquals(expected.stream().toArray(), actual.toArray(Integer.MAX_VALUE));
+        List<Integer> visited = new ArrayList<>();
+        actual.forEach(visited::add);
+        assertEquals(expected.stream().boxed().toList(), visited);
+    }
+
+    private static BitSet and(BitSet left, BitSet right) {
+        BitSet result = (BitSet) left.clone();
+        result.and(right);
+        return result;
+    }
+
+    private static BitSet or(BitSet left, BitSet right) {
+        BitSet result = (BitSet) left.clone();
+        result.or(right);
+        return result;
+    }
+
+    private static BitSet andNot(BitSet left, BitSet right) {
+        BitSet result = (BitSet) left.clone();
+        result.andNot(right);
+        return result;
+    }
+}
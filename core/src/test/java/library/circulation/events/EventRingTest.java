@@ -0,0 +1,64 @@
+package library.circulation.events;
+
+import library.circulation.journal.JournalEntry;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class EventRingTest {
+
+    @Test
+    void anIdleConsumerSleepsUntilTheNextEvent() throws Exception {
+        CountDownLatch handled = new CountDownLatch(1);
+        try (EventRing ring = new EventRing(8, EventRing.Overflow.BLOCK)) {
+            ring.addConsumer("audit", (event, sequence, endOfBatch) -> handled.countDown());
+            Thread consumer = thread("event-audit");
+
+            // parked without a timeout, not polling
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            while (consumer.getState() != Thread.State.WAITING && System.nanoTime() < deadline) {
+                Thread.sleep(1);
+            }
+            assertEquals(Thread.State.WAITING, consumer.getState());
+
+            ring.publish(JournalEntry.waiver("STU_001", 10, "late bus"));
+
+            assertTrue(handled.await(10, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    void aFailingHandlerDoesNotStopTheEvents() {
+        List<String> seen = new CopyOnWriteArrayList<>();
+        EventRing ring = new EventRing(4, EventRing.Overflow.BLOCK);
+        ring.addConsumer("picky", (event, sequence, endOfBatch) -> {
+            if (sequence == 1) {
+                throw new IllegalStateException("broken on purpose");
+            }
+            seen.add(event.getTransactionID());
+        });
+
+        for (int i = 0; i < 10; i++) {
+            assertTrue(ring.publish(JournalEntry.waiver("STU_001", 10, "reason " + i)));
+        }
+        ring.close(); // handles what was published first
+
+        assertEquals(9, seen.size());
+        assertEquals(1, ring.getHandlerErrors());
+        assertEquals(0, ring.getLag("picky"));
+        assertFalse(ring.publish(JournalEntry.waiver("STU_001", 10, "after close")));
+    }
+
+    private static Thread thread(String name) {
+        return Thread.getAllStackTraces().keySet().stream()
+                .filter(thread -> thread.getName().equals(name))
+                .findFirst().orElseThrow();
+    }
+}
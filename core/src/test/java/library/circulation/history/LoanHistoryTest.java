@@ -0,0 +1,135 @@
+package library.circulation.history;
+
+import library.circulation.models.Transaction;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LoanHistoryTest {
+
+    private static final int CHUNK_ROWS = 1 << 16;
+    private static final LocalDate START = LocalDate.of(2024, 1, 1);
+
+    @Test
+    void aReturnedLoanComesBackAsItWent() {
+        LoanHistory history = new LoanHistory();
+        Transaction transaction = Transaction.restore("TR_100042", "STU_7", "FAN_1001", START, START.plusDays(14));
+        transaction.extendDueDate(7, START.plusDays(10));
+        transaction.setReturnDate(START.plusDays(25));
+        transaction.calculateFine();
+
+        history.add(transaction);
+
+        List<String> rows = new ArrayList<>();
+        history.query().forEach(row -> {
+            rows.add(row.getTransactionID() + " " + row.getMemberID() + " " + row.getBookID());
+            assertEquals(START, row.getIssueDate());
+            assertEquals(START.plusDays(21), row.getDueDate());
+            assertEquals(START.plusDays(25), row.getReturnDate());
+            assertEquals(START.plusDays(10), row.getRenewalDate());
+            assertEquals(transaction.getFine(), row.getFine());
+            assertEquals(1, row.getRenewalCount());
+            assertTrue(row.isLate());
+        });
+        assertEquals(List.of("TR_100042 STU_7 FAN_1001"), rows);
+        assertEquals(100042, history.getHighestTransactionNumber());
+
+        Transaction open = Transaction.restore("TR_100043", "STU_7", "FAN_1001", START, START.plusDays(14));
+        assertThrows(IllegalArgumentException.class, () -> history.add(open));
+        assertThrows(IllegalArgumentException.class, () -> history.restore("LOAN_1", "STU_7", "FAN_1001",
+                0, 0, 0, LoanHistory.NO_DAY, 0, 0));
+    }
+
+    @Test
+    void rowsRollOverIntoNewChunks() {
+        for (boolean offHeap : new boolean[] {false, true}) {
+            LoanHistory history = new LoanHistory(offHeap);
+            int rows = 2 * CHUNK_ROWS + 100;
+            fill(history, rows);
+
+            assertEquals(rows, history.size());
+            assertEquals(offHeap, history.isOffHeap());
+            assertEquals(rows, history.query().count());
+            assertEquals(100_000L + rows - 1, history.getHighestTransactionNumber());
+
+            // a row range across the first chunk boundary
+            List<String> ids = new ArrayList<>();
+            history.query().rows(CHUNK_ROWS - 2, CHUNK_ROWS + 2).forEach(row -> ids.add(row.getTransactionID()));
+            assertEquals(List.of("TR_" + (100_000 + CHUNK_ROWS - 2), "TR_" + (100_000 + CHUNK_ROWS - 1),
+                    "TR_" + (100_000 + CHUNK_ROWS), "TR_" + (100_000 + CHUNK_ROWS + 1)), ids);
+            assertEquals(100, history.query().rows(2 * CHUNK_ROWS, Integer.MAX_VALUE).count());
+
+            AtomicLong parallel = new AtomicLong();
+            history.query().member("STU_3").forEachParallel(row -> parallel.incrementAndGet());
+            assertEquals(history.query().member("STU_3").count(), parallel.get());
+        }
+    }
+
+    @Test
+    void dateRangesFindTheirRowsInEveryChunk() {
+        LoanHistory history = new LoanHistory();
+        int rows = 2 * CHUNK_ROWS + 100;
+        fill(history, rows);
+        // returned in the third chunk but issued long before everything else: that chunk's range has to stretch
+        history.restore("TR_900000", "STU_1", "OLD_1", day(START.minusYears(1)), day(START.minusYears(1).plusDays(14)),
+                day(START.minusDays(1)), LoanHistory.NO_DAY, 500, 0);
+
+        // row n is returned on day n / 1000, so every day is 1000 rows and chunks cover separate days
+        LocalDate firstDayOfChunk2 = START.plusDays(CHUNK_ROWS / 1000 + 1);
+        assertEquals(1000, history.query().returnedBetween(firstDayOfChunk2, firstDayOfChunk2).count());
+        // a day split between chunk 1 and 2
+        LocalDate split = START.plusDays(CHUNK_ROWS / 1000);
+        assertEquals(1000, history.query().returnedBetween(split, split).count());
+        assertEquals(0, history.query().returnedBetween(START.plusYears(5), START.plusYears(6)).count());
+
+        assertEquals(1, history.query().returnedBetween(START.minusDays(1), START.minusDays(1)).count());
+        assertEquals(1, history.query().issuedBetween(START.minusYears(2), START.minusMonths(6)).count());
+        assertEquals(500, history.query().issuedBetween(START.minusYears(2), START.minusMonths(6)).totalFines());
+        assertEquals(1, history.query().book("OLD_1").count());
+        // never archived, so nothing can match
+        assertEquals(0, history.query().member("STU_404").count());
+    }
+
+    @Test
+    void filtersCombine() {
+        LoanHistory history = new LoanHistory();
+        history.restore("TR_1", "STU_1", "FAN_1", 100, 114, 110, LoanHistory.NO_DAY, 0, 0);
+        history.restore("TR_2", "STU_1", "FAN_2", 100, 114, 120, LoanHistory.NO_DAY, 60, 0);
+        history.restore("TR_3", "STU_1", "FAN_1", 100, 121, 125, 110, 40, 1);
+        history.restore("TR_4", "STU_2", "FAN_1", 100, 114, 130, LoanHistory.NO_DAY, 160, 0);
+
+        assertEquals(2, history.query().member("STU_1").lateOnly().count());
+        assertEquals(1, history.query().member("STU_1").lateOnly().renewedOnly().count());
+        assertEquals(200, history.query().book("FAN_1").lateOnly().totalFines());
+        assertEquals(2, history.distinctMembers());
+        assertEquals(2, history.distinctBooks());
+
+        List<LocalDate> renewals = new ArrayList<>();
+        history.query().book("FAN_2").forEach(row -> renewals.add(row.getRenewalDate()));
+        assertEquals(1, renewals.size());
+        assertNull(renewals.get(0));
+        assertThrows(IllegalArgumentException.class, () -> history.query().rows(5, 4));
+    }
+
+    // row n: TR_(100000 + n), one of 10 members and 500 books, issued 14 days before it comes back on day n / 1000
+    private static void fill(LoanHistory history, int rows) {
+        int startDay = day(START);
+        for (int n = 0; n < rows; n++) {
+            int returnDay = startDay + n / 1000;
+            history.restore("TR_" + (100_000 + n), "STU_" + (n % 10), "FAN_" + (n % 500), returnDay - 14, returnDay - 1,
+                    returnDay, LoanHistory.NO_DAY, 10, 0);
+        }
+    }
+
+    private static int day(LocalDate date) {
+        return (int) date.toEpochDay();
+    }
+}
@@ -0,0 +1,72 @@
+package library.circulation.http;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class JsonTest {
+
+    @Test
+    void writtenStringsAreEscaped() {
+        String json = new Json().beginObject()
+                .field("title", "The \"Hobbit\"\\\n\t\u0001")
+                .field("copies", 3)
+                .field("available", true)
+                .field("series", null)
+                .beginArray("genres").value("Fantasy").value("Classic").endArray()
+                .endObject().toString();
+
+        assertEquals("{\"title\":\"The \\\"Hobbit\\\"\\\\\\n\\t\\u0001\",\"copies\":3,\"available\":true,\"series\":null,"
+                + "\"genres\":[\"Fantasy\",\"Classic\"]}", json);
+    }
+
+    @Test
+    void aFlatObjectComesBack() {
+        String title = "Caf\u00e9 \"noir\" \\ /\n\r\t\b\f\u0001";
+        String json = new Json().beginObject().field("title", title).field("duration", 7).field("renew", false)
+                .field("note", null).endObject().toString();
+
+        Map<String, String> values = Json.parseObject(json);
+
+        assertEquals(title, values.get("title"));
+        assertEquals("7", values.get("duration"));
+        assertEquals("false", values.get("renew"));
+        assertEquals(4, values.size());
+        assertNull(values.get("note"));
+
+        assertEquals(Map.of("a", "\u00e9/\u20ac"), Json.parseObject(" {\n \"a\" : \"\\u00E9\\/\\u20ac\" \t} "));
+        assertEquals(Map.of(), Json.parseObject("{ }"));
+        assertEquals(Map.of("amount", "-12.5e3"), Json.parseObject("{\"amount\":-12.5e3}"));
+    }
+
+    @Test
+    void malformedJsonIsRejected() {
+        String[] malformed = {
+                "",
+                "{",
+                "[1, 2]",
+                "{bookID: 1}",
+                "{\"bookID\"}",
+                "{\"bookID\":}",
+                "{\"bookID\": 1,}",
+                "{\"bookID\": 1} trailing",
+                "{\"bookID\": 1 \"duration\": 2}",
+                "{\"bookID\": \"FAN_1}",
+                "{\"bookID\": {\"id\": 1}}",
+                "{\"bookID\": [1]}",
+                "{\"bookID\": \"\\q\"}",
+                "{\"bookID\": \"\\u12\"}",
+                "{\"bookID\": \"\\u+041\"}",
+                "{\"bookID\": \"\\u-041\"}",
+                "{\"bookID\": \"\\u00\u0663\u0664\"}", // arabic-indic digits are no hex digits
+                "{\"bookID\": \"FAN_1\\",
+        };
+        for (String text : malformed) {
+            assertThrows(IllegalArgumentException.class, () -> Json.parseObject(text), text);
+        }
+    }
+}
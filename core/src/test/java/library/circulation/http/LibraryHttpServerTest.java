@@ -0,0 +1,139 @@
+package library.circulation.http;
+
+import library.circulation.models.Book;
+import library.circulation.models.Member;
+import library.circulation.services.AuthenticationService;
+import library.circulation.services.LibraryService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// requests go straight to handle(), the socket is never used
+class LibraryHttpServerTest {
+
+    private final LibraryService service = new LibraryService();
+    private final AuthenticationService auth = new AuthenticationService(service.getCatalog());
+    private final LibraryHttpServer server = new LibraryHttpServer(service, auth,
+            new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 1);
+
+    @BeforeAll
+    static void cheapPasswords() {
+        Member.setPasswordWorkFactor(4);
+    }
+
+    @AfterEach
+    void close() {
+        server.close();
+        auth.close();
+    }
+
+    @Test
+    void loansNeedATokenAndAreForItsMember() {
+        Member reader = member("reader@gmail.com");
+        Member other = member("other@gmail.com");
+        Book book = book("Emma");
+
+        HttpResponse anonymous = post("/loans", null, "{\"bookID\":\"" + book.getBookID() + "\",\"duration\":7}");
+        assertEquals(401, anonymous.getStatus());
+        assertEquals("Bearer", anonymous.getAuthenticate());
+        assertEquals(401, post("/loans", "not-a-token", "{\"bookID\":\"" + book.getBookID() + "\",\"duration\":7}").getStatus());
+        assertTrue(book.getAvailable());
+
+        assertEquals(401, post("/sessions", null, "{\"memberID\":\"" + reader.getMemberID() + "\",\"password\":\"Wrong@123\"}").getStatus());
+        String token = login(reader);
+        // a memberID in the body doesn't count, the loan is the token's
+        HttpResponse loan = post("/loans", token, "{\"bookID\":\"" + book.getBookID() + "\",\"memberID\":\""
+                + other.getMemberID() + "\",\"duration\":7}");
+        assertEquals(201, loan.getStatus());
+        assertEquals(reader.getMemberID(), book.getCurrentTransaction().getMemberID());
+
+        assertEquals(403, get("/members/" + other.getMemberID(), token).getStatus());
+        assertEquals(200, get("/members/" + reader.getMemberID(), token).getStatus());
+
+        assertEquals(200, post("/returns", token, "{\"bookID\":\"" + book.getBookID() + "\"}").getStatus());
+        assertTrue(book.getAvailable());
+
+        assertEquals(200, request("DELETE", "/sessions", token, "").getStatus());
+        assertEquals(401, post("/returns", token, "{\"bookID\":\"" + book.getBookID() + "\"}").getStatus());
+    }
+
+    @Test
+    void searchLimitIsCapped() {
+        for (int i = 0; i < LibraryHttpServer.MAX_LIMIT + 20; i++) {
+            book("Garden " + i);
+        }
+
+        String body = body(get("/books?q=garden&limit=100000", null));
+
+        assertEquals(LibraryHttpServer.MAX_LIMIT, count(body, "\"bookID\""));
+    }
+
+    @Test
+    void malformedBodiesAreRejected() {
+        String token = login(member("json@gmail.com"));
+
+        assertEquals(400, post("/loans", token, "{\"bookID\": ").getStatus());
+        assertEquals(400, post("/loans", token, "[1, 2]").getStatus());
+        assertEquals(400, post("/payments", token, "{\"amount\": \"fifty\"}").getStatus());
+        assertEquals(400, post("/loans", token, "{\"bookID\": {\"id\": 1}}").getStatus());
+        assertEquals(400, post("/loans", token, "{\"bookID\": \"\\u+041\"}").getStatus());
+        assertEquals(400, post("/loans", token, "{\"bookID\": \"FAN_1\"} {}").getStatus());
+        assertNull(get("/metrics", null).getAuthenticate());
+    }
+
+    private Member member(String email) {
+        Member member = new Member("Reader", 30, "Teacher", email, "Secret@1", "9876543210");
+        service.addMember(member);
+        return member;
+    }
+
+    private Book book(String title) {
+        Book book = new Book(title, "Jane Austen", "Romance", "G");
+        service.addBook(book);
+        return book;
+    }
+
+    private String login(Member member) {
+        HttpResponse response = post("/sessions", null, "{\"memberID\":\"" + member.getMemberID() + "\",\"password\":\"Secret@1\"}");
+        assertEquals(201, response.getStatus());
+        return Json.parseObject(body(response)).get("token");
+    }
+
+    private HttpResponse get(String target, String token) {
+        return request("GET", target, token, "");
+    }
+
+    private HttpResponse post(String target, String token, String body) {
+        return request("POST", target, token, body);
+    }
+
+    private HttpResponse request(String method, String target, String token, String body) {
+        Map<String, String> headers = new HashMap<>();
+        if (token != null) {
+            headers.put("authorization", "Bearer " + token);
+        }
+        return server.handle(new HttpRequest(method, target, headers, body.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private static String body(HttpResponse response) {
+        return new String(response.getBody(), StandardCharsets.UTF_8);
+    }
+
+    private static int count(String text, String part) {
+        int count = 0;
+        for (int at = text.indexOf(part); at >= 0; at = text.indexOf(part, at + 1)) {
+            count++;
+        }
+        return count;
+    }
+}
@@ -0,0 +1,131 @@
+package library.circulation.ids;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BlockIdAllocatorTest {
+
+    @TempDir
+    Path directory;
+
+    private final CountingStore store = new CountingStore();
+
+    @Test
+    void theStoreIsAskedOncePerBlock() {
+        BlockIdAllocator allocator = new BlockIdAllocator(store, 10);
+
+        for (long expected = 1001; expected <= 1025; expected++) {
+            assertEquals(expected, allocator.next(IdSequence.BOOK));
+        }
+        assertEquals(3, store.reservations);
+        // every sequence leases its own blocks
+        assertEquals(100_001, allocator.next(IdSequence.TRANSACTION));
+        assertEquals(1, allocator.next(IdSequence.STUDENT));
+        assertEquals(5, store.reservations);
+        assertThrows(IllegalArgumentException.class, () -> new BlockIdAllocator(store, 0));
+    }
+
+    @Test
+    void advancePastSkipsInsideTheBlockOrLeasesOneReachingPast() {
+        BlockIdAllocator allocator = new BlockIdAllocator(store, 10);
+        assertEquals(1001, allocator.next(IdSequence.BOOK));
+
+        allocator.advancePast(IdSequence.BOOK, 1005);
+        assertEquals(1006, allocator.next(IdSequence.BOOK));
+        assertEquals(1, store.reservations);
+
+        // already past it, nothing changes
+        allocator.advancePast(IdSequence.BOOK, 1003);
+        assertEquals(1007, allocator.next(IdSequence.BOOK));
+
+        // far behind the store, e.g. ids from an old snapshot: one bigger block covers the gap
+        allocator.advancePast(IdSequence.BOOK, 5000);
+        assertEquals(5001, allocator.next(IdSequence.BOOK));
+        assertEquals(3, store.reservations);
+        assertTrue(store.marks.get(IdSequence.BOOK) > 5000);
+        for (long expected = 5002; expected <= 5030; expected++) {
+            assertEquals(expected, allocator.next(IdSequence.BOOK));
+        }
+    }
+
+    @Test
+    void concurrentCallersNeverShareAnId() throws Exception {
+        BlockIdAllocator allocator = new BlockIdAllocator(store, 7);
+        int threads = 8;
+        int perThread = 5_000;
+        Set<Long> seen = ConcurrentHashMap.newKeySet();
+
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                futures.add(pool.submit(() -> {
+                    start.await();
+                    for (int n = 0; n < perThread; n++) {
+                        assertTrue(seen.add(allocator.next(IdSequence.TRANSACTION)));
+                    }
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> future : futures) {
+                future.get(2, TimeUnit.MINUTES);
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+
+        // nothing skipped either: the ids are exactly the first threads * perThread of the sequence
+        int total = threads * perThread;
+        assertEquals(total, seen.size());
+        assertEquals(100_001, seen.stream().mapToLong(Long::longValue).min().orElseThrow());
+        assertEquals(100_000 + total, seen.stream().mapToLong(Long::longValue).max().orElseThrow());
+        assertEquals((total + 6) / 7, store.reservations);
+    }
+
+    @Test
+    void aRestartSkipsTheRestOfTheBlock() {
+        Path file = directory.resolve("ids.properties");
+        BlockIdAllocator first = new BlockIdAllocator(new FileHighWaterMarkStore(file), 100);
+        assertEquals(1001, first.next(IdSequence.BOOK));
+        assertEquals(1002, first.next(IdSequence.BOOK));
+
+        BlockIdAllocator second = new BlockIdAllocator(new FileHighWaterMarkStore(file), 100);
+
+        assertEquals(1101, second.next(IdSequence.BOOK));
+        assertEquals(1003, first.next(IdSequence.BOOK));
+        assertEquals(1, second.next(IdSequence.TEACHER));
+    }
+
+    // the high water marks in memory, counting the calls
+    private static final class CountingStore implements HighWaterMarkStore {
+        final Map<IdSequence, Long> marks = new EnumMap<>(IdSequence.class);
+        int reservations;
+
+        @Override
+        public synchronized long reserve(IdSequence sequence, long blockSize) {
+            reservations++;
+            long mark = marks.getOrDefault(sequence, sequence.getFloor());
+            marks.put(sequence, mark + blockSize);
+            return mark + 1;
+        }
+    }
+}
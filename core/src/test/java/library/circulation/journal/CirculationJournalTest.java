@@ -0,0 +1,78 @@
+package library.circulation.journal;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CirculationJournalTest {
+
+    @TempDir
+    Path directory;
+
+    // 32767 fits a short, 32768 and 65535 used to come back negative or as null and shift every field after them
+    @Test
+    void longStringsComeBackWhole() {
+        List<String> reasons = List.of("x".repeat(32_767), "y".repeat(32_768), "z".repeat(65_535), "é".repeat(40_000));
+        try (CirculationJournal journal = journal()) {
+            for (String reason : reasons) {
+                journal.append(JournalEntry.waiver("STU_001", 10, reason));
+            }
+        }
+
+        List<JournalEntry> read = new ArrayList<>();
+        CirculationJournal.read(directory, 0, read::add);
+
+        assertEquals(reasons.size(), read.size());
+        for (int i = 0; i < reasons.size(); i++) {
+            assertEquals(reasons.get(i), read.get(i).getTransactionID());
+            assertEquals("STU_001", read.get(i).getMemberID());
+            assertEquals(10, read.get(i).getAmount());
+        }
+    }
+
+    @Test
+    void entryLargerThanASegmentIsRefusedAndNothingIsWritten() {
+        try (CirculationJournal journal = journal()) {
+            journal.append(JournalEntry.payment("STU_001", 5, "RCPT-1"));
+            assertThrows(IllegalArgumentException.class,
+                    () -> journal.append(JournalEntry.waiver("STU_001", 10, "x".repeat(300 * 1024))));
+            journal.append(JournalEntry.payment("STU_001", 7, "RCPT-2"));
+        }
+
+        List<JournalEntry> read = new ArrayList<>();
+        CirculationJournal.read(directory, 0, read::add);
+
+        assertEquals(List.of("RCPT-1", "RCPT-2"), read.stream().map(JournalEntry::getTransactionID).toList());
+        assertEquals(List.of(1L, 2L), read.stream().map(JournalEntry::getSequence).toList());
+    }
+
+    @Test
+    void segmentsCoveredByASnapshotAreDeleted() {
+        long covered;
+        try (CirculationJournal journal = new CirculationJournal(directory, 4096, CirculationJournal.SyncMode.ASYNC, 0)) {
+            for (int i = 0; i < 200; i++) {
+                journal.append(JournalEntry.payment("STU_001", 1, "RCPT-" + i));
+            }
+            covered = 150;
+            assertTrue(journal.deleteSegmentsUpTo(covered) > 0);
+            journal.append(JournalEntry.payment("STU_001", 1, "RCPT-200"));
+        }
+
+        List<JournalEntry> read = new ArrayList<>();
+        CirculationJournal.read(directory, covered, read::add);
+        assertEquals(51, read.size());
+        assertEquals(151, read.get(0).getSequence());
+        assertEquals("RCPT-200", read.get(50).getTransactionID());
+    }
+
+    private CirculationJournal journal() {
+        return new CirculationJournal(directory, 256 * 1024, CirculationJournal.SyncMode.ASYNC, 0);
+    }
+}
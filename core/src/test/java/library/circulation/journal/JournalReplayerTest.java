@@ -0,0 +1,156 @@
+package library.circulation.journal;
+
+import library.circulation.history.LoanHistory;
+import library.circulation.models.Book;
+import library.circulation.models.Member;
+import library.circulation.models.Transaction;
+import library.circulation.repository.CatalogRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// journals written the way two desks can interleave them, replayed into a fresh catalog
+class JournalReplayerTest {
+
+    private static final LocalDate MONDAY = LocalDate.of(2026, 3, 2);
+
+    @TempDir
+    Path directory;
+
+    private CatalogRepository catalog;
+    private LoanHistory history;
+    private Book book;
+    private Member first;
+    private Member second;
+
+    @BeforeEach
+    void catalog() {
+        catalog = new CatalogRepository();
+        history = new LoanHistory();
+        book = Book.restore("FAN_1", "The Hobbit", "J.R.R. Tolkien", "Fantasy", "G", true);
+        first = member("STU_001");
+        second = member("STU_002");
+        catalog.addBook(book);
+        catalog.addMember(first);
+        catalog.addMember(second);
+    }
+
+    // desk 2 issues the copy desk 1 just freed, and its ISSUE lands before desk 1's RETURN
+    @Test
+    void issueOfAFreedCopyBeforeTheReturnOfTheLoanBefore() {
+        Transaction a = loan("TR_000001", first, MONDAY);
+        Transaction b = loan("TR_000002", second, MONDAY.plusDays(3));
+        write(JournalEntry.issue(a), JournalEntry.issue(b), returned(a, MONDAY.plusDays(3), 0));
+
+        JournalReplayer replayer = replay();
+
+        assertEquals(3, replayer.getApplied());
+        assertEquals(0, replayer.getSkipped());
+        assertEquals("TR_000002", book.getCurrentTransaction().getTransactionID());
+        assertTrue(first.getBorrowedBooks().isEmpty());
+        assertEquals(List.of(book), second.getBorrowedBooks());
+        assertNull(catalog.findOpenTransaction("TR_000001"));
+        assertSame(book.getCurrentTransaction(), catalog.findOpenTransaction("TR_000002"));
+        assertEquals(1, history.query().member(first.getMemberID()).count());
+    }
+
+    // the second loan is already returned too, its RETURN waits for its ISSUE which waits for the copy
+    @Test
+    void bothLoansReturnedButTheSecondOneFirst() {
+        Transaction a = loan("TR_000001", first, MONDAY);
+        Transaction b = loan("TR_000002", second, MONDAY.plusDays(3));
+        write(JournalEntry.issue(a), JournalEntry.issue(b), returned(b, MONDAY.plusDays(5), 20),
+                returned(a, MONDAY.plusDays(3), 10));
+
+        JournalReplayer replayer = replay();
+
+        assertEquals(4, replayer.getApplied());
+        assertEquals(0, replayer.getSkipped());
+        assertTrue(book.getAvailable());
+        assertNull(book.getCurrentTransaction());
+        assertTrue(first.getBorrowedBooks().isEmpty());
+        assertTrue(second.getBorrowedBooks().isEmpty());
+        assertTrue(catalog.allOpenTransactions().isEmpty());
+        // the dues are carried over by LibraryService.restore, through its ledger
+        assertEquals(Map.of(first.getMemberID(), 10L, second.getMemberID(), 20L), replayer.getDuesChanges());
+        assertEquals(2, history.size());
+        assertEquals(30, history.query().totalFines());
+    }
+
+    // the RETURN of the first loan never made it to disk, the later ISSUE still shows the copy went to desk 2
+    @Test
+    void returnOfTheLoanBeforeIsMissing() {
+        Transaction a = loan("TR_000001", first, MONDAY);
+        Transaction b = loan("TR_000002", second, MONDAY.plusDays(3));
+        write(JournalEntry.issue(a), JournalEntry.issue(b));
+
+        JournalReplayer replayer = replay();
+
+        assertEquals(2, replayer.getApplied());
+        assertEquals(1, replayer.getSkipped());
+        assertEquals("TR_000002", book.getCurrentTransaction().getTransactionID());
+        assertTrue(first.getBorrowedBooks().isEmpty());
+        assertEquals(List.of(book), second.getBorrowedBooks());
+        assertEquals(1, catalog.allOpenTransactions().size());
+        // archived as returned the day the copy went out again
+        history.query().forEach(row -> assertEquals(MONDAY.plusDays(3), row.getReturnDate()));
+        assertEquals(1, history.size());
+    }
+
+    // the copy was removed while the first loan was open, the ISSUE waiting for it can't go through any more
+    @Test
+    void copyRemovedWhileAnIssueWaitsForIt() {
+        Transaction a = loan("TR_000001", first, MONDAY);
+        Transaction b = loan("TR_000002", second, MONDAY.plusDays(3));
+        write(JournalEntry.issue(a), JournalEntry.issue(b), JournalEntry.removal(book.getBookID(), "TR_000001", MONDAY.plusDays(4)));
+
+        JournalReplayer replayer = replay();
+
+        assertEquals(2, replayer.getApplied());
+        assertEquals(1, replayer.getSkipped());
+        assertFalse(book.isPresent());
+        assertTrue(first.getBorrowedBooks().isEmpty());
+        assertTrue(second.getBorrowedBooks().isEmpty());
+        assertTrue(catalog.allOpenTransactions().isEmpty());
+        assertEquals(1, history.query().returnedBetween(MONDAY.plusDays(4), MONDAY.plusDays(4)).count());
+    }
+
+    private JournalReplayer replay() {
+        JournalReplayer replayer = new JournalReplayer(catalog, history);
+        replayer.replay(directory, 0);
+        return replayer;
+    }
+
+    private void write(JournalEntry... entries) {
+        try (CirculationJournal journal = new CirculationJournal(directory, 64 * 1024, CirculationJournal.SyncMode.ASYNC, 0)) {
+            for (JournalEntry entry : entries) {
+                journal.append(entry);
+            }
+        }
+    }
+
+    private Transaction loan(String transactionID, Member member, LocalDate issueDate) {
+        return Transaction.restore(transactionID, member.getMemberID(), book.getBookID(), issueDate, issueDate.plusDays(14));
+    }
+
+    private static JournalEntry returned(Transaction transaction, LocalDate returnDate, long fine) {
+        transaction.setReturnDate(returnDate);
+        return JournalEntry.returned(transaction, fine);
+    }
+
+    private static Member member(String memberID) {
+        return Member.restore(memberID, "Member " + memberID, 20, "Student", memberID.toLowerCase() + "@gmail.com",
+                "$2a$04$abcdefghijklmnopqrstuv", "9876543210", MONDAY.minusYears(1), 3, 0);
+    }
+}
@@ -0,0 +1,83 @@
+package library.circulation.search;
+
+import library.circulation.models.Book;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BookSearchIndexTest {
+
+    private final BookSearchIndex index = new BookSearchIndex();
+
+    @Test
+    void titleWordsCountMoreThanAuthorAndGenre() {
+        Book byTitle = add("FAN_1", "The Hobbit", "J. R. R. Tolkien", "Fantasy");
+        Book byAuthor = add("FAN_2", "Leaf by Niggle", "Hobbit Society", "Fantasy");
+
+        assertEquals(List.of(byTitle, byAuthor), index.search("hobbit", 10));
+        assertEquals(List.of(byTitle), index.search("hobbit", 1));
+    }
+
+    @Test
+    void prefixMatchesComeAfterExactOnes() {
+        Book prefix = add("SCI_1", "Foundation and Empire", "Isaac Asimov", "Science Fiction");
+        Book exact = add("SCI_2", "Found", "Margaret Peterson Haddix", "Science Fiction");
+
+        assertEquals(List.of(exact, prefix), index.search("found", 10));
+        assertEquals(List.of(prefix), index.search("foundat", 10));
+    }
+
+    @Test
+    void oneTypoStillFindsTheWord() {
+        Book dune = add("SCI_1", "Dune Messiah", "Frank Herbert", "Science Fiction");
+
+        assertEquals(List.of(dune), index.search("mesiah", 10));   // missing letter
+        assertEquals(List.of(dune), index.search("messsiah", 10)); // extra letter
+        assertEquals(List.of(dune), index.search("messaih", 10));  // swapped letters
+        assertEquals(List.of(dune), index.search("herbart", 10));  // wrong letter
+        // too short to guess a typo from
+        assertEquals(List.of(), index.search("dum", 10));
+    }
+
+    @Test
+    void removedBooksAreNotFoundAnymore() {
+        Book bark = add("HIS_1", "Bark", "Ann Author", "History");
+        Book park = add("HIS_2", "Park", "Ann Author", "History");
+
+        index.remove(bark);
+
+        assertEquals(1, index.size());
+        // only "park" is left, one letter off. The two share the delete variant "ark", which must still lead to "park"
+        assertEquals(List.of(park), index.search("bark", 10));
+        assertEquals(List.of(park), index.search("pakr", 10));
+        index.remove(park);
+        assertEquals(List.of(), index.search("park", 10));
+        assertEquals(List.of(), index.search("author", 10));
+    }
+
+    @Test
+    void aWordInEveryBookVisitsOnlyPartOfThem() {
+        List<Book> books = new ArrayList<>();
+        int count = BookSearchIndex.MAX_POSTINGS_PER_WORD + 500;
+        for (int i = 0; i < count; i++) {
+            books.add(add("FAN_" + i, i == 7 ? "Dragon" : "Tale", "Author", "Fantasy"));
+        }
+
+        List<Book> found = index.search("fantasy", count);
+
+        assertEquals(BookSearchIndex.MAX_POSTINGS_PER_WORD, found.size());
+        assertTrue(books.containsAll(found));
+        // a rare word next to the common one still finds its book
+        assertEquals(List.of(books.get(7)), index.search("fantasy dragon", 1));
+    }
+
+    private Book add(String bookID, String title, String author, String genre) {
+        Book book = Book.restore(bookID, title, author, genre, "G", true);
+        index.add(book);
+        return book;
+    }
+}
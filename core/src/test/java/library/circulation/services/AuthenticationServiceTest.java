@@ -0,0 +1,80 @@
+package library.circulation.services;
+
+import library.circulation.models.Member;
+import library.circulation.repository.CatalogRepository;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.time.Clock;
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AuthenticationServiceTest {
+
+    private final CatalogRepository catalog = new CatalogRepository();
+
+    // slow enough that a login with BCrypt and one without can't be mixed up
+    @BeforeAll
+    static void measurablePasswords() {
+        Member.setPasswordWorkFactor(8);
+    }
+
+    @AfterAll
+    static void cheapPasswords() {
+        Member.setPasswordWorkFactor(4);
+    }
+
+    @Test
+    void anUnknownMemberTakesAsLongAsAWrongPassword() {
+        Member member = member("known@gmail.com");
+        try (AuthenticationService auth = new AuthenticationService(catalog)) {
+            IllegalArgumentException unknown = assertThrows(IllegalArgumentException.class,
+                    () -> auth.login("STU_404", "Secret@1"));
+            IllegalArgumentException wrong = assertThrows(IllegalArgumentException.class,
+                    () -> auth.login(member.getMemberID(), "Wrong@123"));
+            assertEquals(wrong.getMessage(), unknown.getMessage());
+
+            long unknownNanos = 0;
+            long wrongNanos = 0;
+            for (int i = 0; i < 3; i++) {
+                long started = System.nanoTime();
+                assertThrows(IllegalArgumentException.class, () -> auth.login("STU_404", "Secret@1"));
+                unknownNanos += System.nanoTime() - started;
+                started = System.nanoTime();
+                assertThrows(IllegalArgumentException.class, () -> auth.login(member.getMemberID(), "Wrong@123"));
+                wrongNanos += System.nanoTime() - started;
+                if (i == 0) {
+                    auth.login(member.getMemberID(), "Secret@1"); // resets the failed attempts before the lockout
+                }
+            }
+            // without BCrypt an unknown ID comes back in microseconds, a thousand times faster
+            assertTrue(unknownNanos > wrongNanos / 4, unknownNanos + " ns for unknown IDs, " + wrongNanos + " ns for wrong passwords");
+        }
+    }
+
+    @Test
+    void theCredentialCacheIsOptIn() {
+        Member member = member("kiosk@gmail.com");
+        try (AuthenticationService auth = new AuthenticationService(catalog, Clock.systemUTC(), Duration.ofMinutes(30),
+                100, 1, true)) {
+            assertNotNull(auth.authenticate(auth.login(member.getMemberID(), "Secret@1")));
+            assertNotNull(auth.authenticate(auth.login(member.getMemberID(), "Secret@1")));
+
+            // a changed password no longer matches what was cached
+            assertTrue(member.changePassword("Secret@1", "Changed@2"));
+            assertThrows(IllegalArgumentException.class, () -> auth.login(member.getMemberID(), "Secret@1"));
+            assertNotNull(auth.authenticate(auth.login(member.getMemberID(), "Changed@2")));
+        }
+    }
+
+    private Member member(String email) {
+        Member member = new Member("Reader", 30, "Teacher", email, "Secret@1", "9876543210");
+        catalog.addMember(member);
+        return member;
+    }
+}
@@ -0,0 +1,87 @@
+package library.circulation.services;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class HoldRegistryTest {
+
+    private static final LocalDate TODAY = LocalDate.of(2026, 3, 2);
+
+    private final HoldRegistry registry = new HoldRegistry();
+
+    // the holder is checked, can't take the copy and goes back to waiting. A cancel that came in meanwhile wins
+    @Test
+    void cancelDuringAClaimThatIsReleased() throws Exception {
+        Hold hold = registry.place("STU_001", "FAN_1", LibraryService.PeriodUnit.DAYS, 7, TODAY);
+        AtomicReference<CompletableFuture<Boolean>> cancelled = new AtomicReference<>();
+
+        Hold chosen = registry.next("FAN_1", TODAY, claimed -> {
+            assertEquals(Hold.Status.CLAIMED, claimed.getStatus());
+            cancelled.set(CompletableFuture.supplyAsync(() -> registry.cancel(claimed)));
+            sleep();
+            assertFalse(cancelled.get().isDone(), "cancel has to wait for the claim");
+            return false; // e.g. the holder has dues
+        });
+
+        assertNull(chosen);
+        assertTrue(cancelled.get().get(10, TimeUnit.SECONDS));
+        assertEquals(Hold.Status.CANCELLED, hold.getStatus());
+        assertEquals(List.of(), registry.getHolds("FAN_1"));
+    }
+
+    // the holder got the copy, a cancel that came in meanwhile is too late
+    @Test
+    void cancelDuringAClaimThatIsFulfilled() throws Exception {
+        Hold hold = registry.place("STU_001", "FAN_1", LibraryService.PeriodUnit.DAYS, 7, TODAY);
+        AtomicReference<CompletableFuture<Boolean>> cancelled = new AtomicReference<>();
+
+        Hold chosen = registry.next("FAN_1", TODAY, claimed -> {
+            cancelled.set(CompletableFuture.supplyAsync(() -> registry.cancel(claimed)));
+            return true;
+        });
+        sleep();
+        assertFalse(cancelled.get().isDone());
+        chosen.fulfilled(null);
+
+        assertSame(hold, chosen);
+        assertFalse(cancelled.get().get(10, TimeUnit.SECONDS));
+        assertEquals(Hold.Status.FULFILLED, hold.getStatus());
+    }
+
+    // a check that throws leaves the hold waiting in its old place
+    @Test
+    void failedCheckReleasesTheClaim() {
+        Hold first = registry.place("STU_001", "FAN_1", LibraryService.PeriodUnit.DAYS, 7, TODAY);
+        Hold second = registry.place("STU_002", "FAN_1", LibraryService.PeriodUnit.DAYS, 7, TODAY);
+
+        assertThrows(IllegalStateException.class, () -> registry.next("FAN_1", TODAY, claimed -> {
+            if (claimed == second) {
+                throw new IllegalStateException("member lookup failed");
+            }
+            return false;
+        }));
+
+        assertEquals(List.of(first, second), registry.getHolds("FAN_1"));
+        assertTrue(registry.cancel(second));
+    }
+
+    private static void sleep() {
+        try {
+            Thread.sleep(100);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
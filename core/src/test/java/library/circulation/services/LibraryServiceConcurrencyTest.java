@@ -0,0 +1,195 @@
+package library.circulation.services;
+
+import library.circulation.models.Book;
+import library.circulation.models.Member;
+import library.circulation.models.Transaction;
+import library.circulation.repository.CatalogRepository;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// desks borrowing, returning and removing the same few copies at once, all through LibraryService. Afterwards the
+// books, the members' slots, the open loans and the archive have to tell the same story
+class LibraryServiceConcurrencyTest {
+
+    private static final int DESKS = 8;
+    private static final int ROUNDS = 4_000;
+    private static final int BOOKS = 40;
+    private static final int MEMBERS = 12;
+
+    @BeforeAll
+    static void cheapPasswords() {
+        Member.setPasswordWorkFactor(4);
+    }
+
+    @Test
+    void borrowReturnAndRemoveKeepBooksMembersAndLoansInStep() throws Exception {
+        LibraryService service = new LibraryService();
+        List<Book> books = new ArrayList<>();
+        for (int i = 0; i < BOOKS; i++) {
+            Book book = new Book("Title " + i, "Author " + (i % 7), "Fantasy", "G");
+            service.addBook(book);
+            books.add(book);
+        }
+        List<Member> members = new ArrayList<>();
+        for (int i = 0; i < MEMBERS; i++) {
+            Member member = new Member("Member " + i, 25, i % 3 == 0 ? "Teacher" : "Student", "member" + i + "@gmail.com",
+                    "Secret@1", "9876543210");
+            service.addMember(member);
+            members.add(member);
+        }
+
+        AtomicInteger issued = new AtomicInteger();
+        AtomicInteger removed = new AtomicInteger();
+        run(DESKS, () -> {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            for (int round = 0; round < ROUNDS; round++) {
+                Book book = books.get(random.nextInt(BOOKS));
+                int action = random.nextInt(100);
+                if (action < 55) {
+                    Member member = members.get(random.nextInt(MEMBERS));
+                    try {
+                        service.borrowBook(book, member, LibraryService.PeriodUnit.DAYS, 7);
+                        issued.incrementAndGet();
+                    } catch (IllegalArgumentException | IllegalStateException e) {
+                        // limit reached, out on loan or removed, all fine here
+                    }
+                } else if (action < 99) {
+                    Transaction loan = book.getCurrentTransaction();
+                    if (loan != null) {
+                        service.process(new ReturnRequest(book.getBookID(), loan.getMemberID()));
+                    }
+                } else if (book.isPresent()) {
+                    try {
+                        service.removeBook(book);
+                        removed.incrementAndGet();
+                    } catch (IllegalStateException e) {
+                        // another desk removed it first
+                    }
+                }
+            }
+        });
+
+        CatalogRepository catalog = service.getCatalog();
+        int onLoan = 0;
+        for (Book book : books) {
+            Transaction loan = book.getCurrentTransaction();
+            if (loan == null) {
+                continue;
+            }
+            onLoan++;
+            assertTrue(book.isPresent(), book.getBookID() + " was removed but still has a loan");
+            assertFalse(book.getAvailable(), book.getBookID() + " has a loan but shows as available");
+            assertSame(loan, catalog.findOpenTransaction(loan.getTransactionID()), "loan of " + book.getBookID() + " is not open");
+            assertTrue(catalog.getMember(loan.getMemberID()).getBorrowedBooks().contains(book),
+                    "borrower of " + book.getBookID() + " doesn't have it");
+        }
+        for (Member member : members) {
+            List<Book> borrowed = member.getBorrowedBooks();
+            assertTrue(borrowed.size() <= member.getMaxBorrowLimit(), member.getMemberID() + " is over the limit");
+            assertEquals(borrowed.size(), new HashSet<>(borrowed).size(), member.getMemberID() + " holds a copy twice");
+            for (Book book : borrowed) {
+                Transaction loan = book.getCurrentTransaction();
+                assertNotNull(loan, member.getMemberID() + " holds " + book.getBookID() + " without a loan");
+                assertEquals(member.getMemberID(), loan.getMemberID(), book.getBookID() + " is on the wrong member");
+            }
+        }
+        assertEquals(onLoan, catalog.allOpenTransactions().size(), "open loans don't match the books on loan");
+        // every loan is either still open or archived, returned ones and the ones a removal closed
+        assertEquals(issued.get(), onLoan + service.getHistory().size());
+        assertTrue(removed.get() > 0 && issued.get() > onLoan, "the desks hardly raced");
+    }
+
+    @Test
+    void memberWithDuesIsNeverIssuedWhilePostingsRace() throws Exception {
+        LibraryService service = new LibraryService();
+        List<Book> books = new ArrayList<>();
+        for (int i = 0; i < BOOKS; i++) {
+            Book book = new Book("Title " + i, "Author", "Mystery", "G");
+            service.addBook(book);
+            books.add(book);
+        }
+        Member member = new Member("Debtor", 30, "Teacher", "debtor@gmail.com", "Secret@1", "9876543210");
+        service.addMember(member);
+        service.chargeDues(member, 1_000_000);
+
+        // fines and payments of 10 from half the desks, borrow attempts from the others. The balance never gets near 0
+        AtomicInteger issued = new AtomicInteger();
+        AtomicInteger task = new AtomicInteger();
+        run(DESKS, () -> {
+            boolean posting = task.getAndIncrement() % 2 == 0;
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            for (int round = 0; round < ROUNDS; round++) {
+                if (posting) {
+                    if (round % 2 == 0) {
+                        service.chargeDues(member, 10);
+                    } else {
+                        service.payDues(member, 10, null);
+                    }
+                } else {
+                    try {
+                        service.borrowBook(books.get(random.nextInt(BOOKS)), member, LibraryService.PeriodUnit.DAYS, 7);
+                        issued.incrementAndGet();
+                    } catch (IllegalArgumentException | IllegalStateException e) {
+                        // pending dues
+                    }
+                }
+            }
+        });
+
+        assertEquals(0, issued.get());
+        assertTrue(member.getBorrowedBooks().isEmpty());
+        assertEquals(1_000_000, member.getPendingDues());
+
+        // the statement adds up: every entry moves the balance by its amount, the last one is the balance
+        List<DuesLedger.Entry> entries = service.getDuesLedger().getEntries(member.getMemberID());
+        long balance = 0;
+        Set<Long> sequences = new HashSet<>();
+        for (DuesLedger.Entry entry : entries) {
+            balance += entry.getKind() == DuesLedger.Kind.FINE ? entry.getAmount() : -entry.getAmount();
+            assertEquals(balance, entry.getBalanceAfter(), "entry #" + entry.getSequence());
+            assertTrue(sequences.add(entry.getSequence()));
+        }
+        assertEquals(1 + DESKS / 2 * ROUNDS, entries.size());
+        assertEquals(member.getPendingDues(), balance);
+    }
+
+    // starts the desks together and rethrows the first failure
+    private static void run(int desks, Runnable desk) throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(desks);
+        try {
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < desks; i++) {
+                futures.add(pool.submit(() -> {
+                    start.await();
+                    desk.run();
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> future : futures) {
+                future.get(2, TimeUnit.MINUTES);
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,195 @@
+package library.circulation.services;
+
+import library.circulation.history.LoanHistory;
+import library.circulation.ids.IdGenerator;
+import library.circulation.journal.CirculationJournal;
+import library.circulation.journal.JournalEntry;
+import library.circulation.models.Book;
+import library.circulation.models.Member;
+import library.circulation.models.Transaction;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// a service written to a snapshot and a journal, then started again from them
+class LibraryServiceRestoreTest {
+
+    @TempDir
+    Path directory;
+
+    @BeforeAll
+    static void cheapPasswords() {
+        Member.setPasswordWorkFactor(4);
+    }
+
+    @Test
+    void newIdsComeAfterTheRestoredOnes() {
+        Path snapshot = directory.resolve("catalog.snapshot");
+        Path journalDirectory = directory.resolve("journal");
+        LocalDate today = LocalDate.now();
+        // far ahead of anything handed out so far, as if an earlier run had added that many books and loans
+        Book book = Book.restore("SCIFI_500000", "Dune", "Frank Herbert", "Science Fiction", "G", true);
+        Member member = new Member("Reader", 30, "Teacher", "reader@gmail.com", "Secret@1", "9876543210");
+        try (CirculationJournal journal = new CirculationJournal(journalDirectory)) {
+            LibraryService service = new LibraryService();
+            service.setJournal(journal);
+            service.addBook(book);
+            service.addMember(member);
+            service.writeSnapshot(snapshot).join();
+            journal.append(JournalEntry.issue(Transaction.restore("TR_900000", member.getMemberID(), book.getBookID(),
+                    today, today.plusDays(7))));
+        }
+
+        LibraryService restored = LibraryService.restore(snapshot, journalDirectory);
+
+        assertEquals("TR_900000", restored.getCatalog().getBook("SCIFI_500000").getCurrentTransaction().getTransactionID());
+        Transaction next = new Transaction(member.getMemberID(), book.getBookID(), today, today.plusDays(7));
+        assertTrue(IdGenerator.numberOf(next.getTransactionID()) > 900_000, next.getTransactionID());
+        Book added = new Book("Hyperion", "Dan Simmons", "Science Fiction", "G");
+        assertTrue(IdGenerator.numberOf(added.getBookID()) > 500_000, added.getBookID());
+    }
+
+    @Test
+    void historyComesBackFromTheSnapshotAndTheJournal() {
+        Path snapshot = directory.resolve("catalog.snapshot");
+        Path journalDirectory = directory.resolve("journal");
+        Member member = new Member("Reader", 30, "Student", "history@gmail.com", "Secret@1", "9876543210");
+        Book before = new Book("Emma", "Jane Austen", "Romance", "G");
+        Book after = new Book("Persuasion", "Jane Austen", "Romance", "G");
+        Book removed = new Book("Sanditon", "Jane Austen", "Romance", "G");
+        try (CirculationJournal journal = new CirculationJournal(journalDirectory)) {
+            LibraryService service = new LibraryService();
+            service.setJournal(journal);
+            service.addMember(member);
+            service.addBook(before);
+            service.addBook(after);
+            service.addBook(removed);
+
+            service.borrowBook(before, member, LibraryService.PeriodUnit.DAYS, 7);
+            service.process(new ReturnRequest(before.getBookID(), member.getMemberID()));
+            service.writeSnapshot(snapshot).join();
+            // after the snapshot, only in the journal
+            service.borrowBook(after, member, LibraryService.PeriodUnit.WEEKS, 2);
+            service.process(new ReturnRequest(after.getBookID(), member.getMemberID()));
+            service.borrowBook(removed, member, LibraryService.PeriodUnit.DAYS, 7);
+            service.removeBook(removed);
+            assertEquals(3, service.getHistory().size());
+        }
+
+        LibraryService restored = LibraryService.restore(snapshot, journalDirectory);
+
+        LoanHistory history = restored.getHistory();
+        assertEquals(3, history.size());
+        assertEquals(3, history.query().member(member.getMemberID()).count());
+        List<String> books = new ArrayList<>();
+        history.query().forEach(row -> books.add(row.getBookID()));
+        assertEquals(List.of(before.getBookID(), after.getBookID(), removed.getBookID()), books);
+        history.query().book(after.getBookID()).forEach(row -> {
+            assertEquals(LocalDate.now().plusWeeks(2), row.getDueDate());
+            assertEquals(LocalDate.now(), row.getReturnDate());
+        });
+        assertTrue(restored.getCatalog().allOpenTransactions().isEmpty());
+    }
+
+    // no snapshot at all, everything comes from the journal
+    @Test
+    void booksAndMembersAddedSinceTheSnapshotComeBackWithTheirLoans() {
+        Path journalDirectory = directory.resolve("journal");
+        Member member = new Member("Reader", 30, "Student", "added@gmail.com", "Secret@1", null);
+        Book book = new Book("Middlemarch", "George Eliot", "Romance", "G");
+        Book imported = new Book("Adam Bede", "George Eliot", "Romance", "G");
+        try (CirculationJournal journal = new CirculationJournal(journalDirectory)) {
+            LibraryService service = new LibraryService();
+            service.setJournal(journal);
+            service.addMember(member);
+            service.addBook(book);
+            assertEquals(List.of(book), service.addBooks(List.of(imported, book)));
+            service.borrowBook(book, member, LibraryService.PeriodUnit.DAYS, 7);
+        }
+
+        LibraryService restored = LibraryService.restore(directory.resolve("missing.snapshot"), journalDirectory);
+
+        Member restoredMember = restored.getCatalog().getMember(member.getMemberID());
+        assertEquals(member.getHashedPassword(), restoredMember.getHashedPassword());
+        assertEquals(member.getJoinDate(), restoredMember.getJoinDate());
+        assertEquals(3, restoredMember.getMaxBorrowLimit());
+        assertEquals(List.of(book.getBookID()), restoredMember.getBorrowedBooks().stream().map(Book::getBookID).toList());
+        assertEquals("Adam Bede", restored.getCatalog().getBook(imported.getBookID()).getTitle());
+        assertEquals(2, restored.getCatalog().bookCount());
+        assertEquals(List.of(imported.getBookID()),
+                restored.searchBook("adam", 10).stream().map(Book::getBookID).toList());
+    }
+
+    // the journal before a snapshot can be deleted, a payment posted back then must still be refused a second time
+    @Test
+    void paymentReferencesAndDuesComeBackFromTheSnapshotAndTheJournal() {
+        Path snapshot = directory.resolve("catalog.snapshot");
+        Path journalDirectory = directory.resolve("journal");
+        Member member = new Member("Reader", 30, "Student", "dues@gmail.com", "Secret@1", "9876543210");
+        try (CirculationJournal journal = new CirculationJournal(journalDirectory)) {
+            LibraryService service = new LibraryService();
+            service.setJournal(journal);
+            service.addMember(member);
+            service.chargeDues(member, 100);
+            service.payDues(member, 30, "RCPT-1");
+            service.writeSnapshot(snapshot).join();
+            // after the snapshot, only in the journal
+            service.chargeDues(member, 50);
+            service.mirrorDues(member, 110);
+        }
+
+        LibraryService fromSnapshot = LibraryService.restore(snapshot, null);
+        assertEquals(70, fromSnapshot.getCatalog().getMember(member.getMemberID()).getPendingDues());
+        assertTrue(fromSnapshot.getDuesLedger().isPosted("RCPT-1"));
+
+        LibraryService restored = LibraryService.restore(snapshot, journalDirectory);
+        Member restoredMember = restored.getCatalog().getMember(member.getMemberID());
+        assertEquals(110, restoredMember.getPendingDues());
+        assertThrows(IllegalStateException.class, () -> restored.payDues(restoredMember, 10, "RCPT-1"));
+        assertEquals(110, restoredMember.getPendingDues());
+    }
+
+    @Test
+    void aChangeThatCannotBeJournaledIsNotMade() {
+        Member member = new Member("Reader", 30, "Teacher", "unjournaled@gmail.com", "Secret@1", "9876543210");
+        Book lent = new Book("Middlemarch", "George Eliot", "Romance", "G");
+        Book shelved = new Book("Silas Marner", "George Eliot", "Romance", "G");
+        LibraryService service = new LibraryService();
+        CirculationJournal journal = new CirculationJournal(directory.resolve("journal"));
+        service.setJournal(journal);
+        service.addMember(member);
+        service.addBook(lent);
+        service.addBook(shelved);
+        Transaction loan = service.borrowBook(lent, member, LibraryService.PeriodUnit.DAYS, 7);
+        journal.close(); // every append fails from here on
+
+        assertThrows(IllegalStateException.class, () -> service.borrowBook(shelved, member, LibraryService.PeriodUnit.DAYS, 7));
+        assertTrue(shelved.getAvailable());
+        assertEquals(1, member.getBorrowedBooks().size());
+        assertEquals(1, service.getCatalog().findOpenTransactionsByMember(member.getMemberID()).size());
+
+        assertThrows(IllegalStateException.class, () -> service.returnBook(lent, member));
+        assertEquals(loan, lent.getCurrentTransaction());
+        assertEquals(null, loan.getReturnDate());
+
+        assertThrows(IllegalStateException.class, () -> service.renewBook(lent, member, LibraryService.PeriodUnit.DAYS, 3));
+        assertEquals(0, loan.getRenewalCount());
+
+        assertThrows(IllegalStateException.class, () -> service.chargeDues(member, 50));
+        assertEquals(0, member.getPendingDues());
+        assertTrue(service.getDuesLedger().getEntries(member.getMemberID()).isEmpty());
+
+        assertThrows(IllegalStateException.class, () -> service.removeBook(shelved));
+        assertTrue(shelved.isPresent());
+        assertEquals(0, service.getHistory().size());
+    }
+}
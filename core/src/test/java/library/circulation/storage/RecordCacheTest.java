@@ -0,0 +1,199 @@
+package library.circulation.storage;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RecordCacheTest {
+
+    // long enough that only the test flushes
+    private static final long NEVER = TimeUnit.HOURS.toMillis(1);
+
+    private final MapStore store = new MapStore();
+
+    @Test
+    void aScanDoesNotPushOutThePopularRecords() {
+        for (int i = 0; i < 10_000; i++) {
+            store.records.put("FAN_" + i, "Title " + i);
+        }
+        for (int round = 0; round < 20; round++) {
+            store.records.put("NEW_" + round, "New arrival " + round);
+        }
+        try (RecordCache<String> cache = new RecordCache<>(store, 100, NEVER)) {
+            for (int round = 0; round < 20; round++) {
+                for (int i = 0; i < 50; i++) {
+                    cache.load("FAN_" + i);
+                }
+                // takes the window's only place, so the last popular one gets its next hit on probation too
+                cache.load("NEW_" + round);
+            }
+            long loadsBeforeScan = cache.getStoreLoads();
+
+            for (int i = 50; i < 10_000; i++) {
+                assertEquals("Title " + i, cache.load("FAN_" + i));
+            }
+
+            assertTrue(cache.getCachedRecords() <= 100);
+            assertTrue(cache.getEvictions() >= 10_000 - 100);
+            long loadsAfterScan = cache.getStoreLoads();
+            for (int i = 0; i < 50; i++) {
+                cache.load("FAN_" + i);
+            }
+            // the popular fifty are all still cached
+            assertEquals(loadsAfterScan, cache.getStoreLoads());
+            assertEquals(loadsBeforeScan + 10_000 - 50, loadsAfterScan);
+        }
+    }
+
+    @Test
+    void writesReachTheStoreOnlyOnFlushAndOnlyTheNewest() {
+        try (RecordCache<String> cache = new RecordCache<>(store, 100, NEVER)) {
+            cache.store("FAN_1", "first");
+            cache.store("FAN_1", "second");
+            cache.store("FAN_2", "kept");
+            assertEquals("second", cache.load("FAN_1"));
+            assertEquals(0, store.records.size());
+            assertEquals(2, cache.getPendingWrites());
+
+            cache.flush();
+
+            assertEquals(Map.of("FAN_1", "second", "FAN_2", "kept"), store.records);
+            assertEquals(List.of("FAN_1=second", "FAN_2=kept"), store.sortedLog());
+            assertEquals(0, cache.getPendingWrites());
+
+            cache.store("FAN_2", "changed");
+            cache.delete("FAN_2");
+            cache.store("FAN_1", "third");
+        }
+        // close flushed the rest
+        assertEquals(Map.of("FAN_1", "third"), store.records);
+        assertTrue(store.closed);
+    }
+
+    @Test
+    void aQueuedDeleteHidesTheStoredRecord() {
+        store.records.put("FAN_1", "in the store");
+        try (RecordCache<String> cache = new RecordCache<>(store, 100, NEVER)) {
+            assertEquals("in the store", cache.load("FAN_1"));
+
+            cache.delete("FAN_1");
+
+            // not flushed yet, the store still has it, but the cache must not load it back
+            assertEquals("in the store", store.records.get("FAN_1"));
+            assertNull(cache.load("FAN_1"));
+            cache.flush();
+            assertNull(store.records.get("FAN_1"));
+            assertNull(cache.load("FAN_1"));
+
+            cache.delete("FAN_1");
+            cache.store("FAN_1", "back again");
+            cache.flush();
+            assertEquals("back again", store.records.get("FAN_1"));
+        }
+    }
+
+    @Test
+    void anEvictedQueuedWriteIsStillRead() {
+        try (RecordCache<String> cache = new RecordCache<>(store, 10, NEVER)) {
+            for (int i = 0; i < 1000; i++) {
+                store.records.put("FAN_" + i, "old " + i);
+            }
+            for (int i = 0; i < 1000; i++) {
+                cache.store("FAN_" + i, "new " + i);
+            }
+            assertTrue(cache.getCachedRecords() <= 10);
+
+            for (int i = 0; i < 1000; i++) {
+                assertEquals("new " + i, cache.load("FAN_" + i));
+            }
+            assertEquals(0, cache.getStoreLoads());
+        }
+    }
+
+    @Test
+    void theLastWriteOfEveryRecordWinsAgainstTheFlusher() throws Exception {
+        int writers = 4;
+        int versions = 5_000;
+        ExecutorService pool = Executors.newFixedThreadPool(writers);
+        try (RecordCache<String> cache = new RecordCache<>(store, 50, 1)) {
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<?>> futures = new ArrayList<>();
+            for (int w = 0; w < writers; w++) {
+                int writer = w;
+                futures.add(pool.submit(() -> {
+                    start.await();
+                    // every writer owns ten records and writes them in turns, so the newest version of each is known
+                    for (int version = 0; version < versions; version++) {
+                        cache.store("W" + writer + "_" + version % 10, Integer.toString(version));
+                    }
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> future : futures) {
+                future.get(2, TimeUnit.MINUTES);
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+
+        assertEquals(writers * 10, store.records.size());
+        for (int w = 0; w < writers; w++) {
+            for (int record = 0; record < 10; record++) {
+                assertEquals(Integer.toString(versions - 10 + record), store.records.get("W" + w + "_" + record));
+            }
+        }
+    }
+
+    // a store in memory that remembers what it was asked to write
+    private static final class MapStore implements RecordStore<String> {
+        final Map<String, String> records = new ConcurrentHashMap<>();
+        final List<String> log = new ArrayList<>();
+        volatile boolean closed;
+
+        @Override
+        public String load(String id) {
+            return records.get(id);
+        }
+
+        @Override
+        public synchronized void store(String id, String record) {
+            records.put(id, record);
+            log.add(id + "=" + record);
+        }
+
+        @Override
+        public synchronized void delete(String id) {
+            records.remove(id);
+            log.add(id + " deleted");
+        }
+
+        @Override
+        public int size() {
+            return records.size();
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+
+        synchronized List<String> sortedLog() {
+            List<String> sorted = new ArrayList<>(log);
+            sorted.sort(null);
+            return sorted;
+        }
+    }
+}
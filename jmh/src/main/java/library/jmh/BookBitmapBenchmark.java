@@ -0,0 +1,85 @@
+package library.jmh;
+
+import library.circulation.bitmap.BookBitmapIndex;
+import library.circulation.models.Book;
+import library.circulation.models.Transaction;
+import library.circulation.repository.CatalogRepository;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// "available fantasy a 12 year old may borrow" over a catalog of a few million copies: the bitmap query against
+// the scan over every Book it replaces. A third of the copies are out on loan and a few are removed
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Benchmark)
+public class BookBitmapBenchmark {
+
+    private static final String[] GENRES = {"Fantasy", "Mystery", "History", "Romance", "Science Fiction"};
+    private static final String[] RATINGS = {"G", "PG-13", "R"};
+
+    @Param({"1000000", "4000000"})
+    int books;
+
+    CatalogRepository catalog;
+    BookBitmapIndex index;
+    List<Book> all;
+
+    @Setup
+    public void setUp() {
+        catalog = new CatalogRepository();
+        all = new ArrayList<>(books);
+        Random random = new Random(42);
+        LocalDate today = LocalDate.now();
+        for (int i = 0; i < books; i++) {
+            Book book = Book.restore("BK_" + i, "Title " + i, "Author", GENRES[random.nextInt(GENRES.length)],
+                    RATINGS[random.nextInt(RATINGS.length)], random.nextInt(50) != 0);
+            catalog.addBook(book);
+            if (book.isPresent() && random.nextInt(3) == 0) {
+                book.markAsBorrowed(new Transaction("MEM_1", book.getBookID(), today, today.plusDays(14)));
+                catalog.refreshAvailability(book);
+            }
+            all.add(book);
+        }
+        index = catalog.getBitmapIndex();
+    }
+
+    @Benchmark
+    public int countBitmap() {
+        return index.query().genre("Fantasy").available().eligibleFor(12).count();
+    }
+
+    @Benchmark
+    public int countScan() {
+        int count = 0;
+        for (Book book : all) {
+            if (book.getGenre().equalsIgnoreCase("Fantasy") && book.isPresent() && book.getAvailable()
+                    && !book.getContentRating().equalsIgnoreCase("PG-13") && !book.getContentRating().equalsIgnoreCase("R")) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @Benchmark
+    public List<Book> firstPageBitmap() {
+        return index.query().genre("Fantasy", "Mystery").contentRating("G").available().books(20);
+    }
+}
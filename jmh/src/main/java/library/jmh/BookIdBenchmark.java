@@ -0,0 +1,42 @@
+package library.jmh;
+
+import library.circulation.models.Book;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+// new Book(...) is mostly id generation: the genre code (generateUniqueCode) and the next number of the BOOK sequence.
+// the parallel variant shows what several desks adding books at once cost on the shared sequence
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class BookIdBenchmark {
+
+    @Param({"Fantasy", "Science Fiction Fantasy"})
+    String genre;
+
+    @Benchmark
+    @Threads(1)
+    public Book newBook() {
+        return new Book("The Hobbit", "J.R.R. Tolkien", genre, "G");
+    }
+
+    @Benchmark
+    @Threads(4)
+    public Book newBookParallel() {
+        return new Book("The Hobbit", "J.R.R. Tolkien", genre, "G");
+    }
+}
@@ -0,0 +1,140 @@
+package library.jmh;
+
+import library.circulation.models.Book;
+import library.circulation.models.Member;
+import library.circulation.models.Transaction;
+import library.circulation.services.LibraryService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.LocalDate;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Many threads hammer a few "hot" copies straight on the Book: tryMarkAsBorrowed, renew half of the loans, return
+// one day late. After every iteration the fines of all workers go through LibraryService.chargeDues at about the
+// same time, then the iteration fails if a copy was ever on loan twice or the member's dues lost a fine.
+// Once all workers stopped, removing a copy must always win. Raise the contention with -t, e.g. -t 64
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(16)
+@State(Scope.Benchmark)
+public class BookStateStressBenchmark {
+
+    @Param({"1", "4"})
+    int books;
+
+    LibraryService service;
+    Member member;
+    Book[] hotBooks;
+    // loans on each copy right now, as the workers see them
+    AtomicInteger[] holders;
+    final AtomicLong violations = new AtomicLong();
+    final AtomicLong finesPosted = new AtomicLong();
+    final Queue<Worker> workers = new ConcurrentLinkedQueue<>();
+
+    @Setup
+    public void setUp() {
+        service = new LibraryService();
+        member = Member.withHashedPassword("Stress Test", 30, "teacher", "stress.test@gmail.com",
+                Member.hashPassword("Stress@123", 4), "9999999999");
+        service.addMember(member);
+        hotBooks = new Book[books];
+        holders = new AtomicInteger[books];
+        for (int i = 0; i < books; i++) {
+            hotBooks[i] = new Book("Hot Title " + i, "Author " + i, "Fantasy", "G");
+            service.addBook(hotBooks[i]);
+            holders[i] = new AtomicInteger();
+        }
+    }
+
+    // through the ledger like returnBook does, but once per worker and iteration: an entry per loan would make
+    // this a ledger benchmark. The workers' fines are posted side by side, so dues still race
+    @TearDown(Level.Iteration)
+    public void checkIteration() {
+        workers.parallelStream().forEach(worker -> {
+            if (worker.owed > 0) {
+                service.chargeDues(member, worker.owed);
+                worker.owed = 0;
+            }
+        });
+        if (member.getPendingDues() != finesPosted.get()) {
+            throw new IllegalStateException("A fine got lost: dues " + member.getPendingDues() + ", fined " + finesPosted.get());
+        }
+        if (violations.get() > 0) {
+            throw new IllegalStateException(violations.get() + " copies were on loan twice at the same time");
+        }
+    }
+
+    @TearDown
+    public void removeBooks() {
+        for (Book book : hotBooks) {
+            book.removeBook();
+            if (book.isPresent() || book.getAvailable()) {
+                throw new IllegalStateException("Removing " + book.getBookID() + " lost against nobody");
+            }
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Worker {
+        // fined since the last iteration, not posted yet
+        long owed;
+
+        @Setup
+        public void setUp(BookStateStressBenchmark benchmark) {
+            benchmark.workers.add(this);
+        }
+    }
+
+    // one loan of a random hot copy, false if another worker had it
+    @Benchmark
+    public boolean borrowRenewReturn(Worker worker) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int index = random.nextInt(books);
+        Book book = hotBooks[index];
+        LocalDate today = LocalDate.now();
+        Transaction transaction = new Transaction(member.getMemberID(), book.getBookID(), today.minusDays(10), today.minusDays(1));
+
+        if (!book.tryMarkAsBorrowed(transaction)) {
+            return false;
+        }
+        if (holders[index].incrementAndGet() != 1) {
+            violations.incrementAndGet();
+        }
+
+        if (random.nextBoolean()) {
+            transaction.extendDueDate(1 + random.nextInt(14));
+        }
+
+        // every loan is one day overdue unless renewed
+        transaction.setReturnDate(today);
+        transaction.calculateFine();
+        long fine = transaction.getFine();
+        worker.owed += fine;
+        finesPosted.addAndGet(fine);
+
+        holders[index].decrementAndGet();
+        book.markAsReturned(transaction);
+        return true;
+    }
+}
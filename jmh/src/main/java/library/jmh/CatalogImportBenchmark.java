@@ -0,0 +1,90 @@
+package library.jmh;
+
+import library.circulation.services.CatalogImporter;
+import library.circulation.services.LibraryService;
+import library.models.Admin;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// An acquisition feed (about 1 in 1000 rows broken on purpose, a tenth of the csv titles quoted) loaded through
+// Admin.importCatalog into an empty library. One import per iteration, the library is new every time
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Benchmark)
+public class CatalogImportBenchmark {
+
+    private static final String[] WORDS = {"river", "shadow", "garden", "winter", "empire", "glass", "ocean", "stone", "silver", "forest"};
+    private static final String[] GENRES = {"Fantasy", "Science Fiction", "Mystery", "History", "Romance", "Young Adult Fiction"};
+    private static final String[] RATINGS = {"G", "PG-13", "R"};
+
+    @Param({"200000", "2000000"})
+    int books;
+
+    @Param({"csv", "tsv"})
+    String format;
+
+    Path feed;
+    Admin admin;
+
+    @Setup
+    public void writeFeed() throws IOException {
+        String delimiter = format.equals("tsv") ? "\t" : ",";
+        feed = Files.createTempFile("acquisitions", "." + format);
+        Random random = new Random(7);
+        try (BufferedWriter writer = Files.newBufferedWriter(feed, StandardCharsets.UTF_8)) {
+            writer.write(String.join(delimiter, "title", "author", "genre", "contentRating"));
+            writer.newLine();
+            for (int i = 0; i < books; i++) {
+                String title = WORDS[random.nextInt(WORDS.length)] + " " + WORDS[random.nextInt(WORDS.length)] + " " + i;
+                String author = "Author " + random.nextInt(50_000);
+                String rating = i % 1000 == 999 ? "NC-17" : RATINGS[random.nextInt(RATINGS.length)];
+                if (delimiter.equals(",") && i % 10 == 0) {
+                    title = "\"" + title + ", Vol. " + (i % 7) + "\"";
+                }
+                writer.write(String.join(delimiter, title, author, GENRES[random.nextInt(GENRES.length)], rating));
+                writer.newLine();
+            }
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void emptyLibrary() {
+        admin = new Admin(new LibraryService());
+    }
+
+    @TearDown
+    public void deleteFeed() throws IOException {
+        Files.deleteIfExists(feed);
+    }
+
+    @Benchmark
+    public CatalogImporter.ImportReport importFeed() {
+        CatalogImporter.ImportReport report = admin.importCatalog(feed);
+        if (report.getImported() + report.getRejected() != books) {
+            throw new IllegalStateException("Rows went missing: " + report);
+        }
+        return report;
+    }
+}
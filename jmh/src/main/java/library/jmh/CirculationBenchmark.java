@@ -0,0 +1,127 @@
+package library.jmh;
+
+import library.circulation.models.Book;
+import library.circulation.models.Member;
+import library.circulation.services.BorrowRequest;
+import library.circulation.services.CirculationResult;
+import library.circulation.services.LibraryService;
+import library.circulation.services.ReturnRequest;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// borrow / renew / return through LibraryService, using the non-interactive paths (no Scanner, no console output).
+// every desk (thread) has its own member and its own shelf of books, except in the contended variant where
+// all desks fight over a few hot copies. The service is rebuilt every iteration so the loan history doesn't
+// keep growing across the run. metrics=false shows what the hot-path instrumentation costs
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CirculationBenchmark {
+
+    private static final int SHELF = 64;
+    private static final int HOT_BOOKS = 4;
+    private static final String HASHED_PASSWORD = Member.hashPassword("Bench@123", 4);
+
+    @Param({"true", "false"})
+    boolean metrics;
+
+    LibraryService service;
+    Book[] hotBooks;
+    final AtomicInteger desks = new AtomicInteger();
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        service = new LibraryService();
+        service.getMetrics().setEnabled(metrics);
+        hotBooks = new Book[HOT_BOOKS];
+        for (int i = 0; i < HOT_BOOKS; i++) {
+            hotBooks[i] = new Book("Hot Title " + i, "Author", "Fantasy", "G");
+            service.addBook(hotBooks[i]);
+        }
+        desks.set(0);
+    }
+
+    @State(Scope.Thread)
+    public static class Desk {
+        Member member;
+        Book[] shelf;
+        int next;
+
+        @Setup(Level.Iteration)
+        public void setUp(CirculationBenchmark benchmark) {
+            int desk = benchmark.desks.incrementAndGet();
+            member = Member.withHashedPassword("Desk " + desk, 30, "teacher", "desk" + desk + "@gmail.com", HASHED_PASSWORD, "9999999999");
+            benchmark.service.addMember(member);
+            shelf = new Book[SHELF];
+            for (int i = 0; i < SHELF; i++) {
+                shelf[i] = new Book("Title " + desk + "-" + i, "Author", "Science Fiction", "PG-13");
+                benchmark.service.addBook(shelf[i]);
+            }
+        }
+
+        Book nextBook() {
+            Book book = shelf[next];
+            next = (next + 1) % SHELF;
+            return book;
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public CirculationResult borrowReturn(Desk desk) {
+        return borrowAndReturn(desk);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public CirculationResult borrowReturnParallel(Desk desk) {
+        return borrowAndReturn(desk);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public CirculationResult borrowRenewReturn(Desk desk) {
+        Book book = desk.nextBook();
+        service.borrowBook(book, desk.member, LibraryService.PeriodUnit.DAYS, 7);
+        service.renewBook(book, desk.member, LibraryService.PeriodUnit.DAYS, 3);
+        return service.process(new ReturnRequest(book.getBookID(), desk.member.getMemberID()));
+    }
+
+    // four desks, four copies: most attempts lose the race for the copy and come back as a failed result
+    @Benchmark
+    @Threads(4)
+    public void borrowReturnContended(Desk desk, Blackhole blackhole) {
+        Book book = hotBooks[ThreadLocalRandom.current().nextInt(HOT_BOOKS)];
+        String memberID = desk.member.getMemberID();
+        CirculationResult borrowed = service.process(new BorrowRequest(book.getBookID(), memberID, LibraryService.PeriodUnit.DAYS, 7));
+        if (borrowed.isSuccess()) {
+            blackhole.consume(service.process(new ReturnRequest(book.getBookID(), memberID)));
+        }
+        blackhole.consume(borrowed);
+    }
+
+    private CirculationResult borrowAndReturn(Desk desk) {
+        Book book = desk.nextBook();
+        service.borrowBook(book, desk.member, LibraryService.PeriodUnit.DAYS, 7);
+        return service.process(new ReturnRequest(book.getBookID(), desk.member.getMemberID()));
+    }
+}
@@ -0,0 +1,77 @@
+package library.jmh;
+
+import library.circulation.models.Transaction;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.LocalDate;
+import java.util.concurrent.TimeUnit;
+
+// fine calculation on a loan returned 9 days late. Transaction is guarded by its own lock, the shared variant
+// has four threads calculating on the same loan to show what that lock costs under contention
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FineBenchmark {
+
+    @State(Scope.Thread)
+    public static class OwnLoan {
+        Transaction transaction;
+
+        @Setup
+        public void setUp() {
+            transaction = lateLoan();
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class SharedLoan {
+        Transaction transaction;
+
+        @Setup
+        public void setUp() {
+            transaction = lateLoan();
+        }
+    }
+
+    static Transaction lateLoan() {
+        LocalDate issueDate = LocalDate.of(2024, 1, 1);
+        Transaction transaction = Transaction.restore("TR_000001", "STU_001", "FAN_1001", issueDate, issueDate.plusDays(14));
+        transaction.setReturnDate(issueDate.plusDays(23));
+        return transaction;
+    }
+
+    @Benchmark
+    @Threads(1)
+    public long calculateFine(OwnLoan loan) {
+        loan.transaction.calculateFine();
+        return loan.transaction.getFine();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public long calculateFineShared(SharedLoan loan) {
+        loan.transaction.calculateFine();
+        return loan.transaction.getFine();
+    }
+
+    // the incremental path returnBook and the overdue run use. Resetting first makes every call charge all 9 days
+    @Benchmark
+    @Threads(1)
+    public long accrueFine(OwnLoan loan) {
+        Transaction transaction = loan.transaction;
+        transaction.restoreFines(null, 0);
+        return transaction.accrueFineUntil(transaction.getReturnDate());
+    }
+}
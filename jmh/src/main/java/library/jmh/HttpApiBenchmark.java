@@ -0,0 +1,226 @@
+package library.jmh;
+
+import library.circulation.http.LibraryHttpServer;
+import library.circulation.models.Book;
+import library.circulation.models.Member;
+import library.circulation.services.AuthenticationService;
+import library.circulation.services.LibraryService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// The HTTP api on loopback with a seeded catalog, every benchmark thread a kiosk with its own member, session token
+// and keep-alive connection. An operation sends "pipeline" requests before reading the answers, sample time gives
+// the latency percentiles of one such round trip. Raise the kiosk count with -t, e.g. -t 256
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(32)
+@State(Scope.Benchmark)
+public class HttpApiBenchmark {
+
+    private static final String[] WORDS = {"river", "shadow", "garden", "winter", "empire", "glass", "ocean", "stone", "silver", "forest"};
+    private static final String[] GENRES = {"Fantasy", "Science Fiction", "Mystery", "History", "Romance"};
+    private static final String PASSWORD = "Kiosk@123";
+    // cheap, every kiosk logs in during setup and BCrypt isn't what is measured here
+    private static final String HASHED_PASSWORD = Member.hashPassword(PASSWORD, 4);
+
+    @Param({"1", "8"})
+    int pipeline;
+
+    @Param({"20000"})
+    int books;
+
+    LibraryService service;
+    AuthenticationService auth;
+    LibraryHttpServer server;
+    String[] bookIDs;
+    final AtomicInteger kiosks = new AtomicInteger();
+
+    @Setup
+    public void setUp() {
+        service = new LibraryService();
+        bookIDs = new String[books];
+        for (int i = 0; i < books; i++) {
+            String title = WORDS[i % WORDS.length] + " " + WORDS[(i / WORDS.length) % WORDS.length] + " " + i;
+            Book book = new Book(title, "Author " + (i % 500), GENRES[i % GENRES.length], "G");
+            service.addBook(book);
+            bookIDs[i] = book.getBookID();
+        }
+        auth = new AuthenticationService(service.getCatalog());
+        server = new LibraryHttpServer(service, auth, new InetSocketAddress(InetAddress.getLoopbackAddress(), 0),
+                Runtime.getRuntime().availableProcessors() * 4);
+        server.start();
+    }
+
+    @TearDown
+    public void tearDown() {
+        server.close();
+        auth.close();
+    }
+
+    @State(Scope.Thread)
+    public static class Kiosk {
+        String memberID;
+        String token;
+        Socket socket;
+        InputStream in;
+        OutputStream out;
+        // the copy this kiosk's member has at the moment, null if none
+        String holding;
+
+        @Setup
+        public void setUp(HttpApiBenchmark benchmark) throws IOException {
+            int kiosk = benchmark.kiosks.incrementAndGet();
+            Member member = Member.withHashedPassword("Kiosk " + kiosk, 30, "teacher", "kiosk" + kiosk + "@gmail.com",
+                    HASHED_PASSWORD, "0000000000");
+            benchmark.service.addMember(member);
+            memberID = member.getMemberID();
+            token = benchmark.auth.login(memberID, PASSWORD);
+
+            socket = new Socket();
+            socket.setTcpNoDelay(true);
+            socket.connect(benchmark.server.getAddress(), 10_000);
+            in = new BufferedInputStream(socket.getInputStream());
+            out = new BufferedOutputStream(socket.getOutputStream());
+        }
+
+        @TearDown
+        public void tearDown() throws IOException {
+            socket.close();
+        }
+    }
+
+    @Benchmark
+    public int search(Kiosk kiosk) throws IOException {
+        for (int i = 0; i < pipeline; i++) {
+            kiosk.out.write(get("/books?q=" + WORDS[ThreadLocalRandom.current().nextInt(WORDS.length)] + "&limit=5", null));
+        }
+        return answers(kiosk);
+    }
+
+    @Benchmark
+    public int memberLookup(Kiosk kiosk) throws IOException {
+        for (int i = 0; i < pipeline; i++) {
+            kiosk.out.write(get("/members/" + kiosk.memberID, kiosk.token));
+        }
+        return answers(kiosk);
+    }
+
+    // borrows a random copy or returns the one it holds, taking turns. A copy that is out already is a 409,
+    // a normal answer under load
+    @Benchmark
+    public int borrowOrReturn(Kiosk kiosk, HttpApiBenchmark benchmark) throws IOException {
+        String[] sent = new String[pipeline];
+        String expected = kiosk.holding; // only a guess while the batch is out, the answers set it right
+        for (int i = 0; i < pipeline; i++) {
+            if (expected == null) {
+                expected = benchmark.bookIDs[ThreadLocalRandom.current().nextInt(benchmark.bookIDs.length)];
+                sent[i] = expected;
+                kiosk.out.write(post("/loans", kiosk.token, "{\"bookID\":\"" + expected + "\",\"unit\":\"DAYS\",\"duration\":7}"));
+            } else {
+                kiosk.out.write(post("/returns", kiosk.token, "{\"bookID\":\"" + expected + "\"}"));
+                expected = null;
+            }
+        }
+        kiosk.out.flush();
+        int conflicts = 0;
+        for (int i = 0; i < pipeline; i++) {
+            int status = readResponse(kiosk.in);
+            if (status < 300) {
+                kiosk.holding = sent[i]; // null after a return
+            } else if (status == 409) {
+                conflicts++;
+            } else {
+                throw new IllegalStateException("Unexpected status " + status);
+            }
+        }
+        return conflicts;
+    }
+
+    private int answers(Kiosk kiosk) throws IOException {
+        kiosk.out.flush();
+        int last = 0;
+        for (int i = 0; i < pipeline; i++) {
+            last = readResponse(kiosk.in);
+            if (last >= 300) {
+                throw new IllegalStateException("Unexpected status " + last);
+            }
+        }
+        return last;
+    }
+
+    private static byte[] get(String target, String token) {
+        String request = "GET " + target + " HTTP/1.1\r\nHost: library\r\n"
+                + (token == null ? "" : "Authorization: Bearer " + token + "\r\n") + "\r\n";
+        return request.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] post(String path, String token, String body) {
+        String request = "POST " + path + " HTTP/1.1\r\nHost: library\r\nAuthorization: Bearer " + token
+                + "\r\nContent-Type: application/json\r\nContent-Length: " + body.getBytes(StandardCharsets.UTF_8).length
+                + "\r\n\r\n" + body;
+        return request.getBytes(StandardCharsets.UTF_8);
+    }
+
+    // reads one response with a Content-Length body and returns its status
+    private static int readResponse(InputStream in) throws IOException {
+        String statusLine = readLine(in);
+        if (statusLine == null || statusLine.length() < 12) {
+            throw new UncheckedIOException(new IOException("Connection closed by the server"));
+        }
+        int status = Integer.parseInt(statusLine.substring(9, 12));
+        int length = 0;
+        String header;
+        while ((header = readLine(in)) != null && !header.isEmpty()) {
+            if (header.regionMatches(true, 0, "Content-Length:", 0, 15)) {
+                length = Integer.parseInt(header.substring(15).trim());
+            }
+        }
+        in.skipNBytes(length); // EOFException if the server hung up half way
+        return status;
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        StringBuilder line = new StringBuilder(64);
+        int c;
+        while ((c = in.read()) != -1) {
+            if (c == '\n') {
+                int end = line.length();
+                if (end > 0 && line.charAt(end - 1) == '\r') {
+                    line.setLength(end - 1);
+                }
+                return line.toString();
+            }
+            line.append((char) c);
+        }
+        return line.length() == 0 ? null : line.toString();
+    }
+}
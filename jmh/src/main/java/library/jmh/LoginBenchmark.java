@@ -0,0 +1,97 @@
+package library.jmh;
+
+import library.circulation.models.Member;
+import library.circulation.repository.CatalogRepository;
+import library.circulation.services.AuthenticationService;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+// Logins per second with and without the verified credential cache, at the default BCrypt work factor. Every kiosk
+// (thread) logs in with the right password, checks its token once and logs out. A login turned away because the
+// verifier queue is full counts as rejected, not as an operation
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(16)
+@State(Scope.Benchmark)
+public class LoginBenchmark {
+
+    private static final String PASSWORD = "Kiosk@123";
+
+    @Param({"false", "true"})
+    boolean cache;
+
+    @Param({"50"})
+    int members;
+
+    AuthenticationService auth;
+    String[] memberIDs;
+
+    @Setup
+    public void setUp() {
+        CatalogRepository catalog = new CatalogRepository();
+        memberIDs = new String[members];
+        String hashedPassword = Member.hashPassword(PASSWORD); // hashed once, BCrypt on every member would take a while
+        for (int i = 0; i < members; i++) {
+            Member member = Member.withHashedPassword("Member " + i, 20, "student", "member" + i + "@gmail.com", hashedPassword, "0000000000");
+            catalog.addMember(member);
+            memberIDs[i] = member.getMemberID();
+        }
+        int verifierThreads = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+        auth = new AuthenticationService(catalog, Clock.systemUTC(), Duration.ofMinutes(30), 100_000, verifierThreads, cache);
+    }
+
+    @TearDown
+    public void tearDown() {
+        auth.close();
+    }
+
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    public static class Kiosk {
+        public long rejected;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            rejected = 0;
+        }
+    }
+
+    @Benchmark
+    public Member login(Kiosk kiosk) {
+        String memberID = memberIDs[ThreadLocalRandom.current().nextInt(memberIDs.length)];
+        String token;
+        try {
+            token = auth.login(memberID, PASSWORD);
+        } catch (IllegalStateException e) {
+            kiosk.rejected++; // "busy"
+            return null;
+        }
+        Member member = auth.authenticate(token);
+        if (member == null) {
+            throw new IllegalStateException("A fresh token of " + memberID + " was not accepted");
+        }
+        auth.logout(token);
+        return member;
+    }
+}
@@ -0,0 +1,61 @@
+package library.jmh;
+
+import library.circulation.models.Member;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+// member sign up: email and password validation on their own, and the whole constructor including BCrypt.
+// workFactor 10 is what production uses, 4 shows how much of the constructor is BCrypt
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MemberBenchmark {
+
+    @Param({"4", "10"})
+    int workFactor;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Member.setPasswordWorkFactor(workFactor);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public String verifyEmail() {
+        return Member.verifyEmail("reader.one@gmail.com");
+    }
+
+    @Benchmark
+    @Threads(1)
+    public String verifyPassword() {
+        return Member.verifyPassword("Reader@123");
+    }
+
+    @Benchmark
+    @Threads(1)
+    public Member newMember() {
+        return new Member("Reader One", 21, "student", "reader.one@gmail.com", "Reader@123", "9999999999");
+    }
+
+    @Benchmark
+    @Threads(4)
+    public Member newMemberParallel() {
+        return new Member("Reader One", 21, "student", "reader.one@gmail.com", "Reader@123", "9999999999");
+    }
+}
@@ -0,0 +1,219 @@
+package library.jmh;
+
+import library.circulation.models.Book;
+import library.circulation.storage.FileRecordStore;
+import library.circulation.storage.RecordCache;
+import library.circulation.storage.RecordCodec;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// A catalog in a FileRecordStore read through a RecordCache holding "cachePercent" of it with a skewed (zipf) mix of
+// lookups, the way a few titles get most of the traffic, next to a plain LRU of the same size over the same store.
+// With scan=true every iteration starts right after a report job read the whole catalog once. The hits and misses
+// counters give the hit rate of the iteration. One thread, so the counters of the cache belong to the benchmark.
+// update times a write-behind store, the flush happens on the cache's own thread
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@Threads(1)
+@State(Scope.Benchmark)
+public class RecordCacheBenchmark {
+
+    private static final String[] GENRES = {"Fantasy", "Science Fiction", "Mystery", "History", "Romance"};
+    private static final String[] RATINGS = {"G", "PG-13", "R"};
+    private static final int LOOKUPS = 2_000_000;
+
+    @Param({"1000000"})
+    int books;
+
+    @Param({"2"})
+    int cachePercent;
+
+    @Param({"false", "true"})
+    boolean scan;
+
+    Path file;
+    FileRecordStore<Book> store;
+    RecordCache<Book> cache;
+    Lru lru;
+    String[] ids;
+    int[] workload;
+
+    @Setup
+    public void setUp() throws IOException {
+        file = Files.createTempFile("books", ".records");
+        ids = new String[books];
+        try (FileRecordStore<Book> writer = new FileRecordStore<>(file, RecordCodec.BOOK)) {
+            Random random = new Random(1);
+            Map<String, Book> batch = new HashMap<>();
+            for (int i = 0; i < books; i++) {
+                Book book = Book.restore(GENRES[i % GENRES.length].substring(0, 3).toUpperCase() + "_" + i, "Title " + i,
+                        "Author " + random.nextInt(50_000), GENRES[i % GENRES.length], RATINGS[random.nextInt(RATINGS.length)], true);
+                ids[i] = book.getBookID();
+                batch.put(book.getBookID(), book);
+                if (batch.size() == 10_000) {
+                    writer.storeAll(batch);
+                    batch.clear();
+                }
+            }
+            writer.storeAll(batch);
+        }
+
+        int cacheSize = Math.max(1, (int) ((long) books * cachePercent / 100));
+        store = new FileRecordStore<>(file, RecordCodec.BOOK);
+        cache = new RecordCache<>(store, cacheSize);
+        lru = new Lru(store, cacheSize);
+        workload = zipf(books, LOOKUPS, 0.9, new Random(2));
+    }
+
+    @Setup(Level.Iteration)
+    public void reportJob() {
+        if (scan) {
+            for (String id : ids) {
+                cache.load(id);
+                lru.load(id);
+            }
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        cache.close(); // closes the store too
+        Files.deleteIfExists(file);
+    }
+
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    public static class Lookups {
+        public long hits;
+        public long misses;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            hits = 0;
+            misses = 0;
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        int next;
+
+        int nextRecord(int[] workload) {
+            if (next == workload.length) {
+                next = 0;
+            }
+            return workload[next++];
+        }
+    }
+
+    @Benchmark
+    public Book lookup(Cursor cursor, Lookups lookups) {
+        long hits = cache.getHits();
+        Book book = cache.load(ids[cursor.nextRecord(workload)]);
+        if (cache.getHits() != hits) {
+            lookups.hits++;
+        } else {
+            lookups.misses++;
+        }
+        return book;
+    }
+
+    @Benchmark
+    public Book plainLru(Cursor cursor, Lookups lookups) {
+        long hits = lru.hits;
+        Book book = lru.load(ids[cursor.nextRecord(workload)]);
+        if (lru.hits != hits) {
+            lookups.hits++;
+        } else {
+            lookups.misses++;
+        }
+        return book;
+    }
+
+    // a new edition of a popular title, queued for the store
+    @Benchmark
+    public void update(Cursor cursor) {
+        Book book = cache.load(ids[cursor.nextRecord(workload)]);
+        cache.store(book.getBookID(), Book.restore(book.getBookID(), book.getTitle(), book.getAuthor() + " (2nd ed.)",
+                book.getGenre(), book.getContentRating(), true));
+    }
+
+    // "count" draws from 0..n-1 where rank k comes up proportional to 1 / (k+1)^skew, ranks scattered over the ids
+    private static int[] zipf(int n, int count, double skew, Random random) {
+        double[] cumulative = new double[n];
+        double sum = 0;
+        for (int k = 0; k < n; k++) {
+            sum += 1 / Math.pow(k + 1, skew);
+            cumulative[k] = sum;
+        }
+        int[] shuffled = new int[n];
+        for (int i = 0; i < n; i++) {
+            int j = random.nextInt(i + 1);
+            shuffled[i] = shuffled[j];
+            shuffled[j] = i;
+        }
+        int[] draws = new int[count];
+        for (int i = 0; i < count; i++) {
+            int rank = Arrays.binarySearch(cumulative, random.nextDouble() * sum);
+            draws[i] = shuffled[Math.min(n - 1, rank < 0 ? -rank - 1 : rank)];
+        }
+        return draws;
+    }
+
+    // what the cache is compared with: least recently used out, nothing else
+    static final class Lru extends LinkedHashMap<String, Book> {
+        private static final long serialVersionUID = 1L;
+
+        private final transient FileRecordStore<Book> store;
+        private final int capacity;
+        long hits;
+
+        Lru(FileRecordStore<Book> store, int capacity) {
+            super(capacity * 2, 0.75f, true);
+            this.store = store;
+            this.capacity = capacity;
+        }
+
+        Book load(String id) {
+            Book book = get(id);
+            if (book != null) {
+                hits++;
+                return book;
+            }
+            book = store.load(id);
+            put(id, book);
+            return book;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Book> eldest) {
+            return size() > capacity;
+        }
+    }
+}
@@ -1,5 +1,93 @@
  package library;
 
+import library.circulation.events.EventRing;
+import library.circulation.http.LibraryHttpServer;
+import library.circulation.ids.BlockIdAllocator;
+import library.circulation.ids.FileHighWaterMarkStore;
+import library.circulation.ids.IdGenerator;
+import library.circulation.journal.CirculationJournal;
+import library.circulation.recommendations.CoBorrowingRecommender;
+import library.circulation.services.AuthenticationService;
+import library.circulation.services.LibraryService;
+
+import java.net.InetSocketAddress;
+import java.nio.file.Path;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// starts the library with its HTTP/JSON api, see LibraryHttpServer for the endpoints.
+//
+// usage: java library.Main [port] [snapshot file] [journal directory] [id file]
+// the catalog is restored from the snapshot (library.snapshot by default) and the journal before the api opens.
+// With a journal directory every change is journaled from then on, and a snapshot is written every
+// SNAPSHOT_MINUTES and on shutdown; the journal segments it covers are deleted. Ids come from the id file
+// (library-ids.properties by default), so they stay unique across restarts. Overdue fines are charged right at
+// startup and then every night, see OverdueScheduler.start
 public class Main {
 
+    private static final System.Logger LOG = System.getLogger(Main.class.getName());
+    private static final long SNAPSHOT_MINUTES = 15;
+
+    public static void main(String[] args) throws InterruptedException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 8080;
+        Path snapshot = Path.of(args.length > 1 ? args[1] : "library.snapshot");
+        Path journalDirectory = args.length > 2 ? Path.of(args[2]) : null;
+        Path idFile = Path.of(args.length > 3 ? args[3] : "library-ids.properties");
+
+        // before the restore, which moves the sequences past the ids it loads
+        IdGenerator.install(new BlockIdAllocator(new FileHighWaterMarkStore(idFile), 100));
+        LibraryService service = LibraryService.restore(snapshot, journalDirectory);
+        // opened after the replay, the new entries go after the ones just read
+        CirculationJournal journal = journalDirectory == null ? null : new CirculationJournal(journalDirectory);
+        ScheduledExecutorService snapshots = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "snapshots");
+            thread.setDaemon(true);
+            return thread;
+        });
+        if (journal != null) {
+            service.setJournal(journal);
+            // without it every restart would replay the journal from the very first entry
+            snapshots.scheduleWithFixedDelay(() -> writeSnapshot(service, snapshot, journal),
+                    SNAPSHOT_MINUTES, SNAPSHOT_MINUTES, TimeUnit.MINUTES);
+        }
+
+        // "also borrowed" on the loan receipts, following new loans on the event ring. Side work only,
+        // so a full ring drops events instead of holding up the desks
+        CoBorrowingRecommender recommender = new CoBorrowingRecommender(service.getCatalog());
+        recommender.seed(service);
+        EventRing events = new EventRing(16 * 1024, EventRing.Overflow.DROP);
+        events.addConsumer("recommendations", recommender);
+        service.setEventRing(events);
+
+        AuthenticationService auth = new AuthenticationService(service.getCatalog());
+        LibraryHttpServer server = new LibraryHttpServer(service, auth, new InetSocketAddress(port),
+                Runtime.getRuntime().availableProcessors() * 4);
+        server.setRecommender(recommender);
+        server.start();
+        service.getOverdueScheduler().start();
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            server.close();
+            auth.close();
+            service.getOverdueScheduler().close();
+            events.close();
+            snapshots.shutdownNow();
+            if (journal != null) {
+                writeSnapshot(service, snapshot, journal); // the next start has nothing to replay
+                journal.close(); // the last entries are forced to disk
+            }
+        }));
+        System.out.println("Library api listening on " + server.getAddress());
+        Thread.currentThread().join(); // the server threads keep working, main just waits
+    }
+
+    // a failed snapshot keeps the journal segments, the next one tries again
+    private static void writeSnapshot(LibraryService service, Path snapshot, CirculationJournal journal) {
+        try {
+            long covered = service.writeSnapshot(snapshot).join();
+            journal.deleteSegmentsUpTo(covered);
+        } catch (RuntimeException e) {
+            LOG.log(System.Logger.Level.ERROR, "Snapshot to " + snapshot + " failed", e);
+        }
+    }
 }
@@ -0,0 +1,214 @@
+package library.circulation.analytics;
+
+import library.circulation.analytics.CirculationReport.Rate;
+import library.circulation.analytics.CirculationReport.TitleCount;
+import library.circulation.history.LoanHistory;
+import library.circulation.models.Book;
+import library.circulation.models.Member;
+import library.circulation.models.Transaction;
+import library.circulation.repository.CatalogRepository;
+import library.circulation.services.LibraryService;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+// Management reports over the loan history, the catalog and the members:
+//   - most borrowed titles per genre
+//   - overdue rate by content rating
+//   - average pending dues of students vs teachers
+//   - how often loans get renewed, overall and per genre
+//
+// Returned loans never change, so their counts are kept per book between runs and every run only scans the rows
+// archived since the previous one. Open loans and dues change all the time and are small, they are read fresh.
+// Everything runs on the analytics' own fork-join pool, never on the common pool processBatch uses,
+// and nothing here takes a lock the circulation paths need (LoanHistory is read without locks).
+public class CirculationAnalytics implements AutoCloseable {
+
+    private final CatalogRepository catalog;
+    private final LoanHistory history;
+    private final ForkJoinPool pool;
+    private final int topTitles;
+
+    // running totals per LoanHistory book key, filled up to processedRows
+    private int processedRows;
+    private AtomicIntegerArray loansByBook = new AtomicIntegerArray(0);
+    private AtomicIntegerArray lateByBook = new AtomicIntegerArray(0);
+    private AtomicIntegerArray renewedByBook = new AtomicIntegerArray(0);
+
+    public CirculationAnalytics(LibraryService service) {
+        this(service.getCatalog(), service.getHistory(), Math.max(1, Runtime.getRuntime().availableProcessors() / 2), 10);
+    }
+
+    public CirculationAnalytics(CatalogRepository catalog, LoanHistory history, int parallelism, int topTitles) {
+        if (parallelism <= 0 || topTitles <= 0) {
+            throw new IllegalArgumentException("parallelism and topTitles must be greater than 0.");
+        }
+        this.catalog = Objects.requireNonNull(catalog, "Catalog cannot be null.");
+        this.history = Objects.requireNonNull(history, "History cannot be null.");
+        this.pool = new ForkJoinPool(parallelism);
+        this.topTitles = topTitles;
+    }
+
+    // blocks until the report is ready
+    public CirculationReport refresh() {
+        return pool.submit(this::compute).join();
+    }
+
+    public CompletableFuture<CirculationReport> refreshAsync() {
+        return CompletableFuture.supplyAsync(this::compute, pool);
+    }
+
+    // runs on a pool thread, so the parallel streams inside use the pool too. One run at a time
+    private synchronized CirculationReport compute() {
+        Instant started = Instant.now();
+        long startNanos = System.nanoTime();
+
+        int from = processedRows;
+        int to = history.size();
+        ensureCapacity(history.distinctBooks()); // read after size, so it covers every key below "to"
+        addReturnedLoans(from, to);
+        processedRows = to;
+
+        Map<String, Map<String, TitleTotal>> titlesByGenre = new ConcurrentHashMap<>();
+        Map<String, RateTotal> overdueByRating = new ConcurrentHashMap<>();
+        Map<String, RateTotal> renewalsByGenre = new ConcurrentHashMap<>();
+        RateTotal renewals = new RateTotal();
+
+        IntStream.range(0, loansByBook.length()).parallel().forEach(key -> {
+            int loans = loansByBook.get(key);
+            Book book = loans == 0 ? null : catalog.findBook(history.bookID(key));
+            if (book == null) {
+                return;
+            }
+            int renewed = renewedByBook.get(key);
+            String genre = book.getGenre().toLowerCase();
+            titleTotal(titlesByGenre, book).borrows.add(loans);
+            overdueByRating.computeIfAbsent(book.getContentRating().toUpperCase(), rating -> new RateTotal()).add(lateByBook.get(key), loans);
+            renewalsByGenre.computeIfAbsent(genre, g -> new RateTotal()).add(renewed, loans);
+            renewals.add(renewed, loans);
+        });
+
+        // loans that are still out count as a borrow too
+        List<Transaction> open = List.copyOf(catalog.allOpenTransactions());
+        open.parallelStream().forEach(transaction -> {
+            Book book = catalog.findBook(transaction.getBorrowedBookID());
+            if (book != null) {
+                titleTotal(titlesByGenre, book).borrows.increment();
+            }
+        });
+
+        Map<String, List<TitleCount>> topTitlesByGenre = titlesByGenre.entrySet().parallelStream()
+                .collect(Collectors.toMap(Map.Entry::getKey, entry -> top(entry.getValue())));
+
+        Map<String, Double> averageDues = catalog.allMembers().parallelStream()
+                .collect(Collectors.groupingByConcurrent(member -> occupation(member.getMemberID()),
+                        Collectors.averagingLong(Member::getPendingDues)));
+
+        return new CirculationReport(started, Duration.ofNanos(System.nanoTime() - startNanos), to, to - from, open.size(),
+                topTitlesByGenre, toRates(overdueByRating), averageDues, renewals.toRate(), toRates(renewalsByGenre));
+    }
+
+    private void addReturnedLoans(int from, int to) {
+        if (from == to) {
+            return;
+        }
+        AtomicIntegerArray loans = loansByBook;
+        AtomicIntegerArray late = lateByBook;
+        AtomicIntegerArray renewed = renewedByBook;
+        // threads work on different chunks, they only meet on the counters of the same book
+        history.query().rows(from, to).forEachParallel(row -> {
+            int key = row.getBookKey();
+            loans.incrementAndGet(key);
+            if (row.isLate()) {
+                late.incrementAndGet(key);
+            }
+            if (row.getRenewalCount() > 0) {
+                renewed.incrementAndGet(key);
+            }
+        });
+    }
+
+    private void ensureCapacity(int books) {
+        if (books <= loansByBook.length()) {
+            return;
+        }
+        int capacity = Math.max(books, loansByBook.length() * 2);
+        loansByBook = grow(loansByBook, capacity);
+        lateByBook = grow(lateByBook, capacity);
+        renewedByBook = grow(renewedByBook, capacity);
+    }
+
+    private static AtomicIntegerArray grow(AtomicIntegerArray counts, int capacity) {
+        AtomicIntegerArray grown = new AtomicIntegerArray(capacity);
+        for (int i = 0; i < counts.length(); i++) {
+            grown.set(i, counts.get(i));
+        }
+        return grown;
+    }
+
+    // copies of the same title have their own book ids, they are counted as one title
+    private static TitleTotal titleTotal(Map<String, Map<String, TitleTotal>> titlesByGenre, Book book) {
+        String titleKey = book.getTitle().toLowerCase() + '\u0000' + book.getAuthor().toLowerCase();
+        return titlesByGenre.computeIfAbsent(book.getGenre().toLowerCase(), genre -> new ConcurrentHashMap<>())
+                .computeIfAbsent(titleKey, key -> new TitleTotal(book.getTitle(), book.getAuthor()));
+    }
+
+    private List<TitleCount> top(Map<String, TitleTotal> titles) {
+        return titles.values().stream()
+                .map(total -> new TitleCount(total.title, total.author, total.borrows.sum()))
+                .sorted(Comparator.comparingLong(TitleCount::getBorrows).reversed().thenComparing(TitleCount::getTitle))
+                .limit(topTitles)
+                .collect(Collectors.toUnmodifiableList());
+    }
+
+    private static Map<String, Rate> toRates(Map<String, RateTotal> totals) {
+        return totals.entrySet().stream().collect(Collectors.toMap(Map.Entry::getKey, entry -> entry.getValue().toRate()));
+    }
+
+    // "STU_0042" -> "STU"
+    private static String occupation(String memberID) {
+        int separator = memberID.indexOf('_');
+        return separator > 0 ? memberID.substring(0, separator) : "OTHER";
+    }
+
+    @Override
+    public void close() {
+        pool.shutdown();
+    }
+
+    private static final class TitleTotal {
+        final String title;
+        final String author;
+        final LongAdder borrows = new LongAdder();
+
+        TitleTotal(String title, String author) {
+            this.title = title;
+            this.author = author;
+        }
+    }
+
+    private static final class RateTotal {
+        final LongAdder count = new LongAdder();
+        final LongAdder total = new LongAdder();
+
+        void add(long count, long total) {
+            this.count.add(count);
+            this.total.add(total);
+        }
+
+        Rate toRate() {
+            return new Rate(count.sum(), total.sum());
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package library.circulation.analytics;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+
+// result of one CirculationAnalytics run, never changes after it is built
+public class CirculationReport {
+
+    private final Instant generatedAt;
+    private final Duration elapsed;
+    private final long returnedLoans;
+    private final long newReturnedLoans;
+    private final long openLoans;
+    private final Map<String, List<TitleCount>> topTitlesByGenre;
+    private final Map<String, Rate> overdueRateByRating;
+    private final Map<String, Double> averageDuesByOccupation;
+    private final Rate renewalRate;
+    private final Map<String, Rate> renewalRateByGenre;
+
+    CirculationReport(Instant generatedAt, Duration elapsed, long returnedLoans, long newReturnedLoans, long openLoans,
+                      Map<String, List<TitleCount>> topTitlesByGenre, Map<String, Rate> overdueRateByRating,
+                      Map<String, Double> averageDuesByOccupation, Rate renewalRate, Map<String, Rate> renewalRateByGenre) {
+        this.generatedAt = generatedAt;
+        this.elapsed = elapsed;
+        this.returnedLoans = returnedLoans;
+        this.newReturnedLoans = newReturnedLoans;
+        this.openLoans = openLoans;
+        this.topTitlesByGenre = Map.copyOf(topTitlesByGenre);
+        this.overdueRateByRating = Map.copyOf(overdueRateByRating);
+        this.averageDuesByOccupation = Map.copyOf(averageDuesByOccupation);
+        this.renewalRate = renewalRate;
+        this.renewalRateByGenre = Map.copyOf(renewalRateByGenre);
+    }
+
+    public Instant getGeneratedAt() { return generatedAt; }
+    public Duration getElapsed() { return elapsed; }
+    // every returned loan the report is based on, and how many of them were new since the previous run
+    public long getReturnedLoans() { return returnedLoans; }
+    public long getNewReturnedLoans() { return newReturnedLoans; }
+    public long getOpenLoans() { return openLoans; }
+
+    // genre (lowercase) -> most borrowed titles, most first. Copies of the same title count together
+    public Map<String, List<TitleCount>> getTopTitlesByGenre() { return topTitlesByGenre; }
+
+    public List<TitleCount> getTopTitles(String genre) {
+        return topTitlesByGenre.getOrDefault(genre.toLowerCase(), List.of());
+    }
+
+    // content rating (uppercase) -> returned loans that came back after their due date
+    public Map<String, Rate> getOverdueRateByRating() { return overdueRateByRating; }
+
+    // "STU" / "TCH" -> average pending dues of the members right now
+    public Map<String, Double> getAverageDuesByOccupation() { return averageDuesByOccupation; }
+
+    // returned loans that were renewed, overall and per genre
+    public Rate getRenewalRate() { return renewalRate; }
+    public Map<String, Rate> getRenewalRateByGenre() { return renewalRateByGenre; }
+
+    public static final class TitleCount {
+        private final String title;
+        private final String author;
+        private final long borrows;
+
+        TitleCount(String title, String author, long borrows) {
+            this.title = title;
+            this.author = author;
+            this.borrows = borrows;
+        }
+
+        public String getTitle() { return title; }
+        public String getAuthor() { return author; }
+        public long getBorrows() { return borrows; }
+
+        @Override
+        public String toString() {
+            return title + " by " + author + " (" + borrows + ")";
+        }
+    }
+
+    public static final class Rate {
+        private final long count;
+        private final long total;
+
+        Rate(long count, long total) {
+            this.count = count;
+            this.total = total;
+        }
+
+        public long getCount() { return count; }
+        public long getTotal() { return total; }
+        public double getRate() { return total == 0 ? 0 : (double) count / total; }
+
+        @Override
+        public String toString() {
+            return String.format("%.1f%% (%d/%d)", getRate() * 100, count, total);
+        }
+    }
+}
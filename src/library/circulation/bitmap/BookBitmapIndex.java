@@ -0,0 +1,252 @@
+package library.circulation.bitmap;
+
+import library.circulation.models.Book;
+import library.circulation.models.Member;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Bitmap indexes over every book in the catalog: one bitmap per genre and per content rating, one for the copies
+// still in the collection (present) and one for the copies on the shelf (available). Every book gets a dense int
+// ordinal when it is added, bit n of each bitmap is the book with ordinal n.
+//
+// Filters like "available PG-13 fantasy a 12 year old may borrow" become a few ANDs over compressed bitmaps instead of
+// a scan over every Book object, e.g.
+//
+//   index.query().genre("Fantasy").available().eligibleFor(member).count()
+//
+// genre and rating never change after a book is added. present / available have to be refreshed after every state
+// change of a book (borrow, return, hand over, remove), CatalogRepository.refreshAvailability does that.
+public class BookBitmapIndex {
+
+    // refreshes of books in the same stripe are serialized, see refresh
+    private static final int STRIPES = 64;
+
+    private final Map<String, Integer> ordinals = new ConcurrentHashMap<>();
+    // ordinal -> book. Replaced by a bigger copy when full, like the id dictionary of the loan archive
+    private volatile Book[] books = new Book[1024];
+    private int size; // guarded by "this"
+
+    private final Map<String, CompressedBitmap> byGenre = new ConcurrentHashMap<>();
+    private final Map<String, CompressedBitmap> byContentRating = new ConcurrentHashMap<>();
+    private final CompressedBitmap all = new CompressedBitmap();
+    private final CompressedBitmap present = new CompressedBitmap();
+    private final CompressedBitmap available = new CompressedBitmap();
+    private final Object[] stripes = new Object[STRIPES];
+
+    public BookBitmapIndex() {
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Object();
+        }
+    }
+
+    public void add(Book book) {
+        Objects.requireNonNull(book, "Book cannot be null.");
+
+        int ordinal = register(book);
+        if (ordinal < 0) {
+            return; // already indexed
+        }
+        byGenre.computeIfAbsent(key(book.getGenre()), k -> new CompressedBitmap()).add(ordinal);
+        byContentRating.computeIfAbsent(key(book.getContentRating()), k -> new CompressedBitmap()).add(ordinal);
+        all.add(ordinal);
+        refresh(book);
+    }
+
+    // a batch from a bulk import: one trip through the ordinal lock for all of them
+    public void addAll(List<Book> batch) {
+        Objects.requireNonNull(batch, "Books cannot be null.");
+
+        int[] assigned = register(batch);
+        for (int i = 0; i < assigned.length; i++) {
+            if (assigned[i] >= 0) {
+                Book book = batch.get(i);
+                byGenre.computeIfAbsent(key(book.getGenre()), k -> new CompressedBitmap()).add(assigned[i]);
+                byContentRating.computeIfAbsent(key(book.getContentRating()), k -> new CompressedBitmap()).add(assigned[i]);
+                all.add(assigned[i]);
+                refresh(book);
+            }
+        }
+    }
+
+    // brings present / available in line with the book's state right now.
+    // the state is read under the stripe lock: two refreshes of the same book can't cross, so the one that runs
+    // last (after the last state change) always leaves the right bits behind
+    public void refresh(Book book) {
+        Objects.requireNonNull(book, "Book cannot be null.");
+
+        Integer ordinal = ordinals.get(book.getBookID());
+        if (ordinal == null) {
+            return;
+        }
+        synchronized (stripes[ordinal & (STRIPES - 1)]) {
+            boolean isPresent = book.isPresent();
+            present.set(ordinal, isPresent);
+            available.set(ordinal, isPresent && Boolean.TRUE.equals(book.getAvailable()));
+        }
+    }
+
+    public int size() {
+        return ordinals.size();
+    }
+
+    public boolean isAvailable(Book book) {
+        Integer ordinal = ordinals.get(book.getBookID());
+        return ordinal != null && available.contains(ordinal);
+    }
+
+    // rough heap use of all bitmaps plus the ordinal table
+    public long estimatedBytes() {
+        long bytes = all.estimatedBytes() + present.estimatedBytes() + available.estimatedBytes() + (long) books.length * 4;
+        for (CompressedBitmap bitmap : byGenre.values()) {
+            bytes += bitmap.estimatedBytes();
+        }
+        for (CompressedBitmap bitmap : byContentRating.values()) {
+            bytes += bitmap.estimatedBytes();
+        }
+        return bytes + (long) ordinals.size() * (32 + 16);
+    }
+
+    public Query query() {
+        return new Query();
+    }
+
+    // the books behind the first "limit" ordinals of a query result, in the order they were added
+    public List<Book> books(CompressedBitmap matches, int limit) {
+        if (limit <= 0) {
+            throw new IllegalArgumentException("Limit must be greater than 0.");
+        }
+        int[] ordinalsFound = matches.toArray(limit);
+        Book[] current = books;
+        List<Book> result = new ArrayList<>(ordinalsFound.length);
+        for (int ordinal : ordinalsFound) {
+            result.add(current[ordinal]);
+        }
+        return result;
+    }
+
+    private synchronized int register(Book book) {
+        if (ordinals.containsKey(book.getBookID())) {
+            return -1;
+        }
+        Book[] current = books;
+        if (size == current.length) {
+            current = Arrays.copyOf(current, current.length * 2);
+            books = current;
+        }
+        int ordinal = size++;
+        // the slot is written before the ordinal shows up in any bitmap, so a query never meets an empty one
+        current[ordinal] = book;
+        ordinals.put(book.getBookID(), ordinal);
+        return ordinal;
+    }
+
+    // ordinals for the whole batch, -1 for books indexed already
+    private synchronized int[] register(List<Book> batch) {
+        int[] assigned = new int[batch.size()];
+        for (int i = 0; i < assigned.length; i++) {
+            assigned[i] = register(batch.get(i));
+        }
+        return assigned;
+    }
+
+    // keys are case-insensitive, same as the catalog's
+    private static String key(String value) {
+        return value == null ? "" : value.trim().toLowerCase(Locale.ROOT);
+    }
+
+    private static CompressedBitmap lookup(Map<String, CompressedBitmap> index, String value) {
+        CompressedBitmap bitmap = index.get(key(value));
+        return bitmap == null ? new CompressedBitmap() : bitmap;
+    }
+
+    // ---------- queries ----------
+
+    // filters are combined with AND, the values inside one genre(...) or contentRating(...) with OR.
+    // Without any filter a query matches every book, removed ones included
+    public final class Query {
+        private final List<CompressedBitmap> required = new ArrayList<>();
+        private final List<CompressedBitmap> excluded = new ArrayList<>();
+
+        private Query() {}
+
+        public Query genre(String... genres) {
+            required.add(anyOf(byGenre, genres));
+            return this;
+        }
+
+        public Query contentRating(String... contentRatings) {
+            required.add(anyOf(byContentRating, contentRatings));
+            return this;
+        }
+
+        // still in the collection, on loan or not
+        public Query present() {
+            required.add(present);
+            return this;
+        }
+
+        // on the shelf right now
+        public Query available() {
+            required.add(available);
+            return this;
+        }
+
+        // only books someone this old may borrow, the same rule as LibraryService.ageRestriction
+        public Query eligibleFor(int age) {
+            if (age < 13) {
+                excluded.add(lookup(byContentRating, "PG-13"));
+            }
+            if (age < 18) {
+                excluded.add(lookup(byContentRating, "R"));
+            }
+            return this;
+        }
+
+        public Query eligibleFor(Member member) {
+            Objects.requireNonNull(member, "Member cannot be null.");
+            return eligibleFor(member.getAge());
+        }
+
+        public CompressedBitmap bitmap() {
+            return CompressedBitmap.andAllNot(requiredBitmaps(), excluded.toArray(new CompressedBitmap[0]));
+        }
+
+        public int count() {
+            return CompressedBitmap.andAllNotCardinality(requiredBitmaps(), excluded.toArray(new CompressedBitmap[0]));
+        }
+
+        // without a filter every book matches
+        private CompressedBitmap[] requiredBitmaps() {
+            return required.isEmpty() ? new CompressedBitmap[] {all} : required.toArray(new CompressedBitmap[0]);
+        }
+
+        // the first "limit" matches in the order the books were added
+        public List<Book> books(int limit) {
+            return BookBitmapIndex.this.books(bitmap(), limit);
+        }
+
+        public List<Book> books() {
+            return books(Integer.MAX_VALUE);
+        }
+
+        private CompressedBitmap anyOf(Map<String, CompressedBitmap> index, String[] values) {
+            if (values.length == 0) {
+                throw new IllegalArgumentException("At least one value is needed.");
+            }
+            if (values.length == 1) {
+                return lookup(index, values[0]);
+            }
+            CompressedBitmap[] bitmaps = new CompressedBitmap[values.length];
+            for (int i = 0; i < values.length; i++) {
+                bitmaps[i] = lookup(index, values[i]);
+            }
+            return CompressedBitmap.orAll(bitmaps);
+        }
+    }
+}
@@ -0,0 +1,762 @@
+package library.circulation.bitmap;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+// Compressed set of non negative ints, split the roaring way: the high 16 bits pick a chunk, the low 16 bits live
+// in that chunk's container. A chunk with at most 4096 values is a sorted char[] (2 bytes per value), a fuller one
+// is a plain 65536 bit bitmap (8 KB). So a sparse genre costs next to nothing, a dense "available" set is one bit per
+// copy, and AND / OR of two dense chunks is 1024 long operations.
+//
+// The values are book ordinals handed out densely from 0 (see BookBitmapIndex), so the chunks sit in a plain array
+// indexed by the high bits instead of roaring's sorted key list.
+//
+// Writers lock the chunk they change, so different chunks change in parallel. Readers never lock: array containers
+// are immutable and replaced on change, bitmap words are written and read atomically. A query running next to
+// writers sees every value that did not change while it ran, the same guarantee a ConcurrentHashMap iterator gives.
+public class CompressedBitmap {
+
+    private static final int CHUNK_SHIFT = 16;
+    private static final int LOW_MASK = 0xFFFF;
+    private static final int WORDS = 1 << (CHUNK_SHIFT - 6); // 1024 longs per bitmap container
+    // an array container bigger than this would take more space than the bitmap
+    static final int ARRAY_MAX = 4096;
+    // a bitmap container shrinking back only turns into an array at half that, so a count that moves around
+    // 4096 doesn't convert the chunk back and forth on every change
+    private static final int BITMAP_MIN = ARRAY_MAX / 2;
+
+    private static final VarHandle WORD = MethodHandles.arrayElementVarHandle(long[].class);
+
+    // null entries are chunks that never had a value. Only grows, under "this"
+    private volatile Slot[] slots = new Slot[0];
+
+    public CompressedBitmap() {}
+
+    private CompressedBitmap(Slot[] slots) {
+        this.slots = slots;
+    }
+
+    // ---------- single values ----------
+
+    public boolean add(int value) {
+        return set(value, true);
+    }
+
+    public boolean remove(int value) {
+        return set(value, false);
+    }
+
+    // adds or removes the value, returns true if that changed the set
+    public boolean set(int value, boolean present) {
+        checkValue(value);
+        int high = value >>> CHUNK_SHIFT;
+        char low = (char) (value & LOW_MASK);
+        Slot slot = present ? slotFor(high) : existingSlot(high);
+        if (slot == null) {
+            return false;
+        }
+        synchronized (slot) {
+            Container current = slot.container;
+            if ((current != null && current.contains(low)) == present) {
+                return false;
+            }
+            if (present) {
+                slot.container = current == null ? ArrayContainer.of(low) : current.add(low);
+            } else {
+                slot.container = current.remove(low);
+            }
+            return true;
+        }
+    }
+
+    public boolean contains(int value) {
+        if (value < 0) {
+            return false;
+        }
+        Slot slot = existingSlot(value >>> CHUNK_SHIFT);
+        Container container = slot == null ? null : slot.container;
+        return container != null && container.contains((char) (value & LOW_MASK));
+    }
+
+    // ---------- whole set ----------
+
+    public int cardinality() {
+        int cardinality = 0;
+        for (Slot slot : slots) {
+            Container container = slot == null ? null : slot.container;
+            if (container != null) {
+                cardinality += container.cardinality();
+            }
+        }
+        return cardinality;
+    }
+
+    public boolean isEmpty() {
+        for (Slot slot : slots) {
+            if (slot != null && slot.container != null) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // ascending order
+    public void forEach(IntConsumer action) {
+        Slot[] current = slots;
+        for (int high = 0; high < current.length; high++) {
+            Container container = container(current, high);
+            if (container != null) {
+                container.forEach(high << CHUNK_SHIFT, action);
+            }
+        }
+    }
+
+    // the smallest "limit" values, ascending
+    public int[] toArray(int limit) {
+        if (limit < 0) {
+            throw new IllegalArgumentException("Limit cannot be negative.");
+        }
+        int[] values = new int[Math.min(limit, cardinality())];
+        int size = 0;
+        Slot[] current = slots;
+        for (int high = 0; high < current.length && size < values.length; high++) {
+            Container container = container(current, high);
+            if (container != null) {
+                size = container.copyTo(high << CHUNK_SHIFT, values, size);
+            }
+        }
+        return size == values.length ? values : Arrays.copyOf(values, size);
+    }
+
+    // rough heap use of the containers
+    public long estimatedBytes() {
+        long bytes = 16 + (long) slots.length * 4;
+        for (Slot slot : slots) {
+            Container container = slot == null ? null : slot.container;
+            bytes += slot == null ? 0 : 16;
+            if (container instanceof ArrayContainer) {
+                bytes += 24 + (long) container.cardinality() * 2;
+            } else if (container != null) {
+                bytes += 24 + WORDS * 8L;
+            }
+        }
+        return bytes;
+    }
+
+    // true if the chunk of "value" is held as a bitmap rather than a sorted array, for tests
+    boolean isBitmapChunk(int value) {
+        Slot slot = existingSlot(value >>> CHUNK_SHIFT);
+        return slot != null && slot.container instanceof BitmapContainer;
+    }
+
+    // ---------- set operations, each returns a new bitmap and leaves both inputs alone ----------
+
+    public CompressedBitmap and(CompressedBitmap other) {
+        Slot[] a = slots;
+        Slot[] b = other.slots;
+        Slot[] result = new Slot[Math.min(a.length, b.length)];
+        for (int high = 0; high < result.length; high++) {
+            result[high] = Slot.of(and(container(a, high), container(b, high)));
+        }
+        return new CompressedBitmap(result);
+    }
+
+    public CompressedBitmap or(CompressedBitmap other) {
+        Slot[] a = slots;
+        Slot[] b = other.slots;
+        Slot[] result = new Slot[Math.max(a.length, b.length)];
+        for (int high = 0; high < result.length; high++) {
+            result[high] = Slot.of(or(container(a, high), container(b, high)));
+        }
+        return new CompressedBitmap(result);
+    }
+
+    // the values of this bitmap that are not in "other"
+    public CompressedBitmap andNot(CompressedBitmap other) {
+        Slot[] a = slots;
+        Slot[] b = other.slots;
+        Slot[] result = new Slot[a.length];
+        for (int high = 0; high < result.length; high++) {
+            result[high] = Slot.of(andNot(container(a, high), container(b, high)));
+        }
+        return new CompressedBitmap(result);
+    }
+
+    // same as and(other).cardinality() without building the result
+    public int andCardinality(CompressedBitmap other) {
+        Slot[] a = slots;
+        Slot[] b = other.slots;
+        int cardinality = 0;
+        for (int high = 0, chunks = Math.min(a.length, b.length); high < chunks; high++) {
+            Container left = container(a, high);
+            Container right = container(b, high);
+            if (left != null && right != null) {
+                cardinality += andCardinality(left, right);
+            }
+        }
+        return cardinality;
+    }
+
+    public static CompressedBitmap andAll(CompressedBitmap... bitmaps) {
+        return andAllNot(bitmaps, new CompressedBitmap[0]);
+    }
+
+    // values in every one of "required" and in none of "excluded", worked out chunk by chunk in one pass,
+    // so there are no intermediate bitmaps
+    public static CompressedBitmap andAllNot(CompressedBitmap[] required, CompressedBitmap[] excluded) {
+        Slot[][] in = slotsOf(required);
+        Slot[][] out = slotsOf(excluded);
+        Slot[] result = new Slot[chunks(in)];
+        long[] words = new long[WORDS];
+        for (int high = 0; high < result.length; high++) {
+            result[high] = Slot.of(evaluate(in, out, high, words, true));
+        }
+        return new CompressedBitmap(result);
+    }
+
+    // same as andAllNot(required, excluded).cardinality() without building the result
+    public static int andAllNotCardinality(CompressedBitmap[] required, CompressedBitmap[] excluded) {
+        Slot[][] in = slotsOf(required);
+        Slot[][] out = slotsOf(excluded);
+        long[] words = new long[WORDS];
+        int cardinality = 0;
+        for (int high = 0, chunks = chunks(in); high < chunks; high++) {
+            Container container = evaluate(in, out, high, words, false);
+            cardinality += container == null ? 0 : container.cardinality();
+        }
+        return cardinality;
+    }
+
+    public static CompressedBitmap orAll(CompressedBitmap... bitmaps) {
+        CompressedBitmap result = new CompressedBitmap();
+        for (CompressedBitmap bitmap : bitmaps) {
+            result = result.or(bitmap);
+        }
+        return result;
+    }
+
+    // a copy that doesn't change when this bitmap does
+    public CompressedBitmap copy() {
+        Slot[] current = slots;
+        Slot[] result = new Slot[current.length];
+        for (int high = 0; high < result.length; high++) {
+            Container container = container(current, high);
+            result[high] = Slot.of(container == null ? null : container.snapshot());
+        }
+        return new CompressedBitmap(result);
+    }
+
+    // ---------- chunks ----------
+
+    private static void checkValue(int value) {
+        if (value < 0) {
+            throw new IllegalArgumentException("Bitmap values cannot be negative: " + value);
+        }
+    }
+
+    private static Container container(Slot[] slots, int high) {
+        if (high >= slots.length) {
+            return null;
+        }
+        Slot slot = slots[high];
+        return slot == null ? null : slot.container;
+    }
+
+    private Slot existingSlot(int high) {
+        Slot[] current = slots;
+        return high < current.length ? current[high] : null;
+    }
+
+    private Slot slotFor(int high) {
+        Slot slot = existingSlot(high);
+        if (slot != null) {
+            return slot;
+        }
+        synchronized (this) {
+            Slot[] current = slots;
+            if (high >= current.length) {
+                current = Arrays.copyOf(current, Math.max(high + 1, current.length * 2));
+            }
+            if (current[high] == null) {
+                current[high] = new Slot(null);
+            }
+            slots = current; // publishes the new slot together with the (maybe) bigger array
+            return current[high];
+        }
+    }
+
+    private static Container and(Container a, Container b) {
+        if (a == null || b == null) {
+            return null;
+        }
+        if (a instanceof ArrayContainer || b instanceof ArrayContainer) {
+            // probe the other container for every value of the (small) array
+            ArrayContainer array = (ArrayContainer) (a instanceof ArrayContainer ? a : b);
+            Container other = array == a ? b : a;
+            char[] values = new char[array.values.length];
+            int size = 0;
+            for (char value : array.values) {
+                if (other.contains(value)) {
+                    values[size++] = value;
+                }
+            }
+            return ArrayContainer.of(values, size);
+        }
+        long[] words = ((BitmapContainer) a).toWords();
+        BitmapContainer right = (BitmapContainer) b;
+        for (int i = 0; i < WORDS; i++) {
+            words[i] &= right.word(i);
+        }
+        return fromWords(words);
+    }
+
+    private static Container or(Container a, Container b) {
+        if (a == null || b == null) {
+            Container only = a == null ? b : a;
+            return only == null ? null : only.snapshot();
+        }
+        if (a instanceof ArrayContainer && b instanceof ArrayContainer) {
+            char[] left = ((ArrayContainer) a).values;
+            char[] right = ((ArrayContainer) b).values;
+            if (left.length + right.length <= ARRAY_MAX) {
+                return ArrayContainer.merge(left, right);
+            }
+        }
+        long[] words = a.toWords();
+        b.orInto(words);
+        return fromWords(words);
+    }
+
+    private static Container andNot(Container a, Container b) {
+        if (a == null) {
+            return null;
+        }
+        if (b == null) {
+            return a.snapshot();
+        }
+        if (a instanceof ArrayContainer) {
+            char[] left = ((ArrayContainer) a).values;
+            char[] values = new char[left.length];
+            int size = 0;
+            for (char value : left) {
+                if (!b.contains(value)) {
+                    values[size++] = value;
+                }
+            }
+            return ArrayContainer.of(values, size);
+        }
+        long[] words = a.toWords();
+        if (b instanceof ArrayContainer) {
+            for (char value : ((ArrayContainer) b).values) {
+                words[value >>> 6] &= ~(1L << value);
+            }
+        } else {
+            BitmapContainer right = (BitmapContainer) b;
+            for (int i = 0; i < WORDS; i++) {
+                words[i] &= ~right.word(i);
+            }
+        }
+        return fromWords(words);
+    }
+
+    private static int andCardinality(Container a, Container b) {
+        if (a instanceof ArrayContainer || b instanceof ArrayContainer) {
+            ArrayContainer array = (ArrayContainer) (a instanceof ArrayContainer ? a : b);
+            Container other = array == a ? b : a;
+            int count = 0;
+            for (char value : array.values) {
+                if (other.contains(value)) {
+                    count++;
+                }
+            }
+            return count;
+        }
+        BitmapContainer left = (BitmapContainer) a;
+        BitmapContainer right = (BitmapContainer) b;
+        int count = 0;
+        for (int i = 0; i < WORDS; i++) {
+            count += Long.bitCount(left.word(i) & right.word(i));
+        }
+        return count;
+    }
+
+    // picks the smaller container for the bits
+    private static Container fromWords(long[] words) {
+        int cardinality = 0;
+        for (long word : words) {
+            cardinality += Long.bitCount(word);
+        }
+        if (cardinality == 0) {
+            return null;
+        }
+        if (cardinality > ARRAY_MAX) {
+            return new BitmapContainer(words, cardinality);
+        }
+        return ArrayContainer.fromWords(words, cardinality);
+    }
+
+    private static Slot[][] slotsOf(CompressedBitmap[] bitmaps) {
+        Slot[][] slots = new Slot[bitmaps.length][];
+        for (int i = 0; i < bitmaps.length; i++) {
+            slots[i] = bitmaps[i].slots; // one read each, every chunk below comes from the same array
+        }
+        return slots;
+    }
+
+    private static int chunks(Slot[][] required) {
+        if (required.length == 0) {
+            throw new IllegalArgumentException("At least one bitmap is needed.");
+        }
+        int chunks = Integer.MAX_VALUE;
+        for (Slot[] slots : required) {
+            chunks = Math.min(chunks, slots.length);
+        }
+        return chunks;
+    }
+
+    // one chunk of andAllNot. "words" is scratch space. With build = false the container returned is only good
+    // for its cardinality: it may be a view on the scratch words
+    private static Container evaluate(Slot[][] required, Slot[][] excluded, int high, long[] words, boolean build) {
+        // every container is read once, a writer may swap them while we work
+        Container[] in = new Container[required.length];
+        Container probe = null;
+        for (int i = 0; i < in.length; i++) {
+            Container container = container(required[i], high);
+            if (container == null) {
+                return null;
+            }
+            in[i] = container;
+            // any array beats any bitmap (a shrinking bitmap can hold fewer values than an array), then the smallest
+            if (probe == null || container instanceof ArrayContainer
+                    && (probe instanceof BitmapContainer || container.cardinality() < probe.cardinality())) {
+                probe = container;
+            }
+        }
+        Container[] out = new Container[excluded.length];
+        for (int i = 0; i < out.length; i++) {
+            out[i] = container(excluded[i], high);
+        }
+
+        if (probe instanceof ArrayContainer) {
+            // few values, look each of them up everywhere else
+            char[] candidates = ((ArrayContainer) probe).values;
+            char[] values = new char[candidates.length];
+            int size = 0;
+            for (char value : candidates) {
+                if (matches(in, out, value)) {
+                    values[size++] = value;
+                }
+            }
+            return ArrayContainer.of(values, size);
+        }
+        // no arrays among the required ones, so they are all bitmaps
+        BitmapContainer first = (BitmapContainer) in[0];
+        for (int i = 0; i < WORDS; i++) {
+            words[i] = first.word(i);
+        }
+        for (int c = 1; c < in.length; c++) {
+            BitmapContainer other = (BitmapContainer) in[c];
+            for (int i = 0; i < WORDS; i++) {
+                words[i] &= other.word(i);
+            }
+        }
+        for (Container container : out) {
+            if (container instanceof ArrayContainer) {
+                for (char value : ((ArrayContainer) container).values) {
+                    words[value >>> 6] &= ~(1L << value);
+                }
+            } else if (container != null) {
+                BitmapContainer other = (BitmapContainer) container;
+                for (int i = 0; i < WORDS; i++) {
+                    words[i] &= ~other.word(i);
+                }
+            }
+        }
+        if (build) {
+            return fromWords(words.clone());
+        }
+        int cardinality = 0;
+        for (long word : words) {
+            cardinality += Long.bitCount(word);
+        }
+        return cardinality == 0 ? null : new BitmapContainer(words, cardinality);
+    }
+
+    private static boolean matches(Container[] required, Container[] excluded, char value) {
+        for (Container container : required) {
+            if (!container.contains(value)) {
+                return false;
+            }
+        }
+        for (Container container : excluded) {
+            if (container != null && container.contains(value)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // one chunk. The lock writers take and the current container
+    private static final class Slot {
+        volatile Container container;
+
+        Slot(Container container) {
+            this.container = container;
+        }
+
+        static Slot of(Container container) {
+            return container == null ? null : new Slot(container);
+        }
+    }
+
+    private abstract static class Container {
+        abstract int cardinality();
+
+        abstract boolean contains(char low);
+
+        // the container holding the value: this one, or a replacement. Called under the slot's lock
+        abstract Container add(char low);
+
+        // the container without the value: this one, a replacement, or null when it is empty now
+        abstract Container remove(char low);
+
+        // a container that won't change anymore
+        abstract Container snapshot();
+
+        abstract long[] toWords();
+
+        abstract void orInto(long[] words);
+
+        abstract void forEach(int base, IntConsumer action);
+
+        // copies values into "into" from "size" on until it is full, returns the new size
+        abstract int copyTo(int base, int[] into, int size);
+    }
+
+    // sorted, never changed after construction
+    private static final class ArrayContainer extends Container {
+        final char[] values;
+
+        private ArrayContainer(char[] values) {
+            this.values = values;
+        }
+
+        static ArrayContainer of(char value) {
+            return new ArrayContainer(new char[] {value});
+        }
+
+        static ArrayContainer of(char[] values, int size) {
+            return size == 0 ? null : new ArrayContainer(size == values.length ? values : Arrays.copyOf(values, size));
+        }
+
+        static ArrayContainer fromWords(long[] words, int cardinality) {
+            char[] values = new char[cardinality];
+            int size = 0;
+            for (int i = 0; i < words.length; i++) {
+                long word = words[i];
+                while (word != 0) {
+                    values[size++] = (char) ((i << 6) + Long.numberOfTrailingZeros(word));
+                    word &= word - 1;
+                }
+            }
+            return new ArrayContainer(values);
+        }
+
+        static ArrayContainer merge(char[] left, char[] right) {
+            char[] values = new char[left.length + right.length];
+            int i = 0;
+            int j = 0;
+            int size = 0;
+            while (i < left.length && j < right.length) {
+                char a = left[i];
+                char b = right[j];
+                values[size++] = a <= b ? a : b;
+                if (a <= b) {
+                    i++;
+                }
+                if (b <= a) {
+                    j++;
+                }
+            }
+            while (i < left.length) {
+                values[size++] = left[i++];
+            }
+            while (j < right.length) {
+                values[size++] = right[j++];
+            }
+            return of(values, size);
+        }
+
+        @Override
+        int cardinality() { return values.length; }
+
+        @Override
+        boolean contains(char low) {
+            return Arrays.binarySearch(values, low) >= 0;
+        }
+
+        @Override
+        Container add(char low) {
+            int index = Arrays.binarySearch(values, low);
+            if (index >= 0) {
+                return this;
+            }
+            if (values.length == ARRAY_MAX) {
+                long[] words = toWords();
+                words[low >>> 6] |= 1L << low;
+                return new BitmapContainer(words, ARRAY_MAX + 1);
+            }
+            int insert = -index - 1;
+            char[] next = new char[values.length + 1];
+            System.arraycopy(values, 0, next, 0, insert);
+            next[insert] = low;
+            System.arraycopy(values, insert, next, insert + 1, values.length - insert);
+            return new ArrayContainer(next);
+        }
+
+        @Override
+        Container remove(char low) {
+            int index = Arrays.binarySearch(values, low);
+            if (index < 0) {
+                return this;
+            }
+            if (values.length == 1) {
+                return null;
+            }
+            char[] next = new char[values.length - 1];
+            System.arraycopy(values, 0, next, 0, index);
+            System.arraycopy(values, index + 1, next, index, values.length - index - 1);
+            return new ArrayContainer(next);
+        }
+
+        @Override
+        Container snapshot() { return this; }
+
+        @Override
+        long[] toWords() {
+            long[] words = new long[WORDS];
+            orInto(words);
+            return words;
+        }
+
+        @Override
+        void orInto(long[] words) {
+            for (char value : values) {
+                words[value >>> 6] |= 1L << value;
+            }
+        }
+
+        @Override
+        void forEach(int base, IntConsumer action) {
+            for (char value : values) {
+                action.accept(base | value);
+            }
+        }
+
+        @Override
+        int copyTo(int base, int[] into, int size) {
+            for (int i = 0; i < values.length && size < into.length; i++) {
+                into[size++] = base | values[i];
+            }
+            return size;
+        }
+    }
+
+    // changed in place under the slot's lock, every word is written and read atomically
+    private static final class BitmapContainer extends Container {
+        final long[] words;
+        volatile int cardinality;
+
+        BitmapContainer(long[] words, int cardinality) {
+            this.words = words;
+            this.cardinality = cardinality;
+        }
+
+        long word(int index) {
+            return (long) WORD.getAcquire(words, index);
+        }
+
+        @Override
+        int cardinality() { return cardinality; }
+
+        @Override
+        boolean contains(char low) {
+            return (word(low >>> 6) & (1L << low)) != 0;
+        }
+
+        @Override
+        Container add(char low) {
+            long word = words[low >>> 6];
+            long bit = 1L << low;
+            if ((word & bit) == 0) {
+                WORD.setRelease(words, low >>> 6, word | bit);
+                cardinality = cardinality + 1;
+            }
+            return this;
+        }
+
+        @Override
+        Container remove(char low) {
+            long word = words[low >>> 6];
+            long bit = 1L << low;
+            if ((word & bit) == 0) {
+                return this;
+            }
+            if (cardinality - 1 <= BITMAP_MIN) {
+                // readers may still hold this container, so the smaller one is a copy and this one stays as it was
+                long[] copy = toWords();
+                copy[low >>> 6] &= ~bit;
+                return ArrayContainer.fromWords(copy, cardinality - 1);
+            }
+            WORD.setRelease(words, low >>> 6, word & ~bit);
+            cardinality = cardinality - 1;
+            return this;
+        }
+
+        @Override
+        Container snapshot() {
+            return fromWords(toWords());
+        }
+
+        @Override
+        long[] toWords() {
+            long[] copy = new long[WORDS];
+            for (int i = 0; i < WORDS; i++) {
+                copy[i] = word(i);
+            }
+            return copy;
+        }
+
+        @Override
+        void orInto(long[] into) {
+            for (int i = 0; i < WORDS; i++) {
+                into[i] |= word(i);
+            }
+        }
+
+        @Override
+        void forEach(int base, IntConsumer action) {
+            for (int i = 0; i < WORDS; i++) {
+                long word = word(i);
+                while (word != 0) {
+                    action.accept(base + (i << 6) + Long.numberOfTrailingZeros(word));
+                    word &= word - 1;
+                }
+            }
+        }
+
+        @Override
+        int copyTo(int base, int[] into, int size) {
+            for (int i = 0; i < WORDS && size < into.length; i++) {
+                long word = word(i);
+                while (word != 0 && size < into.length) {
+                    into[size++] = base + (i << 6) + Long.numberOfTrailingZeros(word);
+                    word &= word - 1;
+                }
+            }
+            return size;
+        }
+    }
+}
@@ -0,0 +1,294 @@
+package library.circulation.branch;
+
+import library.circulation.models.Book;
+import library.circulation.models.Member;
+import library.circulation.services.LibraryService;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.time.LocalDate;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import static library.circulation.branch.BranchProtocol.*;
+
+// talks to one branch. Connections are kept open and reused, one per concurrent caller, so a call costs
+// one round trip and no handshake. Errors of the branch come back as the same exception type the service threw
+// there (IllegalArgumentException / IllegalStateException), a broken connection as UncheckedIOException.
+public class BranchClient implements AutoCloseable {
+
+    private static final int CONNECT_TIMEOUT_MILLIS = 2_000;
+    // a branch that stops answering half way must not hold the desk forever, the call fails like a broken connection
+    private static final int READ_TIMEOUT_MILLIS = 10_000;
+
+    private final InetSocketAddress address;
+    private final String secret; // only set for a branch talking to another branch
+    private final Queue<Connection> idle = new ConcurrentLinkedQueue<>();
+    private volatile boolean closed;
+
+    public BranchClient(InetSocketAddress address) {
+        this.address = Objects.requireNonNull(address, "Address cannot be null.");
+        this.secret = null;
+    }
+
+    // for a branch, every connection starts with the shared branch secret
+    BranchClient(InetSocketAddress address, String secret) {
+        this.address = Objects.requireNonNull(address, "Address cannot be null.");
+        this.secret = Objects.requireNonNull(secret, "Branch secret cannot be null.");
+    }
+
+    public InetSocketAddress getAddress() { return address; }
+
+    // ---------- client operations ----------
+
+    public String addBook(String title, String author, String genre, String contentRating) {
+        return call(ADD_BOOK, out -> {
+            writeString(out, title);
+            writeString(out, author);
+            writeString(out, genre);
+            writeString(out, contentRating);
+        }, in -> in.readUTF());
+    }
+
+    public String addMember(String name, int age, String occupation, String email, String password, String phoneNumber) {
+        return call(ADD_MEMBER, out -> {
+            writeString(out, name);
+            out.writeInt(age);
+            writeString(out, occupation);
+            writeString(out, email);
+            writeString(out, password);
+            writeString(out, phoneNumber);
+        }, in -> in.readUTF());
+    }
+
+    // returns the transaction id of the new loan
+    public String borrow(String bookID, String memberID, LibraryService.PeriodUnit unit, int duration) {
+        return call(BORROW, out -> {
+            out.writeUTF(bookID);
+            out.writeUTF(memberID);
+            out.writeByte(unit.ordinal());
+            out.writeInt(duration);
+        }, in -> in.readUTF());
+    }
+
+    // returns the fine charged on return
+    public long returnBook(String bookID, String memberID) {
+        return call(RETURN, out -> {
+            out.writeUTF(bookID);
+            out.writeUTF(memberID);
+        }, DataInputStream::readLong);
+    }
+
+    // returns the new due date
+    public LocalDate renew(String bookID, String memberID, LibraryService.PeriodUnit unit, int duration) {
+        return call(RENEW, out -> {
+            out.writeUTF(bookID);
+            out.writeUTF(memberID);
+            out.writeByte(unit.ordinal());
+            out.writeInt(duration);
+        }, in -> LocalDate.ofEpochDay(in.readLong()));
+    }
+
+    // returns the dues left
+    public long payFine(String memberID, long amount) {
+        return call(PAY_FINE, out -> {
+            out.writeUTF(memberID);
+            out.writeLong(amount);
+        }, DataInputStream::readLong);
+    }
+
+    public void removeBook(String bookID) {
+        call(REMOVE_BOOK, out -> out.writeUTF(bookID), in -> null);
+    }
+
+    // dues, borrowed count and borrow limit as the member's own branch sees them, loans at every branch included
+    public MemberStatus memberStatus(String memberID) {
+        return call(MEMBER_STATUS, out -> out.writeUTF(memberID),
+                in -> new MemberStatus(in.readLong(), in.readInt(), in.readInt()));
+    }
+
+    public static final class MemberStatus {
+        private final long pendingDues;
+        private final int borrowedCount;
+        private final int maxBorrowLimit;
+
+        MemberStatus(long pendingDues, int borrowedCount, int maxBorrowLimit) {
+            this.pendingDues = pendingDues;
+            this.borrowedCount = borrowedCount;
+            this.maxBorrowLimit = maxBorrowLimit;
+        }
+
+        public long getPendingDues() { return pendingDues; }
+        public int getBorrowedCount() { return borrowedCount; }
+        public int getMaxBorrowLimit() { return maxBorrowLimit; }
+
+        @Override
+        public String toString() {
+            return "dues=" + pendingDues + " borrowed=" + borrowedCount + "/" + maxBorrowLimit;
+        }
+    }
+
+    // ---------- between branches ----------
+
+    void putBook(Book book) {
+        call(PUT_BOOK, out -> {
+            out.writeUTF(book.getBookID());
+            writeString(out, book.getTitle());
+            writeString(out, book.getAuthor());
+            writeString(out, book.getGenre());
+            writeString(out, book.getContentRating());
+        }, in -> null);
+    }
+
+    void putMember(Member member) {
+        call(PUT_MEMBER, out -> {
+            out.writeUTF(member.getMemberID());
+            writeString(out, member.getName());
+            out.writeInt(member.getAge());
+            writeString(out, member.getOccupation());
+            writeString(out, member.getEmail());
+            writeString(out, member.getHashedPassword());
+            writeString(out, member.getPhoneNumber());
+            out.writeLong(member.getJoinDate().toEpochDay());
+            out.writeInt(member.getMaxBorrowLimit());
+            out.writeLong(member.getPendingDues());
+        }, in -> null);
+    }
+
+    // takes a borrow slot of the member at their own branch and returns a profile of the member
+    // (name, age, occupation, limit, dues) for the book's branch to issue the loan against.
+    // A RELEASE with the same reservation key gives the slot back, also when this call didn't get an answer
+    Member reserve(String memberID, String reservation, Book book) {
+        return call(RESERVE, out -> {
+            out.writeUTF(memberID);
+            out.writeUTF(reservation);
+            out.writeUTF(book.getBookID());
+            writeString(out, book.getTitle());
+            writeString(out, book.getAuthor());
+            writeString(out, book.getGenre());
+            writeString(out, book.getContentRating());
+        }, in -> Member.restore(memberID, readString(in), in.readInt(), readString(in), null, null, null,
+                LocalDate.ofEpochDay(in.readLong()), in.readInt(), in.readLong()));
+    }
+
+    void release(String memberID, String bookID, String reservation) {
+        call(RELEASE, out -> {
+            out.writeUTF(memberID);
+            out.writeUTF(bookID);
+            out.writeUTF(reservation);
+        }, in -> null);
+    }
+
+    void returned(String memberID, String bookID, long fine, String key) {
+        call(RETURNED, out -> {
+            out.writeUTF(memberID);
+            out.writeUTF(bookID);
+            out.writeLong(fine);
+            writeString(out, key);
+        }, in -> null);
+    }
+
+    void dues(String memberID, long fine, String key) {
+        call(DUES, out -> {
+            out.writeUTF(memberID);
+            out.writeLong(fine);
+            writeString(out, key);
+        }, in -> null);
+    }
+
+    // ---------- plumbing ----------
+
+    private interface RequestWriter {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    private interface ResponseReader<T> {
+        T read(DataInputStream in) throws IOException;
+    }
+
+    private <T> T call(byte op, RequestWriter request, ResponseReader<T> response) {
+        if (closed) {
+            throw new IllegalStateException("Client of " + address + " is closed.");
+        }
+        Connection connection = idle.poll();
+        try {
+            if (connection == null) {
+                connection = new Connection(address, secret);
+            }
+            connection.out.writeByte(op);
+            request.write(connection.out);
+            connection.out.flush();
+
+            byte status = connection.in.readByte();
+            T result = status == OK ? response.read(connection.in) : null;
+            String message = status == OK ? null : connection.in.readUTF();
+            // the response was read completely, the connection can serve the next call
+            idle.offer(connection);
+            connection = null;
+            if (status == ILLEGAL_ARGUMENT) {
+                throw new IllegalArgumentException(message);
+            } else if (status != OK) {
+                throw new IllegalStateException(message);
+            }
+            return result;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Branch at " + address + " did not answer", e);
+        } finally {
+            if (connection != null) {
+                connection.close(); // broken half way, nobody can tell where the stream is now
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        Connection connection;
+        while ((connection = idle.poll()) != null) {
+            connection.close();
+        }
+    }
+
+    private static final class Connection {
+        final Socket socket;
+        final DataInputStream in;
+        final DataOutputStream out;
+
+        Connection(InetSocketAddress address, String secret) throws IOException {
+            socket = new Socket();
+            try {
+                socket.setTcpNoDelay(true); // requests are small, don't wait to fill a packet
+                socket.connect(address, CONNECT_TIMEOUT_MILLIS);
+                socket.setSoTimeout(READ_TIMEOUT_MILLIS);
+                in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+                out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+                if (secret != null) {
+                    out.writeByte(HELLO);
+                    out.writeUTF(secret);
+                    out.flush();
+                    if (in.readByte() != OK) {
+                        throw new IllegalStateException("Branch at " + address + " refused the branch secret: " + in.readUTF());
+                    }
+                }
+            } catch (IOException | RuntimeException e) {
+                socket.close();
+                throw e;
+            }
+        }
+
+        void close() {
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+                // nothing left to do with it
+            }
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package library.circulation.branch;
+
+import java.net.InetSocketAddress;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+// where every branch listens and which branch owns which id. Books belong to the branch their bookID hashes to,
+// members to the branch their memberID hashes to, so a loan can have its book at one branch and its member at another.
+// Every process of a deployment has to be started with the same list.
+public final class BranchDirectory {
+
+    private final Map<String, InetSocketAddress> addresses;
+    private final HashRing ring;
+
+    public BranchDirectory(Map<String, InetSocketAddress> addresses) {
+        Objects.requireNonNull(addresses, "Addresses cannot be null.");
+        this.addresses = Collections.unmodifiableMap(new LinkedHashMap<>(addresses));
+        this.ring = new HashRing(this.addresses.keySet());
+    }
+
+    // "north=127.0.0.1:7001,south=127.0.0.1:7002"
+    public static BranchDirectory parse(String spec) {
+        Objects.requireNonNull(spec, "Branch list cannot be null.");
+        Map<String, InetSocketAddress> addresses = new LinkedHashMap<>();
+        for (String part : spec.split(",")) {
+            String[] nameAndAddress = part.trim().split("=");
+            if (nameAndAddress.length != 2) {
+                throw new IllegalArgumentException("Expected name=host:port but got " + part);
+            }
+            String address = nameAndAddress[1].trim();
+            int colon = address.lastIndexOf(':');
+            if (colon <= 0) {
+                throw new IllegalArgumentException("Expected host:port but got " + address);
+            }
+            int port;
+            try {
+                port = Integer.parseInt(address.substring(colon + 1));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid port in " + address);
+            }
+            if (addresses.put(nameAndAddress[0].trim(), new InetSocketAddress(address.substring(0, colon), port)) != null) {
+                throw new IllegalArgumentException("Branch " + nameAndAddress[0].trim() + " is listed twice.");
+            }
+        }
+        return new BranchDirectory(addresses);
+    }
+
+    public String ownerOfBook(String bookID) { return ring.ownerOf(bookID); }
+    public String ownerOfMember(String memberID) { return ring.ownerOf(memberID); }
+
+    public InetSocketAddress addressOf(String branch) {
+        InetSocketAddress address = addresses.get(branch);
+        if (address == null) {
+            throw new IllegalArgumentException("Unknown branch " + branch);
+        }
+        return address;
+    }
+
+    public Map<String, InetSocketAddress> getAddresses() { return addresses; }
+    public HashRing getRing() { return ring; }
+}
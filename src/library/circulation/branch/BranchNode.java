@@ -0,0 +1,629 @@
+package library.circulation.branch;
+
+import library.circulation.events.EventRing;
+import library.circulation.ids.BlockIdAllocator;
+import library.circulation.ids.FileHighWaterMarkStore;
+import library.circulation.ids.IdGenerator;
+import library.circulation.journal.JournalEntry;
+import library.circulation.metrics.CirculationMetrics.Rejection;
+import library.circulation.models.Book;
+import library.circulation.models.Member;
+import library.circulation.models.Transaction;
+import library.circulation.repository.CatalogRepository;
+import library.circulation.services.CirculationResult;
+import library.circulation.services.LibraryService;
+import library.circulation.services.ReturnRequest;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.time.LocalDate;
+import java.util.ArrayDeque;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static library.circulation.branch.BranchProtocol.*;
+
+// One branch of a sharded deployment: its own LibraryService for the books and members the HashRing gives it,
+// served over tcp to clients and to the other branches.
+//
+// Any branch accepts any request and forwards it to the owner, so a client can talk to the branch next door.
+// A loan lives at the branch of its book. The branch of the member stays the one authority on the member's
+// dues and borrow slots, so the limit and the dues check hold across all branches together:
+//
+//   borrow, member at another branch:  book branch --RESERVE--> member branch checks dues, age and limit and takes a slot
+//                                      book branch issues the loan, or sends RELEASE if the copy went to someone else
+//                                      or the RESERVE got no answer
+//   return:                            book branch closes the loan --RETURNED--> member branch frees the slot, posts the fine
+//   overdue run / late renewal:        every FINE event of a member from elsewhere goes --DUES--> to the member's branch
+//
+// The book branch keeps a local stand-in of such a member (same id) for its loans, with the dues and limit
+// the member branch reported. Slot releases and fines that can't be delivered right away are retried every second.
+// An update that was applied but whose answer got lost comes again, so every update carries a key (the reservation,
+// the loan's id, the fine event) and the member branch remembers the keys it applied lately and skips repeats.
+// The updates and PUT_BOOK / PUT_MEMBER are only taken from connections that started with the shared branch secret,
+// a client can't free slots or create members with them.
+// Holds stay within one branch.
+public class BranchNode implements AutoCloseable {
+
+    private static final System.Logger LOG = System.getLogger(BranchNode.class.getName());
+    private static final int EVENT_RING_CAPACITY = 4096;
+    // repeats come within the retry interval, or a little later when the member branch was down for a while
+    private static final int REMEMBERED_UPDATES = 100_000;
+
+    private final String name;
+    private final String secret;
+    // tells the fine events of this run from the ones of a run before, their ring sequences start over
+    private final String run = UUID.randomUUID().toString();
+    private final BranchDirectory directory;
+    private final LibraryService service;
+    private final CatalogRepository catalog;
+    private final Map<String, BranchClient> peers = new ConcurrentHashMap<>();
+    // circulation events of this branch, the forwarder picks the fines of members from other branches out of them
+    private final EventRing events = new EventRing(EVENT_RING_CAPACITY, EventRing.Overflow.BLOCK);
+    private final Queue<RemoteUpdate> undelivered = new ConcurrentLinkedQueue<>();
+    private final RecentKeys applied = new RecentKeys(REMEMBERED_UPDATES);
+    private final ExecutorService connections;
+    private final ScheduledExecutorService retries;
+    private ServerSocket server;
+    private Thread acceptor;
+    private volatile boolean closed;
+
+    // every branch of a deployment has to be started with the same secret
+    public BranchNode(String name, BranchDirectory directory, LibraryService service, String secret) {
+        this.name = Objects.requireNonNull(name, "Branch name cannot be null.");
+        this.secret = Objects.requireNonNull(secret, "Branch secret cannot be null.");
+        if (secret.isEmpty()) {
+            throw new IllegalArgumentException("Branch secret cannot be empty.");
+        }
+        this.directory = Objects.requireNonNull(directory, "Branch directory cannot be null.");
+        this.service = Objects.requireNonNull(service, "Service cannot be null.");
+        directory.addressOf(name); // fails early for a branch that isn't in the list
+        this.catalog = service.getCatalog();
+        this.connections = Executors.newCachedThreadPool(daemonThreads(name + "-connection-"));
+        this.retries = Executors.newSingleThreadScheduledExecutor(daemonThreads(name + "-retry-"));
+    }
+
+    private static ThreadFactory daemonThreads(String prefix) {
+        AtomicInteger count = new AtomicInteger();
+        return task -> {
+            Thread thread = new Thread(task, prefix + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    public String getName() { return name; }
+    public LibraryService getService() { return service; }
+    public EventRing getEvents() { return events; }
+    // slot releases and fines still waiting for their member's branch to answer
+    public int getUndeliveredCount() { return undelivered.size(); }
+
+    public void start() {
+        try {
+            server = new ServerSocket();
+            server.setReuseAddress(true);
+            server.bind(directory.addressOf(name));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Branch " + name + " could not listen on " + directory.addressOf(name), e);
+        }
+        events.addConsumer(name + "-fines", this::forwardFine);
+        service.setEventRing(events);
+        retries.scheduleWithFixedDelay(this::retryUndelivered, 1, 1, TimeUnit.SECONDS);
+
+        acceptor = new Thread(this::acceptConnections, name + "-acceptor");
+        acceptor.start();
+    }
+
+    private void acceptConnections() {
+        while (!closed) {
+            try {
+                Socket socket = server.accept();
+                socket.setTcpNoDelay(true);
+                connections.execute(() -> serve(socket));
+            } catch (IOException e) {
+                if (!closed) {
+                    LOG.log(System.Logger.Level.WARNING, "Branch " + name + " failed to accept a connection", e);
+                }
+            }
+        }
+    }
+
+    // one thread per open connection, the connection answers requests one after another until the client hangs up
+    private void serve(Socket socket) {
+        try (socket;
+             DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()))) {
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream(256);
+            DataOutputStream result = new DataOutputStream(buffer);
+            boolean fromBranch = false;
+            while (true) {
+                byte op;
+                try {
+                    op = in.readByte();
+                } catch (EOFException e) {
+                    return;
+                }
+                if (op == HELLO) {
+                    fromBranch = isSecret(in.readUTF());
+                    if (!fromBranch) {
+                        refuse(out, "Wrong branch secret.");
+                        return;
+                    }
+                    out.writeByte(OK);
+                    out.flush();
+                    continue;
+                }
+                // the request isn't read, so the stream is out of step and the connection is closed after the answer
+                if (isBranchOnly(op) && !fromBranch) {
+                    refuse(out, "Operation " + op + " is only for other branches.");
+                    return;
+                }
+                // the whole request is read before anything is done, so a failed request leaves the stream in step.
+                // the result is buffered, a request that fails half way must not have written an OK already
+                buffer.reset();
+                try {
+                    handle(op, in, result);
+                    result.flush();
+                    out.writeByte(OK);
+                    buffer.writeTo(out);
+                } catch (IllegalArgumentException e) {
+                    out.writeByte(ILLEGAL_ARGUMENT);
+                    out.writeUTF(messageOf(e));
+                } catch (RuntimeException e) {
+                    out.writeByte(ILLEGAL_STATE);
+                    out.writeUTF(messageOf(e));
+                }
+                out.flush();
+            }
+        } catch (IOException e) {
+            if (!closed) {
+                LOG.log(System.Logger.Level.WARNING, "Branch " + name + " dropped a connection", e);
+            }
+        }
+    }
+
+    private boolean isSecret(String candidate) {
+        return MessageDigest.isEqual(secret.getBytes(StandardCharsets.UTF_8), candidate.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void refuse(DataOutputStream out, String message) throws IOException {
+        out.writeByte(ILLEGAL_STATE);
+        out.writeUTF(message);
+        out.flush();
+    }
+
+    private static String messageOf(RuntimeException e) {
+        return e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName();
+    }
+
+    private void handle(byte op, DataInputStream in, DataOutputStream out) throws IOException {
+        switch (op) {
+            case ADD_BOOK -> out.writeUTF(addBook(readString(in), readString(in), readString(in), readString(in)));
+            case ADD_MEMBER -> out.writeUTF(addMember(readString(in), in.readInt(), readString(in), readString(in),
+                    readString(in), readString(in)));
+            case BORROW -> {
+                String bookID = in.readUTF();
+                String memberID = in.readUTF();
+                LibraryService.PeriodUnit unit = readUnit(in);
+                int duration = in.readInt();
+                out.writeUTF(isMine(directory.ownerOfBook(bookID))
+                        ? borrowHere(bookID, memberID, unit, duration)
+                        : peer(directory.ownerOfBook(bookID)).borrow(bookID, memberID, unit, duration));
+            }
+            case RETURN -> {
+                String bookID = in.readUTF();
+                String memberID = in.readUTF();
+                out.writeLong(isMine(directory.ownerOfBook(bookID))
+                        ? returnHere(bookID, memberID)
+                        : peer(directory.ownerOfBook(bookID)).returnBook(bookID, memberID));
+            }
+            case RENEW -> {
+                String bookID = in.readUTF();
+                String memberID = in.readUTF();
+                LibraryService.PeriodUnit unit = readUnit(in);
+                int duration = in.readInt();
+                LocalDate dueDate = isMine(directory.ownerOfBook(bookID))
+                        ? renewHere(bookID, memberID, unit, duration)
+                        : peer(directory.ownerOfBook(bookID)).renew(bookID, memberID, unit, duration);
+                out.writeLong(dueDate.toEpochDay());
+            }
+            case PAY_FINE -> {
+                String memberID = in.readUTF();
+                long amount = in.readLong();
+                if (isMine(directory.ownerOfMember(memberID))) {
+                    out.writeLong(service.payDues(catalog.getMember(memberID), amount, null).getBalanceAfter());
+                } else {
+                    out.writeLong(peer(directory.ownerOfMember(memberID)).payFine(memberID, amount));
+                }
+            }
+            case REMOVE_BOOK -> {
+                String bookID = in.readUTF();
+                if (isMine(directory.ownerOfBook(bookID))) {
+                    service.removeBook(catalog.getBook(bookID));
+                } else {
+                    peer(directory.ownerOfBook(bookID)).removeBook(bookID);
+                }
+            }
+            case MEMBER_STATUS -> {
+                String memberID = in.readUTF();
+                BranchClient.MemberStatus status;
+                if (isMine(directory.ownerOfMember(memberID))) {
+                    Member member = catalog.getMember(memberID);
+                    status = new BranchClient.MemberStatus(member.getPendingDues(), member.getBorrowedBooks().size(),
+                            member.getMaxBorrowLimit());
+                } else {
+                    status = peer(directory.ownerOfMember(memberID)).memberStatus(memberID);
+                }
+                out.writeLong(status.getPendingDues());
+                out.writeInt(status.getBorrowedCount());
+                out.writeInt(status.getMaxBorrowLimit());
+            }
+            case PUT_BOOK -> service.addBook(Book.restore(in.readUTF(), readString(in), readString(in), readString(in),
+                    readString(in), true));
+            case PUT_MEMBER -> service.addMember(Member.restore(in.readUTF(), readString(in), in.readInt(), readString(in),
+                    readString(in), readString(in), readString(in), LocalDate.ofEpochDay(in.readLong()), in.readInt(), in.readLong()));
+            case RESERVE -> {
+                String memberID = in.readUTF();
+                String reservation = in.readUTF();
+                Book copy = Book.restore(in.readUTF(), readString(in), readString(in), readString(in), readString(in), true);
+                // the book branch gave up waiting for this one and released it already
+                if (applied.contains(RELEASE + ":" + reservation)) {
+                    throw new IllegalStateException("Reservation " + reservation + " was given up.");
+                }
+                Member member = reserve(memberID, copy);
+                writeString(out, member.getName());
+                out.writeInt(member.getAge());
+                writeString(out, member.getOccupation());
+                out.writeLong(member.getJoinDate().toEpochDay());
+                out.writeInt(member.getMaxBorrowLimit());
+                out.writeLong(member.getPendingDues());
+            }
+            case RELEASE -> {
+                String memberID = in.readUTF();
+                String bookID = in.readUTF();
+                String reservation = in.readUTF();
+                Member member = catalog.getMember(memberID);
+                applyOnce(RELEASE + ":" + reservation, () -> releaseSlot(member, bookID));
+            }
+            case RETURNED -> {
+                String memberID = in.readUTF();
+                String bookID = in.readUTF();
+                long fine = in.readLong();
+                String key = readString(in);
+                Member member = catalog.getMember(memberID);
+                applyOnce(key == null ? null : RETURNED + ":" + key, () -> {
+                    releaseSlot(member, bookID);
+                    if (fine > 0) {
+                        service.chargeDues(member, fine);
+                    }
+                });
+            }
+            case DUES -> {
+                String memberID = in.readUTF();
+                long fine = in.readLong();
+                String key = readString(in);
+                Member member = catalog.getMember(memberID);
+                if (fine > 0) {
+                    applyOnce(key == null ? null : DUES + ":" + key, () -> service.chargeDues(member, fine));
+                }
+            }
+            // we can't tell where this request ends, so the connection is of no use anymore
+            default -> throw new IOException("Unknown operation " + op);
+        }
+    }
+
+    private static LibraryService.PeriodUnit readUnit(DataInputStream in) throws IOException {
+        int ordinal = in.readByte();
+        LibraryService.PeriodUnit[] units = LibraryService.PeriodUnit.values();
+        if (ordinal < 0 || ordinal >= units.length) {
+            throw new IllegalArgumentException("Unknown period unit " + ordinal);
+        }
+        return units[ordinal];
+    }
+
+    private boolean isMine(String branch) {
+        return name.equals(branch);
+    }
+
+    private BranchClient peer(String branch) {
+        return peers.computeIfAbsent(branch, b -> new BranchClient(directory.addressOf(b), secret));
+    }
+
+    // ---------- catalog ----------
+
+    // ids come from the shared id file, so the branch that creates the book or member doesn't have to own it
+    private String addBook(String title, String author, String genre, String contentRating) {
+        Book book = new Book(title, author, genre, contentRating);
+        String owner = directory.ownerOfBook(book.getBookID());
+        if (isMine(owner)) {
+            service.addBook(book);
+        } else {
+            peer(owner).putBook(book);
+        }
+        return book.getBookID();
+    }
+
+    private String addMember(String memberName, int age, String occupation, String email, String password, String phoneNumber) {
+        Member member = new Member(memberName, age, occupation, email, password, phoneNumber);
+        String owner = directory.ownerOfMember(member.getMemberID());
+        if (isMine(owner)) {
+            service.addMember(member);
+        } else {
+            peer(owner).putMember(member);
+        }
+        return member.getMemberID();
+    }
+
+    // ---------- circulation at the book's branch ----------
+
+    private String borrowHere(String bookID, String memberID, LibraryService.PeriodUnit unit, int duration) {
+        Book book = catalog.getBook(bookID);
+        String home = directory.ownerOfMember(memberID);
+        if (isMine(home)) {
+            return service.borrowBook(book, catalog.getMember(memberID), unit, duration).getTransactionID();
+        }
+        // no point taking a slot at the member's branch for a copy that is already out
+        if (book.isPresent() && !book.getAvailable()) {
+            service.getMetrics().rejected(Rejection.UNAVAILABLE);
+            throw new IllegalStateException("The book " + bookID + " is currently not available for borrowing.");
+        }
+        String reservation = name + "-" + UUID.randomUUID();
+        Member profile;
+        try {
+            profile = peer(home).reserve(memberID, reservation, book);
+        } catch (UncheckedIOException e) {
+            // no answer, the member branch may have taken the slot anyway
+            deliver(new RemoteUpdate(RELEASE, home, memberID, bookID, 0, reservation));
+            throw e;
+        }
+        Member standIn = standInFor(profile);
+        try {
+            return service.borrowBook(book, standIn, unit, duration).getTransactionID();
+        } catch (RuntimeException e) {
+            deliver(new RemoteUpdate(RELEASE, home, memberID, bookID, 0, reservation));
+            throw e;
+        }
+    }
+
+    // the local copy of a member from another branch, refreshed from the profile the member's branch just sent.
+    // that branch already checked the dues, so they are only mirrored here, through the ledger like any other change
+    private Member standInFor(Member profile) {
+        Member standIn = catalog.findMember(profile.getMemberID());
+        if (standIn == null) {
+            try {
+                service.addMember(profile);
+                return profile;
+            } catch (IllegalArgumentException e) {
+                standIn = catalog.getMember(profile.getMemberID()); // another desk added it first
+            }
+        }
+        standIn.setName(profile.getName());
+        standIn.setAge(profile.getAge());
+        service.mirrorDues(standIn, profile.getPendingDues());
+        return standIn;
+    }
+
+    private long returnHere(String bookID, String memberID) {
+        Book book = catalog.getBook(bookID);
+        Transaction currentTransaction = book.getCurrentTransaction();
+        if (currentTransaction != null && !currentTransaction.getMemberID().equals(memberID)) {
+            throw new IllegalStateException("The book " + bookID + " is currently borrowed by someone else");
+        }
+        CirculationResult result = service.process(new ReturnRequest(bookID, memberID));
+        if (!result.isSuccess()) {
+            throw new IllegalStateException(result.getMessage());
+        }
+        String home = directory.ownerOfMember(memberID);
+        if (!isMine(home)) {
+            deliver(new RemoteUpdate(RETURNED, home, memberID, bookID, result.getFine(),
+                    result.getTransaction().getTransactionID()));
+        }
+        return result.getFine();
+    }
+
+    private LocalDate renewHere(String bookID, String memberID, LibraryService.PeriodUnit unit, int duration) {
+        // a fine for a late renewal shows up as a FINE event and reaches the member's branch through forwardFine
+        return service.renewBook(catalog.getBook(bookID), catalog.getMember(memberID), unit, duration).getDueDate();
+    }
+
+    // ---------- the member's branch ----------
+
+    // the same checks LibraryService does before a borrow, the slot is taken atomically like a local borrow does
+    private Member reserve(String memberID, Book copy) {
+        Member member = catalog.getMember(memberID);
+        if (member.getPendingDues() > 0) {
+            service.getMetrics().rejected(Rejection.DUES);
+            throw new IllegalArgumentException("Clear pending dues before borrowing book.\n Your Pending Dues is: ₹ " + member.getPendingDues());
+        }
+        String restriction = LibraryService.ageRestriction(copy, member);
+        if (restriction != null) {
+            service.getMetrics().rejected(Rejection.AGE_RESTRICTION);
+            throw new IllegalArgumentException(restriction);
+        }
+        if (!member.tryAddBookToBorrowedList(copy)) {
+            service.getMetrics().rejected(Rejection.LIMIT_REACHED);
+            throw new IllegalArgumentException("Borrowed Limit Reached");
+        }
+        return member;
+    }
+
+    // runs an update from another branch unless the same key was applied before. Without a key it just runs.
+    // a failed update is forgotten again, so its retry gets applied
+    private void applyOnce(String key, Runnable update) {
+        if (key != null && !applied.add(key)) {
+            return;
+        }
+        try {
+            update.run();
+        } catch (RuntimeException e) {
+            if (key != null) {
+                applied.remove(key);
+            }
+            throw e;
+        }
+    }
+
+    // the slot of a book from another branch is held by the copy reserve() put in the list, found by id
+    private static void releaseSlot(Member member, String bookID) {
+        for (Book book : member.getBorrowedBooks()) {
+            if (book.getBookID().equals(bookID)) {
+                member.removeBookFromBorrowedList(book);
+                return;
+            }
+        }
+    }
+
+    // ---------- updates for other branches ----------
+
+    private void forwardFine(JournalEntry event, long sequence, boolean endOfBatch) {
+        if (event.getType() == JournalEntry.Type.FINE) {
+            String home = directory.ownerOfMember(event.getMemberID());
+            if (!isMine(home)) {
+                // every event has its own ring sequence, so a retry of this fine is told apart from a second fine
+                deliver(new RemoteUpdate(DUES, home, event.getMemberID(), null, event.getAmount(),
+                        name + "-" + run + "#" + sequence));
+            }
+        }
+    }
+
+    private void deliver(RemoteUpdate update) {
+        try {
+            update.sendTo(peer(update.branch));
+        } catch (UncheckedIOException e) {
+            undelivered.add(update);
+        }
+    }
+
+    private void retryUndelivered() {
+        for (int pending = undelivered.size(); pending > 0; pending--) {
+            RemoteUpdate update = undelivered.poll();
+            if (update == null) {
+                return;
+            }
+            deliver(update);
+        }
+    }
+
+    private static final class RemoteUpdate {
+        final byte op;
+        final String branch;
+        final String memberID;
+        final String bookID;
+        final long amount;
+        final String key; // the reservation for RELEASE, the loan for RETURNED, the fine event for DUES
+
+        RemoteUpdate(byte op, String branch, String memberID, String bookID, long amount, String key) {
+            this.op = op;
+            this.branch = branch;
+            this.memberID = memberID;
+            this.bookID = bookID;
+            this.amount = amount;
+            this.key = key;
+        }
+
+        void sendTo(BranchClient client) {
+            switch (op) {
+                case RELEASE -> client.release(memberID, bookID, key);
+                case RETURNED -> client.returned(memberID, bookID, amount, key);
+                case DUES -> client.dues(memberID, amount, key);
+                default -> throw new IllegalStateException("Not a remote update: " + op);
+            }
+        }
+    }
+
+    // the last "capacity" keys, the oldest one is forgotten first
+    private static final class RecentKeys {
+        private final int capacity;
+        private final Set<String> keys = new HashSet<>();
+        private final ArrayDeque<String> order = new ArrayDeque<>();
+
+        RecentKeys(int capacity) {
+            this.capacity = capacity;
+        }
+
+        synchronized boolean add(String key) {
+            if (!keys.add(key)) {
+                return false;
+            }
+            order.addLast(key);
+            if (order.size() > capacity) {
+                keys.remove(order.pollFirst());
+            }
+            return true;
+        }
+
+        synchronized boolean contains(String key) {
+            return keys.contains(key);
+        }
+
+        synchronized void remove(String key) {
+            if (keys.remove(key)) {
+                order.removeLastOccurrence(key); // only after a failed update, so the scan is rare
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        try {
+            if (server != null) {
+                server.close();
+            }
+        } catch (IOException ignored) {
+            // closing anyway
+        }
+        connections.shutdownNow();
+        events.close();
+        retryUndelivered();
+        retries.shutdownNow();
+        peers.values().forEach(BranchClient::close);
+    }
+
+    // java library.circulation.branch.BranchNode <name> <branch list> [id file]
+    //   e.g. BranchNode north north=127.0.0.1:7001,south=127.0.0.1:7002 branch-ids.properties
+    // every branch on the machine has to use the same id file, so their book and member ids never collide.
+    // the shared branch secret comes from the BRANCH_SECRET environment variable, not the command line where ps shows it
+    public static void main(String[] args) throws InterruptedException {
+        if (args.length < 2) {
+            System.err.println("usage: BranchNode <name> <name=host:port,...> [id file]");
+            System.exit(2);
+        }
+        String secret = System.getenv("BRANCH_SECRET");
+        if (secret == null || secret.isEmpty()) {
+            System.err.println("BRANCH_SECRET must be set, to the same value at every branch");
+            System.exit(2);
+        }
+        IdGenerator.install(new BlockIdAllocator(
+                new FileHighWaterMarkStore(Path.of(args.length > 2 ? args[2] : "branch-ids.properties")), 100));
+
+        BranchNode node = new BranchNode(args[0], BranchDirectory.parse(args[1]), new LibraryService(), secret);
+        node.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(node::close));
+        System.out.println("Branch " + args[0] + " listening on " + node.directory.addressOf(args[0]));
+        node.acceptor.join();
+    }
+}
@@ -0,0 +1,53 @@
+package library.circulation.branch;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+// wire format between branches and their clients, over plain tcp connections that stay open.
+// a request is one op byte followed by its fields, a response is one status byte followed by the result
+// (OK) or the error message. Strings are writeUTF with a leading flag byte so they can be null.
+final class BranchProtocol {
+
+    // client operations, any branch accepts them and forwards to the owner if needed
+    static final byte ADD_BOOK = 1;        // title, author, genre, rating -> bookID
+    static final byte ADD_MEMBER = 2;      // name, age, occupation, email, password, phone -> memberID
+    static final byte BORROW = 3;          // bookID, memberID, unit, duration -> transactionID
+    static final byte RETURN = 4;          // bookID, memberID -> fine
+    static final byte RENEW = 5;           // bookID, memberID, unit, duration -> new due date (epoch day)
+    static final byte PAY_FINE = 6;        // memberID, amount -> dues left
+    static final byte REMOVE_BOOK = 7;     // bookID
+    static final byte MEMBER_STATUS = 8;   // memberID -> dues, borrowed count, borrow limit
+
+    // between branches only. A branch opens each connection with HELLO and the shared branch secret, the other
+    // ops below are refused on a connection that didn't
+    static final byte HELLO = 19;          // branch secret
+    static final byte PUT_BOOK = 20;       // a book created at another branch, with its id
+    static final byte PUT_MEMBER = 21;     // a member registered at another branch, with its id and hash
+    // the updates are retried until they get an answer, so each carries a key and is applied only once
+    static final byte RESERVE = 22;        // memberID, reservation key + book -> member profile, a borrow slot is taken
+    static final byte RELEASE = 23;        // memberID, bookID, reservation key, the slot goes back
+    static final byte RETURNED = 24;       // memberID, bookID, fine, key, the slot goes back and the fine is posted
+    static final byte DUES = 25;           // memberID, fine, key, fine posted by the overdue run or a renewal
+
+    static final byte OK = 0;
+    static final byte ILLEGAL_ARGUMENT = 1;
+    static final byte ILLEGAL_STATE = 2;
+
+    private BranchProtocol() {}
+
+    static boolean isBranchOnly(byte op) {
+        return op >= PUT_BOOK && op <= DUES;
+    }
+
+    static void writeString(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    static String readString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+}
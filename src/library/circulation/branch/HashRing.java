@@ -0,0 +1,87 @@
+package library.circulation.branch;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+
+// consistent hashing of book and member ids onto branches. Every branch is put on the ring many times
+// ("virtual nodes"), so the keys spread evenly and adding or dropping one branch only moves the keys
+// between it and its neighbours, about 1/n of them, instead of reshuffling everything like hash % n would.
+// Immutable, so every node and client that is built from the same branch list routes the same way.
+public final class HashRing {
+
+    private static final int DEFAULT_VIRTUAL_NODES = 128;
+
+    private final List<String> branches;
+    private final long[] points;     // sorted positions on the ring
+    private final String[] owners;   // owner of the arc that ends at the same index in points
+
+    public HashRing(Collection<String> branches) {
+        this(branches, DEFAULT_VIRTUAL_NODES);
+    }
+
+    public HashRing(Collection<String> branches, int virtualNodes) {
+        Objects.requireNonNull(branches, "Branches cannot be null.");
+        if (branches.isEmpty()) {
+            throw new IllegalArgumentException("At least one branch is needed.");
+        }
+        if (virtualNodes <= 0) {
+            throw new IllegalArgumentException("Virtual nodes must be greater than 0.");
+        }
+        this.branches = List.copyOf(new LinkedHashSet<>(branches));
+        TreeMap<Long, String> ring = new TreeMap<>();
+        for (String branch : this.branches) {
+            for (int i = 0; i < virtualNodes; i++) {
+                // on the rare collision the smaller name keeps the point, so the order of the list doesn't matter
+                ring.merge(hash(branch + "#" + i), branch, (kept, other) -> kept.compareTo(other) <= 0 ? kept : other);
+            }
+        }
+        this.points = new long[ring.size()];
+        this.owners = new String[ring.size()];
+        int index = 0;
+        for (Map.Entry<Long, String> point : ring.entrySet()) {
+            points[index] = point.getKey();
+            owners[index] = point.getValue();
+            index++;
+        }
+    }
+
+    // the branch that owns the key: the first point at or after the key's hash, wrapping around at the end
+    public String ownerOf(String key) {
+        Objects.requireNonNull(key, "Key cannot be null.");
+        long hash = hash(key);
+        int low = 0;
+        int high = points.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (points[middle] < hash) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return owners[low == points.length ? 0 : low];
+    }
+
+    public List<String> getBranches() { return branches; }
+
+    // FNV-1a over the utf-8 bytes, then the murmur3 finalizer so ids that only differ in the last digit
+    // still land far apart. String.hashCode is too weak for this, "BK_10" and "BK_11" would be neighbours
+    static long hash(String key) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : key.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b & 0xff;
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
@@ -0,0 +1,51 @@
+package library.circulation.events;
+
+import library.circulation.journal.JournalEntry;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Objects;
+
+// human readable log of every circulation event, one line each. Lines are buffered and written out
+// once per batch, so a burst at the desks costs one write instead of one per event.
+//
+// usage:
+//     ring.addConsumer("audit", new AuditLog(Path.of("audit.log")));
+public class AuditLog implements EventHandler, AutoCloseable {
+
+    private final BufferedWriter writer;
+
+    public AuditLog(Path file) {
+        Objects.requireNonNull(file, "Audit log file cannot be null.");
+        try {
+            this.writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8,
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not open audit log " + file, e);
+        }
+    }
+
+    @Override
+    public void onEvent(JournalEntry event, long sequence, boolean endOfBatch) throws IOException {
+        writer.write(event.toString());
+        writer.newLine();
+        if (endOfBatch) {
+            writer.flush();
+        }
+    }
+
+    // call after the ring is closed, so no event comes in while the file is closed
+    @Override
+    public void close() {
+        try {
+            writer.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not close audit log", e);
+        }
+    }
+}
@@ -0,0 +1,9 @@
+package library.circulation.events;
+
+import library.circulation.journal.JournalEntry;
+
+// a consumer of the event ring, called on the consumer's own thread, one event after another in ring order.
+// endOfBatch is true for the last event that was available, a good moment to flush whatever was buffered
+public interface EventHandler {
+    void onEvent(JournalEntry event, long sequence, boolean endOfBatch) throws Exception;
+}
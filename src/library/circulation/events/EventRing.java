@@ -0,0 +1,249 @@
+package library.circulation.events;
+
+import library.circulation.journal.JournalEntry;
+
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+// Bounded ring of circulation events (the same immutable JournalEntry values the journal gets) between
+// LibraryService and the side work that doesn't have to happen on the desk's thread: audit logs,
+// notifications, analytics...
+//
+// The array of slots is allocated once. A publisher claims the next sequence with one CAS, puts the event in
+// its slot and marks the slot as published, that's all the desk pays no matter how many consumers there are.
+// Every consumer has its own thread and its own position, sees every event in sequence order, and takes
+// everything that is published in one batch. A slot is only reused once the slowest consumer is past it;
+// if the ring is full the publisher either waits for that consumer (BLOCK) or drops the event (DROP).
+// A consumer with nothing to do spins a little, then yields, then parks until a publisher wakes it up. While no
+// consumer sleeps, that costs the publisher one volatile read.
+public class EventRing implements AutoCloseable {
+
+    private static final System.Logger LOG = System.getLogger(EventRing.class.getName());
+
+    public enum Overflow { BLOCK, DROP }
+
+    private final int mask;
+    private final JournalEntry[] slots;
+    // sequence last published in each slot, a consumer waits until its slot shows the sequence it expects
+    private final AtomicLongArray published;
+    private final AtomicLong claimed = new AtomicLong(-1);
+    private final Overflow overflow;
+    private final List<EventConsumer> consumers = new CopyOnWriteArrayList<>();
+    private final LongAdder dropped = new LongAdder();
+    // consumers parked or about to park, see EventConsumer.sleep
+    private final AtomicInteger sleepers = new AtomicInteger();
+    // last known position of the slowest consumer, saves reading all of them on every publish
+    private volatile long gatingCache = -1;
+    private volatile boolean closed;
+
+    public EventRing(int capacity, Overflow overflow) {
+        if (capacity <= 0 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("Capacity must be a power of two.");
+        }
+        this.mask = capacity - 1;
+        this.slots = new JournalEntry[capacity];
+        this.published = new AtomicLongArray(capacity);
+        for (int i = 0; i < capacity; i++) {
+            published.set(i, -1);
+        }
+        this.overflow = Objects.requireNonNull(overflow, "Overflow cannot be null.");
+    }
+
+    // starts a consumer thread right away, it sees the events published from now on
+    public void addConsumer(String name, EventHandler handler) {
+        Objects.requireNonNull(name, "Name cannot be null.");
+        Objects.requireNonNull(handler, "Handler cannot be null.");
+        if (closed) {
+            throw new IllegalStateException("Event ring is closed.");
+        }
+        EventConsumer consumer = new EventConsumer(name, handler, claimed.get());
+        consumers.add(consumer);
+        consumer.thread.start();
+    }
+
+    // returns false if the event was dropped (ring full with Overflow.DROP, or closed)
+    public boolean publish(JournalEntry event) {
+        Objects.requireNonNull(event, "Event cannot be null.");
+        int capacity = mask + 1;
+        long sequence;
+        while (true) {
+            if (closed) {
+                dropped.increment();
+                return false;
+            }
+            long current = claimed.get();
+            long next = current + 1;
+            long wrapPoint = next - capacity;
+            if (wrapPoint > gatingCache) {
+                long slowest = slowestConsumer(current);
+                gatingCache = slowest;
+                if (wrapPoint > slowest) {
+                    if (overflow == Overflow.DROP) {
+                        dropped.increment();
+                        return false;
+                    }
+                    LockSupport.parkNanos(1_000); // the slowest consumer needs a moment
+                    continue;
+                }
+            }
+            if (claimed.compareAndSet(current, next)) {
+                sequence = next;
+                break;
+            }
+        }
+        int slot = (int) sequence & mask;
+        slots[slot] = event;
+        published.set(slot, sequence); // volatile write, makes the slot content visible to the consumers
+        if (sleepers.get() > 0) {
+            wakeSleepers();
+        }
+        return true;
+    }
+
+    private void wakeSleepers() {
+        for (EventConsumer consumer : consumers) {
+            if (consumer.sleeping) {
+                LockSupport.unpark(consumer.thread);
+            }
+        }
+    }
+
+    private long slowestConsumer(long fallback) {
+        long slowest = fallback;
+        for (EventConsumer consumer : consumers) {
+            slowest = Math.min(slowest, consumer.sequence.get());
+        }
+        return slowest;
+    }
+
+    public int getCapacity() { return mask + 1; }
+    public long getPublished() { return claimed.get() + 1; }
+    public long getDropped() { return dropped.sum(); }
+
+    // events published but not yet handled by the named consumer
+    public long getLag(String consumerName) {
+        for (EventConsumer consumer : consumers) {
+            if (consumer.name.equals(consumerName)) {
+                return claimed.get() - consumer.sequence.get();
+            }
+        }
+        throw new IllegalArgumentException("No consumer named " + consumerName);
+    }
+
+    public long getHandlerErrors() {
+        long errors = 0;
+        for (EventConsumer consumer : consumers) {
+            errors += consumer.errors.sum();
+        }
+        return errors;
+    }
+
+    // stops taking events, lets every consumer finish what was published and waits for them
+    @Override
+    public void close() {
+        closed = true;
+        for (EventConsumer consumer : consumers) {
+            LockSupport.unpark(consumer.thread);
+        }
+        for (EventConsumer consumer : consumers) {
+            try {
+                consumer.thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private final class EventConsumer implements Runnable {
+        final String name;
+        final EventHandler handler;
+        final AtomicLong sequence; // last sequence this consumer is done with
+        final LongAdder errors = new LongAdder();
+        final Thread thread;
+        volatile boolean sleeping;
+
+        EventConsumer(String name, EventHandler handler, long startAfter) {
+            this.name = name;
+            this.handler = handler;
+            this.sequence = new AtomicLong(startAfter);
+            this.thread = new Thread(this, "event-" + name);
+            this.thread.setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            long next = sequence.get() + 1;
+            int idle = 0;
+            while (true) {
+                long available = highestPublished(next, claimed.get());
+                if (available < next) {
+                    if (closed && next > claimed.get()) {
+                        return; // everything that was claimed before close is handled
+                    }
+                    idle = idle(idle, next);
+                    continue;
+                }
+                idle = 0;
+                for (long current = next; current <= available; current++) {
+                    handle(slots[(int) current & mask], current, current == available);
+                }
+                sequence.set(available); // frees the slots for the publishers
+                next = available + 1;
+            }
+        }
+
+        // publishers fill their slots in any order, the batch ends before the first slot that isn't filled yet
+        private long highestPublished(long from, long upTo) {
+            for (long current = from; current <= upTo; current++) {
+                if (published.get((int) current & mask) != current) {
+                    return current - 1;
+                }
+            }
+            return upTo;
+        }
+
+        private void handle(JournalEntry event, long eventSequence, boolean endOfBatch) {
+            try {
+                handler.onEvent(event, eventSequence, endOfBatch);
+            } catch (Exception e) {
+                // one broken consumer must not stop the others or the desks
+                errors.increment();
+                LOG.log(System.Logger.Level.ERROR, "Event consumer " + name + " failed on event " + eventSequence, e);
+            }
+        }
+
+        // spin a little, then yield, then sleep until event "next" is published
+        private int idle(int idle, long next) {
+            if (idle < 100) {
+                Thread.onSpinWait();
+            } else if (idle < 200) {
+                Thread.yield();
+            } else {
+                sleep(next);
+            }
+            return idle + 1;
+        }
+
+        // the sleep is announced before the slot is checked again, and publish fills the slot before it looks for
+        // sleepers. Both are volatile, so either this check sees the event or the publisher sees the sleeper
+        private void sleep(long next) {
+            sleeping = true;
+            sleepers.incrementAndGet();
+            try {
+                while (!closed && published.get((int) next & mask) != next) {
+                    LockSupport.park(this);
+                }
+            } finally {
+                sleepers.decrementAndGet();
+                sleeping = false;
+            }
+        }
+    }
+}
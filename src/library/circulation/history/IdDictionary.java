@@ -0,0 +1,57 @@
+package library.circulation.history;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// gives every distinct member / book id a small int key, so the archive stores 4 bytes per row instead of a String.
+// there are a lot fewer members and books than loans, so the strings themselves are only kept once here
+final class IdDictionary {
+
+    static final int UNKNOWN = -1;
+
+    private final Map<String, Integer> keys = new ConcurrentHashMap<>();
+    // key -> id. Replaced by a bigger copy when full, readers always see a copy holding every key they can meet
+    private volatile String[] ids = new String[1024];
+    private int size; // only changed by the archive's writer
+
+    // the key of an id, or UNKNOWN if it never was archived
+    int keyOf(String id) {
+        Integer key = keys.get(id);
+        return key == null ? UNKNOWN : key;
+    }
+
+    // the caller holds the archive's append lock
+    int intern(String id) {
+        Integer existing = keys.get(id);
+        if (existing != null) {
+            return existing;
+        }
+        String[] current = ids;
+        if (size == current.length) {
+            current = Arrays.copyOf(current, current.length * 2);
+            ids = current;
+        }
+        int key = size++;
+        current[key] = id;
+        keys.put(id, key);
+        return key;
+    }
+
+    String idOf(int key) {
+        return ids[key];
+    }
+
+    int size() {
+        return keys.size();
+    }
+
+    // rough heap use: the map entry, the Integer, the String and its bytes for every id
+    long estimatedBytes() {
+        long bytes = (long) ids.length * 4;
+        for (String id : keys.keySet()) {
+            bytes += 32 + 16 + 40 + id.length();
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,403 @@
+package library.circulation.history;
+
+import library.circulation.ids.IdGenerator;
+import library.circulation.models.Transaction;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.function.Consumer;
+import java.util.stream.IntStream;
+
+// Archive of returned loans, stored column by column in primitive buffers instead of one Transaction per loan.
+// A Transaction object with its 3 id strings and up to 5 LocalDates costs a few hundred bytes on the heap,
+// a row here is 37 bytes:
+//   - transaction id: only the number of "TR_100042" is kept (long)
+//   - member and book id: int keys into an IdDictionary
+//   - dates: epoch days (int), NO_DAY when there is none
+//   - fine (int) and renewal count (byte)
+// Rows live in fixed size chunks, so growing never copies old rows. The buffers are either plain heap buffers or
+// direct (off-heap) ones, which the GC doesn't have to look at all.
+// Every chunk remembers its lowest and highest issue and return day. Loans are archived in the order they come back,
+// so a scan over a date range skips all chunks outside of it without reading a single row.
+//
+// One writer at a time (add is synchronized), any number of readers without locks: a row only becomes visible
+// once "size" is written, after all of its columns are.
+public class LoanHistory {
+
+    public static final int NO_DAY = Integer.MIN_VALUE;
+
+    private static final String TRANSACTION_PREFIX = "TR_";
+    private static final int CHUNK_SHIFT = 16;
+    private static final int CHUNK_ROWS = 1 << CHUNK_SHIFT; // 65536 rows per chunk
+    private static final int ROW_BYTES = 8 + 4 * 7 + 1;
+    private static final int ANY = -2;
+
+    private final boolean offHeap;
+    private final IdDictionary members = new IdDictionary();
+    private final IdDictionary books = new IdDictionary();
+    private volatile Chunk[] chunks = new Chunk[0];
+    private volatile int size;
+    private long highestTransactionNumber = -1; // only changed by the writer
+
+    public LoanHistory() {
+        this(false);
+    }
+
+    // offHeap = true keeps the columns in direct buffers, outside of the java heap
+    public LoanHistory(boolean offHeap) {
+        this.offHeap = offHeap;
+    }
+
+    // archives a returned loan
+    public synchronized void add(Transaction transaction) {
+        Objects.requireNonNull(transaction, "Transaction cannot be null.");
+        LocalDate returnDate = transaction.getReturnDate();
+        if (returnDate == null) {
+            throw new IllegalArgumentException("Only returned transactions can be archived: " + transaction.getTransactionID());
+        }
+
+        append(transactionNumber(transaction.getTransactionID()), transaction.getMemberID(), transaction.getBorrowedBookID(),
+                day(transaction.getIssueDate()), day(transaction.getDueDate()), day(returnDate),
+                day(transaction.getRenewalDate()), Math.toIntExact(transaction.getFine()), transaction.getRenewalCount());
+    }
+
+    // puts back a row exactly as a Row showed it, e.g. from a snapshot. Rows have to come back in their old order
+    public synchronized void restore(String transactionID, String memberID, String bookID, int issueDay, int dueDay,
+                                     int returnDay, int renewalDay, long fine, int renewalCount) {
+        Objects.requireNonNull(memberID, "Member ID cannot be null.");
+        Objects.requireNonNull(bookID, "Book ID cannot be null.");
+        if (returnDay == NO_DAY) {
+            throw new IllegalArgumentException("Only returned transactions can be archived: " + transactionID);
+        }
+        append(transactionNumber(transactionID), memberID, bookID, issueDay, dueDay, returnDay, renewalDay,
+                Math.toIntExact(fine), renewalCount);
+    }
+
+    private void append(long transactionNumber, String memberID, String bookID, int issueDay, int dueDay, int returnDay,
+                        int renewalDay, int fine, int renewalCount) {
+        int row = size;
+        Chunk chunk = chunkFor(row);
+        int offset = row & (CHUNK_ROWS - 1);
+
+        chunk.transactionNumbers.put(offset, transactionNumber);
+        chunk.memberKeys.put(offset, members.intern(memberID));
+        chunk.bookKeys.put(offset, books.intern(bookID));
+        chunk.issueDays.put(offset, issueDay);
+        chunk.dueDays.put(offset, dueDay);
+        chunk.returnDays.put(offset, returnDay);
+        chunk.renewalDays.put(offset, renewalDay);
+        chunk.fines.put(offset, fine);
+        chunk.renewalCounts.put(offset, (byte) renewalCount);
+        chunk.include(issueDay, returnDay);
+        highestTransactionNumber = Math.max(highestTransactionNumber, transactionNumber);
+
+        size = row + 1; // publishes the row
+    }
+
+    private Chunk chunkFor(int row) {
+        int index = row >>> CHUNK_SHIFT;
+        Chunk[] current = chunks;
+        if (index == current.length) {
+            current = Arrays.copyOf(current, index + 1);
+            current[index] = new Chunk(offHeap);
+            chunks = current;
+        }
+        return current[index];
+    }
+
+    private static long transactionNumber(String transactionID) {
+        if (transactionID == null || !transactionID.startsWith(TRANSACTION_PREFIX)) {
+            throw new IllegalArgumentException("Unexpected transaction ID: " + transactionID);
+        }
+        long number;
+        try {
+            number = Long.parseLong(transactionID, TRANSACTION_PREFIX.length(), transactionID.length(), 10);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Unexpected transaction ID: " + transactionID, e);
+        }
+        if (number < 0) {
+            throw new IllegalArgumentException("Unexpected transaction ID: " + transactionID);
+        }
+        return number;
+    }
+
+    private static int day(LocalDate date) {
+        return date == null ? NO_DAY : (int) date.toEpochDay();
+    }
+
+    private static LocalDate date(int day) {
+        return day == NO_DAY ? null : LocalDate.ofEpochDay(day);
+    }
+
+    public int size() { return size; }
+
+    // the number of the newest loan archived ("TR_100042" -> 100042), -1 while empty
+    public synchronized long getHighestTransactionNumber() { return highestTransactionNumber; }
+
+    public boolean isOffHeap() { return offHeap; }
+
+    public int distinctMembers() { return members.size(); }
+
+    public int distinctBooks() { return books.size(); }
+
+    // turns the keys of Row.getMemberKey / getBookKey back into ids
+    public String memberID(int memberKey) { return members.idOf(memberKey); }
+
+    public String bookID(int bookKey) { return books.idOf(bookKey); }
+
+    // bytes taken by the columns plus a rough estimate for the id dictionaries
+    public long estimatedBytes() {
+        return (long) chunks.length * CHUNK_ROWS * ROW_BYTES + members.estimatedBytes() + books.estimatedBytes();
+    }
+
+    public Query query() {
+        return new Query();
+    }
+
+    // ---------- scanning ----------
+
+    // filters are combined with AND. Every terminal method (forEach, count, totalFines) scans the rows
+    // that were archived when it started
+    public final class Query {
+        private int fromReturnDay = Integer.MIN_VALUE;
+        private int toReturnDay = Integer.MAX_VALUE;
+        private int fromIssueDay = Integer.MIN_VALUE;
+        private int toIssueDay = Integer.MAX_VALUE;
+        private int fromRow = 0;
+        private int toRow = Integer.MAX_VALUE;
+        private int memberKey = ANY;
+        private int bookKey = ANY;
+        private boolean lateOnly;
+        private boolean renewedOnly;
+
+        private Query() {}
+
+        // both ends included
+        public Query returnedBetween(LocalDate from, LocalDate to) {
+            Objects.requireNonNull(from, "From date cannot be null.");
+            Objects.requireNonNull(to, "To date cannot be null.");
+            fromReturnDay = day(from);
+            toReturnDay = day(to);
+            return this;
+        }
+
+        // both ends included
+        public Query issuedBetween(LocalDate from, LocalDate to) {
+            Objects.requireNonNull(from, "From date cannot be null.");
+            Objects.requireNonNull(to, "To date cannot be null.");
+            fromIssueDay = day(from);
+            toIssueDay = day(to);
+            return this;
+        }
+
+        // only rows archived in [fromRow, toRow), e.g. the ones added since the last look at size()
+        public Query rows(int fromRow, int toRow) {
+            if (fromRow < 0 || toRow < fromRow) {
+                throw new IllegalArgumentException("Invalid row range " + fromRow + " - " + toRow + ".");
+            }
+            this.fromRow = fromRow;
+            this.toRow = toRow;
+            return this;
+        }
+
+        public Query member(String memberID) {
+            Objects.requireNonNull(memberID, "Member ID cannot be null.");
+            memberKey = members.keyOf(memberID);
+            return this;
+        }
+
+        public Query book(String bookID) {
+            Objects.requireNonNull(bookID, "Book ID cannot be null.");
+            bookKey = books.keyOf(bookID);
+            return this;
+        }
+
+        // only loans returned after their (last) due date
+        public Query lateOnly() {
+            lateOnly = true;
+            return this;
+        }
+
+        public Query renewedOnly() {
+            renewedOnly = true;
+            return this;
+        }
+
+        // the Row handed to the action is reused for the next match, copy what you want to keep
+        public void forEach(Consumer<Row> action) {
+            Objects.requireNonNull(action, "Action cannot be null.");
+            Row row = new Row();
+            scan((chunk, offset) -> {
+                row.moveTo(chunk, offset);
+                action.accept(row);
+            });
+        }
+
+        // like forEach, but the chunks are scanned in parallel on the fork-join pool this is called from
+        // (the common pool otherwise). The action has to be thread safe, every thread gets its own Row
+        public void forEachParallel(Consumer<Row> action) {
+            Objects.requireNonNull(action, "Action cannot be null.");
+            if (!canMatch()) {
+                return;
+            }
+            int rows = Math.min(size, toRow);
+            Chunk[] current = chunks;
+            IntStream.range(fromRow >>> CHUNK_SHIFT, (rows + CHUNK_ROWS - 1) >>> CHUNK_SHIFT).parallel().forEach(index -> {
+                Row row = new Row();
+                scanChunk(current[index], index, rows, (chunk, offset) -> {
+                    row.moveTo(chunk, offset);
+                    action.accept(row);
+                });
+            });
+        }
+
+        public long count() {
+            long[] count = new long[1];
+            scan((chunk, offset) -> count[0]++);
+            return count[0];
+        }
+
+        public long totalFines() {
+            long[] total = new long[1];
+            scan((chunk, offset) -> total[0] += chunk.fines.get(offset));
+            return total[0];
+        }
+
+        // an id that was never archived can't match anything
+        private boolean canMatch() {
+            return memberKey != IdDictionary.UNKNOWN && bookKey != IdDictionary.UNKNOWN;
+        }
+
+        private void scan(RowVisitor visitor) {
+            if (!canMatch()) {
+                return;
+            }
+            int rows = Math.min(size, toRow); // size is read before chunks, so every row below it is complete
+            Chunk[] current = chunks;
+
+            for (int index = fromRow >>> CHUNK_SHIFT; index * CHUNK_ROWS < rows; index++) {
+                scanChunk(current[index], index, rows, visitor);
+            }
+        }
+
+        private void scanChunk(Chunk chunk, int index, int rows, RowVisitor visitor) {
+            if (chunk.maxReturnDay < fromReturnDay || chunk.minReturnDay > toReturnDay
+                    || chunk.maxIssueDay < fromIssueDay || chunk.minIssueDay > toIssueDay) {
+                return; // nothing in this chunk is in the date range
+            }
+            int chunkStart = index * CHUNK_ROWS;
+            int start = Math.max(0, fromRow - chunkStart);
+            int end = Math.min(CHUNK_ROWS, rows - chunkStart);
+            for (int offset = start; offset < end; offset++) {
+                if (matches(chunk, offset)) {
+                    visitor.visit(chunk, offset);
+                }
+            }
+        }
+
+        private boolean matches(Chunk chunk, int offset) {
+            int returnDay = chunk.returnDays.get(offset);
+            if (returnDay < fromReturnDay || returnDay > toReturnDay) {
+                return false;
+            }
+            int issueDay = chunk.issueDays.get(offset);
+            if (issueDay < fromIssueDay || issueDay > toIssueDay) {
+                return false;
+            }
+            if (memberKey != ANY && chunk.memberKeys.get(offset) != memberKey) {
+                return false;
+            }
+            if (bookKey != ANY && chunk.bookKeys.get(offset) != bookKey) {
+                return false;
+            }
+            if (lateOnly && returnDay <= chunk.dueDays.get(offset)) {
+                return false;
+            }
+            return !renewedOnly || chunk.renewalCounts.get(offset) > 0;
+        }
+    }
+
+    private interface RowVisitor {
+        void visit(Chunk chunk, int offset);
+    }
+
+    // a view of one archived loan. Ids and dates are only turned back into objects when asked for
+    public final class Row {
+        private Chunk chunk;
+        private int offset;
+
+        private Row() {}
+
+        private void moveTo(Chunk chunk, int offset) {
+            this.chunk = chunk;
+            this.offset = offset;
+        }
+
+        public String getTransactionID() {
+            return IdGenerator.format(TRANSACTION_PREFIX, chunk.transactionNumbers.get(offset), 6);
+        }
+        public String getMemberID() { return members.idOf(getMemberKey()); }
+        public String getBookID() { return books.idOf(getBookKey()); }
+        // dense keys, 0 until distinctMembers() / distinctBooks(). Handy as array indexes
+        public int getMemberKey() { return chunk.memberKeys.get(offset); }
+        public int getBookKey() { return chunk.bookKeys.get(offset); }
+        public int getIssueDay() { return chunk.issueDays.get(offset); }
+        public int getDueDay() { return chunk.dueDays.get(offset); }
+        public int getReturnDay() { return chunk.returnDays.get(offset); }
+        public int getRenewalDay() { return chunk.renewalDays.get(offset); }
+        public LocalDate getIssueDate() { return date(getIssueDay()); }
+        public LocalDate getDueDate() { return date(getDueDay()); }
+        public LocalDate getReturnDate() { return date(getReturnDay()); }
+        public LocalDate getRenewalDate() { return date(getRenewalDay()); }
+        public long getFine() { return chunk.fines.get(offset); }
+        public int getRenewalCount() { return chunk.renewalCounts.get(offset); }
+        public boolean isLate() { return getReturnDay() > getDueDay(); }
+    }
+
+    private static final class Chunk {
+        final LongBuffer transactionNumbers;
+        final IntBuffer memberKeys;
+        final IntBuffer bookKeys;
+        final IntBuffer issueDays;
+        final IntBuffer dueDays;
+        final IntBuffer returnDays;
+        final IntBuffer renewalDays;
+        final IntBuffer fines;
+        final ByteBuffer renewalCounts;
+
+        // zone map, only grows. Written before the row is published
+        int minIssueDay = Integer.MAX_VALUE;
+        int maxIssueDay = Integer.MIN_VALUE;
+        int minReturnDay = Integer.MAX_VALUE;
+        int maxReturnDay = Integer.MIN_VALUE;
+
+        Chunk(boolean offHeap) {
+            transactionNumbers = allocate(offHeap, CHUNK_ROWS * 8).asLongBuffer();
+            memberKeys = allocate(offHeap, CHUNK_ROWS * 4).asIntBuffer();
+            bookKeys = allocate(offHeap, CHUNK_ROWS * 4).asIntBuffer();
+            issueDays = allocate(offHeap, CHUNK_ROWS * 4).asIntBuffer();
+            dueDays = allocate(offHeap, CHUNK_ROWS * 4).asIntBuffer();
+            returnDays = allocate(offHeap, CHUNK_ROWS * 4).asIntBuffer();
+            renewalDays = allocate(offHeap, CHUNK_ROWS * 4).asIntBuffer();
+            fines = allocate(offHeap, CHUNK_ROWS * 4).asIntBuffer();
+            renewalCounts = allocate(offHeap, CHUNK_ROWS);
+        }
+
+        void include(int issueDay, int returnDay) {
+            minIssueDay = Math.min(minIssueDay, issueDay);
+            maxIssueDay = Math.max(maxIssueDay, issueDay);
+            minReturnDay = Math.min(minReturnDay, returnDay);
+            maxReturnDay = Math.max(maxReturnDay, returnDay);
+        }
+
+        private static ByteBuffer allocate(boolean offHeap, int bytes) {
+            ByteBuffer buffer = offHeap ? ByteBuffer.allocateDirect(bytes) : ByteBuffer.allocate(bytes);
+            return buffer.order(ByteOrder.nativeOrder());
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package library.circulation.http;
+
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+// one parsed request. Header names are lower case
+final class HttpRequest {
+
+    private final String method;
+    private final String path;
+    private final String rawQuery;
+    private final Map<String, String> headers;
+    private final byte[] body;
+
+    HttpRequest(String method, String target, Map<String, String> headers, byte[] body) {
+        this.method = method;
+        int question = target.indexOf('?');
+        this.path = URLDecoder.decode(question < 0 ? target : target.substring(0, question), StandardCharsets.UTF_8);
+        this.rawQuery = question < 0 ? null : target.substring(question + 1);
+        this.headers = headers;
+        this.body = body;
+    }
+
+    String getMethod() { return method; }
+    String getPath() { return path; }
+    String getHeader(String name) { return headers.get(name); }
+    byte[] getBody() { return body; }
+
+    Map<String, String> getQuery() {
+        Map<String, String> values = new HashMap<>();
+        if (rawQuery == null) {
+            return values;
+        }
+        for (String pair : rawQuery.split("&")) {
+            int equals = pair.indexOf('=');
+            String key = equals < 0 ? pair : pair.substring(0, equals);
+            String value = equals < 0 ? "" : pair.substring(equals + 1);
+            values.put(URLDecoder.decode(key, StandardCharsets.UTF_8), URLDecoder.decode(value, StandardCharsets.UTF_8));
+        }
+        return values;
+    }
+}
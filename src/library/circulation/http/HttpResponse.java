@@ -0,0 +1,51 @@
+package library.circulation.http;
+
+import java.nio.charset.StandardCharsets;
+
+// status, content type and body of one answer
+final class HttpResponse {
+
+    private final int status;
+    private final String contentType;
+    private final byte[] body;
+    private final String allow;
+    private final String authenticate;
+
+    HttpResponse(int status, String contentType, String body) {
+        this(status, contentType, body, null, null);
+    }
+
+    private HttpResponse(int status, String contentType, String body, String allow, String authenticate) {
+        this.status = status;
+        this.contentType = contentType;
+        this.body = body.getBytes(StandardCharsets.UTF_8);
+        this.allow = allow;
+        this.authenticate = authenticate;
+    }
+
+    static HttpResponse json(int status, Json json) {
+        return new HttpResponse(status, "application/json; charset=utf-8", json.toString());
+    }
+
+    static HttpResponse error(int status, String message) {
+        return json(status, new Json().beginObject().field("error", message).endObject());
+    }
+
+    static HttpResponse methodNotAllowed(String allowed, String message) {
+        return new HttpResponse(405, "application/json; charset=utf-8",
+                new Json().beginObject().field("error", message).endObject().toString(), allowed, null);
+    }
+
+    static HttpResponse unauthorized(String message) {
+        return new HttpResponse(401, "application/json; charset=utf-8",
+                new Json().beginObject().field("error", message).endObject().toString(), null, "Bearer");
+    }
+
+    int getStatus() { return status; }
+    String getContentType() { return contentType; }
+    byte[] getBody() { return body; }
+    // the allowed method of a 405, otherwise null
+    String getAllow() { return allow; }
+    // the scheme of a 401, otherwise null
+    String getAuthenticate() { return authenticate; }
+}
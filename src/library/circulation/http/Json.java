@@ -0,0 +1,222 @@
+package library.circulation.http;
+
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// just enough json for the api: writing objects and arrays into a StringBuilder, and reading the flat
+// request bodies ({"bookID": "FIC_12", "duration": 7}). Nested objects in a request are rejected.
+final class Json {
+
+    private final StringBuilder out;
+    // true right after { or [, so the next value doesn't get a comma in front
+    private boolean first = true;
+
+    Json() {
+        this(new StringBuilder(256));
+    }
+
+    private Json(StringBuilder out) {
+        this.out = out;
+    }
+
+    Json beginObject() { separate(); out.append('{'); first = true; return this; }
+    Json endObject() { out.append('}'); first = false; return this; }
+    Json beginArray(String name) { key(name); out.append('['); first = true; return this; }
+    Json beginArray() { separate(); out.append('['); first = true; return this; }
+    Json endArray() { out.append(']'); first = false; return this; }
+
+    Json field(String name, String value) {
+        key(name);
+        string(value);
+        first = false;
+        return this;
+    }
+
+    Json field(String name, long value) {
+        key(name);
+        out.append(value);
+        first = false;
+        return this;
+    }
+
+    Json field(String name, boolean value) {
+        key(name);
+        out.append(value);
+        first = false;
+        return this;
+    }
+
+    Json value(String value) {
+        separate();
+        string(value);
+        first = false;
+        return this;
+    }
+
+    private void key(String name) {
+        separate();
+        string(name);
+        out.append(':');
+        first = true; // the value that follows needs no comma
+    }
+
+    private void separate() {
+        if (!first) {
+            out.append(',');
+        }
+    }
+
+    private void string(String value) {
+        if (value == null) {
+            out.append("null");
+            return;
+        }
+        out.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"' -> out.append("\\\"");
+                case '\\' -> out.append("\\\\");
+                case '\n' -> out.append("\\n");
+                case '\r' -> out.append("\\r");
+                case '\t' -> out.append("\\t");
+                default -> {
+                    if (c < 0x20) {
+                        out.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        out.append(c);
+                    }
+                }
+            }
+        }
+        out.append('"');
+    }
+
+    @Override
+    public String toString() {
+        return out.toString();
+    }
+
+    // ---------- reading ----------
+
+    // a flat object of strings, numbers, booleans and nulls. Numbers and booleans come back as their text
+    static Map<String, String> parseObject(String text) {
+        Reader reader = new Reader(text);
+        Map<String, String> values = new LinkedHashMap<>();
+        reader.skipSpace();
+        reader.expect('{');
+        reader.skipSpace();
+        if (reader.peek() == '}') {
+            reader.position++;
+        } else {
+            while (true) {
+                reader.skipSpace();
+                String key = reader.readString();
+                reader.skipSpace();
+                reader.expect(':');
+                reader.skipSpace();
+                values.put(key, reader.readValue());
+                reader.skipSpace();
+                if (reader.peek() == ',') {
+                    reader.position++;
+                    continue;
+                }
+                reader.expect('}');
+                break;
+            }
+        }
+        reader.skipSpace();
+        if (reader.position != text.length()) {
+            throw new IllegalArgumentException("Unexpected text after the json object.");
+        }
+        return values;
+    }
+
+    private static final class Reader {
+        final String text;
+        int position;
+
+        Reader(String text) {
+            this.text = text;
+        }
+
+        char peek() {
+            if (position >= text.length()) {
+                throw new IllegalArgumentException("Json ends too early.");
+            }
+            return text.charAt(position);
+        }
+
+        void expect(char c) {
+            if (peek() != c) {
+                throw new IllegalArgumentException("Expected '" + c + "' at position " + position + " of the json.");
+            }
+            position++;
+        }
+
+        void skipSpace() {
+            while (position < text.length() && Character.isWhitespace(text.charAt(position))) {
+                position++;
+            }
+        }
+
+        String readValue() {
+            char c = peek();
+            if (c == '"') {
+                return readString();
+            }
+            if (c == '{' || c == '[') {
+                throw new IllegalArgumentException("Nested json values are not supported here.");
+            }
+            int start = position;
+            while (position < text.length() && ",} \t\r\n".indexOf(text.charAt(position)) < 0) {
+                position++;
+            }
+            String literal = text.substring(start, position);
+            if (literal.isEmpty()) {
+                throw new IllegalArgumentException("Missing json value at position " + start + ".");
+            }
+            return literal.equals("null") ? null : literal;
+        }
+
+        String readString() {
+            expect('"');
+            StringBuilder value = new StringBuilder();
+            while (true) {
+                char c = peek();
+                position++;
+                if (c == '"') {
+                    return value.toString();
+                }
+                if (c != '\\') {
+                    value.append(c);
+                    continue;
+                }
+                char escaped = peek();
+                position++;
+                switch (escaped) {
+                    case '"', '\\', '/' -> value.append(escaped);
+                    case 'n' -> value.append('\n');
+                    case 'r' -> value.append('\r');
+                    case 't' -> value.append('\t');
+                    case 'b' -> value.append('\b');
+                    case 'f' -> value.append('\f');
+                    case 'u' -> {
+                        if (position + 4 > text.length()) {
+                            throw new IllegalArgumentException("Json ends too early.");
+                        }
+                        // four hex digits and nothing else, Integer.parseInt would take a sign as well
+                        try {
+                            value.append((char) HexFormat.fromHexDigits(text, position, position + 4));
+                        } catch (NumberFormatException e) {
+                            throw new IllegalArgumentException("Invalid \\u escape in json.");
+                        }
+                        position += 4;
+                    }
+                    default -> throw new IllegalArgumentException("Invalid escape \\" + escaped + " in json.");
+                }
+            }
+        }
+    }
+}
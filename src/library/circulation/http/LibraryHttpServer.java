@@ -0,0 +1,508 @@
+package library.circulation.http;
+
+import library.circulation.bitmap.BookBitmapIndex;
+import library.circulation.bitmap.CompressedBitmap;
+import library.circulation.models.Book;
+import library.circulation.models.Member;
+import library.circulation.models.Transaction;
+import library.circulation.recommendations.CoBorrowingRecommender;
+import library.circulation.repository.CatalogRepository;
+import library.circulation.services.AuthenticationService;
+import library.circulation.services.CirculationResult;
+import library.circulation.services.DuesLedger;
+import library.circulation.services.LibraryService;
+import library.circulation.services.ReturnRequest;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Method;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// HTTP/JSON front of a LibraryService.
+//
+//   GET    /books?q=tolkien&limit=10    search, best match first
+//   GET    /books?genre=Fantasy&rating=G&available=true&age=12&limit=10
+//                                       filtered browse over the bitmap indexes, with the total count
+//                                       limit is at most MAX_LIMIT
+//   GET    /books/{bookID}
+//   POST   /sessions  {"memberID", "password"}  -> {"token"}, see AuthenticationService
+//   DELETE /sessions                    logs the token out
+//
+// the routes below act for the member of the "Authorization: Bearer <token>" header, 401 without a valid one
+//   GET    /members/{memberID}          profile, dues and open loans, only your own
+//   POST   /loans     {"bookID", "unit": "DAYS", "duration": 7}
+//                                       the receipt lists "alsoBorrowed" books when a recommender is set
+//   POST   /returns   {"bookID"}
+//   POST   /renewals  {"bookID", "unit": "DAYS", "duration": 7}
+//   POST   /payments  {"amount": 50, "reference": "RCPT-1"}
+//                                       the reference is optional, a payment with one is never posted twice
+//   GET    /metrics                     CirculationMetrics.dump(), prometheus text
+//
+// Errors come back as {"error": "..."}: 400 for what the service rejects with IllegalArgumentException,
+// 409 for IllegalStateException (copy already out, not borrowed by you...), 404 for unknown ids, 500 for anything
+// else, which is also logged. A body over MAX_BODY_BYTES gets 413 and the connection is closed.
+// Served by the jdk's com.sun.net.httpserver: connections stay open (keep-alive) and pipelined requests are
+// answered in order.
+public class LibraryHttpServer implements AutoCloseable {
+
+    private static final System.Logger LOG = System.getLogger(LibraryHttpServer.class.getName());
+    private static final int MAX_BODY_BYTES = 16 * 1024;
+    private static final int BACKLOG = 1024;
+    private static final int RECEIPT_RECOMMENDATIONS = 10;
+    // a bigger page would let one request walk a large part of the catalog
+    static final int MAX_LIMIT = 100;
+    private static final String BEARER = "Bearer ";
+
+    static {
+        // the defaults keep only 200 idle keep-alive connections and leave nagle on, a kiosk fleet needs more.
+        // set before the first server is created, which is when the jdk reads them
+        setIfAbsent("sun.net.httpserver.maxIdleConnections", "20000");
+        setIfAbsent("sun.net.httpserver.nodelay", "true");
+    }
+
+    private final LibraryService service;
+    private final AuthenticationService auth;
+    private final CatalogRepository catalog;
+    private final ExecutorService executor;
+    private final HttpServer server;
+    private volatile CoBorrowingRecommender recommender;
+
+    // workers is only used when the runtime has no virtual threads
+    public LibraryHttpServer(LibraryService service, AuthenticationService auth, InetSocketAddress address, int workers) {
+        this.service = Objects.requireNonNull(service, "Service cannot be null.");
+        this.auth = Objects.requireNonNull(auth, "Authentication service cannot be null.");
+        this.catalog = service.getCatalog();
+        Objects.requireNonNull(address, "Address cannot be null.");
+        if (workers <= 0) {
+            throw new IllegalArgumentException("Workers must be greater than 0.");
+        }
+        this.executor = requestExecutor(workers);
+        try {
+            this.server = HttpServer.create(address, BACKLOG);
+        } catch (IOException e) {
+            executor.shutdown();
+            throw new UncheckedIOException("Could not listen on " + address, e);
+        }
+        server.setExecutor(executor);
+        server.createContext("/", this::exchange);
+    }
+
+    private static void setIfAbsent(String property, String value) {
+        if (System.getProperty(property) == null) {
+            System.setProperty(property, value);
+        }
+    }
+
+    // a virtual thread per request when the runtime has them (jdk 21+), otherwise a fixed pool.
+    // looked up by reflection because the build targets java 17
+    static ExecutorService requestExecutor(int workers) {
+        try {
+            Method virtualThreads = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) virtualThreads.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            AtomicInteger count = new AtomicInteger();
+            return Executors.newFixedThreadPool(workers, task -> {
+                Thread thread = new Thread(task, "http-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    public InetSocketAddress getAddress() { return server.getAddress(); }
+
+    public void setRecommender(CoBorrowingRecommender recommender) { this.recommender = recommender; }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdown();
+        try {
+            executor.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void exchange(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            HttpResponse response;
+            byte[] body;
+            try (InputStream in = exchange.getRequestBody()) {
+                body = in.readNBytes(MAX_BODY_BYTES + 1);
+            }
+            if (body.length > MAX_BODY_BYTES) {
+                // reading the rest would let a client keep us busy with an endless body, the connection goes instead
+                response = HttpResponse.error(413, "Request body is larger than " + MAX_BODY_BYTES + " bytes");
+                exchange.getResponseHeaders().set("Connection", "close");
+            } else {
+                String target = exchange.getRequestURI().getRawPath();
+                String query = exchange.getRequestURI().getRawQuery();
+                response = handle(new HttpRequest(exchange.getRequestMethod(), query == null ? target : target + "?" + query,
+                        headers(exchange.getRequestHeaders()), body));
+            }
+            Headers headers = exchange.getResponseHeaders();
+            headers.set("Content-Type", response.getContentType());
+            if (response.getAllow() != null) {
+                headers.set("Allow", response.getAllow());
+            }
+            if (response.getAuthenticate() != null) {
+                headers.set("WWW-Authenticate", response.getAuthenticate());
+            }
+            byte[] bytes = response.getBody();
+            exchange.sendResponseHeaders(response.getStatus(), bytes.length == 0 ? -1 : bytes.length);
+            exchange.getResponseBody().write(bytes);
+        }
+    }
+
+    private static Map<String, String> headers(Headers headers) {
+        Map<String, String> values = new HashMap<>();
+        for (Map.Entry<String, List<String>> header : headers.entrySet()) {
+            if (!header.getValue().isEmpty()) {
+                values.put(header.getKey().toLowerCase(), header.getValue().get(0));
+            }
+        }
+        return values;
+    }
+
+    HttpResponse handle(HttpRequest request) {
+        String path = request.getPath();
+        try {
+            if (matches(path, "/books")) {
+                return books(request);
+            } else if (path.equals("/sessions")) {
+                return sessions(request);
+            } else if (matches(path, "/members")) {
+                return members(request);
+            } else if (path.equals("/loans")) {
+                return borrow(request);
+            } else if (path.equals("/returns")) {
+                return returnBook(request);
+            } else if (path.equals("/renewals")) {
+                return renew(request);
+            } else if (path.equals("/payments")) {
+                return payFine(request);
+            } else if (path.equals("/metrics")) {
+                return metrics(request);
+            }
+            return HttpResponse.error(404, "Not found: " + path);
+        } catch (HttpError e) {
+            return e.response;
+        } catch (IllegalArgumentException e) {
+            return HttpResponse.error(400, e.getMessage());
+        } catch (IllegalStateException e) {
+            return HttpResponse.error(409, e.getMessage());
+        } catch (RuntimeException e) {
+            // a bug, not the client's fault. The client gets no details, the log gets all of them
+            LOG.log(System.Logger.Level.ERROR, "HTTP " + request.getMethod() + " " + path + " failed", e);
+            return HttpResponse.error(500, "Internal server error");
+        }
+    }
+
+    private static boolean matches(String path, String prefix) {
+        return path.equals(prefix) || path.startsWith(prefix + "/");
+    }
+
+    // ---------- routes ----------
+
+    private HttpResponse books(HttpRequest request) {
+        requireMethod(request, "GET");
+        String id = pathID(request, "/books");
+        if (id != null) {
+            Book book = catalog.findBook(id);
+            if (book == null) {
+                throw new HttpError(404, "No book found with ID " + id);
+            }
+            return HttpResponse.json(200, writeBook(new Json(), book));
+        }
+        Map<String, String> query = request.getQuery();
+        int limit = query.containsKey("limit") ? Math.min(number(query.get("limit"), "limit"), MAX_LIMIT) : 10;
+        String text = query.get("q");
+        if (text == null || text.isBlank()) {
+            return browse(query, limit);
+        }
+        Json json = new Json().beginObject().beginArray("books");
+        for (Book book : service.searchBook(text, limit)) {
+            writeBook(json, book);
+        }
+        return HttpResponse.json(200, json.endArray().endObject());
+    }
+
+    // genre and rating take comma separated values, any of them matches
+    private HttpResponse browse(Map<String, String> query, int limit) {
+        if (!query.containsKey("genre") && !query.containsKey("rating") && !query.containsKey("available") && !query.containsKey("age")) {
+            throw new HttpError(400, "Missing search text or filter, use /books?q=... or /books?genre=...&rating=...&available=true&age=...");
+        }
+        BookBitmapIndex.Query filter = catalog.getBitmapIndex().query().present();
+        if (query.containsKey("genre")) {
+            filter.genre(query.get("genre").split(","));
+        }
+        if (query.containsKey("rating")) {
+            filter.contentRating(query.get("rating").split(","));
+        }
+        if (Boolean.parseBoolean(query.get("available"))) {
+            filter.available();
+        }
+        if (query.containsKey("age")) {
+            filter.eligibleFor(number(query.get("age"), "age"));
+        }
+        CompressedBitmap matches = filter.bitmap();
+        Json json = new Json().beginObject().field("count", matches.cardinality()).beginArray("books");
+        for (Book book : catalog.getBitmapIndex().books(matches, limit)) {
+            writeBook(json, book);
+        }
+        return HttpResponse.json(200, json.endArray().endObject());
+    }
+
+    private HttpResponse members(HttpRequest request) {
+        requireMethod(request, "GET");
+        String id = pathID(request, "/members");
+        if (id == null) {
+            throw new HttpError(404, "Use /members/{memberID}");
+        }
+        Member member = caller(request);
+        if (!member.getMemberID().equals(id)) {
+            throw new HttpError(403, "You can only look at your own profile");
+        }
+        Json json = new Json().beginObject()
+                .field("memberID", member.getMemberID())
+                .field("name", member.getName())
+                .field("occupation", member.getOccupation())
+                .field("age", member.getAge())
+                .field("maxBorrowLimit", member.getMaxBorrowLimit())
+                .field("pendingDues", member.getPendingDues())
+                .beginArray("loans");
+        for (Transaction transaction : catalog.findOpenTransactionsByMember(member.getMemberID())) {
+            json.beginObject()
+                    .field("transactionID", transaction.getTransactionID())
+                    .field("bookID", transaction.getBorrowedBookID())
+                    .field("issueDate", transaction.getIssueDate().toString())
+                    .field("dueDate", transaction.getDueDate().toString())
+                    .endObject();
+        }
+        return HttpResponse.json(200, json.endArray().endObject());
+    }
+
+    // POST logs in, DELETE logs out
+    private HttpResponse sessions(HttpRequest request) {
+        if (request.getMethod().equals("DELETE")) {
+            auth.logout(token(request));
+            return HttpResponse.json(200, new Json().beginObject().endObject());
+        }
+        requireMethod(request, "POST");
+        Map<String, String> body = body(request);
+        String token;
+        try {
+            token = auth.login(required(body, "memberID"), required(body, "password"));
+        } catch (IllegalArgumentException e) {
+            throw new HttpError(HttpResponse.unauthorized(e.getMessage()), e.getMessage());
+        }
+        return HttpResponse.json(201, new Json().beginObject().field("token", token).endObject());
+    }
+
+    private HttpResponse borrow(HttpRequest request) {
+        requireMethod(request, "POST");
+        Member member = caller(request);
+        Map<String, String> body = body(request);
+        Book book = book(required(body, "bookID"));
+        Transaction transaction = service.borrowBook(book, member, unit(body), number(required(body, "duration"), "duration"));
+        Json json = new Json().beginObject();
+        writeLoanFields(json, transaction);
+        CoBorrowingRecommender current = recommender;
+        if (current != null) {
+            json.beginArray("alsoBorrowed");
+            for (Book recommended : current.recommend(book, member, RECEIPT_RECOMMENDATIONS)) {
+                json.beginObject()
+                        .field("bookID", recommended.getBookID())
+                        .field("title", recommended.getTitle())
+                        .field("author", recommended.getAuthor())
+                        .endObject();
+            }
+            json.endArray();
+        }
+        return HttpResponse.json(201, json.endObject());
+    }
+
+    private HttpResponse returnBook(HttpRequest request) {
+        requireMethod(request, "POST");
+        Member member = caller(request);
+        Map<String, String> body = body(request);
+        Book book = book(required(body, "bookID"));
+        Transaction currentTransaction = book.getCurrentTransaction();
+        if (currentTransaction != null && !currentTransaction.getMemberID().equals(member.getMemberID())) {
+            throw new IllegalStateException("The book " + book.getBookID() + " is currently borrowed by someone else");
+        }
+        CirculationResult result = service.process(new ReturnRequest(book.getBookID(), member.getMemberID()));
+        if (!result.isSuccess()) {
+            throw new IllegalStateException(result.getMessage());
+        }
+        return HttpResponse.json(200, new Json().beginObject()
+                .field("transactionID", result.getTransaction().getTransactionID())
+                .field("returnDate", result.getTransaction().getReturnDate().toString())
+                .field("fine", result.getFine())
+                .field("pendingDues", member.getPendingDues())
+                .endObject());
+    }
+
+    private HttpResponse renew(HttpRequest request) {
+        requireMethod(request, "POST");
+        Member member = caller(request);
+        Map<String, String> body = body(request);
+        Book book = book(required(body, "bookID"));
+        Transaction transaction = service.renewBook(book, member, unit(body), number(required(body, "duration"), "duration"));
+        return HttpResponse.json(200, writeLoan(new Json(), transaction));
+    }
+
+    private HttpResponse payFine(HttpRequest request) {
+        requireMethod(request, "POST");
+        Member member = caller(request);
+        Map<String, String> body = body(request);
+        // payFine would print to the console, the balance comes from the ledger entry of this very payment
+        DuesLedger.Entry entry = service.payDues(member, number(required(body, "amount"), "amount"), body.get("reference"));
+        return HttpResponse.json(200, new Json().beginObject()
+                .field("memberID", member.getMemberID())
+                .field("amount", entry.getAmount())
+                .field("pendingDues", entry.getBalanceAfter())
+                .endObject());
+    }
+
+    private HttpResponse metrics(HttpRequest request) {
+        requireMethod(request, "GET");
+        return new HttpResponse(200, "text/plain; version=0.0.4; charset=utf-8", service.getMetrics().dump());
+    }
+
+    private static Json writeBook(Json json, Book book) {
+        return json.beginObject()
+                .field("bookID", book.getBookID())
+                .field("title", book.getTitle())
+                .field("author", book.getAuthor())
+                .field("genre", book.getGenre())
+                .field("contentRating", book.getContentRating())
+                .field("present", book.isPresent())
+                .field("available", book.getAvailable())
+                .endObject();
+    }
+
+    private static Json writeLoan(Json json, Transaction transaction) {
+        return writeLoanFields(json.beginObject(), transaction).endObject();
+    }
+
+    private static Json writeLoanFields(Json json, Transaction transaction) {
+        return json.field("transactionID", transaction.getTransactionID())
+                .field("bookID", transaction.getBorrowedBookID())
+                .field("memberID", transaction.getMemberID())
+                .field("issueDate", transaction.getIssueDate().toString())
+                .field("dueDate", transaction.getDueDate().toString());
+    }
+
+    // ---------- request helpers ----------
+
+    private Book book(String bookID) {
+        Book book = catalog.findBook(bookID);
+        if (book == null) {
+            throw new HttpError(404, "No book found with ID " + bookID);
+        }
+        return book;
+    }
+
+    // the member of the session token, a member id in the body would let anyone act for anyone
+    private Member caller(HttpRequest request) {
+        Member member = auth.authenticate(token(request));
+        if (member == null) {
+            String message = "Log in with POST /sessions and send the token as \"Authorization: Bearer <token>\"";
+            throw new HttpError(HttpResponse.unauthorized(message), message);
+        }
+        return member;
+    }
+
+    private static String token(HttpRequest request) {
+        String header = request.getHeader("authorization");
+        if (header == null || !header.regionMatches(true, 0, BEARER, 0, BEARER.length())) {
+            return null;
+        }
+        return header.substring(BEARER.length()).trim();
+    }
+
+    private static void requireMethod(HttpRequest request, String method) {
+        if (!request.getMethod().equals(method)) {
+            String message = "Use " + method + " for " + request.getPath();
+            throw new HttpError(HttpResponse.methodNotAllowed(method, message), message);
+        }
+    }
+
+    // "/books/FIC_12" -> "FIC_12", "/books" -> null
+    private static String pathID(HttpRequest request, String prefix) {
+        String path = request.getPath();
+        if (path.length() <= prefix.length() + 1) {
+            return null;
+        }
+        String id = path.substring(prefix.length() + 1);
+        if (id.indexOf('/') >= 0) {
+            throw new HttpError(404, "Not found: " + path);
+        }
+        return id;
+    }
+
+    private static Map<String, String> body(HttpRequest request) {
+        return Json.parseObject(new String(request.getBody(), StandardCharsets.UTF_8));
+    }
+
+    private static String required(Map<String, String> body, String field) {
+        String value = body.get(field);
+        if (value == null) {
+            throw new IllegalArgumentException("Missing field " + field + ".");
+        }
+        return value;
+    }
+
+    private static int number(String value, String field) {
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Field " + field + " must be a whole number.");
+        }
+    }
+
+    private static LibraryService.PeriodUnit unit(Map<String, String> body) {
+        String unit = body.getOrDefault("unit", "DAYS");
+        try {
+            return LibraryService.PeriodUnit.valueOf(unit.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unit must be DAYS, WEEKS or MONTHS.");
+        }
+    }
+
+    // an answer other than 400 / 409, thrown from the routes
+    private static final class HttpError extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        final transient HttpResponse response;
+
+        HttpError(int status, String message) {
+            this(HttpResponse.error(status, message), message);
+        }
+
+        HttpError(HttpResponse response, String message) {
+            super(message);
+            this.response = response;
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package library.circulation.ids;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+// simplest allocator, one AtomicLong per sequence. Unique inside one process, but starts again from the floor on restart
+public class AtomicIdAllocator implements IdAllocator {
+
+    private final Map<IdSequence, AtomicLong> counters = new EnumMap<>(IdSequence.class);
+
+    public AtomicIdAllocator() {
+        // the map is filled once here and only read afterwards, so EnumMap is safe to share
+        for (IdSequence sequence : IdSequence.values()) {
+            counters.put(sequence, new AtomicLong(sequence.getFloor()));
+        }
+    }
+
+    @Override
+    public long next(IdSequence sequence) {
+        return counters.get(sequence).incrementAndGet();
+    }
+
+    @Override
+    public void advancePast(IdSequence sequence, long used) {
+        counters.get(sequence).accumulateAndGet(used, Math::max);
+    }
+}
@@ -0,0 +1,98 @@
+package library.circulation.ids;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+// leases ranges ("blocks") of ids from a HighWaterMarkStore and hands them out from memory.
+// only one store call per block, so the file is touched once every blockSize ids instead of on every id.
+// ids left over in a block when the process stops are simply skipped, they are never reused.
+public class BlockIdAllocator implements IdAllocator {
+
+    private final HighWaterMarkStore store;
+    private final long blockSize;
+    private final Map<IdSequence, Lease> leases = new EnumMap<>(IdSequence.class);
+
+    public BlockIdAllocator(HighWaterMarkStore store, long blockSize) {
+        if (blockSize <= 0) {
+            throw new IllegalArgumentException("Block size must be greater than 0.");
+        }
+        this.store = store;
+        this.blockSize = blockSize;
+        for (IdSequence sequence : IdSequence.values()) {
+            leases.put(sequence, new Lease(sequence));
+        }
+    }
+
+    @Override
+    public long next(IdSequence sequence) {
+        return leases.get(sequence).next();
+    }
+
+    @Override
+    public void advancePast(IdSequence sequence, long used) {
+        leases.get(sequence).advancePast(used);
+    }
+
+    private final class Lease {
+        private final IdSequence sequence;
+        // cursor and end of the current block, a fresh lease starts "exhausted"
+        private volatile Block block = new Block(0, 0);
+
+        Lease(IdSequence sequence) {
+            this.sequence = sequence;
+        }
+
+        long next() {
+            while (true) {
+                // fast path: no locking, just one CAS on the block cursor
+                Block current = block;
+                long id = current.cursor.getAndIncrement();
+                if (id < current.end) {
+                    return id;
+                }
+                refill(current);
+            }
+        }
+
+        // only one thread fetches the next block, the others wait here and then retry on the new one
+        private synchronized void refill(Block exhausted) {
+            if (block == exhausted) {
+                long first = store.reserve(sequence, blockSize);
+                block = new Block(first, first + blockSize);
+            }
+        }
+
+        // meant for startup, an id taken from the old block by another thread right now could still be <= used
+        synchronized void advancePast(long used) {
+            Block current = block;
+            if (current.cursor.get() > used) {
+                return;
+            }
+            if (current.end > used + 1) {
+                block = new Block(used + 1, current.end);
+                return;
+            }
+            // the store can be behind, e.g. a new file next to an old snapshot: one more, bigger block reaches past it
+            long size = blockSize;
+            while (true) {
+                long first = store.reserve(sequence, size);
+                if (first + size > used + 1) {
+                    block = new Block(Math.max(first, used + 1), first + size);
+                    return;
+                }
+                size = used + 1 - first + blockSize;
+            }
+        }
+    }
+
+    private static final class Block {
+        final AtomicLong cursor;
+        final long end; // exclusive
+
+        Block(long first, long end) {
+            this.cursor = new AtomicLong(first);
+            this.end = end;
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package library.circulation.ids;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Properties;
+
+// keeps the high water marks in a small properties file ("BOOK=2000").
+// the file is locked while we read and bump a mark, so several service instances can share it safely
+public class FileHighWaterMarkStore implements HighWaterMarkStore {
+
+    private final Path file;
+
+    public FileHighWaterMarkStore(Path file) {
+        this.file = file;
+    }
+
+    // synchronized because the OS file lock is held per process, two threads of the same jvm would collide on it
+    @Override
+    public synchronized long reserve(IdSequence sequence, long blockSize) {
+        if (blockSize <= 0) {
+            throw new IllegalArgumentException("Block size must be greater than 0.");
+        }
+        try (FileChannel channel = FileChannel.open(file,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+
+            FileLock lock = channel.lock();
+            try {
+                Properties marks = read(channel);
+                long mark = Long.parseLong(marks.getProperty(sequence.name(), Long.toString(sequence.getFloor())));
+                long first = mark + 1;
+                marks.setProperty(sequence.name(), Long.toString(mark + blockSize));
+                write(channel, marks);
+                return first;
+            } finally {
+                lock.release();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not reserve ids from " + file, e);
+        }
+    }
+
+    private static Properties read(FileChannel channel) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate((int) channel.size());
+        channel.read(buffer, 0);
+        Properties marks = new Properties();
+        marks.load(new ByteArrayInputStream(buffer.array()));
+        return marks;
+    }
+
+    private static void write(FileChannel channel, Properties marks) throws IOException {
+        StringWriter out = new StringWriter();
+        marks.store(out, null);
+        ByteBuffer buffer = ByteBuffer.wrap(out.toString().getBytes(StandardCharsets.ISO_8859_1));
+        channel.truncate(0);
+        while (buffer.hasRemaining()) {
+            channel.write(buffer, channel.size());
+        }
+        // the mark must be on disk before any id from the new block is used
+        channel.force(true);
+    }
+}
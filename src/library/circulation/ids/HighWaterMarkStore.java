@@ -0,0 +1,8 @@
+package library.circulation.ids;
+
+// remembers the highest id ever reserved per sequence, so ids stay unique across restarts and instances
+public interface HighWaterMarkStore {
+
+    // reserves the next "blockSize" ids and returns the first one, the range is never handed out again
+    long reserve(IdSequence sequence, long blockSize);
+}
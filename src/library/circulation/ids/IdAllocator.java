@@ -0,0 +1,10 @@
+package library.circulation.ids;
+
+// hands out unique numbers per sequence, implementations must be safe to call from many threads
+public interface IdAllocator {
+
+    long next(IdSequence sequence);
+
+    // ids up to "used" are taken already (e.g. by books and loans loaded at startup), only hand out higher ones
+    void advancePast(IdSequence sequence, long used);
+}
@@ -0,0 +1,63 @@
+package library.circulation.ids;
+
+import java.util.Objects;
+
+// the one place the models get their ids from. By default ids come from memory,
+// call install() at startup with a BlockIdAllocator to keep them unique across restarts and instances
+public final class IdGenerator {
+
+    private static volatile IdAllocator allocator = new AtomicIdAllocator();
+
+    private IdGenerator() {}
+
+    public static void install(IdAllocator newAllocator) {
+        allocator = Objects.requireNonNull(newAllocator, "Id allocator cannot be null.");
+    }
+
+    public static long next(IdSequence sequence) {
+        return allocator.next(sequence);
+    }
+
+    public static void advancePast(IdSequence sequence, long used) {
+        allocator.advancePast(sequence, used);
+    }
+
+    // the number at the end of an id ("TR_000042" -> 42), -1 for ids that weren't made by format()
+    public static long numberOf(String id) {
+        int start = id.lastIndexOf('_') + 1;
+        if (start == 0 || start == id.length() || id.length() - start > 18) {
+            return -1;
+        }
+        long value = 0;
+        for (int i = start; i < id.length(); i++) {
+            char c = id.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    // builds e.g. "TR_" + 000042 straight into a char array, String.format parses its pattern on every call
+    public static String format(String prefix, long value, int minDigits) {
+        if (value < 0) {
+            throw new IllegalArgumentException("Id cannot be negative.");
+        }
+        int digits = 1;
+        for (long rest = value / 10; rest > 0; rest /= 10) {
+            digits++;
+        }
+        int width = Math.max(digits, minDigits);
+
+        char[] chars = new char[prefix.length() + width];
+        prefix.getChars(0, prefix.length(), chars, 0);
+        int position = chars.length;
+        long rest = value;
+        for (int i = 0; i < width; i++) {
+            chars[--position] = (char) ('0' + rest % 10);
+            rest /= 10;
+        }
+        return new String(chars);
+    }
+}
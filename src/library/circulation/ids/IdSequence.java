@@ -0,0 +1,18 @@
+package library.circulation.ids;
+
+// every kind of id we hand out, with the value the old static counters started from
+public enum IdSequence {
+    BOOK(1000),
+    STUDENT(0),
+    TEACHER(0),
+    TRANSACTION(100000);
+
+    // the first id handed out is floor + 1, same as the old "++counter"
+    private final long floor;
+
+    IdSequence(long floor) {
+        this.floor = floor;
+    }
+
+    public long getFloor() { return floor; }
+}
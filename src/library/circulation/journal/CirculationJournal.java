@@ -0,0 +1,471 @@
+package library.circulation.journal;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+// Append-only write-ahead journal of circulation events, so a restart does not lose open loans and fines.
+//
+// Entries go into memory-mapped segment files ("journal-<first sequence>.log"). A segment that is full is
+// closed and a new one is started. Every record is
+//   [int body length][int crc32 of body][body]
+// and a length of 0 (mapped files start zero filled) marks the end of the data.
+//
+// Durability uses group commit: one flusher thread calls force() for everything appended since its last
+// force, so 100 checkouts arriving together cost one fsync instead of 100. With SyncMode.GROUP_COMMIT
+// append() returns once its record is on disk, with SyncMode.ASYNC it returns right away and the record
+// is on disk a few milliseconds later.
+public class CirculationJournal implements AutoCloseable {
+
+    public enum SyncMode { GROUP_COMMIT, ASYNC }
+
+    private static final String PREFIX = "journal-";
+    private static final String SUFFIX = ".log";
+    private static final int HEADER = 8;
+    private static final int NO_DATE = Integer.MIN_VALUE;
+
+    private final Path directory;
+    private final int segmentSize;
+    private final SyncMode syncMode;
+    private final long maxDelayNanos;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition flushed = lock.newCondition();
+    private final Condition pending = lock.newCondition();
+
+    // everything below is guarded by "lock"
+    private FileChannel channel;
+    private MappedByteBuffer segment;
+    private long nextSequence;
+    private long writtenSequence;
+    private long durableSequence;
+    private RuntimeException flushFailure; // once forcing failed the journal refuses every further append
+    private boolean closed;
+
+    private final Thread flusher;
+
+    public CirculationJournal(Path directory) {
+        this(directory, 64 * 1024 * 1024, SyncMode.GROUP_COMMIT, 2);
+    }
+
+    // maxDelayMillis: how long the flusher may wait for more records before forcing, 0 = force as soon as possible
+    public CirculationJournal(Path directory, int segmentSize, SyncMode syncMode, long maxDelayMillis) {
+        if (segmentSize < 4096) {
+            throw new IllegalArgumentException("Segment size must be at least 4096 bytes.");
+        }
+        this.directory = Objects.requireNonNull(directory, "Directory cannot be null.");
+        this.segmentSize = segmentSize;
+        this.syncMode = Objects.requireNonNull(syncMode, "Sync mode cannot be null.");
+        this.maxDelayNanos = TimeUnit.MILLISECONDS.toNanos(maxDelayMillis);
+
+        try {
+            Files.createDirectories(directory);
+            recover();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not open journal in " + directory, e);
+        }
+
+        flusher = new Thread(this::flushLoop, "journal-flusher");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    // writes the entry and returns its sequence number
+    public long append(JournalEntry entry) {
+        Objects.requireNonNull(entry, "Entry cannot be null.");
+        return appendAll(List.of(entry));
+    }
+
+    // writes the entries one after another and waits for one force() for all of them, e.g. the books of an import.
+    // returns the sequence of the last one. An entry too big for a segment fails the call before any is written
+    public long appendAll(List<JournalEntry> entries) {
+        Objects.requireNonNull(entries, "Entries cannot be null.");
+
+        long sequence;
+        lock.lock();
+        try {
+            if (closed) {
+                throw new IllegalStateException("Journal is closed.");
+            }
+            if (flushFailure != null) {
+                throw new IllegalStateException("Journal flush failed", flushFailure);
+            }
+            List<ByteBuffer> records = new ArrayList<>(entries.size());
+            for (JournalEntry entry : entries) {
+                ByteBuffer record = encode(entry.withSequence(nextSequence + records.size()));
+                // room for the end marker after it, in a fresh segment too
+                if (record.remaining() + HEADER > segmentSize) {
+                    throw new IllegalArgumentException("Entry is larger than a journal segment.");
+                }
+                records.add(record);
+            }
+            sequence = nextSequence - 1;
+            for (ByteBuffer record : records) {
+                sequence++;
+                if (record.remaining() + HEADER > segment.remaining()) {
+                    roll(sequence);
+                }
+                segment.put(record);
+                nextSequence++;
+                writtenSequence = sequence;
+            }
+            pending.signal();
+
+            if (syncMode == SyncMode.GROUP_COMMIT) {
+                // the flusher picks up everything written so far with one force(), we just wait for it
+                while (durableSequence < sequence) {
+                    if (flushFailure != null) {
+                        throw new IllegalStateException("Journal flush failed", flushFailure);
+                    }
+                    flushed.awaitUninterruptibly();
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+        return sequence;
+    }
+
+    public long lastSequence() {
+        lock.lock();
+        try {
+            return nextSequence - 1;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // deletes the segments whose entries are all at or before "sequence", e.g. once a snapshot covers them.
+    // the segment being written is always kept. Returns how many were deleted
+    public int deleteSegmentsUpTo(long sequence) {
+        lock.lock();
+        try {
+            List<Path> segments = listSegments(directory);
+            int deleted = 0;
+            // a segment ends right before the next one starts, so the last one (ours) is never complete
+            for (int i = 0; i + 1 < segments.size() && firstSequenceOf(segments.get(i + 1)) - 1 <= sequence; i++) {
+                Files.delete(segments.get(i));
+                deleted++;
+            }
+            return deleted;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not delete journal segments in " + directory, e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void flushLoop() {
+        while (true) {
+            MappedByteBuffer toForce;
+            long target;
+            lock.lock();
+            try {
+                while (!closed && writtenSequence == durableSequence) {
+                    pending.awaitUninterruptibly();
+                }
+                if (closed && writtenSequence == durableSequence) {
+                    return;
+                }
+            } finally {
+                lock.unlock();
+            }
+
+            if (maxDelayNanos > 0) {
+                // give more checkouts the chance to join this batch
+                try {
+                    TimeUnit.NANOSECONDS.sleep(maxDelayNanos);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+
+            lock.lock();
+            try {
+                toForce = segment;
+                target = writtenSequence;
+            } finally {
+                lock.unlock();
+            }
+
+            // force outside the lock, appends keep going into the same mapping meanwhile
+            try {
+                toForce.force();
+            } catch (RuntimeException e) {
+                lock.lock();
+                try {
+                    flushFailure = e;
+                    flushed.signalAll();
+                } finally {
+                    lock.unlock();
+                }
+                return;
+            }
+
+            lock.lock();
+            try {
+                if (target > durableSequence) {
+                    durableSequence = target;
+                }
+                flushed.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    // starts a new segment, the old one is forced first so a roll never leaves records behind unflushed
+    private void roll(long firstSequence) {
+        try {
+            segment.force();
+            channel.close();
+            openSegment(segmentPath(directory, firstSequence), 0);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not roll journal segment", e);
+        }
+    }
+
+    // finds the end of the last segment after a restart, anything after a torn or corrupt record is wiped
+    private void recover() throws IOException {
+        List<Path> segments = listSegments(directory);
+        if (segments.isEmpty()) {
+            nextSequence = 1;
+            openSegment(segmentPath(directory, 1), 0);
+        } else {
+            Path last = segments.get(segments.size() - 1);
+            long[] lastSequence = { firstSequenceOf(last) - 1 };
+            int end = scan(last, entry -> lastSequence[0] = entry.getSequence());
+            nextSequence = lastSequence[0] + 1;
+            openSegment(last, end);
+
+            // zero the tail so a half written record can never be read back
+            if (segment.remaining() >= 4 && segment.getInt(end) != 0) {
+                ByteBuffer tail = segment.duplicate();
+                while (tail.hasRemaining()) {
+                    tail.put((byte) 0);
+                }
+                segment.force();
+            }
+        }
+        writtenSequence = nextSequence - 1;
+        durableSequence = writtenSequence;
+    }
+
+    private void openSegment(Path path, int position) throws IOException {
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        segment = channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(segmentSize, channel.size()));
+        segment.position(position);
+    }
+
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            closed = true;
+            pending.signal();
+        } finally {
+            lock.unlock();
+        }
+        try {
+            flusher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        lock.lock();
+        try {
+            segment.force();
+            channel.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not close journal", e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // ---------- reading ----------
+
+    // feeds every entry with a sequence greater than afterSequence to the consumer, in order
+    public static void read(Path directory, long afterSequence, Consumer<JournalEntry> consumer) {
+        try {
+            if (!Files.isDirectory(directory)) {
+                return;
+            }
+            List<Path> segments = listSegments(directory);
+            for (int i = 0; i < segments.size(); i++) {
+                // a segment can be skipped completely if the next one starts before our position
+                if (i + 1 < segments.size() && firstSequenceOf(segments.get(i + 1)) <= afterSequence + 1) {
+                    continue;
+                }
+                scan(segments.get(i), entry -> {
+                    if (entry.getSequence() > afterSequence) {
+                        consumer.accept(entry);
+                    }
+                });
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not read journal in " + directory, e);
+        }
+    }
+
+    // returns the position right after the last valid record
+    private static int scan(Path path, Consumer<JournalEntry> consumer) throws IOException {
+        try (FileChannel in = FileChannel.open(path, StandardOpenOption.READ)) {
+            MappedByteBuffer data = in.map(FileChannel.MapMode.READ_ONLY, 0, in.size());
+            CRC32 crc = new CRC32();
+            while (data.remaining() >= HEADER) {
+                int start = data.position();
+                int length = data.getInt();
+                int checksum = data.getInt();
+                if (length <= 0 || length > data.remaining()) {
+                    return start;
+                }
+                ByteBuffer body = data.slice(data.position(), length);
+                crc.reset();
+                crc.update(body.duplicate());
+                if ((int) crc.getValue() != checksum) {
+                    return start; // torn write from a crash, everything after it is ignored
+                }
+                consumer.accept(decode(body));
+                data.position(data.position() + length);
+            }
+            return data.position();
+        }
+    }
+
+    private static List<Path> listSegments(Path directory) throws IOException {
+        List<Path> segments = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, PREFIX + "*" + SUFFIX)) {
+            files.forEach(segments::add);
+        }
+        segments.sort((a, b) -> Long.compare(firstSequenceOf(a), firstSequenceOf(b)));
+        return segments;
+    }
+
+    private static Path segmentPath(Path directory, long firstSequence) {
+        return directory.resolve(PREFIX + String.format("%020d", firstSequence) + SUFFIX);
+    }
+
+    private static long firstSequenceOf(Path segment) {
+        String name = segment.getFileName().toString();
+        return Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length()));
+    }
+
+    // ---------- encoding ----------
+
+    private static ByteBuffer encode(JournalEntry entry) {
+        byte[] transactionID = bytes(entry.getTransactionID());
+        byte[] memberID = bytes(entry.getMemberID());
+        byte[] bookID = bytes(entry.getBookID());
+        List<byte[]> details = new ArrayList<>(entry.getDetails().size());
+        int detailsSize = 1;
+        for (String detail : entry.getDetails()) {
+            byte[] value = bytes(detail);
+            details.add(value);
+            detailsSize += stringSize(value);
+        }
+        int bodyLength = 8 + 1 + stringSize(transactionID) + stringSize(memberID) + stringSize(bookID) + 4 + 4 + 8
+                + detailsSize;
+
+        ByteBuffer record = ByteBuffer.allocate(HEADER + bodyLength);
+        record.position(HEADER);
+        record.putLong(entry.getSequence());
+        record.put((byte) entry.getType().ordinal());
+        putString(record, transactionID);
+        putString(record, memberID);
+        putString(record, bookID);
+        record.putInt(epochDay(entry.getDate()));
+        record.putInt(epochDay(entry.getSecondDate()));
+        record.putLong(entry.getAmount());
+        record.put((byte) details.size());
+        for (byte[] detail : details) {
+            putString(record, detail);
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(record.array(), HEADER, bodyLength);
+        record.putInt(0, bodyLength);
+        record.putInt(4, (int) crc.getValue());
+        record.flip();
+        return record;
+    }
+
+    private static JournalEntry decode(ByteBuffer body) {
+        long sequence = body.getLong();
+        JournalEntry.Type type = JournalEntry.Type.values()[body.get()];
+        String transactionID = getString(body);
+        String memberID = getString(body);
+        String bookID = getString(body);
+        LocalDate date = date(body.getInt());
+        LocalDate secondDate = date(body.getInt());
+        long amount = body.getLong();
+        int detailCount = body.get();
+        if (detailCount == 0) {
+            return new JournalEntry(sequence, type, transactionID, memberID, bookID, date, secondDate, amount);
+        }
+        String[] details = new String[detailCount];
+        for (int i = 0; i < detailCount; i++) {
+            details[i] = getString(body);
+        }
+        return new JournalEntry(sequence, type, transactionID, memberID, bookID, date, secondDate, amount,
+                Collections.unmodifiableList(Arrays.asList(details)));
+    }
+
+    private static byte[] bytes(String value) {
+        return value == null ? null : value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static int stringSize(byte[] value) {
+        return 4 + (value == null ? 0 : value.length);
+    }
+
+    // int length then the bytes, -1 for null. A short would wrap for a reason or reference over 32767 bytes,
+    // and the crc, taken over the wrong length, would still pass. append() refuses an entry bigger than a segment
+    private static void putString(ByteBuffer buffer, byte[] value) {
+        if (value == null) {
+            buffer.putInt(-1);
+        } else {
+            buffer.putInt(value.length);
+            buffer.put(value);
+        }
+    }
+
+    private static String getString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0) {
+            return null;
+        }
+        if (length > buffer.remaining()) {
+            throw new IllegalStateException("Corrupt journal record, a string of " + length + " bytes in "
+                    + buffer.remaining() + " bytes left.");
+        }
+        byte[] value = new byte[length];
+        buffer.get(value);
+        return new String(value, StandardCharsets.UTF_8);
+    }
+
+    private static int epochDay(LocalDate date) {
+        return date == null ? NO_DATE : (int) date.toEpochDay();
+    }
+
+    private static LocalDate date(int epochDay) {
+        return epochDay == NO_DATE ? null : LocalDate.ofEpochDay(epochDay);
+    }
+}
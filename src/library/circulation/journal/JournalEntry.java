@@ -0,0 +1,140 @@
+package library.circulation.journal;
+
+import library.circulation.models.Book;
+import library.circulation.models.Member;
+import library.circulation.models.Transaction;
+
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+
+// one circulation event as it is written to the journal. Fields a type does not need are null / 0
+public final class JournalEntry {
+
+    public enum Type {
+        ISSUE,   // transactionID, memberID, bookID, date = issue date, secondDate = due date
+        RENEW,   // transactionID, memberID, bookID, date = renewal date, secondDate = new due date
+        RETURN,  // transactionID, memberID, bookID, date = return date, amount = fine
+        FINE,    // memberID, transactionID, date = late days charged up to here, amount = fine posted outside of a return
+        PAYMENT, // memberID, amount, transactionID = payment reference (or null)
+        REMOVAL, // bookID, transactionID of the loan that was open (or null), date = day of removal (null in old journals)
+        WAIVER,  // memberID, amount, transactionID = why it was waived
+        ADD_BOOK,   // bookID, details = title, author, genre, content rating
+        ADD_MEMBER  // memberID, date = join date, amount = dues it came with,
+                    // details = name, age, occupation, email, password hash, phone number, borrow limit
+    }
+
+    private final long sequence; // set when the entry is written or read back, 0 before
+    private final Type type;
+    private final String transactionID;
+    private final String memberID;
+    private final String bookID;
+    private final LocalDate date;
+    private final LocalDate secondDate;
+    private final long amount;
+    private final List<String> details; // empty but for ADD_BOOK and ADD_MEMBER
+
+    JournalEntry(long sequence, Type type, String transactionID, String memberID, String bookID,
+                 LocalDate date, LocalDate secondDate, long amount) {
+        this(sequence, type, transactionID, memberID, bookID, date, secondDate, amount, List.of());
+    }
+
+    JournalEntry(long sequence, Type type, String transactionID, String memberID, String bookID,
+                 LocalDate date, LocalDate secondDate, long amount, List<String> details) {
+        this.sequence = sequence;
+        this.type = Objects.requireNonNull(type, "Type cannot be null");
+        this.transactionID = transactionID;
+        this.memberID = memberID;
+        this.bookID = bookID;
+        this.date = date;
+        this.secondDate = secondDate;
+        this.amount = amount;
+        this.details = details;
+    }
+
+    public static JournalEntry issue(Transaction transaction) {
+        return new JournalEntry(0, Type.ISSUE, transaction.getTransactionID(), transaction.getMemberID(),
+                transaction.getBorrowedBookID(), transaction.getIssueDate(), transaction.getDueDate(), 0);
+    }
+
+    public static JournalEntry renew(Transaction transaction) {
+        return renew(transaction, transaction.getRenewalDate(), transaction.getDueDate());
+    }
+
+    // for a renewal that is journaled before the loan is changed
+    public static JournalEntry renew(Transaction transaction, LocalDate renewalDate, LocalDate newDueDate) {
+        return new JournalEntry(0, Type.RENEW, transaction.getTransactionID(), transaction.getMemberID(),
+                transaction.getBorrowedBookID(), renewalDate, newDueDate, 0);
+    }
+
+    public static JournalEntry returned(Transaction transaction, long fine) {
+        return returned(transaction, transaction.getReturnDate(), fine);
+    }
+
+    // for a return that is journaled before the loan is closed
+    public static JournalEntry returned(Transaction transaction, LocalDate returnDate, long fine) {
+        return new JournalEntry(0, Type.RETURN, transaction.getTransactionID(), transaction.getMemberID(),
+                transaction.getBorrowedBookID(), returnDate, null, fine);
+    }
+
+    public static JournalEntry fine(String memberID, String transactionID, LocalDate finedThrough, long amount) {
+        return new JournalEntry(0, Type.FINE, transactionID, memberID, null, finedThrough, null, amount);
+    }
+
+    public static JournalEntry payment(String memberID, long amount) {
+        return payment(memberID, amount, null);
+    }
+
+    // the reference (receipt number, online payment id) is kept so a reconciliation file can't post it twice
+    public static JournalEntry payment(String memberID, long amount, String reference) {
+        return new JournalEntry(0, Type.PAYMENT, reference, memberID, null, null, null, amount);
+    }
+
+    public static JournalEntry waiver(String memberID, long amount, String reason) {
+        return new JournalEntry(0, Type.WAIVER, reason, memberID, null, null, null, amount);
+    }
+
+    public static JournalEntry removal(String bookID, String transactionID, LocalDate date) {
+        return new JournalEntry(0, Type.REMOVAL, transactionID, null, bookID, date, null, 0);
+    }
+
+    // a book or member created since the last snapshot, without these the loans of it could not be replayed
+    public static JournalEntry addBook(Book book) {
+        return new JournalEntry(0, Type.ADD_BOOK, null, null, book.getBookID(), null, null, 0,
+                details(book.getTitle(), book.getAuthor(), book.getGenre(), book.getContentRating()));
+    }
+
+    public static JournalEntry addMember(Member member) {
+        return new JournalEntry(0, Type.ADD_MEMBER, null, member.getMemberID(), null, member.getJoinDate(), null,
+                member.getPendingDues(), details(member.getName(), String.valueOf(member.getAge()), member.getOccupation(),
+                member.getEmail(), member.getHashedPassword(), member.getPhoneNumber(), String.valueOf(member.getMaxBorrowLimit())));
+    }
+
+    // List.of doesn't take nulls, a member without a phone number is fine
+    private static List<String> details(String... values) {
+        return Collections.unmodifiableList(Arrays.asList(values));
+    }
+
+    JournalEntry withSequence(long sequence) {
+        return new JournalEntry(sequence, type, transactionID, memberID, bookID, date, secondDate, amount, details);
+    }
+
+    // getters
+    public long getSequence() { return sequence; }
+    public Type getType() { return type; }
+    public String getTransactionID() { return transactionID; }
+    public String getMemberID() { return memberID; }
+    public String getBookID() { return bookID; }
+    public LocalDate getDate() { return date; }
+    public LocalDate getSecondDate() { return secondDate; }
+    public long getAmount() { return amount; }
+    public List<String> getDetails() { return details; }
+
+    @Override
+    public String toString() {
+        return "#" + sequence + " " + type + " tx=" + transactionID + " member=" + memberID + " book=" + bookID
+                + " date=" + date + " secondDate=" + secondDate + " amount=" + amount + (details.isEmpty() ? "" : " details=" + details);
+    }
+}
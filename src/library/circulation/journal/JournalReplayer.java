@@ -0,0 +1,235 @@
+package library.circulation.journal;
+
+import library.circulation.history.LoanHistory;
+import library.circulation.ids.IdGenerator;
+import library.circulation.models.Book;
+import library.circulation.models.Member;
+import library.circulation.models.Transaction;
+import library.circulation.repository.CatalogRepository;
+
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+// Rebuilds Book.currentTransaction, Member.borrowedBooks and the open transactions of a
+// CatalogRepository from the journal at startup, loans returned or closed by a removal go to the LoanHistory.
+// Books and members from the snapshot must already be loaded, the ones added since come from their ADD entries.
+//
+// LibraryService journals the changes of one copy under the copy's lock, so they come in order. Entries written
+// straight to a journal don't have to: entries for a loan we haven't seen yet (a RETURN before its ISSUE) are kept
+// aside until it shows up, and an ISSUE for a copy that is still out waits until the copy is free here as well.
+// Dues are only summed per member, so a PAYMENT before its FINE is fine too. They don't touch the members,
+// LibraryService.restore carries the sums over through its DuesLedger (see getDuesChanges).
+// The references of the payments replayed are collected, LibraryService.restore hands them to its DuesLedger.
+public class JournalReplayer {
+
+    private final CatalogRepository catalog;
+    private final LoanHistory history;
+
+    private final Map<String, List<JournalEntry>> waitingForIssue = new HashMap<>();
+    // by book id, the ISSUEs of a copy that is still out on an earlier loan, in journal order
+    private final Map<String, Deque<JournalEntry>> waitingForCopy = new HashMap<>();
+    private final Map<String, Long> duesDelta = new HashMap<>();
+    private final Set<String> paymentReferences = new HashSet<>();
+    private long lastSequence;
+    private long highestTransactionNumber = -1;
+    private int applied;
+    private int skipped;
+
+    public JournalReplayer(CatalogRepository catalog, LoanHistory history) {
+        this.catalog = Objects.requireNonNull(catalog, "Catalog cannot be null.");
+        this.history = Objects.requireNonNull(history, "History cannot be null.");
+    }
+
+    // replays everything after "afterSequence" (0 = from the start) and returns the last sequence seen
+    public long replay(Path directory, long afterSequence) {
+        lastSequence = afterSequence;
+        CirculationJournal.read(directory, afterSequence, this::apply);
+
+        // the copy was issued again, so the loan before ended even though its RETURN never made it to disk
+        for (String bookID : new ArrayList<>(waitingForCopy.keySet())) {
+            Book book = catalog.findBook(bookID);
+            while (waitingForCopy.containsKey(bookID)) {
+                Transaction open = book.getCurrentTransaction();
+                close(book, open, waitingForCopy.get(bookID).peek().getDate());
+                skipped++;
+                issueWaiting(book);
+            }
+        }
+        // whatever is still waiting belongs to loans whose ISSUE never made it to disk
+        waitingForIssue.values().forEach(entries -> skipped += entries.size());
+        waitingForIssue.clear();
+        return lastSequence;
+    }
+
+    public int getApplied() { return applied; }
+    public int getSkipped() { return skipped; }
+    public Set<String> getPaymentReferences() { return paymentReferences; }
+    // by member id, what the fines, payments and waivers replayed add up to (negative when more was paid)
+    public Map<String, Long> getDuesChanges() { return Collections.unmodifiableMap(duesDelta); }
+    // of every loan issued in the journal, also the ones returned since, -1 if there was none
+    public long getHighestTransactionNumber() { return highestTransactionNumber; }
+
+    private void apply(JournalEntry entry) {
+        lastSequence = entry.getSequence();
+        switch (entry.getType()) {
+            case ISSUE -> {
+                highestTransactionNumber = Math.max(highestTransactionNumber, IdGenerator.numberOf(entry.getTransactionID()));
+                if (!issue(entry)) {
+                    return;
+                }
+            }
+            case RENEW, RETURN -> {
+                Transaction transaction = catalog.findOpenTransaction(entry.getTransactionID());
+                if (transaction == null) {
+                    waitingForIssue.computeIfAbsent(entry.getTransactionID(), id -> new ArrayList<>()).add(entry);
+                    return;
+                }
+                if (entry.getType() == JournalEntry.Type.RENEW) {
+                    transaction.restoreRenewal(entry.getDate(), entry.getSecondDate());
+                } else {
+                    returned(transaction, entry);
+                }
+            }
+            case FINE -> {
+                duesDelta.merge(entry.getMemberID(), entry.getAmount(), Long::sum);
+                // fines mirrored from another branch have no loan here
+                Transaction transaction = entry.getTransactionID() == null ? null : catalog.findOpenTransaction(entry.getTransactionID());
+                if (transaction != null) {
+                    LocalDate finedThrough = transaction.getFinedThrough();
+                    if (entry.getDate() != null && (finedThrough == null || entry.getDate().isAfter(finedThrough))) {
+                        finedThrough = entry.getDate();
+                    }
+                    transaction.restoreFines(finedThrough, transaction.getFine() + entry.getAmount());
+                }
+            }
+            case PAYMENT -> {
+                duesDelta.merge(entry.getMemberID(), -entry.getAmount(), Long::sum);
+                if (entry.getTransactionID() != null) {
+                    paymentReferences.add(entry.getTransactionID());
+                }
+            }
+            case WAIVER -> duesDelta.merge(entry.getMemberID(), -entry.getAmount(), Long::sum);
+            case ADD_BOOK -> {
+                if (catalog.findBook(entry.getBookID()) != null) {
+                    skipped++; // already in the snapshot
+                    return;
+                }
+                List<String> details = entry.getDetails();
+                catalog.addBook(Book.restore(entry.getBookID(), details.get(0), details.get(1), details.get(2),
+                        details.get(3), true));
+            }
+            case ADD_MEMBER -> {
+                if (catalog.findMember(entry.getMemberID()) != null) {
+                    skipped++;
+                    return;
+                }
+                List<String> details = entry.getDetails();
+                catalog.addMember(Member.restore(entry.getMemberID(), details.get(0), Integer.parseInt(details.get(1)),
+                        details.get(2), details.get(3), details.get(4), details.get(5), entry.getDate(),
+                        Integer.parseInt(details.get(6)), entry.getAmount()));
+            }
+            case REMOVAL -> {
+                Book book = catalog.findBook(entry.getBookID());
+                if (book == null || !book.isPresent()) {
+                    skipped++;
+                    return;
+                }
+                Transaction open = book.removeBook();
+                if (open != null) {
+                    if (entry.getDate() != null) {
+                        open.setReturnDate(entry.getDate());
+                    }
+                    Member borrower = catalog.findMember(open.getMemberID());
+                    if (borrower != null) {
+                        borrower.removeBookFromBorrowedList(book);
+                    }
+                    catalog.closeTransaction(open);
+                    if (open.getReturnDate() != null) { // removals journaled before they had a date can't be archived
+                        history.add(open);
+                    }
+                }
+                catalog.refreshAvailability(book);
+                issueWaiting(book); // nothing can be issued any more, counts them as skipped
+            }
+        }
+        applied++;
+    }
+
+    // false if it was skipped or has to wait for the copy
+    private boolean issue(JournalEntry entry) {
+        Book book = catalog.findBook(entry.getBookID());
+        Member member = catalog.findMember(entry.getMemberID());
+        if (book == null || member == null || !book.isPresent()) {
+            skipped++;
+            return false;
+        }
+        if (book.getCurrentTransaction() != null) {
+            waitingForCopy.computeIfAbsent(book.getBookID(), id -> new ArrayDeque<>()).add(entry);
+            return false;
+        }
+
+        Transaction transaction = Transaction.restore(entry.getTransactionID(), entry.getMemberID(),
+                entry.getBookID(), entry.getDate(), entry.getSecondDate());
+        book.markAsBorrowed(transaction);
+        member.addBookToBorrowedList(book);
+        catalog.addOpenTransaction(transaction);
+        catalog.refreshAvailability(book);
+
+        List<JournalEntry> early = waitingForIssue.remove(entry.getTransactionID());
+        if (early != null) {
+            for (JournalEntry later : early) {
+                if (later.getType() == JournalEntry.Type.RENEW) {
+                    transaction.restoreRenewal(later.getDate(), later.getSecondDate());
+                } else {
+                    returned(transaction, later);
+                }
+                applied++;
+            }
+        }
+        return true;
+    }
+
+    // the copy is free again (or gone), the next ISSUE that was waiting for it goes through now
+    private void issueWaiting(Book book) {
+        Deque<JournalEntry> waiting = waitingForCopy.get(book.getBookID());
+        while (waiting != null && !waiting.isEmpty() && book.getCurrentTransaction() == null) {
+            if (issue(waiting.poll())) {
+                applied++;
+            }
+        }
+        if (waiting != null && waiting.isEmpty()) {
+            waitingForCopy.remove(book.getBookID());
+        }
+    }
+
+    private void returned(Transaction transaction, JournalEntry entry) {
+        Book book = catalog.findBook(transaction.getBorrowedBookID());
+
+        transaction.restoreFines(transaction.getFinedThrough(), transaction.getFine() + entry.getAmount());
+        duesDelta.merge(transaction.getMemberID(), entry.getAmount(), Long::sum);
+        close(book, transaction, entry.getDate());
+        issueWaiting(book);
+    }
+
+    private void close(Book book, Transaction transaction, LocalDate returnDate) {
+        book.markAsReturned(transaction);
+        transaction.setReturnDate(returnDate);
+        Member member = catalog.findMember(transaction.getMemberID());
+        if (member != null) {
+            member.removeBookFromBorrowedList(book);
+        }
+        catalog.closeTransaction(transaction);
+        catalog.refreshAvailability(book);
+        history.add(transaction);
+    }
+}
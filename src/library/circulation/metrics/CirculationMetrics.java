@@ -0,0 +1,261 @@
+package library.circulation.metrics;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.LongAdder;
+
+// Counters and latencies of the LibraryService hot paths.
+// Counters are LongAdders, so desks counting at the same time don't fight over one cache line, and latencies go
+// into lock-free LatencyHistograms. When disabled every call is a single volatile read and returns.
+//
+// usage on a hot path:
+//     long start = metrics.start();
+//     ... work ...
+//     metrics.completed(Operation.BORROW, start);   // or failed(...)
+public class CirculationMetrics implements CirculationMetricsMBean {
+
+    public enum Operation { BORROW, RETURN, RENEW }
+
+    public enum Rejection { DUES, AGE_RESTRICTION, LIMIT_REACHED, UNAVAILABLE, REMOVED }
+
+    // start() hands this out while disabled, so the matching completed/failed call knows to skip
+    private static final long OFF = Long.MIN_VALUE;
+
+    private volatile boolean enabled = true;
+
+    private final LongAdder[] completed = adders(Operation.values().length);
+    private final LongAdder[] failed = adders(Operation.values().length);
+    private final LongAdder[] rejections = adders(Rejection.values().length);
+    private final LatencyHistogram[] latencies = new LatencyHistogram[Operation.values().length];
+    private final LongAdder finesCharged = new LongAdder();
+    private final LongAdder finesPaid = new LongAdder();
+    private final LongAdder finesWaived = new LongAdder();
+    private final LongAdder holdsPlaced = new LongAdder();
+    private final LongAdder holdsFulfilled = new LongAdder();
+
+    private final List<ObjectName> registeredNames = new ArrayList<>();
+
+    public CirculationMetrics() {
+        for (int i = 0; i < latencies.length; i++) {
+            latencies[i] = new LatencyHistogram();
+        }
+    }
+
+    private static LongAdder[] adders(int count) {
+        LongAdder[] adders = new LongAdder[count];
+        for (int i = 0; i < count; i++) {
+            adders[i] = new LongAdder();
+        }
+        return adders;
+    }
+
+    // ---------- recording ----------
+
+    public long start() {
+        return enabled ? System.nanoTime() : OFF;
+    }
+
+    public void completed(Operation operation, long start) {
+        if (start != OFF) {
+            completed[operation.ordinal()].increment();
+            latencies[operation.ordinal()].record(System.nanoTime() - start);
+        }
+    }
+
+    public void failed(Operation operation, long start) {
+        if (start != OFF) {
+            failed[operation.ordinal()].increment();
+        }
+    }
+
+    public void rejected(Rejection reason) {
+        if (enabled) {
+            rejections[reason.ordinal()].increment();
+        }
+    }
+
+    public void fineCharged(long amount) {
+        if (enabled && amount > 0) {
+            finesCharged.add(amount);
+        }
+    }
+
+    public void finePaid(long amount) {
+        if (enabled && amount > 0) {
+            finesPaid.add(amount);
+        }
+    }
+
+    public void fineWaived(long amount) {
+        if (enabled && amount > 0) {
+            finesWaived.add(amount);
+        }
+    }
+
+    public void holdPlaced() {
+        if (enabled) {
+            holdsPlaced.increment();
+        }
+    }
+
+    public void holdFulfilled() {
+        if (enabled) {
+            holdsFulfilled.increment();
+        }
+    }
+
+    // ---------- reading ----------
+
+    @Override public boolean isEnabled() { return enabled; }
+
+    // also switches the contention counters of the model classes
+    @Override
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+        ContentionCounters.setEnabled(enabled);
+    }
+
+    public long getCompleted(Operation operation) { return completed[operation.ordinal()].sum(); }
+    public long getFailed(Operation operation) { return failed[operation.ordinal()].sum(); }
+    public long getRejections(Rejection reason) { return rejections[reason.ordinal()].sum(); }
+    public LatencyHistogram.Snapshot getLatency(Operation operation) { return latencies[operation.ordinal()].snapshot(); }
+
+    @Override public long getBorrows() { return getCompleted(Operation.BORROW); }
+    @Override public long getReturns() { return getCompleted(Operation.RETURN); }
+    @Override public long getRenewals() { return getCompleted(Operation.RENEW); }
+    @Override public long getFailedBorrows() { return getFailed(Operation.BORROW); }
+    @Override public long getFailedReturns() { return getFailed(Operation.RETURN); }
+    @Override public long getFailedRenewals() { return getFailed(Operation.RENEW); }
+    @Override public long getRejectedForDues() { return getRejections(Rejection.DUES); }
+    @Override public long getRejectedForAge() { return getRejections(Rejection.AGE_RESTRICTION); }
+    @Override public long getRejectedForLimit() { return getRejections(Rejection.LIMIT_REACHED); }
+    @Override public long getRejectedUnavailable() { return getRejections(Rejection.UNAVAILABLE); }
+    @Override public long getRejectedRemoved() { return getRejections(Rejection.REMOVED); }
+    @Override public long getFinesCharged() { return finesCharged.sum(); }
+    @Override public long getFinesPaid() { return finesPaid.sum(); }
+    @Override public long getFinesWaived() { return finesWaived.sum(); }
+    @Override public long getHoldsPlaced() { return holdsPlaced.sum(); }
+    @Override public long getHoldsFulfilled() { return holdsFulfilled.sum(); }
+    @Override public long getBookStateRetries() { return ContentionCounters.getBookStateRetries(); }
+    @Override public long getDuesRetries() { return ContentionCounters.getDuesRetries(); }
+
+    // plain text in the prometheus exposition format, readable by people and by scrapers
+    @Override
+    public String dump() {
+        StringBuilder out = new StringBuilder(2048);
+        out.append("# TYPE library_operations_total counter\n");
+        for (Operation operation : Operation.values()) {
+            line(out, "library_operations_total", "operation", label(operation), getCompleted(operation));
+        }
+        out.append("# TYPE library_operation_failures_total counter\n");
+        for (Operation operation : Operation.values()) {
+            line(out, "library_operation_failures_total", "operation", label(operation), getFailed(operation));
+        }
+        out.append("# TYPE library_rejections_total counter\n");
+        for (Rejection reason : Rejection.values()) {
+            line(out, "library_rejections_total", "reason", label(reason), getRejections(reason));
+        }
+        out.append("# TYPE library_fines_charged_total counter\n");
+        out.append("library_fines_charged_total ").append(getFinesCharged()).append('\n');
+        out.append("# TYPE library_fines_paid_total counter\n");
+        out.append("library_fines_paid_total ").append(getFinesPaid()).append('\n');
+        out.append("# TYPE library_fines_waived_total counter\n");
+        out.append("library_fines_waived_total ").append(getFinesWaived()).append('\n');
+        out.append("# TYPE library_holds_placed_total counter\n");
+        out.append("library_holds_placed_total ").append(getHoldsPlaced()).append('\n');
+        out.append("# TYPE library_holds_fulfilled_total counter\n");
+        out.append("library_holds_fulfilled_total ").append(getHoldsFulfilled()).append('\n');
+        out.append("# TYPE library_cas_retries_total counter\n");
+        line(out, "library_cas_retries_total", "state", "book", getBookStateRetries());
+        line(out, "library_cas_retries_total", "state", "dues", getDuesRetries());
+
+        out.append("# TYPE library_operation_latency_seconds summary\n");
+        for (Operation operation : Operation.values()) {
+            LatencyHistogram.Snapshot snapshot = getLatency(operation);
+            String name = label(operation);
+            for (double quantile : new double[] {0.5, 0.9, 0.99, 0.999}) {
+                out.append("library_operation_latency_seconds{operation=\"").append(name)
+                        .append("\",quantile=\"").append(quantile).append("\"} ")
+                        .append(seconds(snapshot.percentile(quantile * 100))).append('\n');
+            }
+            out.append("library_operation_latency_seconds_count{operation=\"").append(name).append("\"} ")
+                    .append(snapshot.getCount()).append('\n');
+            out.append("library_operation_latency_seconds_max{operation=\"").append(name).append("\"} ")
+                    .append(seconds(snapshot.getMaxNanos())).append('\n');
+        }
+        return out.toString();
+    }
+
+    private static void line(StringBuilder out, String metric, String labelName, String labelValue, long value) {
+        out.append(metric).append('{').append(labelName).append("=\"").append(labelValue).append("\"} ").append(value).append('\n');
+    }
+
+    private static String label(Enum<?> value) {
+        return value.name().toLowerCase(Locale.ROOT);
+    }
+
+    private static String seconds(long nanos) {
+        return String.format(Locale.ROOT, "%.9f", nanos / 1e9);
+    }
+
+    @Override
+    public void reset() {
+        resetAll(completed);
+        resetAll(failed);
+        resetAll(rejections);
+        for (LatencyHistogram histogram : latencies) {
+            histogram.reset();
+        }
+        finesCharged.reset();
+        finesPaid.reset();
+        finesWaived.reset();
+        holdsPlaced.reset();
+        holdsFulfilled.reset();
+        ContentionCounters.reset();
+    }
+
+    private static void resetAll(LongAdder[] adders) {
+        for (LongAdder adder : adders) {
+            adder.reset();
+        }
+    }
+
+    // ---------- jmx ----------
+
+    // registers library.circulation:type=CirculationMetrics,name=<name> and one OperationLatency bean per operation
+    public synchronized void registerMBeans(String name) {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            register(server, this, new ObjectName("library.circulation:type=CirculationMetrics,name=" + ObjectName.quote(name)));
+            for (Operation operation : Operation.values()) {
+                register(server, new OperationLatency(latencies[operation.ordinal()]), new ObjectName(
+                        "library.circulation:type=OperationLatency,name=" + ObjectName.quote(name) + ",operation=" + label(operation)));
+            }
+        } catch (JMException e) {
+            unregisterMBeans();
+            throw new IllegalStateException("Could not register circulation metrics as " + name, e);
+        }
+    }
+
+    private void register(MBeanServer server, Object bean, ObjectName objectName) throws JMException {
+        server.registerMBean(bean, objectName);
+        registeredNames.add(objectName);
+    }
+
+    public synchronized void unregisterMBeans() {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        for (ObjectName objectName : registeredNames) {
+            try {
+                server.unregisterMBean(objectName);
+            } catch (JMException ignored) {
+                // already gone
+            }
+        }
+        registeredNames.clear();
+    }
+}
@@ -0,0 +1,32 @@
+package library.circulation.metrics;
+
+// JMX view of the circulation counters, latencies are separate OperationLatency beans
+public interface CirculationMetricsMBean {
+    boolean isEnabled();
+    void setEnabled(boolean enabled);
+
+    long getBorrows();
+    long getReturns();
+    long getRenewals();
+    long getFailedBorrows();
+    long getFailedReturns();
+    long getFailedRenewals();
+
+    long getRejectedForDues();
+    long getRejectedForAge();
+    long getRejectedForLimit();
+    long getRejectedUnavailable();
+    long getRejectedRemoved();
+
+    long getFinesCharged();
+    long getFinesPaid();
+    long getFinesWaived();
+    long getHoldsPlaced();
+    long getHoldsFulfilled();
+
+    long getBookStateRetries();
+    long getDuesRetries();
+
+    String dump();
+    void reset();
+}
@@ -0,0 +1,37 @@
+package library.circulation.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+// how often a compare-and-set in the model classes lost against another thread and had to retry.
+// The models have no service to report to, so these are global. A few per second is normal,
+// a lot means many desks are working on the same copies or the same member
+public final class ContentionCounters {
+
+    private static volatile boolean enabled = true;
+    private static final LongAdder bookStateRetries = new LongAdder();
+    private static final LongAdder duesRetries = new LongAdder();
+
+    private ContentionCounters() {}
+
+    public static void bookStateRetry() {
+        if (enabled) {
+            bookStateRetries.increment();
+        }
+    }
+
+    public static void duesRetry() {
+        if (enabled) {
+            duesRetries.increment();
+        }
+    }
+
+    public static long getBookStateRetries() { return bookStateRetries.sum(); }
+    public static long getDuesRetries() { return duesRetries.sum(); }
+
+    static void setEnabled(boolean enabled) { ContentionCounters.enabled = enabled; }
+
+    static void reset() {
+        bookStateRetries.reset();
+        duesRetries.reset();
+    }
+}
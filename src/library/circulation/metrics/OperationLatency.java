@@ -0,0 +1,23 @@
+package library.circulation.metrics;
+
+// every getter takes a fresh snapshot, JMX clients poll rarely enough for that not to matter
+public class OperationLatency implements OperationLatencyMBean {
+
+    private final LatencyHistogram histogram;
+
+    OperationLatency(LatencyHistogram histogram) {
+        this.histogram = histogram;
+    }
+
+    @Override public long getCount() { return histogram.snapshot().getCount(); }
+    @Override public double getMeanMicros() { return histogram.snapshot().getMeanNanos() / 1000; }
+    @Override public double getP50Micros() { return micros(50); }
+    @Override public double getP90Micros() { return micros(90); }
+    @Override public double getP99Micros() { return micros(99); }
+    @Override public double getP999Micros() { return micros(99.9); }
+    @Override public double getMaxMicros() { return histogram.snapshot().getMaxNanos() / 1000.0; }
+
+    private double micros(double percentile) {
+        return histogram.snapshot().percentile(percentile) / 1000.0;
+    }
+}
@@ -0,0 +1,12 @@
+package library.circulation.metrics;
+
+// JMX view of one LatencyHistogram, all values in microseconds
+public interface OperationLatencyMBean {
+    long getCount();
+    double getMeanMicros();
+    double getP50Micros();
+    double getP90Micros();
+    double getP99Micros();
+    double getP999Micros();
+    double getMaxMicros();
+}
@@ -1,15 +1,27 @@
 package library.circulation.models;
 
+import library.circulation.ids.IdGenerator;
+import library.circulation.ids.IdSequence;
+import library.circulation.metrics.ContentionCounters;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+
 public class Book {
-    private static int bookCounter = 1000;
+    private static final int MAX_CACHED_GENRES = 4096;
+    private static final Map<String, String> GENRE_CODES = new ConcurrentHashMap<>();
 
     private final String bookID;
     private String title;
     private String author;
     private String genre;
     private String contentRating; // {G, PG-13, R}
-    private Boolean isAvailable;
-    private boolean isPresent = true;
+
+    // availability, presence and the open loan change together, so they live in one immutable State
+    // that is swapped with compareAndSet. Two checkouts of the same copy can't both win the swap.
+    private final AtomicReference<State> state = new AtomicReference<>(State.AVAILABLE);
 
     // getters
     public String getBookID() { return bookID; }
@@ -17,70 +29,161 @@ public class Book {
     public String getAuthor() { return author; }
     public String getGenre() { return genre; }
     public String getContentRating() { return contentRating; }
-    public Boolean getAvailable() { return isAvailable; }
-    public boolean isPresent() { return isPresent; }
+    public Boolean getAvailable() { return state.get().available; }
+    public boolean isPresent() { return state.get().present; }
+    public Transaction getCurrentTransaction() { return state.get().transaction; }
+    // goes up by one on every successful state change, handy for optimistic checks by callers
+    public long getVersion() { return state.get().version; }
 
     // setters
     void setTitle(String title) { this.title = title; }
     void setAuthor(String author) { this.author = author; }
     void setGenre(String genre) { this.genre = genre; }
     void setContentRating(String contentRating) { this.contentRating = contentRating; }
-    void setAvailable(Boolean available) { isAvailable = available; }
-    void setPresent(boolean present) { isPresent = present; }
-
-    private Transaction currentTransaction;
-    public Transaction getCurrentTransaction() { return currentTransaction; }
-    void setCurrentTransaction(Transaction currentTransaction) { this.currentTransaction = currentTransaction; }
 
 
     public Book (String title, String author, String genre, String contentRating) {
+        this(genreCode(genre) + "_" + IdGenerator.next(IdSequence.BOOK), title, author, genre, contentRating);
+    }
+
+    // rebuilds a book that already has an id, e.g. from a snapshot. A removed book comes back removed
+    public static Book restore(String bookID, String title, String author, String genre, String contentRating, boolean present) {
+        Objects.requireNonNull(bookID, "Book ID cannot be null");
+        Book book = new Book(bookID, title, author, genre, contentRating);
+        if (!present) {
+            book.removeBook();
+        }
+        return book;
+    }
 
-        this.bookID = generateUniqueCode(genre) + "_" + ++bookCounter;
+    private Book (String bookID, String title, String author, String genre, String contentRating) {
+        this.bookID = bookID;
 
         this.setTitle(title);
         this.setAuthor(author);
         this.setGenre(genre);
         this.setContentRating(contentRating);
-        this.setAvailable(true);
 
         // here we will add these books in our future sql table
     }
 
-    public void removeBook() {
-
-        if (!this.isPresent) {
-            throw new IllegalStateException("Book " + this.bookID + " is already removed");
+    // returns the loan that was open when the book was removed (or null), so the caller can close it
+    public Transaction removeBook() {
+        while (true) {
+            State current = state.get();
+            if (!current.present) {
+                throw new IllegalStateException("Book " + this.bookID + " is already removed");
+            }
+            // here we remove the book from sql table, but we keep the bookID for future purposes it will just show book not available now
+            if (state.compareAndSet(current, current.removed())) {
+                return current.transaction;
+            }
+            ContentionCounters.bookStateRetry();
         }
-        // here we remove the book from sql table, but we keep the bookID for future purposes it will just show book not available now
-        this.setAvailable(false);
-        this.setPresent(false);
-        currentTransaction = null;
     }
 
     public void markAsBorrowed(Transaction transaction) {
-        if (!this.isAvailable || !this.isPresent) {
-            // Provides a specific message based on availability/presence
-            String reason = !this.isAvailable ? "not available for borrowing" : "has been removed";
-            throw new IllegalStateException("Book " + this.bookID + " cannot be borrowed because it is " + reason + ".");
+        if (!tryMarkAsBorrowed(transaction)) {
+            throw new IllegalStateException("Book " + this.bookID + " cannot be borrowed because it is not available for borrowing.");
         }
+    }
 
-        setAvailable(false);
-        setCurrentTransaction(transaction);
+    // same as markAsBorrowed but returns false instead of throwing when someone else has the book
+    public boolean tryMarkAsBorrowed(Transaction transaction) {
+        Objects.requireNonNull(transaction, "Transaction cannot be null.");
+        while (true) {
+            State current = state.get();
+            if (!current.present) {
+                throw new IllegalStateException("Book " + this.bookID + " cannot be borrowed because it has been removed.");
+            }
+            if (!current.available) {
+                return false;
+            }
+            if (state.compareAndSet(current, current.borrowed(transaction))) {
+                return true;
+            }
+            // another thread changed the state in between, read it again and retry
+            ContentionCounters.bookStateRetry();
+        }
     }
 
     public void markAsReturned() {
-        if (this.isAvailable) { // If it's available, it wasn't out on loan
-            throw new IllegalStateException("Book " + this.bookID + " is already marked as available.");
+        markAsReturned(null);
+    }
+
+    // only succeeds if "transaction" is still the open loan (null means whichever loan is open),
+    // so two desks returning the same copy at once can't both close it
+    public void markAsReturned(Transaction transaction) {
+        while (true) {
+            State current = state.get();
+            if (current.available) { // If it's available, it wasn't out on loan
+                throw new IllegalStateException("Book " + this.bookID + " is already marked as available.");
+            }
+            if (current.transaction == null) { // Must have a current transaction to be returned
+                throw new IllegalStateException("Book " + this.bookID + " was not currently borrowed (no active transaction).");
+            }
+            if (transaction != null && current.transaction != transaction) {
+                throw new IllegalStateException("Book " + this.bookID + " is no longer on loan under transaction " + transaction.getTransactionID() + ".");
+            }
+            if (state.compareAndSet(current, current.returned())) { // Transaction completed
+                return;
+            }
+            ContentionCounters.bookStateRetry();
         }
-        if (this.currentTransaction == null) { // Must have a current transaction to be returned
-            throw new IllegalStateException("Book " + this.bookID + " was not currently borrowed (no active transaction).");
+    }
+
+    // closes "returning" and opens "next" in one step, for a copy that goes straight to someone waiting for it.
+    // the copy is never available in between, so nobody at the desk can take it first
+    public void handOver(Transaction returning, Transaction next) {
+        Objects.requireNonNull(returning, "Returning transaction cannot be null.");
+        Objects.requireNonNull(next, "Next transaction cannot be null.");
+        while (true) {
+            State current = state.get();
+            if (current.transaction != returning) {
+                throw new IllegalStateException("Book " + this.bookID + " is no longer on loan under transaction " + returning.getTransactionID() + ".");
+            }
+            if (state.compareAndSet(current, current.borrowed(next))) {
+                return;
+            }
+            ContentionCounters.bookStateRetry();
         }
+    }
+
+    private static final class State {
+        static final State AVAILABLE = new State(true, true, null, 0);
+
+        final boolean available;
+        final boolean present;
+        final Transaction transaction;
+        final long version;
 
-        setAvailable(true);
-        setCurrentTransaction(null); // Transaction completed
+        State(boolean available, boolean present, Transaction transaction, long version) {
+            this.available = available;
+            this.present = present;
+            this.transaction = transaction;
+            this.version = version;
+        }
+
+        State borrowed(Transaction transaction) { return new State(false, true, transaction, version + 1); }
+        State returned() { return new State(true, present, null, version + 1); }
+        State removed() { return new State(false, false, null, version + 1); }
+    }
+
+    // "Science Fiction" -> "SCIFI". There are only a handful of genres, so each one is worked out once:
+    // a bulk import of millions of books would otherwise split and rebuild the same few codes over and over
+    public static String genreCode(String genre) {
+        Objects.requireNonNull(genre, "Genre cannot be null.");
+        String code = GENRE_CODES.get(genre);
+        if (code == null) {
+            code = generateUniqueCode(genre);
+            if (GENRE_CODES.size() < MAX_CACHED_GENRES) { // free text genres could grow it forever
+                GENRE_CODES.putIfAbsent(genre, code);
+            }
+        }
+        return code;
     }
 
-    private String generateUniqueCode(String genre) {
+    private static String generateUniqueCode(String genre) {
 
         // splits the input "genre" into words using spaces
         String[] words = genre.trim().split("\\s+");
@@ -1,14 +1,24 @@
 package library.circulation.models;
 
+import library.circulation.ids.IdGenerator;
+import library.circulation.ids.IdSequence;
+import library.circulation.metrics.ContentionCounters;
 import org.mindrot.jbcrypt.BCrypt;
 import java.time.LocalDate;
-import java.util.ArrayList;
 import java.util.List;
+import java.util.Objects;
 import java.util.Collections;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
 
 public class Member {
-    private static int studentCounter = 0;
-    private static int teacherCounter = 0;
+    // compiled once, String.matches would compile the regex again on every call
+    private static final Pattern EMAIL_PATTERN =
+            Pattern.compile("^[A-Za-z0-9+_.-]+@(gmail\\.com|yahoo\\.com|outlook\\.com|icloud\\.com|protonmail\\.com|zoho\\.com)$");
+    private static final Pattern PASSWORD_PATTERN = Pattern.compile("^(?=.*[A-Z])(?=.*[!@#$%^&*])(?=.*[a-z]).{6,}$");
+
+    private static volatile int passwordWorkFactor = 10;
 
     // starts with STU(for students) and TCH(for teachers)
     private final String memberID;// final because this id cant be changed later on
@@ -20,10 +30,12 @@ public class Member {
     private String hashedPassword; // only hashed version is stored
     private final LocalDate joinDate;
     private int maxBorrowLimit; // for Students its 3 and for Teachers its 5
-    private long pendingDues = 0;
+    // atomic so fines posted from two desks at the same time are never lost
+    private final AtomicLong pendingDues = new AtomicLong();
 
     // this list stores currently borrowed books of members
-    private final ArrayList<Book> borrowedBooks = new ArrayList<>();
+    // copy on write because it is read far more often than it changes and is at most a handful of books
+    private final List<Book> borrowedBooks = new CopyOnWriteArrayList<>();
 
     public List<Book> getBorrowedBooks() {
         // this now prevents unnecessary modifications in our ArrayList and only shows a read only view of borrowed books which is not editable
@@ -39,6 +51,19 @@ public class Member {
         this.borrowedBooks.add(book);
     }
 
+    // adds the book only if the member is still under maxBorrowLimit, check and add happen under this member's lock
+    // so two kiosks can't both take the last free slot
+    public synchronized boolean tryAddBookToBorrowedList(Book book) {
+        if (book == null) {
+            throw new IllegalArgumentException("Cannot add a null book to the borrowed list.");
+        }
+        if (this.borrowedBooks.size() >= this.maxBorrowLimit) {
+            return false;
+        }
+        this.borrowedBooks.add(book);
+        return true;
+    }
+
     // removes books from list
     public void removeBookFromBorrowedList(Book book) {
         if (book == null) {
@@ -56,7 +81,7 @@ public class Member {
     public String getHashedPassword() { return hashedPassword; }
     public LocalDate getJoinDate() { return joinDate; }
     public int getMaxBorrowLimit() { return maxBorrowLimit; }
-    public long getPendingDues() { return pendingDues; }
+    public long getPendingDues() { return pendingDues.get(); }
     public String getMemberID() { return memberID; }
 
     // setters
@@ -66,23 +91,67 @@ public class Member {
     public void setPhoneNumber(String phoneNumber) { this.phoneNumber = phoneNumber; }
     public void setEmail(String email) { this.email = email; }
     void setMaxBorrowLimit(int maxBorrowLimit) { this.maxBorrowLimit = maxBorrowLimit; }
-    public void setPendingDues(long fine) { this.pendingDues = fine; }
+    public void setPendingDues(long fine) { this.pendingDues.set(fine); }
+
+    // adds a fine to the dues in one atomic step, use this instead of get + set
+    long addDues(long fine) {
+        if (fine < 0) {
+            throw new IllegalArgumentException("Fine cannot be negative.");
+        }
+        return this.pendingDues.addAndGet(fine);
+    }
+
+    // takes a payment off the dues in one atomic step and returns what is left, without printing anything
+    long deductDues(long amount) {
+        if (amount < 0) {
+            throw new IllegalArgumentException("Amount cannot be negative.");
+        }
+        while (true) {
+            long current = this.pendingDues.get();
+            if (amount > current) {
+                throw new IllegalArgumentException("Amount is greater than dues");
+            }
+            // if a fine was posted in between, the swap fails and we check the amount again
+            if (this.pendingDues.compareAndSet(current, current - amount)) {
+                return current - amount;
+            }
+            ContentionCounters.duesRetry();
+        }
+    }
 
     public Member(String name, int age, String occupation, String email, String password, String phoneNumber) {
-        // this generates users ID for a lifetime.
-        this.memberID = generateID(occupation);
-        this.setName(name);
-        this.setAge(age);
-        // throws exception if invalid email is provided
-        this.setEmail(verifyEmail(email));
+        // this generates users ID for a lifetime, throws exception if invalid email is provided
+        // and hashes the verified password for security, the hash will be stored in SQL Table
+        this(generateID(occupation), name, age, occupation, verifyEmail(email), hashPassword(password), phoneNumber, LocalDate.now());
+    }
 
-        // first, we verify the password passes through the constructor
-        String verifiedPassword = verifyPassword(password);
+    // for callers that hashed the password themselves, e.g. the bulk importer hashing on its own thread pool
+    public static Member withHashedPassword(String name, int age, String occupation, String email, String hashedPassword, String phoneNumber) {
+        if (hashedPassword == null || !hashedPassword.startsWith("$2")) {
+            throw new IllegalArgumentException("Not a BCrypt hash.");
+        }
+        return new Member(generateID(occupation), name, age, occupation, verifyEmail(email), hashedPassword, phoneNumber, LocalDate.now());
+    }
 
-        // hashing the password for security this will be stored in SQL Table
-        this.hashedPassword = BCrypt.hashpw(verifiedPassword, BCrypt.gensalt());
+    // rebuilds a member exactly as stored, e.g. from a snapshot, nothing is validated or hashed again
+    public static Member restore(String memberID, String name, int age, String occupation, String email, String hashedPassword,
+                                 String phoneNumber, LocalDate joinDate, int maxBorrowLimit, long pendingDues) {
+        Objects.requireNonNull(memberID, "Member ID cannot be null");
+        Member member = new Member(memberID, name, age, occupation, email, hashedPassword, phoneNumber, joinDate);
+        member.setMaxBorrowLimit(maxBorrowLimit);
+        member.setPendingDues(pendingDues);
+        return member;
+    }
 
-        joinDate = LocalDate.now();
+    private Member(String memberID, String name, int age, String occupation, String email, String hashedPassword, String phoneNumber, LocalDate joinDate) {
+        this.memberID = memberID;
+        this.setName(name);
+        this.setAge(age);
+        this.setOccupation(occupation);
+        this.setEmail(email);
+        this.setPhoneNumber(phoneNumber);
+        this.hashedPassword = hashedPassword;
+        this.joinDate = joinDate;
 
         // we define the number of books that can be borrowed by each types of member later we can also add premium
         if (memberID.contains("STU")) {
@@ -92,6 +161,26 @@ public class Member {
         }
     }
 
+    // BCrypt cost used for new hashes, every +1 doubles the time. 10 is what BCrypt.gensalt() used before
+    public static void setPasswordWorkFactor(int workFactor) {
+        if (workFactor < 4 || workFactor > 31) {
+            throw new IllegalArgumentException("BCrypt work factor must be between 4 and 31.");
+        }
+        passwordWorkFactor = workFactor;
+    }
+
+    public static int getPasswordWorkFactor() { return passwordWorkFactor; }
+
+    // verifies the password is strong enough and hashes it with the configured work factor
+    public static String hashPassword(String password) {
+        return hashPassword(password, passwordWorkFactor);
+    }
+
+    public static String hashPassword(String password, int workFactor) {
+        String verifiedPassword = verifyPassword(password);
+        return BCrypt.hashpw(verifiedPassword, BCrypt.gensalt(workFactor));
+    }
+
     // to change ones name
     protected void changeName(String name) {
         // will add a password verifier so that only after verifying your password you can change your username
@@ -102,8 +191,7 @@ public class Member {
          // a person must know there password to change password
          // if a hacker already knows ur password then why would he change the password when he can use it as it is
          if (BCrypt.checkpw(oldPassword, this.hashedPassword)) {
-             String verifiedNewPassword = verifyPassword(newPassword);
-             this.hashedPassword = BCrypt.hashpw(verifiedNewPassword, BCrypt.gensalt());
+             this.hashedPassword = hashPassword(newPassword);
              System.out.println("Password changed successfully.");
              return true;
          } else {
@@ -113,48 +201,62 @@ public class Member {
      }
 
     // to check if email provided is correct or not, I will also add more functionalities later like verify email by clicking the link etc
-    private String verifyEmail(String email) {
+    public static String verifyEmail(String email) {
         if (email == null) {
             throw new IllegalArgumentException("Please enter an email address");
         }
         // if keeping email field blank or using fake emails or junk emails
-        if ((!email.matches("^[A-Za-z0-9+_.-]+@(gmail\\.com|yahoo\\.com|outlook\\.com|icloud\\.com|protonmail\\.com|zoho\\.com)$"))) {
+        if (!EMAIL_PATTERN.matcher(email).matches()) {
             // currently only added popular email domains to prevent usage of temp or junk email addresses
             throw new IllegalArgumentException("Invalid email! Use domains: @gmail.com, @yahoo.com, etc.");
         } return email;
     }
 
     // to check if a strong password is created or not
-    private String verifyPassword(String password) {
+    public static String verifyPassword(String password) {
         if (password == null) {
             throw new IllegalArgumentException("Password field cannot be empty!!\n Please create a robust password");
         }
-        if (!password.matches("^(?=.*[A-Z])(?=.*[!@#$%^&*])(?=.*[a-z]).{6,}$")) {
+        if (!PASSWORD_PATTERN.matcher(password).matches()) {
             throw new IllegalArgumentException("Password must have: 1 uppercase, 1 lowercase, 1 special char and more than 6 characters.");
         }
         return password;
     }
 
+    // the atomic dues changes for code outside this package, a DuesLedger gets it through its constructor
+    public static DuesAccess duesAccess() {
+        return DuesAccess.INSTANCE;
+    }
+
+    public static final class DuesAccess {
+        private static final DuesAccess INSTANCE = new DuesAccess();
+
+        private DuesAccess() {}
+
+        public long add(Member member, long fine) { return member.addDues(fine); }
+        public long deduct(Member member, long amount) { return member.deductDues(amount); }
+        // only for startup, when the balance is carried over from the journal
+        public void set(Member member, long dues) { member.setPendingDues(dues); }
+    }
+
     // to generate memberID based on user's occupation
-    private String generateID(String occupation) {
+    private static String generateID(String occupation) {
         return switch (occupation.toLowerCase()) {
             // starts counting in 3 digits e.g. 001 (will change the limit if required)
-            case "student" -> "STU_" + String.format("%03d", ++studentCounter);
-            case "teacher" -> "TCH_" + String.format("%03d", ++teacherCounter);
+            case "student" -> IdGenerator.format("STU_", IdGenerator.next(IdSequence.STUDENT), 3);
+            case "teacher" -> IdGenerator.format("TCH_", IdGenerator.next(IdSequence.TEACHER), 3);
             default -> throw new IllegalArgumentException("Invalid occupation!");
         };
     }
 
+    // goes around the DuesLedger, LibraryService.payFine is the one that is journaled
     public void payFine(long amount) {
-        if (amount > getPendingDues()) {
-            throw new IllegalArgumentException("Amount is greater than dues");
-        }
-        this.setPendingDues(this.getPendingDues() - amount);
+        long remaining = deductDues(amount);
 
-        if (this.getPendingDues() == 0) {
+        if (remaining == 0) {
             System.out.println("Your dues have been cleared!!");
         } else {
-            System.out.println("Your Current pending dues is: ₹ " + this.getPendingDues());
+            System.out.println("Your Current pending dues is: ₹ " + remaining);
         }
     }
 
@@ -1,12 +1,16 @@
 package library.circulation.models;
 
+import library.circulation.ids.IdGenerator;
+import library.circulation.ids.IdSequence;
+
 import java.time.LocalDate;
 import java.time.temporal.ChronoUnit;
 import java.util.Objects;
 
+// a renewal and a return of the same loan can race, so the mutable part is guarded by the transaction's own lock.
+// every loan has its own lock, so different loans never wait on each other
 public class Transaction {
-    // global counter
-    private static int transactionCounter = 100000;
+    private static final long FINE_PER_DAY = 5; // every late day result in 5rs fine
 
     private final String transactionID;
     private final String memberID;
@@ -14,26 +18,42 @@ public class Transaction {
     private final LocalDate issueDate;
     private LocalDate returnDate = null;
     private final LocalDate dueDate;
-    private long fine;
+    private long fine; // everything charged for this loan so far, overdue runs + renewal + return
     private int renewalCount;
     private LocalDate renewalDate;
     private LocalDate extendedDueDate;
+    private LocalDate finedThrough; // late days up to here are already on the member's dues (overdue run, renewal)
 
     // getters
     public String getTransactionID() { return transactionID; }
     public String getMemberID() { return memberID; }
     public String getBorrowedBookID() { return borrowedBookID; }
     public LocalDate getIssueDate() { return issueDate; }
-    public LocalDate getReturnDate() { return this.returnDate; }
-    public long getFine() { return this.fine; }
-    public LocalDate getRenewalDate() {return renewalDate; }
-    public LocalDate getDueDate() {
+    public synchronized LocalDate getReturnDate() { return this.returnDate; }
+    public synchronized long getFine() { return this.fine; }
+    public synchronized LocalDate getRenewalDate() {return renewalDate; }
+    public synchronized int getRenewalCount() { return renewalCount; }
+    public synchronized LocalDate getFinedThrough() { return finedThrough; }
+    // the due date given at issue, before any renewal
+    public LocalDate getOriginalDueDate() { return dueDate; }
+    public synchronized LocalDate getDueDate() {
         // this always returns the active dueDate throughout the transaction
         return (extendedDueDate != null) ? extendedDueDate : dueDate;
     }
 
 
     public Transaction(String memberID, String  borrowedBookID, LocalDate issueDate, LocalDate dueDate) {
+        this(IdGenerator.format("TR_", IdGenerator.next(IdSequence.TRANSACTION), 6), memberID, borrowedBookID, issueDate, dueDate);
+    }
+
+    // rebuilds a loan that already has an id, e.g. from the journal or a snapshot after a restart
+    public static Transaction restore(String transactionID, String memberID, String borrowedBookID, LocalDate issueDate, LocalDate dueDate) {
+        Objects.requireNonNull(transactionID, "Transaction ID cannot be null");
+        return new Transaction(transactionID, memberID, borrowedBookID, issueDate, dueDate);
+    }
+
+    private Transaction(String transactionID, String memberID, String  borrowedBookID, LocalDate issueDate, LocalDate dueDate) {
+        this.transactionID = transactionID;
         this.memberID = memberID;
         this.borrowedBookID = borrowedBookID;
         this.issueDate = issueDate;
@@ -41,31 +61,46 @@ public class Transaction {
         this.extendedDueDate = null; // currently its null
         this.renewalCount = 0; // currently its 0 and we will increment it for every renewal
         this.returnDate = null;
-
-        this.transactionID = "TR_" + String.format("%06d", ++transactionCounter);
     }
 
-    public void setReturnDate(LocalDate returnDate) {
+    public synchronized void setReturnDate(LocalDate returnDate) {
         Objects.requireNonNull(returnDate, "Return date cannot be null");
         this.returnDate = returnDate;
     }
 
 
-    public void calculateFine() {
+    public synchronized void calculateFine() {
         if (this.returnDate == null) {
             throw new IllegalStateException("Return date must be set before calculating fine.");
         }
 
         if (returnDate.isAfter(this.getDueDate())) {
             long daysLate = ChronoUnit.DAYS.between(this.getDueDate(), this.getReturnDate());
-            this.fine = Math.max(0, daysLate) * 5; // every late day result in 5rs fine
+            this.fine = Math.max(0, daysLate) * FINE_PER_DAY;
         } else {
             this.fine = 0; // No fine if returned before or on due date
         }
     }
 
-    public void extendDueDate(int totalDays) {
+    public synchronized void extendDueDate(int totalDays) {
+        extendDueDate(totalDays, LocalDate.now());
+    }
+
+    // same, renewed on "renewalDate", e.g. the date the renewal was journaled with
+    public synchronized void extendDueDate(int totalDays, LocalDate renewalDate) {
+        Objects.requireNonNull(renewalDate, "Renewal date cannot be null");
+        LocalDate extended = dueDateAfterRenewal(totalDays);
+
+        // First, we have to set the renewal date
+        this.renewalDate = renewalDate;
+        this.extendedDueDate = extended;
+        this.renewalCount++; // increase the counter
+
+        // the fine charged before the renewal stays on the loan, it's already part of the member's dues
+    }
 
+    // the due date a renewal of "totalDays" would give, throws if the loan can't be renewed. Changes nothing
+    public synchronized LocalDate dueDateAfterRenewal(int totalDays) {
         if (this.returnDate != null) {
             // meaning book has already been returned
             throw new IllegalStateException("Cannot extend due date for already returned book");
@@ -79,17 +114,50 @@ public class Transaction {
         if (totalDays <= 0 || totalDays > 14) {
             throw new IllegalArgumentException("Renewal date should be between 1 - 14 days");
         }
+        return getDueDate().plusDays(totalDays);
+    }
 
-        // First, we have to set the renewal date as today
-        this.renewalDate = LocalDate.now();
-        this.extendedDueDate = getDueDate().plusDays(totalDays);
-        this.renewalCount++; // increase the counter
+    // puts back a renewal exactly as it happened, extendDueDate would use today's date instead
+    public synchronized void restoreRenewal(LocalDate renewalDate, LocalDate extendedDueDate) {
+        Objects.requireNonNull(renewalDate, "Renewal date cannot be null");
+        Objects.requireNonNull(extendedDueDate, "Extended due date cannot be null");
+        this.renewalDate = renewalDate;
+        this.extendedDueDate = extendedDueDate;
+        this.renewalCount = 1;
+    }
 
-        // resets the fine for user
-        this.fine = 0;
+    // fine for the late days up to "day" that were not charged yet, and marks them as charged.
+    // the overdue run calls it every night and returnBook once more at the end, so no late day is charged twice,
+    // not even after a renewal moved the due date
+    public synchronized long accrueFineUntil(LocalDate day) {
+        long charged = fineUntil(day);
+        if (charged > 0) {
+            finedThrough = day;
+            fine += charged;
+        }
+        return charged;
+    }
+
+    // what accrueFineUntil(day) would charge, without marking anything
+    public synchronized long fineUntil(LocalDate day) {
+        Objects.requireNonNull(day, "Day cannot be null");
+        LocalDate from = getDueDate();
+        if (finedThrough != null && finedThrough.isAfter(from)) {
+            from = finedThrough;
+        }
+        if (!day.isAfter(from)) {
+            return 0;
+        }
+        return ChronoUnit.DAYS.between(from, day) * FINE_PER_DAY;
+    }
+
+    // puts back how far fines were charged and how much, e.g. from the journal or a snapshot
+    public synchronized void restoreFines(LocalDate finedThrough, long fine) {
+        this.finedThrough = finedThrough;
+        this.fine = fine;
     }
 
-    public void resetFine() {
+    public synchronized void resetFine() {
         this.fine = 0;
     }
 
@@ -0,0 +1,240 @@
+package library.circulation.recommendations;
+
+import library.circulation.events.EventHandler;
+import library.circulation.history.LoanHistory;
+import library.circulation.journal.JournalEntry;
+import library.circulation.models.Book;
+import library.circulation.models.Member;
+import library.circulation.models.Transaction;
+import library.circulation.repository.CatalogRepository;
+import library.circulation.services.LibraryService;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+// "members who borrowed this also borrowed...", counted from the loans themselves.
+//
+// Every new loan (member m, book b) adds one to the pair count of b with each book m borrowed before, in both
+// directions. So the data only grows by the loans that happen, nothing is ever recomputed in batch. Books and members
+// get small int keys, the pair counts of a book live in an IntCounts (two int arrays, no boxing), and every book keeps
+// its best CACHED partners as an int[] sorted best first. Counts only ever go up, so that list stays exact by only
+// looking at the pair that just changed.
+//
+// A lookup reads the cached list and drops what the member can't take home (removed, too old for them, already on
+// loan to them), nothing else: cheap enough for every checkout receipt.
+//
+// usage: seed it from what is already there, then let it follow new loans on the event ring
+//     recommender.seed(service);
+//     ring.addConsumer("recommendations", recommender);
+public class CoBorrowingRecommender implements EventHandler {
+
+    // books remembered per member, the oldest one drops out after this. Also bounds the work per loan
+    private static final int MEMBER_HISTORY = 64;
+    // partners cached per book, more than a receipt shows so the filters still leave enough
+    private static final int CACHED = 32;
+
+    private final CatalogRepository catalog;
+
+    // writer side, guarded by "this"
+    private final Map<String, Integer> memberKeys = new HashMap<>();
+    private int[][] histories = new int[1024][]; // member key -> books borrowed, oldest first
+    private int[] historySizes = new int[1024];
+    private IntCounts[] pairCounts = new IntCounts[1024]; // book key -> partner book key -> loans together
+    private long loansCounted;
+    private long pairs;
+
+    // read by lookups on any thread. A key is put into bookKeys only after its slots below are written
+    private final Map<String, Integer> bookKeys = new ConcurrentHashMap<>();
+    private volatile String[] bookIDs = new String[1024];
+    // book key -> best partners, best first. Never changed once set, a change sets a new array
+    private volatile AtomicReferenceArray<int[]> partners = new AtomicReferenceArray<>(1024);
+
+    public CoBorrowingRecommender(CatalogRepository catalog) {
+        this.catalog = Objects.requireNonNull(catalog, "Catalog cannot be null.");
+    }
+
+    // counts the returned loans in the archive and the loans open right now
+    public void seed(LibraryService service) {
+        Objects.requireNonNull(service, "Service cannot be null.");
+        LoanHistory history = service.getHistory();
+        history.query().forEach(row -> record(row.getMemberID(), row.getBookID()));
+        for (Transaction transaction : service.getCatalog().allOpenTransactions()) {
+            record(transaction.getMemberID(), transaction.getBorrowedBookID());
+        }
+    }
+
+    // every ISSUE on the ring is a new loan, hand-overs from the hold queue included
+    @Override
+    public void onEvent(JournalEntry event, long sequence, boolean endOfBatch) {
+        if (event.getType() == JournalEntry.Type.ISSUE) {
+            record(event.getMemberID(), event.getBookID());
+        }
+    }
+
+    // counts one loan. A book the member borrowed before (and still remembers) adds nothing new
+    public synchronized void record(String memberID, String bookID) {
+        Objects.requireNonNull(memberID, "Member ID cannot be null.");
+        Objects.requireNonNull(bookID, "Book ID cannot be null.");
+
+        int member = memberKey(memberID);
+        int book = bookKey(bookID);
+        int[] history = histories[member];
+        int size = historySizes[member];
+        for (int i = 0; i < size; i++) {
+            if (history[i] == book) {
+                return;
+            }
+        }
+        for (int i = 0; i < size; i++) {
+            count(book, history[i]);
+            count(history[i], book);
+        }
+
+        if (history == null) {
+            history = new int[4];
+        } else if (size == history.length && size < MEMBER_HISTORY) {
+            history = Arrays.copyOf(history, Math.min(size * 2, MEMBER_HISTORY));
+        } else if (size == MEMBER_HISTORY) {
+            System.arraycopy(history, 1, history, 0, size - 1); // forget the oldest
+            size--;
+        }
+        history[size] = book;
+        histories[member] = history;
+        historySizes[member] = size + 1;
+        loansCounted++;
+    }
+
+    // up to "limit" books often borrowed together with "book" that this member may borrow, most often first
+    public List<Book> recommend(Book book, Member member, int limit) {
+        Objects.requireNonNull(book, "Book cannot be null.");
+        Objects.requireNonNull(member, "Member cannot be null.");
+        if (limit <= 0) {
+            throw new IllegalArgumentException("Limit must be greater than 0.");
+        }
+
+        Integer key = bookKeys.get(book.getBookID());
+        if (key == null) {
+            return List.of();
+        }
+        int[] best = partners.get(key);
+        if (best == null) {
+            return List.of();
+        }
+        String[] ids = bookIDs;
+        List<Book> result = new ArrayList<>(Math.min(limit, best.length));
+        for (int i = 0; i < best.length && result.size() < limit; i++) {
+            Book candidate = catalog.findBook(ids[best[i]]);
+            if (candidate == null || !candidate.isPresent() || LibraryService.ageRestriction(candidate, member) != null) {
+                continue;
+            }
+            Transaction currentTransaction = candidate.getCurrentTransaction();
+            if (currentTransaction != null && currentTransaction.getMemberID().equals(member.getMemberID())) {
+                continue; // they have it at home already
+            }
+            result.add(candidate);
+        }
+        return result;
+    }
+
+    public synchronized long getLoansCounted() { return loansCounted; }
+
+    // distinct (book, partner) pairs with a count, (a, b) and (b, a) are two
+    public synchronized long getPairs() { return pairs; }
+
+    public int getBooks() { return bookKeys.size(); }
+
+    // ---------- writer helpers, all called under "this" ----------
+
+    private void count(int book, int partner) {
+        IntCounts counts = pairCounts[book];
+        if (counts == null) {
+            counts = new IntCounts();
+            pairCounts[book] = counts;
+        }
+        int count = counts.increment(partner);
+        if (count == 1) {
+            pairs++;
+        }
+        rank(book, partner, count, counts);
+    }
+
+    // moves "partner" to where its new count puts it in the book's cached list, if it belongs there at all
+    private void rank(int book, int partner, int count, IntCounts counts) {
+        AtomicReferenceArray<int[]> current = partners;
+        int[] best = current.get(book);
+        if (best == null) {
+            best = new int[0];
+        }
+        int position = -1;
+        for (int i = 0; i < best.length; i++) {
+            if (best[i] == partner) {
+                position = i;
+                break;
+            }
+        }
+
+        int[] next;
+        if (position >= 0) {
+            if (position == 0 || counts.get(best[position - 1]) >= count) {
+                return; // still in the right place
+            }
+            next = best.clone();
+        } else if (best.length < CACHED) {
+            next = Arrays.copyOf(best, best.length + 1);
+            position = best.length;
+        } else if (count > counts.get(best[best.length - 1])) {
+            // everything outside the list has at most the last one's count, so the last one makes room
+            next = best.clone();
+            position = best.length - 1;
+        } else {
+            return;
+        }
+        while (position > 0 && counts.get(next[position - 1]) < count) {
+            next[position] = next[position - 1];
+            position--;
+        }
+        next[position] = partner;
+        current.set(book, next);
+    }
+
+    private int memberKey(String memberID) {
+        Integer existing = memberKeys.get(memberID);
+        if (existing != null) {
+            return existing;
+        }
+        int key = memberKeys.size();
+        if (key == histories.length) {
+            histories = Arrays.copyOf(histories, key * 2);
+            historySizes = Arrays.copyOf(historySizes, key * 2);
+        }
+        memberKeys.put(memberID, key);
+        return key;
+    }
+
+    private int bookKey(String bookID) {
+        Integer existing = bookKeys.get(bookID);
+        if (existing != null) {
+            return existing;
+        }
+        int key = bookKeys.size();
+        if (key == pairCounts.length) {
+            pairCounts = Arrays.copyOf(pairCounts, key * 2);
+            bookIDs = Arrays.copyOf(bookIDs, key * 2);
+            AtomicReferenceArray<int[]> old = partners;
+            AtomicReferenceArray<int[]> bigger = new AtomicReferenceArray<>(key * 2);
+            for (int i = 0; i < key; i++) {
+                bigger.set(i, old.get(i));
+            }
+            partners = bigger;
+        }
+        bookIDs[key] = bookID;
+        bookKeys.put(bookID, key);
+        return key;
+    }
+}
@@ -0,0 +1,76 @@
+package library.circulation.recommendations;
+
+import java.util.Arrays;
+
+// int key -> int count, open addressing with linear probing in two parallel int arrays.
+// No boxing and no entry objects: a book that was borrowed together with 20 others costs two arrays of 32 ints.
+// Keys are >= 0, a free slot holds FREE. Only the recommender's writer touches it
+final class IntCounts {
+
+    private static final int FREE = -1;
+
+    private int[] keys;
+    private int[] counts;
+    private int size;
+
+    IntCounts() {
+        keys = new int[8];
+        counts = new int[8];
+        Arrays.fill(keys, FREE);
+    }
+
+    int get(int key) {
+        int slot = find(keys, key);
+        return keys[slot] == key ? counts[slot] : 0;
+    }
+
+    // adds one to the key's count and returns the new count
+    int increment(int key) {
+        int slot = find(keys, key);
+        if (keys[slot] != key) {
+            // kept at most 3/4 full, so probes stay short
+            if ((size + 1) * 4 > keys.length * 3) {
+                grow();
+                slot = find(keys, key);
+            }
+            keys[slot] = key;
+            size++;
+        }
+        return ++counts[slot];
+    }
+
+    int size() {
+        return size;
+    }
+
+    // the slot holding the key, or the free slot it would go into
+    private static int find(int[] keys, int key) {
+        int mask = keys.length - 1;
+        int slot = mix(key) & mask;
+        while (keys[slot] != FREE && keys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void grow() {
+        int[] oldKeys = keys;
+        int[] oldCounts = counts;
+        keys = new int[oldKeys.length * 2];
+        counts = new int[oldKeys.length * 2];
+        Arrays.fill(keys, FREE);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != FREE) {
+                int slot = find(keys, oldKeys[i]);
+                keys[slot] = oldKeys[i];
+                counts[slot] = oldCounts[i];
+            }
+        }
+    }
+
+    // keys are handed out one after the other, so spread them before masking
+    private static int mix(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
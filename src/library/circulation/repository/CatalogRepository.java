@@ -0,0 +1,229 @@
+package library.circulation.repository;
+
+import library.circulation.bitmap.BookBitmapIndex;
+import library.circulation.models.Book;
+import library.circulation.models.Member;
+import library.circulation.models.Transaction;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+// In-memory home for every Book, Member and open Transaction until the future sql tables exist.
+// All maps are ConcurrentHashMaps, which lock per bin and not per map, so the front desk,
+// the kiosks and batch jobs can read and write at the same time without waiting on one global lock.
+public class CatalogRepository {
+
+    // primary indexes, O(1) lookup by id
+    private final Map<String, Book> booksByID = new ConcurrentHashMap<>();
+    private final Map<String, Member> membersByID = new ConcurrentHashMap<>();
+    private final Map<String, Transaction> openTransactionsByID = new ConcurrentHashMap<>();
+
+    // secondary index by author, every key maps to a concurrent set of bookIDs
+    private final Map<String, Set<String>> booksByAuthor = new ConcurrentHashMap<>();
+    // genre, content rating, present and available as compressed bitmaps, they can be combined cheaply
+    private final BookBitmapIndex bitmaps = new BookBitmapIndex();
+
+    // open loans of each member, so we don't have to scan every transaction for one member
+    private final Map<String, Set<String>> openTransactionsByMember = new ConcurrentHashMap<>();
+
+    // ---------- books ----------
+
+    public void addBook(Book book) {
+        Objects.requireNonNull(book, "Book cannot be null.");
+
+        if (booksByID.putIfAbsent(book.getBookID(), book) != null) {
+            throw new IllegalArgumentException("Book " + book.getBookID() + " is already in the catalog.");
+        }
+        addToIndex(booksByAuthor, book.getAuthor(), book.getBookID());
+        bitmaps.add(book);
+    }
+
+    // bulk version of addBook. A book whose id is taken is skipped, not thrown for, so one duplicate doesn't cost the
+    // rest of the batch. Returns the skipped ones, in batch order, empty when all got in
+    public List<Book> addBooks(List<Book> books) {
+        Objects.requireNonNull(books, "Books cannot be null.");
+        for (Book book : books) {
+            Objects.requireNonNull(book, "Book cannot be null."); // before anything is added
+        }
+
+        List<Book> added = new ArrayList<>(books.size());
+        List<Book> duplicates = new ArrayList<>();
+        try {
+            for (Book book : books) {
+                if (booksByID.putIfAbsent(book.getBookID(), book) != null) {
+                    duplicates.add(book);
+                    continue;
+                }
+                addToIndex(booksByAuthor, book.getAuthor(), book.getBookID());
+                added.add(book);
+            }
+        } finally {
+            bitmaps.addAll(added);
+        }
+        return duplicates;
+    }
+
+    public Book findBook(String bookID) {
+        return booksByID.get(bookID);
+    }
+
+    // same as findBook but throws if the id is unknown, used by the service layer
+    public Book getBook(String bookID) {
+        Book book = booksByID.get(bookID);
+        if (book == null) {
+            throw new IllegalArgumentException("No book found with ID " + bookID);
+        }
+        return book;
+    }
+
+    public Collection<Book> allBooks() {
+        return Collections.unmodifiableCollection(booksByID.values());
+    }
+
+    public int bookCount() {
+        return booksByID.size();
+    }
+
+    public List<Book> findBooksByAuthor(String author) {
+        return lookup(booksByAuthor, author);
+    }
+
+    public List<Book> findBooksByGenre(String genre) {
+        return bitmaps.query().genre(genre).books();
+    }
+
+    public List<Book> findBooksByContentRating(String contentRating) {
+        return bitmaps.query().contentRating(contentRating).books();
+    }
+
+    public List<Book> findAvailableBooks() {
+        return bitmaps.query().available().books();
+    }
+
+    // for combined filters, e.g. getBitmapIndex().query().genre("Fantasy").available().eligibleFor(member).count()
+    public BookBitmapIndex getBitmapIndex() {
+        return bitmaps;
+    }
+
+    // has to be called after every change of availability (borrow, return, remove) so the index does not go stale
+    public void refreshAvailability(Book book) {
+        bitmaps.refresh(book);
+    }
+
+    // ---------- members ----------
+
+    public void addMember(Member member) {
+        Objects.requireNonNull(member, "Member cannot be null.");
+
+        if (membersByID.putIfAbsent(member.getMemberID(), member) != null) {
+            throw new IllegalArgumentException("Member " + member.getMemberID() + " is already registered.");
+        }
+    }
+
+    public Member findMember(String memberID) {
+        return membersByID.get(memberID);
+    }
+
+    public Member getMember(String memberID) {
+        Member member = membersByID.get(memberID);
+        if (member == null) {
+            throw new IllegalArgumentException("No member found with ID " + memberID);
+        }
+        return member;
+    }
+
+    public Collection<Member> allMembers() {
+        return Collections.unmodifiableCollection(membersByID.values());
+    }
+
+    public int memberCount() {
+        return membersByID.size();
+    }
+
+    // ---------- open transactions ----------
+
+    public void addOpenTransaction(Transaction transaction) {
+        Objects.requireNonNull(transaction, "Transaction cannot be null.");
+
+        openTransactionsByID.put(transaction.getTransactionID(), transaction);
+        addToIndex(openTransactionsByMember, transaction.getMemberID(), transaction.getTransactionID());
+    }
+
+    // called once the book is returned, closed loans don't belong in here
+    public void closeTransaction(Transaction transaction) {
+        Objects.requireNonNull(transaction, "Transaction cannot be null.");
+
+        if (openTransactionsByID.remove(transaction.getTransactionID()) != null) {
+            removeFromIndex(openTransactionsByMember, transaction.getMemberID(), transaction.getTransactionID());
+        }
+    }
+
+    public Transaction findOpenTransaction(String transactionID) {
+        return openTransactionsByID.get(transactionID);
+    }
+
+    public List<Transaction> findOpenTransactionsByMember(String memberID) {
+        Set<String> ids = openTransactionsByMember.get(key(memberID));
+        if (ids == null) {
+            return List.of();
+        }
+        List<Transaction> result = new ArrayList<>(ids.size());
+        for (String id : ids) {
+            Transaction transaction = openTransactionsByID.get(id);
+            if (transaction != null) {
+                result.add(transaction);
+            }
+        }
+        return result;
+    }
+
+    public Collection<Transaction> allOpenTransactions() {
+        return Collections.unmodifiableCollection(openTransactionsByID.values());
+    }
+
+    // ---------- helpers ----------
+
+    // keys are case-insensitive, "Fantasy" and "fantasy" end up in the same bucket
+    private static String key(String value) {
+        return value == null ? "" : value.trim().toLowerCase(Locale.ROOT);
+    }
+
+    // the add happens inside compute, so a removeFromIndex dropping the bucket as empty can't run in between
+    private static void addToIndex(Map<String, Set<String>> index, String value, String id) {
+        index.compute(key(value), (k, ids) -> {
+            Set<String> bucket = ids == null ? ConcurrentHashMap.newKeySet() : ids;
+            bucket.add(id);
+            return bucket;
+        });
+    }
+
+    private static void removeFromIndex(Map<String, Set<String>> index, String value, String id) {
+        // computeIfPresent runs atomically for the key, so an empty bucket is dropped safely
+        index.computeIfPresent(key(value), (k, ids) -> {
+            ids.remove(id);
+            return ids.isEmpty() ? null : ids;
+        });
+    }
+
+    private List<Book> lookup(Map<String, Set<String>> index, String value) {
+        Set<String> ids = index.get(key(value));
+        if (ids == null) {
+            return List.of();
+        }
+        List<Book> result = new ArrayList<>(ids.size());
+        for (String id : ids) {
+            Book book = booksByID.get(id);
+            if (book != null) {
+                result.add(book);
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,249 @@
+package library.circulation.search;
+
+import library.circulation.models.Book;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Objects;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+// In-process inverted index over title, author and genre, this replaces the "sql table" search we planned.
+// token -> (bookID -> field weight), so a query only touches the books that actually contain its words.
+public class BookSearchIndex {
+
+    // a word in the title counts more than a word in the author or the genre
+    private static final int TITLE_WEIGHT = 3;
+    private static final int AUTHOR_WEIGHT = 2;
+    private static final int GENRE_WEIGHT = 1;
+
+    // how good the match of a single query word was
+    private static final int EXACT_MATCH = 4;
+    private static final int PREFIX_MATCH = 2;
+    private static final int TYPO_MATCH = 1;
+
+    // words shorter than this are not checked for typos, otherwise "cat" would match "bat", "car", "hat"...
+    private static final int MIN_TYPO_LENGTH = 4;
+    // so that a one letter prefix like "a" does not expand to the whole dictionary
+    private static final int MAX_PREFIX_EXPANSION = 64;
+    // books looked at per query word. A word in most of the catalog ("the", "fantasy") would otherwise score every
+    // book, past this we stop, exact matches are visited first so they are the last ones to be cut
+    static final int MAX_POSTINGS_PER_WORD = 20_000;
+
+    private final Map<String, Map<String, Integer>> postings = new ConcurrentHashMap<>();
+    // sorted dictionary of all tokens, used for prefix search
+    private final NavigableSet<String> terms = new ConcurrentSkipListSet<>();
+    // "symmetric delete" table: every token with one letter removed -> original tokens, used for typo search
+    private final Map<String, Set<String>> deletes = new ConcurrentHashMap<>();
+    // what we indexed for each book, we need it to remove the book again
+    private final Map<String, Map<String, Integer>> tokensByBook = new ConcurrentHashMap<>();
+    private final Map<String, Book> books = new ConcurrentHashMap<>();
+
+    public void add(Book book) {
+        Objects.requireNonNull(book, "Book cannot be null.");
+        if (!book.isPresent()) {
+            return; // removed books are never searchable
+        }
+
+        Map<String, Integer> tokens = new HashMap<>();
+        collect(tokens, book.getTitle(), TITLE_WEIGHT);
+        collect(tokens, book.getAuthor(), AUTHOR_WEIGHT);
+        collect(tokens, book.getGenre(), GENRE_WEIGHT);
+
+        if (tokensByBook.putIfAbsent(book.getBookID(), tokens) != null) {
+            return; // already indexed
+        }
+        books.put(book.getBookID(), book);
+
+        for (Map.Entry<String, Integer> entry : tokens.entrySet()) {
+            // compute() is atomic per token, so dictionary and typo table are updated together with the posting list
+            postings.compute(entry.getKey(), (token, docs) -> {
+                if (docs == null) {
+                    docs = new ConcurrentHashMap<>();
+                    terms.add(token);
+                    for (String variant : deleteVariants(token)) {
+                        // the add happens inside compute, so a remove of another word with the same variant
+                        // ("bark" and "park" share "ark") can't drop the set between us getting it and adding to it
+                        deletes.compute(variant, (v, originals) -> {
+                            Set<String> tokensWithVariant = originals == null ? ConcurrentHashMap.newKeySet() : originals;
+                            tokensWithVariant.add(token);
+                            return tokensWithVariant;
+                        });
+                    }
+                }
+                docs.put(book.getBookID(), entry.getValue());
+                return docs;
+            });
+        }
+    }
+
+    // called when a book is removed from the collection (Book.removeBook)
+    public void remove(Book book) {
+        Objects.requireNonNull(book, "Book cannot be null.");
+
+        Map<String, Integer> tokens = tokensByBook.remove(book.getBookID());
+        if (tokens == null) {
+            return;
+        }
+        books.remove(book.getBookID());
+
+        for (String key : tokens.keySet()) {
+            postings.computeIfPresent(key, (token, docs) -> {
+                docs.remove(book.getBookID());
+                if (!docs.isEmpty()) {
+                    return docs;
+                }
+                // last book with this word, so the word leaves the dictionary too
+                terms.remove(token);
+                for (String variant : deleteVariants(token)) {
+                    deletes.computeIfPresent(variant, (v, originals) -> {
+                        originals.remove(token);
+                        return originals.isEmpty() ? null : originals;
+                    });
+                }
+                return null;
+            });
+        }
+    }
+
+    public int size() {
+        return books.size();
+    }
+
+    // returns at most "limit" books, best match first
+    public List<Book> search(String query, int limit) {
+        if (limit <= 0) {
+            throw new IllegalArgumentException("Limit must be greater than 0.");
+        }
+        List<String> queryTokens = new ArrayList<>();
+        tokenize(query, queryTokens);
+        if (queryTokens.isEmpty()) {
+            return List.of();
+        }
+
+        Map<String, Integer> scores = new HashMap<>();
+        for (String queryToken : queryTokens) {
+            // for each query word a book only gets its best match, it can't score twice on the same word
+            Map<String, Integer> best = new HashMap<>();
+            List<Map.Entry<String, Integer>> candidates = new ArrayList<>(expand(queryToken).entrySet());
+            candidates.sort((a, b) -> Integer.compare(b.getValue(), a.getValue()));
+            int visited = 0;
+            for (Map.Entry<String, Integer> candidate : candidates) {
+                Map<String, Integer> docs = postings.get(candidate.getKey());
+                if (docs == null) {
+                    continue;
+                }
+                for (Map.Entry<String, Integer> doc : docs.entrySet()) {
+                    best.merge(doc.getKey(), candidate.getValue() * doc.getValue(), Math::max);
+                    if (++visited >= MAX_POSTINGS_PER_WORD) {
+                        break;
+                    }
+                }
+                if (visited >= MAX_POSTINGS_PER_WORD) {
+                    break;
+                }
+            }
+            best.forEach((bookID, score) -> scores.merge(bookID, score, Integer::sum));
+        }
+
+        // min heap of size "limit", cheaper than sorting every hit
+        PriorityQueue<Map.Entry<String, Integer>> top = new PriorityQueue<>(
+                (a, b) -> a.getValue().equals(b.getValue()) ? b.getKey().compareTo(a.getKey()) : Integer.compare(a.getValue(), b.getValue()));
+        for (Map.Entry<String, Integer> entry : scores.entrySet()) {
+            top.offer(entry);
+            if (top.size() > limit) {
+                top.poll();
+            }
+        }
+
+        List<Book> result = new ArrayList<>(top.size());
+        while (!top.isEmpty()) {
+            Book book = books.get(top.poll().getKey());
+            if (book != null && book.isPresent()) {
+                result.add(book);
+            }
+        }
+        Collections.reverse(result);
+        return result;
+    }
+
+    // all dictionary words the query word can stand for, with how good the match is
+    private Map<String, Integer> expand(String queryToken) {
+        Map<String, Integer> candidates = new HashMap<>();
+
+        int expanded = 0;
+        for (String term : terms.subSet(queryToken, true, queryToken + Character.MAX_VALUE, false)) {
+            candidates.put(term, term.equals(queryToken) ? EXACT_MATCH : PREFIX_MATCH);
+            if (++expanded >= MAX_PREFIX_EXPANSION) {
+                break;
+            }
+        }
+
+        if (queryToken.length() >= MIN_TYPO_LENGTH) {
+            // one typo (missing, extra, wrong or swapped letter) shows up as a shared delete variant
+            Set<String> variants = new HashSet<>(deleteVariants(queryToken));
+            variants.add(queryToken);
+            for (String variant : variants) {
+                Set<String> originals = deletes.get(variant);
+                if (originals != null) {
+                    for (String term : originals) {
+                        candidates.putIfAbsent(term, TYPO_MATCH);
+                    }
+                }
+            }
+            // a query word that is exactly one letter longer than a dictionary word
+            for (String variant : variants) {
+                if (terms.contains(variant)) {
+                    candidates.putIfAbsent(variant, TYPO_MATCH);
+                }
+            }
+        }
+        return candidates;
+    }
+
+    private static List<String> deleteVariants(String token) {
+        if (token.length() < MIN_TYPO_LENGTH) {
+            return List.of();
+        }
+        List<String> variants = new ArrayList<>(token.length());
+        for (int i = 0; i < token.length(); i++) {
+            variants.add(token.substring(0, i) + token.substring(i + 1));
+        }
+        return variants;
+    }
+
+    private static void collect(Map<String, Integer> tokens, String text, int weight) {
+        List<String> words = new ArrayList<>();
+        tokenize(text, words);
+        for (String word : words) {
+            tokens.merge(word, weight, Integer::sum);
+        }
+    }
+
+    // lower cases the text and splits it on anything that is not a letter or a digit, without using regex
+    static void tokenize(String text, List<String> out) {
+        if (text == null) {
+            return;
+        }
+        StringBuilder current = new StringBuilder();
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (Character.isLetterOrDigit(c)) {
+                current.append(Character.toLowerCase(c));
+            } else if (current.length() > 0) {
+                out.add(current.toString());
+                current.setLength(0);
+            }
+        }
+        if (current.length() > 0) {
+            out.add(current.toString());
+        }
+    }
+}
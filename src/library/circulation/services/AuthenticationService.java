@@ -0,0 +1,271 @@
+package library.circulation.services;
+
+import library.circulation.models.Member;
+import library.circulation.repository.CatalogRepository;
+import org.mindrot.jbcrypt.BCrypt;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Base64;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Logs members in against Member.hashedPassword and hands out short lived session tokens.
+// BCrypt is slow on purpose (~100 ms), so:
+//   - checking a session token never touches BCrypt, it is one map lookup
+//   - BCrypt runs on its own small pool with a bounded queue, when it is full logins are refused instead of piling up
+//   - an unknown member ID costs the same BCrypt check as a wrong password, so the response time doesn't tell
+//     which member IDs exist
+//   - after too many wrong passwords a member is locked out for a while, before any BCrypt work is done
+// Opt-in (cacheVerifiedCredentials, off by default): a member who logs in again with the same password (kiosk
+// re-login) is matched against a peppered SHA-256 of the last verified password instead of BCrypt, until that entry
+// expires or the password changes. It saves the BCrypt work, but keeps a fast hash of every recent password in memory
+public class AuthenticationService implements AutoCloseable {
+
+    private static final int TOKEN_BYTES = 32;
+    private static final int MAX_FAILED_ATTEMPTS = 5;
+    private static final Duration LOCKOUT = Duration.ofMinutes(5);
+
+    private final CatalogRepository catalog;
+    private final Clock clock;
+    private final Duration sessionTtl;
+    private final int maxSessions;
+    private final boolean cacheVerifiedCredentials;
+    private final ThreadPoolExecutor verifiers;
+    // what an unknown member ID is checked against, hashed at the work factor of new passwords
+    private final String dummyHash;
+
+    private final SecureRandom random = new SecureRandom();
+    // random per process, so the cached SHA-256 values are useless outside this jvm
+    private final byte[] pepper = new byte[16];
+
+    private final Map<String, Session> sessions = new ConcurrentHashMap<>();
+    // tokens in the order they were issued, with a fixed ttl that is also the order they expire in
+    private final Queue<String> sessionOrder = new ConcurrentLinkedQueue<>();
+    private final Map<String, VerifiedCredential> verifiedCredentials = new ConcurrentHashMap<>();
+    private final Map<String, FailedAttempts> failedAttempts = new ConcurrentHashMap<>();
+
+    public AuthenticationService(CatalogRepository catalog) {
+        this(catalog, Clock.systemUTC(), Duration.ofMinutes(30), 100_000,
+                Math.max(1, Runtime.getRuntime().availableProcessors() / 2), false);
+    }
+
+    public AuthenticationService(CatalogRepository catalog, Clock clock, Duration sessionTtl, int maxSessions,
+                                 int verifierThreads, boolean cacheVerifiedCredentials) {
+        if (maxSessions <= 0 || verifierThreads <= 0) {
+            throw new IllegalArgumentException("maxSessions and verifierThreads must be greater than 0.");
+        }
+        this.catalog = Objects.requireNonNull(catalog, "Catalog cannot be null.");
+        this.clock = Objects.requireNonNull(clock, "Clock cannot be null.");
+        this.sessionTtl = Objects.requireNonNull(sessionTtl, "Session ttl cannot be null.");
+        this.maxSessions = maxSessions;
+        this.cacheVerifiedCredentials = cacheVerifiedCredentials;
+
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.verifiers = new ThreadPoolExecutor(verifierThreads, verifierThreads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(verifierThreads * 64), runnable -> {
+                    Thread thread = new Thread(runnable, "bcrypt-verifier-" + threadNumber.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        random.nextBytes(pepper);
+        byte[] dummyPassword = new byte[TOKEN_BYTES];
+        random.nextBytes(dummyPassword);
+        this.dummyHash = BCrypt.hashpw(Base64.getEncoder().encodeToString(dummyPassword),
+                BCrypt.gensalt(Member.getPasswordWorkFactor()));
+    }
+
+    // blocking login, returns the session token or throws if the credentials are wrong
+    public String login(String memberID, String password) {
+        try {
+            return loginAsync(memberID, password).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+
+    // the returned future completes on a verifier thread, or right away if no BCrypt is needed
+    public CompletableFuture<String> loginAsync(String memberID, String password) {
+        Objects.requireNonNull(memberID, "Member ID cannot be null.");
+        Objects.requireNonNull(password, "Password cannot be null.");
+
+        Instant now = clock.instant();
+        FailedAttempts failures = failedAttempts.get(memberID);
+        if (failures != null && failures.isLocked(now)) {
+            return CompletableFuture.failedFuture(
+                    new IllegalStateException("Too many failed attempts. Try again after " + failures.lockedUntil + "."));
+        }
+
+        Member member = catalog.findMember(memberID);
+        String hashedPassword = member == null ? dummyHash : member.getHashedPassword();
+        if (cacheVerifiedCredentials && member != null) {
+            VerifiedCredential cached = verifiedCredentials.get(memberID);
+            if (cached != null && cached.matches(hashedPassword, digest(password), now)) {
+                return CompletableFuture.completedFuture(openSession(memberID, now));
+            }
+        }
+
+        try {
+            return CompletableFuture.supplyAsync(() -> verify(member, hashedPassword, password), verifiers);
+        } catch (RejectedExecutionException e) {
+            return CompletableFuture.failedFuture(new IllegalStateException("Login service is busy, please try again."));
+        }
+    }
+
+    // member is null for an unknown ID, the BCrypt check still runs and then fails like a wrong password
+    private String verify(Member member, String hashedPassword, String password) {
+        Instant now = clock.instant();
+
+        boolean matches = BCrypt.checkpw(password, hashedPassword);
+        if (member == null) {
+            throw new IllegalArgumentException("Invalid member ID or password.");
+        }
+        String memberID = member.getMemberID();
+        if (!matches) {
+            failedAttempts.compute(memberID, (id, failures) -> (failures == null ? new FailedAttempts(0, null) : failures).next(now));
+            throw new IllegalArgumentException("Invalid member ID or password.");
+        }
+
+        failedAttempts.remove(memberID);
+        if (cacheVerifiedCredentials) {
+            verifiedCredentials.put(memberID, new VerifiedCredential(hashedPassword, digest(password), now.plus(sessionTtl)));
+        }
+        return openSession(memberID, now);
+    }
+
+    // checks a session token, returns the member or null if the token is unknown or expired. Never runs BCrypt
+    public Member authenticate(String token) {
+        if (token == null) {
+            return null;
+        }
+        Session session = sessions.get(token);
+        if (session == null) {
+            return null;
+        }
+        if (!session.expiresAt.isAfter(clock.instant())) {
+            sessions.remove(token, session);
+            return null;
+        }
+        return catalog.findMember(session.memberID);
+    }
+
+    public void logout(String token) {
+        if (token != null) {
+            sessions.remove(token);
+        }
+    }
+
+    public int activeSessions() {
+        return sessions.size();
+    }
+
+    private String openSession(String memberID, Instant now) {
+        byte[] bytes = new byte[TOKEN_BYTES];
+        random.nextBytes(bytes);
+        String token = Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+
+        sessions.put(token, new Session(memberID, now.plus(sessionTtl)));
+        sessionOrder.add(token);
+        evict(now);
+        return token;
+    }
+
+    // drops expired sessions from the front of the queue, and the oldest ones if we are over maxSessions
+    private void evict(Instant now) {
+        String oldest;
+        while ((oldest = sessionOrder.peek()) != null) {
+            Session session = sessions.get(oldest);
+            boolean gone = session == null || !session.expiresAt.isAfter(now);
+            if (!gone && sessions.size() <= maxSessions) {
+                break;
+            }
+            if (sessionOrder.remove(oldest)) {
+                sessions.remove(oldest);
+            }
+        }
+    }
+
+    private byte[] digest(String password) {
+        try {
+            MessageDigest sha256 = MessageDigest.getInstance("SHA-256");
+            sha256.update(pepper);
+            return sha256.digest(password.getBytes(StandardCharsets.UTF_8));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    @Override
+    public void close() {
+        verifiers.shutdown();
+    }
+
+    private static final class Session {
+        final String memberID;
+        final Instant expiresAt;
+
+        Session(String memberID, Instant expiresAt) {
+            this.memberID = memberID;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    private static final class VerifiedCredential {
+        final String hashedPassword; // the hash the password was checked against, changes with changePassword
+        final byte[] passwordDigest;
+        final Instant expiresAt;
+
+        VerifiedCredential(String hashedPassword, byte[] passwordDigest, Instant expiresAt) {
+            this.hashedPassword = hashedPassword;
+            this.passwordDigest = passwordDigest;
+            this.expiresAt = expiresAt;
+        }
+
+        boolean matches(String currentHash, byte[] digest, Instant now) {
+            return expiresAt.isAfter(now)
+                    && hashedPassword.equals(currentHash)
+                    && MessageDigest.isEqual(passwordDigest, digest); // constant time compare
+        }
+    }
+
+    private static final class FailedAttempts {
+        final int count;
+        final Instant lockedUntil;
+
+        FailedAttempts(int count, Instant lockedUntil) {
+            this.count = count;
+            this.lockedUntil = lockedUntil;
+        }
+
+        boolean isLocked(Instant now) {
+            return lockedUntil != null && lockedUntil.isAfter(now);
+        }
+
+        FailedAttempts next(Instant now) {
+            if (isLocked(now)) {
+                return this; // a check that was already running when the lock started
+            }
+            // after a lockout ran out the member gets a fresh set of attempts
+            int failures = (lockedUntil != null && !isLocked(now)) ? 1 : count + 1;
+            return failures >= MAX_FAILED_ATTEMPTS ? new FailedAttempts(0, now.plus(LOCKOUT)) : new FailedAttempts(failures, null);
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package library.circulation.services;
+
+import java.util.Objects;
+
+public final class BorrowRequest implements CirculationRequest {
+    private final String bookID;
+    private final String memberID;
+    private final LibraryService.PeriodUnit unit;
+    private final int duration;
+
+    public BorrowRequest(String bookID, String memberID, LibraryService.PeriodUnit unit, int duration) {
+        this.bookID = Objects.requireNonNull(bookID, "Book ID cannot be null.");
+        this.memberID = Objects.requireNonNull(memberID, "Member ID cannot be null.");
+        this.unit = Objects.requireNonNull(unit, "Period unit cannot be null.");
+        this.duration = duration;
+    }
+
+    // getters
+    @Override
+    public String getBookID() { return bookID; }
+    @Override
+    public String getMemberID() { return memberID; }
+    public LibraryService.PeriodUnit getUnit() { return unit; }
+    public int getDuration() { return duration; }
+
+    @Override
+    public String toString() {
+        return "Borrow " + bookID + " by " + memberID + " for " + duration + " " + unit;
+    }
+}
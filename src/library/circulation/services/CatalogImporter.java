@@ -0,0 +1,492 @@
+package library.circulation.services;
+
+import library.circulation.models.Book;
+import library.circulation.services.MemberImporter.RowError;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+// Bulk intake of an acquisition feed into the catalog, one book per line:
+//   title,author,genre,contentRating                 csv, "quoted, values" and "" inside quotes work
+//   title<TAB>author<TAB>genre<TAB>contentRating     tsv, used when the first line has a tab in it
+// A first line starting with "title" is a header and skipped. Fields can't span lines.
+//
+// The calling thread streams the file through a FileChannel in chunks cut at their last line break and only does
+// that. Parsing, building the Books and inserting them run on a pool: every chunk is parsed straight from its bytes
+// and goes into the catalog and its indexes as one batch. Chunk buffers come from a fixed pool, so when the parsers
+// fall behind the reader waits and memory stays flat however big the feed is.
+// Bad rows don't stop the import. They are counted, and the first MAX_ERRORS are kept with their line number.
+public class CatalogImporter {
+
+    private static final int COLUMNS = 4;
+    private static final int MAX_ERRORS = 1000;
+    private static final int DEFAULT_CHUNK_BYTES = 4 * 1024 * 1024;
+
+    // takes a batch, returns the books it could not take (duplicates)
+    private final Function<List<Book>, List<Book>> sink;
+    private final int threads;
+    private final int chunkBytes;
+    private final int buffers;
+
+    // imports straight into the service's catalog, search index and bitmap indexes
+    public CatalogImporter(LibraryService service) {
+        this(service::addBooks, Runtime.getRuntime().availableProcessors(), DEFAULT_CHUNK_BYTES,
+                Runtime.getRuntime().availableProcessors() * 2);
+    }
+
+    // buffers is how many chunks can be read ahead of the parsers, at least one more than threads makes sense.
+    // A sink that throws ends the import, it can't tell which books of the batch got in
+    public CatalogImporter(Function<List<Book>, List<Book>> sink, int threads, int chunkBytes, int buffers) {
+        if (threads <= 0 || buffers <= 0) {
+            throw new IllegalArgumentException("Threads and buffers must be greater than 0.");
+        }
+        if (chunkBytes < 1024) {
+            throw new IllegalArgumentException("Chunks must be at least 1024 bytes.");
+        }
+        this.sink = Objects.requireNonNull(sink, "Sink cannot be null.");
+        this.threads = threads;
+        this.chunkBytes = chunkBytes;
+        this.buffers = buffers;
+    }
+
+    public ImportReport importFile(Path file) {
+        return importFile(file, progress -> {});
+    }
+
+    // "progress" is called on the calling thread after every chunk, in file order
+    public ImportReport importFile(Path file, Consumer<Progress> progress) {
+        Objects.requireNonNull(file, "File cannot be null.");
+        Objects.requireNonNull(progress, "Progress listener cannot be null.");
+
+        long start = System.nanoTime();
+        BlockingQueue<byte[]> pool = new ArrayBlockingQueue<>(buffers);
+        for (int i = 0; i < buffers; i++) {
+            pool.add(new byte[chunkBytes]);
+        }
+        AtomicInteger threadCount = new AtomicInteger();
+        ExecutorService parsers = Executors.newFixedThreadPool(threads, task -> {
+            Thread thread = new Thread(task, "catalog-import-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        Totals totals = new Totals(start);
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            Queue<Future<Chunk>> pending = new ArrayDeque<>();
+            byte[] carry = new byte[0]; // the unfinished last line of the previous chunk
+            long position = 0;
+            boolean first = true;
+            boolean firstChunk = true;
+            boolean tabs = false;
+            boolean skippingLongLine = false;
+
+            while (true) {
+                byte[] buffer = pool.take();
+                System.arraycopy(carry, 0, buffer, 0, carry.length);
+                int filled = carry.length;
+                int read = 0;
+                while (filled < buffer.length && (read = channel.read(ByteBuffer.wrap(buffer, filled, buffer.length - filled), position)) > 0) {
+                    filled += read;
+                    position += read;
+                }
+                boolean end = read < 0 || position >= size;
+
+                int from = 0;
+                if (first) {
+                    from = hasByteOrderMark(buffer, filled) ? 3 : 0;
+                    tabs = firstLineHasTab(buffer, from, filled);
+                    first = false;
+                }
+                int cut = end ? filled : lastLineBreak(buffer, from, filled) + 1;
+
+                if (skippingLongLine) {
+                    int lineEnd = indexOf(buffer, (byte) '\n', 0, filled);
+                    if (lineEnd < 0 && !end) {
+                        pool.add(buffer); // still inside it, drop the whole buffer
+                        carry = new byte[0];
+                        continue;
+                    }
+                    skippingLongLine = false;
+                    pending.add(CompletableFuture.completedFuture(Chunk.longLine(chunkBytes)));
+                    from = lineEnd < 0 ? filled : lineEnd + 1;
+                    cut = end ? filled : Math.max(from, lastLineBreak(buffer, from, filled) + 1);
+                }
+                if (!end && indexOf(buffer, (byte) '\n', 0, filled) < 0) {
+                    // a single line that doesn't fit into a chunk
+                    skippingLongLine = true;
+                    pool.add(buffer);
+                    carry = new byte[0];
+                    continue;
+                }
+
+                carry = Arrays.copyOfRange(buffer, cut, filled);
+                boolean header = firstChunk;
+                firstChunk = false;
+                int chunkStart = from;
+                int chunkEnd = cut;
+                boolean tabSeparated = tabs;
+                pending.add(parsers.submit(() -> {
+                    try {
+                        return parse(buffer, chunkStart, chunkEnd, tabSeparated, header);
+                    } finally {
+                        pool.add(buffer);
+                    }
+                }));
+                long bytesDone = position - carry.length;
+                drain(pending, totals, false, bytesDone, size, progress);
+                if (end) {
+                    break;
+                }
+            }
+            drain(pending, totals, true, size, size, progress);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not read " + file, e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Import of " + file + " interrupted", e);
+        } finally {
+            parsers.shutdownNow();
+        }
+
+        return new ImportReport(totals.imported, totals.rejected, totals.errors, Duration.ofNanos(System.nanoTime() - start));
+    }
+
+    // takes the finished chunks off the front of the queue (all of them at the end), so line numbers and progress
+    // are counted in file order
+    private static void drain(Queue<Future<Chunk>> pending, Totals totals, boolean all, long bytesDone, long size,
+                              Consumer<Progress> progress) throws InterruptedException {
+        boolean any = false;
+        while (!pending.isEmpty() && (all || pending.peek().isDone())) {
+            Chunk chunk;
+            try {
+                chunk = pending.poll().get();
+            } catch (ExecutionException e) {
+                throw new IllegalStateException("Catalog import failed: " + e.getCause().getMessage(), e.getCause());
+            }
+            for (RowError error : chunk.errors) {
+                if (totals.errors.size() < MAX_ERRORS) {
+                    totals.errors.add(new RowError(totals.lines + error.getLineNumber(), error.getMessage()));
+                }
+            }
+            totals.rejected += chunk.rejected;
+            totals.imported += chunk.imported;
+            totals.lines += chunk.lines;
+            any = true;
+        }
+        if (any) {
+            progress.accept(new Progress(Math.min(bytesDone, size), size, totals.imported, totals.rejected,
+                    Duration.ofNanos(System.nanoTime() - totals.start)));
+        }
+    }
+
+    // ---------- parsing, on the pool ----------
+
+    private Chunk parse(byte[] buffer, int from, int to, boolean tabs, boolean header) {
+        List<Book> books = new ArrayList<>();
+        List<Integer> bookLines = new ArrayList<>();
+        List<RowError> errors = new ArrayList<>();
+        // one String per distinct genre / author in the chunk instead of one per book
+        Map<String, String> canonical = new HashMap<>();
+        String[] fields = new String[COLUMNS];
+        int line = 0;
+        int rejected = 0;
+
+        int start = from;
+        while (start < to) {
+            int lineBreak = indexOf(buffer, (byte) '\n', start, to);
+            int end = lineBreak < 0 ? to : lineBreak;
+            int next = end + 1;
+            if (end > start && buffer[end - 1] == '\r') {
+                end--;
+            }
+            line++;
+            if (end > start && !(header && line == 1 && startsWithTitle(buffer, start, end))) {
+                try {
+                    split(buffer, start, end, tabs ? (byte) '\t' : (byte) ',', !tabs, fields);
+                    books.add(toBook(fields, canonical));
+                    bookLines.add(line);
+                } catch (IllegalArgumentException e) {
+                    rejected++;
+                    if (errors.size() < MAX_ERRORS) {
+                        errors.add(new RowError(line, e.getMessage()));
+                    }
+                }
+            }
+            start = next;
+        }
+
+        int imported = books.size();
+        if (!books.isEmpty()) {
+            List<Book> duplicates = sink.apply(books);
+            imported -= duplicates.size();
+            rejected += duplicates.size();
+            // the duplicates come back in batch order, one walk finds their lines
+            int at = 0;
+            for (Book duplicate : duplicates) {
+                while (books.get(at) != duplicate) {
+                    at++;
+                }
+                if (errors.size() < MAX_ERRORS) {
+                    errors.add(new RowError(bookLines.get(at), "Book " + duplicate.getBookID() + " is already in the catalog."));
+                }
+            }
+            // bad rows and duplicates together in line order
+            errors.sort((a, b) -> Integer.compare(a.getLineNumber(), b.getLineNumber()));
+        }
+        return new Chunk(line, imported, rejected, errors);
+    }
+
+    private static Book toBook(String[] fields, Map<String, String> canonical) {
+        String title = fields[0];
+        String author = fields[1];
+        String genre = fields[2];
+        if (title.isEmpty()) {
+            throw new IllegalArgumentException("Title cannot be empty.");
+        }
+        if (author.isEmpty()) {
+            throw new IllegalArgumentException("Author cannot be empty.");
+        }
+        if (genre.isEmpty()) {
+            throw new IllegalArgumentException("Genre cannot be empty.");
+        }
+        String contentRating = contentRating(fields[3]);
+        return new Book(title, canonical.computeIfAbsent(author, a -> a), canonical.computeIfAbsent(genre, g -> g), contentRating);
+    }
+
+    // G, PG-13 or R in any case, "PG13" too
+    private static String contentRating(String value) {
+        switch (value.toUpperCase()) {
+            case "G":
+                return "G";
+            case "PG-13":
+            case "PG13":
+                return "PG-13";
+            case "R":
+                return "R";
+            default:
+                throw new IllegalArgumentException("Invalid content rating: " + value + ", use G, PG-13 or R.");
+        }
+    }
+
+    // splits one line into exactly COLUMNS trimmed fields
+    private static void split(byte[] buffer, int start, int end, byte delimiter, boolean quotes, String[] fields) {
+        int column = 0;
+        int i = start;
+        while (true) {
+            if (column == COLUMNS) {
+                throw new IllegalArgumentException("Expected " + COLUMNS + " columns but found more.");
+            }
+            int fieldEnd;
+            int quote = firstNonBlank(buffer, i, end);
+            if (quotes && quote < end && buffer[quote] == '"') {
+                // quoted: copy while dropping the quotes and turning "" into "
+                byte[] value = new byte[end - quote];
+                int length = 0;
+                int j = quote + 1;
+                boolean closed = false;
+                while (j < end) {
+                    if (buffer[j] == '"') {
+                        if (j + 1 < end && buffer[j + 1] == '"') {
+                            value[length++] = '"';
+                            j += 2;
+                            continue;
+                        }
+                        closed = true;
+                        j++;
+                        break;
+                    }
+                    value[length++] = buffer[j++];
+                }
+                if (!closed) {
+                    throw new IllegalArgumentException("Unterminated quote in column " + (column + 1) + ".");
+                }
+                fieldEnd = indexOf(buffer, delimiter, j, end);
+                if (fieldEnd < 0) {
+                    fieldEnd = end;
+                }
+                fields[column++] = new String(value, 0, length, StandardCharsets.UTF_8).trim();
+            } else {
+                fieldEnd = indexOf(buffer, delimiter, i, end);
+                if (fieldEnd < 0) {
+                    fieldEnd = end;
+                }
+                fields[column++] = new String(buffer, i, fieldEnd - i, StandardCharsets.UTF_8).trim();
+            }
+            if (fieldEnd >= end) {
+                break;
+            }
+            i = fieldEnd + 1;
+        }
+        if (column != COLUMNS) {
+            throw new IllegalArgumentException("Expected " + COLUMNS + " columns but found " + column + ".");
+        }
+    }
+
+    private static int firstNonBlank(byte[] buffer, int from, int to) {
+        while (from < to && (buffer[from] == ' ' || buffer[from] == '\t')) {
+            from++;
+        }
+        return from;
+    }
+
+    private static int indexOf(byte[] buffer, byte value, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (buffer[i] == value) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    // -1 if there is none
+    private static int lastLineBreak(byte[] buffer, int from, int to) {
+        for (int i = to - 1; i >= from; i--) {
+            if (buffer[i] == '\n') {
+                return i;
+            }
+        }
+        return from - 1;
+    }
+
+    private static boolean hasByteOrderMark(byte[] buffer, int filled) {
+        return filled >= 3 && buffer[0] == (byte) 0xEF && buffer[1] == (byte) 0xBB && buffer[2] == (byte) 0xBF;
+    }
+
+    private static boolean firstLineHasTab(byte[] buffer, int from, int filled) {
+        int lineBreak = indexOf(buffer, (byte) '\n', from, filled);
+        return indexOf(buffer, (byte) '\t', from, lineBreak < 0 ? filled : lineBreak) >= 0;
+    }
+
+    private static boolean startsWithTitle(byte[] buffer, int start, int end) {
+        byte[] title = {'t', 'i', 't', 'l', 'e'};
+        int at = firstNonBlank(buffer, start, end);
+        if (at < end && buffer[at] == '"') {
+            at++;
+        }
+        if (end - at < title.length) {
+            return false;
+        }
+        for (int i = 0; i < title.length; i++) {
+            if ((buffer[at + i] | 0x20) != title[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // what one chunk came to, line numbers in "errors" count from the chunk's first line
+    private static final class Chunk {
+        final int lines;
+        final int imported;
+        final int rejected;
+        final List<RowError> errors;
+
+        Chunk(int lines, int imported, int rejected, List<RowError> errors) {
+            this.lines = lines;
+            this.imported = imported;
+            this.rejected = rejected;
+            this.errors = errors;
+        }
+
+        static Chunk longLine(int chunkBytes) {
+            return new Chunk(1, 0, 1, List.of(new RowError(1, "Line is longer than " + chunkBytes + " bytes.")));
+        }
+    }
+
+    // running totals, only touched by the reading thread
+    private static final class Totals {
+        final long start;
+        final List<RowError> errors = new ArrayList<>();
+        long imported;
+        long rejected;
+        int lines;
+
+        Totals(long start) {
+            this.start = start;
+        }
+    }
+
+    public static final class Progress {
+        private final long bytesRead;
+        private final long totalBytes;
+        private final long imported;
+        private final long rejected;
+        private final Duration elapsed;
+
+        Progress(long bytesRead, long totalBytes, long imported, long rejected, Duration elapsed) {
+            this.bytesRead = bytesRead;
+            this.totalBytes = totalBytes;
+            this.imported = imported;
+            this.rejected = rejected;
+            this.elapsed = elapsed;
+        }
+
+        public long getBytesRead() { return bytesRead; }
+        public long getTotalBytes() { return totalBytes; }
+        public long getImported() { return imported; }
+        public long getRejected() { return rejected; }
+        public Duration getElapsed() { return elapsed; }
+
+        public double getPercent() {
+            return totalBytes == 0 ? 100 : bytesRead * 100.0 / totalBytes;
+        }
+
+        @Override
+        public String toString() {
+            long millis = Math.max(1, elapsed.toMillis());
+            return String.format("%5.1f%%  %,d books  %,d rejected  %,d books/s",
+                    getPercent(), imported, rejected, imported * 1000 / millis);
+        }
+    }
+
+    public static final class ImportReport {
+        private final long imported;
+        private final long rejected;
+        private final List<RowError> errors;
+        private final Duration elapsed;
+
+        ImportReport(long imported, long rejected, List<RowError> errors, Duration elapsed) {
+            this.imported = imported;
+            this.rejected = rejected;
+            this.errors = Collections.unmodifiableList(errors);
+            this.elapsed = elapsed;
+        }
+
+        public long getImported() { return imported; }
+        public long getRejected() { return rejected; }
+        // the first MAX_ERRORS rejected rows, in file order
+        public List<RowError> getErrors() { return errors; }
+        public Duration getElapsed() { return elapsed; }
+
+        @Override
+        public String toString() {
+            return "Imported " + imported + " books, " + rejected + " rows rejected in " + elapsed.toMillis() + " ms.";
+        }
+    }
+}
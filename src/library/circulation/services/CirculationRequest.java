@@ -0,0 +1,9 @@
+package library.circulation.services;
+
+// one circulation operation for the non-interactive / batch api (BorrowRequest, ReturnRequest, RenewRequest)
+public interface CirculationRequest {
+
+    String getBookID();
+
+    String getMemberID();
+}
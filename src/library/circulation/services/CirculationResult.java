@@ -0,0 +1,41 @@
+package library.circulation.services;
+
+import library.circulation.models.Transaction;
+
+// outcome of one CirculationRequest. On failure "message" says why, the same text the console version would throw
+public final class CirculationResult {
+    private final CirculationRequest request;
+    private final boolean success;
+    private final String message;
+    private final Transaction transaction;
+    private final long fine;
+
+    private CirculationResult(CirculationRequest request, boolean success, String message, Transaction transaction, long fine) {
+        this.request = request;
+        this.success = success;
+        this.message = message;
+        this.transaction = transaction;
+        this.fine = fine;
+    }
+
+    static CirculationResult success(CirculationRequest request, Transaction transaction, long fine) {
+        return new CirculationResult(request, true, null, transaction, fine);
+    }
+
+    static CirculationResult failure(CirculationRequest request, String message) {
+        return new CirculationResult(request, false, message, null, 0);
+    }
+
+    // getters
+    public CirculationRequest getRequest() { return request; }
+    public boolean isSuccess() { return success; }
+    public String getMessage() { return message; }
+    public Transaction getTransaction() { return transaction; }
+    // fine posted to the member's dues by this operation (late return or overdue renewal)
+    public long getFine() { return fine; }
+
+    @Override
+    public String toString() {
+        return request + (success ? " -> OK" : " -> FAILED: " + message);
+    }
+}
@@ -0,0 +1,222 @@
+package library.circulation.services;
+
+import library.circulation.journal.JournalEntry;
+import library.circulation.models.Member;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+// Every change of a member's dues as an entry: fines charged, payments and waivers. Entries are only ever appended,
+// a mistake is put right with a new entry (a waiver), so the entries of a member read like a bank statement.
+//
+// The balance itself stays in Member.pendingDues, one AtomicLong, so the dues check at the start of borrowBook is
+// still a single read. Posting takes the member's account lock, checks the change, journals it, then changes the
+// balance and appends the entry together with the balance after it, so entries and balance always agree. Members
+// don't share a lock, two desks posting for different members never wait for each other.
+//
+// The balance is changed through the Member.DuesAccess handed to the constructor.
+//
+// Payment references (receipt numbers, online payment ids) are remembered: running the same reconciliation file
+// twice posts every payment once. The entries are kept since startup, older ones are in the journal; the references
+// come back from the snapshot and the journal replayed after it.
+public class DuesLedger {
+
+    public enum Kind { FINE, PAYMENT, WAIVER }
+
+    private final Member.DuesAccess dues;
+    private final Map<String, Account> accounts = new ConcurrentHashMap<>();
+    private final Set<String> references = ConcurrentHashMap.newKeySet();
+    private final AtomicLong sequence = new AtomicLong();
+    private final LongAdder charged = new LongAdder();
+    private final LongAdder paid = new LongAdder();
+    private final LongAdder waived = new LongAdder();
+
+    public DuesLedger(Member.DuesAccess dues) {
+        this.dues = Objects.requireNonNull(dues, "Dues access cannot be null.");
+    }
+
+    // the entries of one member, oldest first
+    public List<Entry> getEntries(String memberID) {
+        Account account = accounts.get(memberID);
+        if (account == null) {
+            return List.of();
+        }
+        synchronized (account) {
+            return new ArrayList<>(account.entries);
+        }
+    }
+
+    public boolean isPosted(String reference) {
+        return references.contains(reference);
+    }
+
+    // totals since startup, for reconciling against the cash and the payment provider
+    public long getTotalCharged() { return charged.sum(); }
+    public long getTotalPaid() { return paid.sum(); }
+    public long getTotalWaived() { return waived.sum(); }
+
+    // ---------- posting, LibraryService calls these under its checkpoint lock ----------
+    // "journal" gets the entry after it was checked and before the balance changes (write-ahead), if it throws
+    // nothing is posted. null when the caller journals the change itself, e.g. a fine that is part of a RETURN
+
+    Entry charge(Member member, long amount, String transactionID, LocalDate date, Consumer<JournalEntry> journal) {
+        Entry entry = post(member, Kind.FINE, amount, transactionID, null, date, journal);
+        charged.add(amount);
+        return entry;
+    }
+
+    // null if a payment with this reference was posted before
+    Entry pay(Member member, long amount, String reference, LocalDate date, Consumer<JournalEntry> journal) {
+        if (reference != null && !references.add(reference)) {
+            return null;
+        }
+        try {
+            Entry entry = post(member, Kind.PAYMENT, amount, null, reference, date, journal);
+            paid.add(amount);
+            return entry;
+        } catch (RuntimeException e) {
+            if (reference != null) {
+                references.remove(reference); // not posted, the corrected payment may use it again
+            }
+            throw e;
+        }
+    }
+
+    Entry waive(Member member, long amount, String reason, LocalDate date, Consumer<JournalEntry> journal) {
+        Objects.requireNonNull(reason, "Reason cannot be null.");
+        Entry entry = post(member, Kind.WAIVER, amount, null, reason, date, journal);
+        waived.add(amount);
+        return entry;
+    }
+
+    void rememberReferences(Collection<String> posted) {
+        references.addAll(posted);
+    }
+
+    // for the snapshot, the caller makes sure no payment is posted meanwhile
+    List<String> getReferences() {
+        return new ArrayList<>(references);
+    }
+
+    // startup only: what the journal changed since the snapshot, no entry since these were posted before
+    void carryOver(Member member, long change) {
+        Account account = accounts.computeIfAbsent(member.getMemberID(), id -> new Account());
+        synchronized (account) {
+            dues.set(member, member.getPendingDues() + change);
+        }
+    }
+
+    // brings the balance to "balance" with a fine or a waiver of the difference, null if it is already there
+    Entry adjustTo(Member member, long balance, String reason, LocalDate date, Consumer<JournalEntry> journal) {
+        Objects.requireNonNull(member, "Member cannot be null.");
+        if (balance < 0) {
+            throw new IllegalArgumentException("Balance cannot be negative.");
+        }
+        Account account = accounts.computeIfAbsent(member.getMemberID(), id -> new Account());
+        synchronized (account) { // the difference must not change before it is posted
+            long difference = balance - member.getPendingDues();
+            if (difference > 0) {
+                return charge(member, difference, null, date, journal);
+            }
+            if (difference < 0) {
+                return waive(member, -difference, reason, date, journal);
+            }
+            return null;
+        }
+    }
+
+    private Entry post(Member member, Kind kind, long amount, String transactionID, String reference, LocalDate date,
+                       Consumer<JournalEntry> journal) {
+        Objects.requireNonNull(member, "Member cannot be null.");
+        Objects.requireNonNull(date, "Date cannot be null.");
+        if (amount <= 0) {
+            throw new IllegalArgumentException("Amount must be greater than 0.");
+        }
+
+        Account account = accounts.computeIfAbsent(member.getMemberID(), id -> new Account());
+        synchronized (account) {
+            // only the ledger changes the balance and always under this lock, so it can't move before we apply
+            long current = member.getPendingDues();
+            if (kind != Kind.FINE && amount > current) {
+                throw new IllegalArgumentException("Amount is greater than dues");
+            }
+            Entry entry = new Entry(sequence.incrementAndGet(), kind, member.getMemberID(), amount,
+                    kind == Kind.FINE ? current + amount : current - amount, date, transactionID, reference);
+            if (journal != null) {
+                journal.accept(entry.toJournalEntry());
+            }
+            if (kind == Kind.FINE) {
+                dues.add(member, amount);
+            } else {
+                dues.deduct(member, amount);
+            }
+            account.entries.add(entry);
+            return entry;
+        }
+    }
+
+    private static final class Account {
+        final List<Entry> entries = new ArrayList<>(); // guarded by the account itself
+    }
+
+    public static final class Entry {
+        private final long sequence;
+        private final Kind kind;
+        private final String memberID;
+        private final long amount;
+        private final long balanceAfter;
+        private final LocalDate date;
+        private final String transactionID;
+        private final String reference;
+
+        Entry(long sequence, Kind kind, String memberID, long amount, long balanceAfter, LocalDate date,
+              String transactionID, String reference) {
+            this.sequence = sequence;
+            this.kind = kind;
+            this.memberID = memberID;
+            this.amount = amount;
+            this.balanceAfter = balanceAfter;
+            this.date = date;
+            this.transactionID = transactionID;
+            this.reference = reference;
+        }
+
+        // getters
+        // ledger wide, later entries have higher numbers
+        public long getSequence() { return sequence; }
+        public Kind getKind() { return kind; }
+        public String getMemberID() { return memberID; }
+        public long getAmount() { return amount; }
+        // the member's dues right after this entry
+        public long getBalanceAfter() { return balanceAfter; }
+        public LocalDate getDate() { return date; }
+        // the loan a fine was charged for, null for payments, waivers and fines from another branch
+        public String getTransactionID() { return transactionID; }
+        // the payment reference or why it was waived
+        public String getReference() { return reference; }
+
+        // the same change as it goes into the journal and onto the event ring
+        JournalEntry toJournalEntry() {
+            return switch (kind) {
+                case FINE -> JournalEntry.fine(memberID, transactionID, date, amount);
+                case PAYMENT -> JournalEntry.payment(memberID, amount, reference);
+                case WAIVER -> JournalEntry.waiver(memberID, amount, reference);
+            };
+        }
+
+        @Override
+        public String toString() {
+            return "#" + sequence + " " + date + " " + kind + " ₹ " + amount + " " + memberID + " -> ₹ " + balanceAfter
+                    + (transactionID == null ? "" : " tx=" + transactionID) + (reference == null ? "" : " (" + reference + ")");
+        }
+    }
+}
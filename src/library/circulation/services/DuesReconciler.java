@@ -0,0 +1,163 @@
+package library.circulation.services;
+
+import library.circulation.services.MemberImporter.RowError;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+
+// Posts the payments of a reconciliation file, the cashier's end of day sheet or the report of the online payment
+// provider, one csv row per payment:
+//   memberID,amount,reference
+// The amount is in whole rupees ("150" or "150.00"), the reference is optional but without one a file that is run
+// twice pays twice. Rows are posted in batches through LibraryService.postPayments. A payment that can't be posted
+// (unknown member, more than what is due) doesn't stop the file, it ends up in the report with its line number so
+// somebody can refund or correct it; payments posted before are counted as duplicates and change nothing.
+public class DuesReconciler {
+
+    private static final int COLUMNS = 3;
+    private static final int BATCH = 10_000;
+    // rows reported one by one, after that only counted
+    private static final int MAX_ERRORS = 1000;
+
+    private final LibraryService service;
+
+    public DuesReconciler(LibraryService service) {
+        this.service = Objects.requireNonNull(service, "Service cannot be null.");
+    }
+
+    public ReconciliationReport reconcile(Path file) {
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            return reconcile(reader);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not read " + file, e);
+        }
+    }
+
+    public ReconciliationReport reconcile(Reader input) {
+        Objects.requireNonNull(input, "Input cannot be null.");
+
+        BufferedReader reader = input instanceof BufferedReader buffered ? buffered : new BufferedReader(input);
+        Totals totals = new Totals();
+        List<Payment> batch = new ArrayList<>(BATCH);
+        List<Integer> lineNumbers = new ArrayList<>(BATCH);
+
+        int lineNumber = 0;
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                if (line.isBlank() || (lineNumber == 1 && line.toLowerCase().startsWith("memberid,"))) {
+                    continue; // empty line or header
+                }
+                try {
+                    batch.add(parse(line));
+                    lineNumbers.add(lineNumber);
+                } catch (IllegalArgumentException e) {
+                    totals.failed(lineNumber, e.getMessage());
+                }
+                if (batch.size() == BATCH) {
+                    post(batch, lineNumbers, totals);
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not read line " + (lineNumber + 1), e);
+        }
+        post(batch, lineNumbers, totals);
+
+        totals.errors.sort((a, b) -> Integer.compare(a.getLineNumber(), b.getLineNumber()));
+        return new ReconciliationReport(totals.posted, totals.amountPosted, totals.duplicates, totals.failed, totals.errors);
+    }
+
+    private void post(List<Payment> batch, List<Integer> lineNumbers, Totals totals) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        List<PaymentResult> results = service.postPayments(batch);
+        for (int i = 0; i < results.size(); i++) {
+            PaymentResult result = results.get(i);
+            switch (result.getStatus()) {
+                case POSTED -> {
+                    totals.posted++;
+                    totals.amountPosted += result.getPayment().getAmount();
+                }
+                case DUPLICATE -> totals.duplicates++;
+                case FAILED -> totals.failed(lineNumbers.get(i), result.getMessage());
+            }
+        }
+        batch.clear();
+        lineNumbers.clear();
+    }
+
+    private static Payment parse(String line) {
+        List<String> fields = MemberImporter.splitCsv(line);
+        if (fields.size() != COLUMNS) {
+            throw new IllegalArgumentException("Expected " + COLUMNS + " columns but found " + fields.size() + ".");
+        }
+        String memberID = fields.get(0);
+        if (memberID.isEmpty()) {
+            throw new IllegalArgumentException("Member ID cannot be empty.");
+        }
+        long amount;
+        try {
+            amount = new BigDecimal(fields.get(1)).longValueExact();
+        } catch (NumberFormatException | ArithmeticException e) {
+            throw new IllegalArgumentException("Invalid amount: " + fields.get(1));
+        }
+        String reference = fields.get(2).isEmpty() ? null : fields.get(2);
+        return new Payment(memberID, amount, reference);
+    }
+
+    private static final class Totals {
+        int posted;
+        long amountPosted;
+        int duplicates;
+        int failed;
+        final List<RowError> errors = new ArrayList<>();
+
+        void failed(int lineNumber, String message) {
+            failed++;
+            if (errors.size() < MAX_ERRORS) {
+                errors.add(new RowError(lineNumber, message));
+            }
+        }
+    }
+
+    public static final class ReconciliationReport {
+        private final int posted;
+        private final long amountPosted;
+        private final int duplicates;
+        private final int failed;
+        private final List<RowError> errors;
+
+        ReconciliationReport(int posted, long amountPosted, int duplicates, int failed, List<RowError> errors) {
+            this.posted = posted;
+            this.amountPosted = amountPosted;
+            this.duplicates = duplicates;
+            this.failed = failed;
+            this.errors = Collections.unmodifiableList(errors);
+        }
+
+        public int getPosted() { return posted; }
+        public long getAmountPosted() { return amountPosted; }
+        public int getDuplicates() { return duplicates; }
+        public int getFailed() { return failed; }
+        // the first MAX_ERRORS rows that could not be posted, in file order
+        public List<RowError> getErrors() { return errors; }
+
+        @Override
+        public String toString() {
+            return "Posted " + posted + " payments (₹ " + amountPosted + "), " + duplicates + " duplicates, "
+                    + failed + " rows failed.";
+        }
+    }
+}
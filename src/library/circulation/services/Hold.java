@@ -0,0 +1,76 @@
+package library.circulation.services;
+
+import library.circulation.models.Transaction;
+
+import java.time.LocalDate;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicReference;
+
+// a member waiting for a copy that is out on loan. When the copy comes back it is issued straight to the
+// first eligible holder, for the period asked for when the hold was placed
+public class Hold {
+
+    // CLAIMED: a returned copy is being handed to this holder right now, it ends up FULFILLED or WAITING again
+    public enum Status { WAITING, CLAIMED, FULFILLED, CANCELLED, EXPIRED }
+
+    private final String memberID;
+    private final String bookID;
+    private final LibraryService.PeriodUnit unit;
+    private final int duration;
+    private final LocalDate placedOn;
+    private final LocalDate expiresOn;
+    private final AtomicReference<Status> status = new AtomicReference<>(Status.WAITING);
+    private volatile Transaction transaction;
+
+    Hold(String memberID, String bookID, LibraryService.PeriodUnit unit, int duration, LocalDate placedOn, LocalDate expiresOn) {
+        this.memberID = Objects.requireNonNull(memberID, "Member ID cannot be null.");
+        this.bookID = Objects.requireNonNull(bookID, "Book ID cannot be null.");
+        this.unit = Objects.requireNonNull(unit, "Period unit cannot be null.");
+        this.duration = duration;
+        this.placedOn = placedOn;
+        this.expiresOn = expiresOn;
+    }
+
+    public String getMemberID() { return memberID; }
+    public String getBookID() { return bookID; }
+    public LibraryService.PeriodUnit getUnit() { return unit; }
+    public int getDuration() { return duration; }
+    public LocalDate getPlacedOn() { return placedOn; }
+    public LocalDate getExpiresOn() { return expiresOn; }
+    public Status getStatus() { return status.get(); }
+    // the loan the hold turned into, null until it is fulfilled
+    public Transaction getTransaction() { return transaction; }
+
+    // teachers are served before everyone else, in the order they placed their holds
+    public boolean isPriority() { return memberID.startsWith("TCH_"); }
+
+    // the hand-off claims a hold before it checks the member, so a cancel can't slip in while the loan is created
+    boolean claim() { return status.compareAndSet(Status.WAITING, Status.CLAIMED); }
+    void release() { status.compareAndSet(Status.CLAIMED, Status.WAITING); }
+    boolean expire() { return status.compareAndSet(Status.WAITING, Status.EXPIRED); }
+
+    // a claim only lasts while the returning desk checks the holder and swaps the loan, so we wait for it to end:
+    // a holder who couldn't take the copy is still waiting and can cancel, one who got it can't anymore
+    boolean cancel() {
+        while (true) {
+            Status current = status.get();
+            if (current == Status.WAITING) {
+                if (status.compareAndSet(Status.WAITING, Status.CANCELLED)) {
+                    return true;
+                }
+            } else if (current == Status.CLAIMED) {
+                Thread.onSpinWait();
+            } else {
+                return false;
+            }
+        }
+    }
+
+    // the copy is handed over, called right after the swap so the claim never outlives the hand-off
+    void fulfilled(Transaction transaction) {
+        this.transaction = transaction;
+        status.compareAndSet(Status.CLAIMED, Status.FULFILLED);
+    }
+
+    boolean isExpired(LocalDate today) { return today.isAfter(expiresOn); }
+}
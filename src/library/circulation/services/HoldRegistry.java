@@ -0,0 +1,205 @@
+package library.circulation.services;
+
+import library.circulation.models.Transaction;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+// The waiting lists of every copy. Each copy has two lock-free FIFO queues, teachers and everyone else,
+// and the teachers' queue is always served first.
+// Placing a hold is an append, a cancelled or expired hold is only marked and gets dropped when the hand-off
+// reaches it, so returning a book costs O(1) plus the holders it has to skip (dues or borrow limit).
+// Skipped holders keep their place in the queue for the next copy.
+public class HoldRegistry {
+
+    private static final int DEFAULT_HOLD_DAYS = 14;
+
+    private final int holdDays;
+    private final Map<String, BookHolds> holdsByBook = new ConcurrentHashMap<>();
+    private final List<Consumer<Hold>> fulfilledListeners = new CopyOnWriteArrayList<>();
+
+    HoldRegistry() {
+        this(DEFAULT_HOLD_DAYS);
+    }
+
+    HoldRegistry(int holdDays) {
+        if (holdDays <= 0) {
+            throw new IllegalArgumentException("Hold days must be greater than 0.");
+        }
+        this.holdDays = holdDays;
+    }
+
+    // called on the returning thread after the copy was issued to the holder, e.g. to send a notification
+    public void addFulfilledListener(Consumer<Hold> listener) {
+        fulfilledListeners.add(Objects.requireNonNull(listener, "Listener cannot be null."));
+    }
+
+    // the holds still waiting for a copy, in the order they will be served
+    public List<Hold> getHolds(String bookID) {
+        BookHolds holds = holdsByBook.get(bookID);
+        List<Hold> waiting = new ArrayList<>();
+        if (holds != null) {
+            holds.teachers.forEach(hold -> addIfWaiting(waiting, hold));
+            holds.others.forEach(hold -> addIfWaiting(waiting, hold));
+        }
+        return waiting;
+    }
+
+    private static void addIfWaiting(List<Hold> waiting, Hold hold) {
+        if (hold.getStatus() == Hold.Status.WAITING) {
+            waiting.add(hold);
+        }
+    }
+
+    // returns false if the hold was not waiting anymore (already fulfilled, expired or cancelled)
+    public boolean cancel(Hold hold) {
+        Objects.requireNonNull(hold, "Hold cannot be null.");
+        if (!hold.cancel()) {
+            return false;
+        }
+        BookHolds holds = holdsByBook.get(hold.getBookID());
+        if (holds != null) {
+            holds.members.remove(hold.getMemberID());
+        }
+        return true;
+    }
+
+    Hold place(String memberID, String bookID, LibraryService.PeriodUnit unit, int duration, LocalDate today) {
+        BookHolds holds = holdsByBook.computeIfAbsent(bookID, id -> new BookHolds());
+        if (!holds.members.add(memberID)) {
+            throw new IllegalStateException("Member " + memberID + " already has a hold on book " + bookID + ".");
+        }
+        Hold hold = new Hold(memberID, bookID, unit, duration, today, today.plusDays(holdDays));
+        holds.queueOf(hold).addLast(hold);
+        return hold;
+    }
+
+    boolean hasHolds(String bookID) {
+        BookHolds holds = holdsByBook.get(bookID);
+        return holds != null && !holds.members.isEmpty();
+    }
+
+    // takes the first holder "takesCopy" accepts. The returned hold is claimed and out of the queue,
+    // the caller either reports it fulfilled or puts it back
+    Hold next(String bookID, LocalDate today, Predicate<Hold> takesCopy) {
+        BookHolds holds = holdsByBook.get(bookID);
+        if (holds == null) {
+            return null;
+        }
+        Hold hold = next(holds, holds.teachers, today, takesCopy);
+        return hold != null ? hold : next(holds, holds.others, today, takesCopy);
+    }
+
+    private static Hold next(BookHolds holds, Deque<Hold> queue, LocalDate today, Predicate<Hold> takesCopy) {
+        List<Hold> skipped = new ArrayList<>(0);
+        Hold chosen = null;
+        Hold hold;
+        try {
+            while (chosen == null && (hold = queue.pollFirst()) != null) {
+                if (hold.isExpired(today)) {
+                    if (hold.expire()) {
+                        holds.members.remove(hold.getMemberID());
+                    }
+                    continue;
+                }
+                if (!hold.claim()) {
+                    continue; // cancelled
+                }
+                boolean takes = false;
+                try {
+                    takes = takesCopy.test(hold);
+                } finally {
+                    // also when the check threw, a claimed hold must not stay claimed
+                    if (takes) {
+                        chosen = hold;
+                    } else {
+                        hold.release();
+                        skipped.add(hold);
+                    }
+                }
+            }
+        } finally {
+            // skipped holders go back to the front, in the same order
+            for (int i = skipped.size() - 1; i >= 0; i--) {
+                queue.addFirst(skipped.get(i));
+            }
+        }
+        return chosen;
+    }
+
+    // for a claimed hold whose hand-off failed after all
+    void putBack(Hold hold) {
+        hold.release();
+        BookHolds holds = holdsByBook.get(hold.getBookID());
+        if (holds != null) {
+            holds.queueOf(hold).addFirst(hold);
+        }
+    }
+
+    // the hold itself was marked fulfilled at the hand-over, this tidies up and tells the listeners
+    void fulfilled(Hold hold, Transaction transaction) {
+        BookHolds holds = holdsByBook.get(hold.getBookID());
+        if (holds != null) {
+            holds.members.remove(hold.getMemberID());
+        }
+        for (Consumer<Hold> listener : fulfilledListeners) {
+            listener.accept(hold);
+        }
+    }
+
+    // the copy is gone for good, nobody can wait for it anymore
+    void cancelAll(String bookID) {
+        BookHolds holds = holdsByBook.remove(bookID);
+        if (holds != null) {
+            holds.teachers.forEach(Hold::cancel);
+            holds.others.forEach(Hold::cancel);
+        }
+    }
+
+    // drops holds that ran out without a copy coming back, returns how many
+    public int purgeExpired(LocalDate today) {
+        Objects.requireNonNull(today, "Today cannot be null.");
+        int expired = 0;
+        for (BookHolds holds : holdsByBook.values()) {
+            expired += purge(holds, holds.teachers, today) + purge(holds, holds.others, today);
+        }
+        return expired;
+    }
+
+    private static int purge(BookHolds holds, Deque<Hold> queue, LocalDate today) {
+        int[] expired = new int[1];
+        queue.removeIf(hold -> {
+            if (hold.getStatus() != Hold.Status.WAITING) {
+                return true;
+            }
+            if (hold.isExpired(today) && hold.expire()) {
+                holds.members.remove(hold.getMemberID());
+                expired[0]++;
+                return true;
+            }
+            return false;
+        });
+        return expired[0];
+    }
+
+    private static final class BookHolds {
+        final Deque<Hold> teachers = new ConcurrentLinkedDeque<>();
+        final Deque<Hold> others = new ConcurrentLinkedDeque<>();
+        // members with a waiting hold on this copy, so nobody queues twice
+        final Set<String> members = ConcurrentHashMap.newKeySet();
+
+        Deque<Hold> queueOf(Hold hold) {
+            return hold.isPriority() ? teachers : others;
+        }
+    }
+}
@@ -3,15 +3,452 @@ package library.circulation.services;
 import library.circulation.models.Book;
 import library.circulation.models.Member;
 import library.circulation.models.Transaction;
-
+import library.circulation.history.LoanHistory;
+import library.circulation.events.EventRing;
+import library.circulation.ids.IdGenerator;
+import library.circulation.ids.IdSequence;
+import library.circulation.journal.CirculationJournal;
+import library.circulation.journal.JournalEntry;
+import library.circulation.journal.JournalReplayer;
+import library.circulation.metrics.CirculationMetrics;
+import library.circulation.metrics.CirculationMetrics.Operation;
+import library.circulation.metrics.CirculationMetrics.Rejection;
+import library.circulation.repository.CatalogRepository;
+import library.circulation.search.BookSearchIndex;
+import library.circulation.snapshot.CatalogSnapshot;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Scanner;
+import java.util.Set;
 import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 public class LibraryService {
 
     public enum PeriodUnit { DAYS, WEEKS, MONTHS }
 
+    // every book, member and open loan the service knows about
+    private final CatalogRepository catalog;
+    // full text search over title, author and genre
+    private final BookSearchIndex searchIndex = new BookSearchIndex();
+    // optional write-ahead journal, every change is appended before it is made in memory, so a change that could
+    // not be journaled is not made at all. Changes of one copy run under the copy's lock (synchronized (book)):
+    // checked, journaled, then made, the journal has them in the order they happened
+    private volatile CirculationJournal journal;
+    // optional ring the same entries are published to, for side work on other threads (audit log, notifications...)
+    private volatile EventRing events;
+    // every change of circulation state (memory + journal entry) holds the read side, so they still run in parallel.
+    // a snapshot takes the write side only while it copies the changing values, so it sees a state that
+    // matches the journal exactly. Encoding and writing the snapshot happen after it is released
+    private final ReentrantReadWriteLock checkpointLock = new ReentrantReadWriteLock();
+    // open loans by due day, for the nightly overdue run
+    private final OverdueScheduler overdueScheduler = new OverdueScheduler(this::accrueFine);
+    // every returned loan ends up here, in a compact columnar form
+    private final LoanHistory history;
+    // members waiting for a copy that is out, served on return
+    private final HoldRegistry holds = new HoldRegistry();
+    // every fine, payment and waiver, the balances themselves stay on the members
+    private final DuesLedger dues = new DuesLedger(Member.duesAccess());
+    // counters and latencies of borrow / return / renew, see getMetrics().dump() or the JMX beans
+    private final CirculationMetrics metrics = new CirculationMetrics();
+    // new books and members are journaled and added under this, so the journal has them in the order the catalog
+    // took them and a replay keeps the same one of two with the same id
+    private final Object additions = new Object();
+
+    public LibraryService() {
+        this(new CatalogRepository());
+    }
+
+    public LibraryService(CatalogRepository catalog) {
+        this(catalog, new LoanHistory());
+    }
+
+    public LibraryService(CatalogRepository catalog, LoanHistory history) {
+        this.catalog = Objects.requireNonNull(catalog, "Catalog cannot be null.");
+        this.history = Objects.requireNonNull(history, "History cannot be null.");
+        // a catalog loaded from a snapshot already has books, they have to be searchable too
+        catalog.allBooks().parallelStream().forEach(searchIndex::add);
+        catalog.allOpenTransactions().forEach(overdueScheduler::track);
+    }
+
+    // startup: loads the snapshot (if there is one) and replays the journal written after it
+    public static LibraryService restore(Path snapshotFile, Path journalDirectory) {
+        CatalogRepository catalog = new CatalogRepository();
+        LoanHistory history = new LoanHistory();
+        List<String> references = new ArrayList<>();
+        long journalSequence = 0;
+        if (snapshotFile != null && Files.exists(snapshotFile)) {
+            journalSequence = CatalogSnapshot.load(snapshotFile, catalog, history, references);
+        }
+        JournalReplayer replayer = new JournalReplayer(catalog, history);
+        if (journalDirectory != null) {
+            replayer.replay(journalDirectory, journalSequence);
+        }
+        advanceIds(catalog, Math.max(replayer.getHighestTransactionNumber(), history.getHighestTransactionNumber()));
+        LibraryService service = new LibraryService(catalog, history);
+        service.dues.rememberReferences(references);
+        service.dues.rememberReferences(replayer.getPaymentReferences());
+        replayer.getDuesChanges().forEach((memberID, change) -> {
+            Member member = catalog.findMember(memberID);
+            if (member != null) {
+                service.dues.carryOver(member, change);
+            }
+        });
+        return service;
+    }
+
+    // new books, members and loans must not get the id of one that was just loaded, e.g. when the allocator
+    // starts from its floor again after a restart
+    private static void advanceIds(CatalogRepository catalog, long highestTransactionNumber) {
+        long book = -1;
+        long student = -1;
+        long teacher = -1;
+        long transaction = highestTransactionNumber;
+        for (Book restored : catalog.allBooks()) {
+            book = Math.max(book, IdGenerator.numberOf(restored.getBookID()));
+        }
+        for (Member member : catalog.allMembers()) {
+            String memberID = member.getMemberID();
+            if (memberID.startsWith("STU_")) {
+                student = Math.max(student, IdGenerator.numberOf(memberID));
+            } else if (memberID.startsWith("TCH_")) {
+                teacher = Math.max(teacher, IdGenerator.numberOf(memberID));
+            }
+        }
+        for (Transaction open : catalog.allOpenTransactions()) {
+            transaction = Math.max(transaction, IdGenerator.numberOf(open.getTransactionID()));
+        }
+        IdGenerator.advancePast(IdSequence.BOOK, book);
+        IdGenerator.advancePast(IdSequence.STUDENT, student);
+        IdGenerator.advancePast(IdSequence.TEACHER, teacher);
+        IdGenerator.advancePast(IdSequence.TRANSACTION, transaction);
+    }
+
+    // writes a snapshot in the background, circulation only waits while the changing values are copied.
+    // the future completes with the journal sequence the snapshot covers, older journal segments can go after that
+    public CompletableFuture<Long> writeSnapshot(Path file) {
+        Objects.requireNonNull(file, "Snapshot file cannot be null.");
+
+        CatalogSnapshot snapshot;
+        checkpointLock.writeLock().lock();
+        try {
+            CirculationJournal current = journal;
+            snapshot = CatalogSnapshot.capture(catalog, history, dues.getReferences(),
+                    current == null ? 0 : current.lastSequence());
+        } finally {
+            checkpointLock.writeLock().unlock();
+        }
+        return CompletableFuture.supplyAsync(() -> {
+            snapshot.writeTo(file);
+            return snapshot.getJournalSequence();
+        });
+    }
+
+    private Lock enterChange() {
+        Lock lock = checkpointLock.readLock();
+        lock.lock();
+        return lock;
+    }
+
+    public CatalogRepository getCatalog() { return catalog; }
+
+    public void setJournal(CirculationJournal journal) { this.journal = journal; }
+
+    public void setEventRing(EventRing events) { this.events = events; }
+
+    public OverdueScheduler getOverdueScheduler() { return overdueScheduler; }
+
+    public LoanHistory getHistory() { return history; }
+
+    public HoldRegistry getHolds() { return holds; }
+
+    public DuesLedger getDuesLedger() { return dues; }
+
+    public CirculationMetrics getMetrics() { return metrics; }
+
+    // write-ahead, nothing has changed yet if this throws
+    private void journal(List<JournalEntry> entries) {
+        CirculationJournal current = journal;
+        if (current != null && !entries.isEmpty()) {
+            current.appendAll(entries);
+        }
+    }
+
+    private void journal(JournalEntry entry) {
+        CirculationJournal current = journal;
+        if (current != null) {
+            current.append(entry);
+        }
+    }
+
+    // after the change is made, for the side work on the ring
+    private void publish(JournalEntry entry) {
+        EventRing ring = events;
+        if (ring != null) {
+            ring.publish(entry);
+        }
+    }
+
+    // journaled before it goes into the catalog, a book added after the last snapshot must come back on restart
+    public void addBook(Book book) {
+        Objects.requireNonNull(book, "Book cannot be null.");
+
+        Lock change = enterChange();
+        try {
+            synchronized (additions) {
+                if (catalog.findBook(book.getBookID()) != null) {
+                    throw new IllegalArgumentException("Book " + book.getBookID() + " is already in the catalog.");
+                }
+                journal(List.of(JournalEntry.addBook(book)));
+                catalog.addBook(book);
+            }
+        } finally {
+            change.unlock();
+        }
+        searchIndex.add(book);
+    }
+
+    // a batch from a bulk import (see CatalogImporter), searchable once this returns
+    // the books whose id was already taken are skipped and returned, the others are in the catalog and searchable.
+    // The batch is journaled with one force()
+    public List<Book> addBooks(List<Book> books) {
+        Objects.requireNonNull(books, "Books cannot be null.");
+
+        List<Book> added = new ArrayList<>(books.size());
+        List<Book> duplicates = new ArrayList<>();
+        Lock change = enterChange();
+        try {
+            synchronized (additions) {
+                Set<String> ids = new HashSet<>();
+                List<JournalEntry> entries = new ArrayList<>(books.size());
+                for (Book book : books) {
+                    Objects.requireNonNull(book, "Book cannot be null.");
+                    if (catalog.findBook(book.getBookID()) != null || !ids.add(book.getBookID())) {
+                        duplicates.add(book);
+                    } else {
+                        added.add(book);
+                        entries.add(JournalEntry.addBook(book));
+                    }
+                }
+                journal(entries);
+                // nobody else adds while we hold "additions", so nothing comes back as a duplicate here
+                catalog.addBooks(added);
+            }
+        } finally {
+            change.unlock();
+        }
+        added.forEach(searchIndex::add);
+        return duplicates;
+    }
+
+    // journaled like addBook, with the password hash, so the member can still log in after a restart
+    public void addMember(Member member) {
+        Objects.requireNonNull(member, "Member cannot be null.");
+
+        Lock change = enterChange();
+        try {
+            synchronized (additions) {
+                if (catalog.findMember(member.getMemberID()) != null) {
+                    throw new IllegalArgumentException("Member " + member.getMemberID() + " is already registered.");
+                }
+                journal(List.of(JournalEntry.addMember(member)));
+                catalog.addMember(member);
+            }
+        } finally {
+            change.unlock();
+        }
+    }
+
+    public void removeBook(Book book) {
+        Objects.requireNonNull(book, "Book cannot be null.");
+
+        Lock change = enterChange();
+        try {
+            LocalDate today = LocalDate.now();
+            JournalEntry removal;
+            synchronized (book) {
+                if (!book.isPresent()) {
+                    throw new IllegalStateException("Book " + book.getBookID() + " is already removed");
+                }
+                Transaction currentTransaction = book.getCurrentTransaction();
+                removal = JournalEntry.removal(book.getBookID(),
+                        currentTransaction == null ? null : currentTransaction.getTransactionID(), today);
+                journal(removal);
+
+                book.removeBook();
+                if (currentTransaction != null) {
+                    // the loan ends with the copy, the borrower gets the slot back and the loan goes to the archive
+                    currentTransaction.setReturnDate(today);
+                    Member borrower = catalog.findMember(currentTransaction.getMemberID());
+                    if (borrower != null) {
+                        borrower.removeBookFromBorrowedList(book);
+                    }
+                    catalog.closeTransaction(currentTransaction);
+                    overdueScheduler.untrack(currentTransaction);
+                    history.add(currentTransaction);
+                }
+                catalog.refreshAvailability(book);
+            }
+            searchIndex.remove(book);
+            holds.cancelAll(book.getBookID());
+            publish(removal);
+        } finally {
+            change.unlock();
+        }
+    }
+
+    // same as Member.payFine but also journaled and in the ledger, so the payment survives a restart
+    public void payFine(Member member, long amount) {
+        long remaining = payDues(member, amount, null).getBalanceAfter();
+
+        if (remaining == 0) {
+            System.out.println("Your dues have been cleared!!");
+        } else {
+            System.out.println("Your Current pending dues is: ₹ " + remaining);
+        }
+    }
+
+    // non-interactive payment. Throws if the amount is more than what is due or the reference was posted before
+    public DuesLedger.Entry payDues(Member member, long amount, String reference) {
+        Objects.requireNonNull(member, "Member cannot be null.");
+
+        Lock change = enterChange();
+        try {
+            DuesLedger.Entry entry = dues.pay(member, amount, reference, LocalDate.now(), this::journal);
+            if (entry == null) {
+                throw new IllegalStateException("Payment " + reference + " was already posted.");
+            }
+            publish(entry.toJournalEntry());
+            metrics.finePaid(amount);
+            return entry;
+        } finally {
+            change.unlock();
+        }
+    }
+
+    // takes (part of) the dues off without a payment, e.g. a fine charged by mistake. The reason stays in the ledger
+    public DuesLedger.Entry waiveDues(Member member, long amount, String reason) {
+        Objects.requireNonNull(member, "Member cannot be null.");
+        Objects.requireNonNull(reason, "Reason cannot be null.");
+
+        Lock change = enterChange();
+        try {
+            DuesLedger.Entry entry = dues.waive(member, amount, reason, LocalDate.now(), this::journal);
+            publish(entry.toJournalEntry());
+            metrics.fineWaived(amount);
+            return entry;
+        } finally {
+            change.unlock();
+        }
+    }
+
+    // a fine from somewhere else than a loan of this service, e.g. a late return of this member at another branch
+    public DuesLedger.Entry chargeDues(Member member, long amount) {
+        Objects.requireNonNull(member, "Member cannot be null.");
+
+        Lock change = enterChange();
+        try {
+            DuesLedger.Entry entry = dues.charge(member, amount, null, LocalDate.now(), this::journal);
+            publish(entry.toJournalEntry());
+            metrics.fineCharged(amount);
+            return entry;
+        } finally {
+            change.unlock();
+        }
+    }
+
+    // sets the dues to what the member's own branch says they are, e.g. before a member of another branch borrows
+    // here. The difference is posted as a fine or a waiver, so the ledger still adds up to the balance.
+    // null if the dues already matched
+    public DuesLedger.Entry mirrorDues(Member member, long balance) {
+        Objects.requireNonNull(member, "Member cannot be null.");
+
+        Lock change = enterChange();
+        try {
+            DuesLedger.Entry entry = dues.adjustTo(member, balance, "Balance at the member's branch", LocalDate.now(),
+                    this::journal);
+            if (entry == null) {
+                return null;
+            }
+            publish(entry.toJournalEntry());
+            if (entry.getKind() == DuesLedger.Kind.FINE) {
+                metrics.fineCharged(entry.getAmount());
+            } else {
+                metrics.fineWaived(entry.getAmount());
+            }
+            return entry;
+        } finally {
+            change.unlock();
+        }
+    }
+
+    // posts a whole batch, e.g. the cashier's end of day sheet or the online payment report, and returns one result
+    // per payment in the same order. Payments of the same member are posted one after another in batch order,
+    // different members in parallel. A bad payment doesn't stop the batch
+    public List<PaymentResult> postPayments(List<Payment> payments) {
+        Objects.requireNonNull(payments, "Payments cannot be null.");
+
+        Map<String, List<Integer>> positionsByMember = new LinkedHashMap<>();
+        for (int i = 0; i < payments.size(); i++) {
+            Payment payment = Objects.requireNonNull(payments.get(i), "Payment cannot be null.");
+            positionsByMember.computeIfAbsent(payment.getMemberID(), id -> new ArrayList<>()).add(i);
+        }
+
+        PaymentResult[] results = new PaymentResult[payments.size()];
+        // every slot of the array is written by exactly one group, so no locking needed
+        new ArrayList<>(positionsByMember.values()).parallelStream().forEach(positions -> {
+            for (int position : positions) {
+                results[position] = post(payments.get(position));
+            }
+        });
+        return Arrays.asList(results);
+    }
+
+    private PaymentResult post(Payment payment) {
+        Member member = catalog.findMember(payment.getMemberID());
+        if (member == null) {
+            return PaymentResult.failure(payment, "No member found with ID " + payment.getMemberID());
+        }
+        Lock change = enterChange();
+        try {
+            DuesLedger.Entry entry = dues.pay(member, payment.getAmount(), payment.getReference(), LocalDate.now(),
+                    this::journal);
+            if (entry == null) {
+                return PaymentResult.duplicate(payment);
+            }
+            publish(entry.toJournalEntry());
+            metrics.finePaid(payment.getAmount());
+            return PaymentResult.posted(payment, entry);
+        } catch (RuntimeException e) {
+            return PaymentResult.failure(payment, e.getMessage());
+        } finally {
+            change.unlock();
+        }
+    }
+
+    // id based versions, so callers only need the ids printed on the card and the book
+    public void borrowBook(String bookID, String memberID, Scanner sc) {
+        borrowBook(catalog.getBook(bookID), catalog.getMember(memberID), sc);
+    }
+
+    public void returnBook(String bookID, String memberID) {
+        returnBook(catalog.getBook(bookID), catalog.getMember(memberID));
+    }
+
+    public void renewBook(String bookID, String memberID, Scanner sc) {
+        renewBook(catalog.getBook(bookID), catalog.getMember(memberID), sc);
+    }
+
     private LocalDate getDueDate(LocalDate issueDate, Scanner sc) {
         Objects.requireNonNull(issueDate, "Issue Date cannot be Null");
 
@@ -39,6 +476,13 @@ public class LibraryService {
         System.out.println("Enter the duration you want to borrow for (eg. '2' for 2 DAYS/WEEKS/MONTHS) : ");
         int duration = sc.nextInt();
 
+        return computeDueDate(issueDate, unit, duration);
+    }
+
+    private LocalDate computeDueDate(LocalDate issueDate, PeriodUnit unit, int duration) {
+        Objects.requireNonNull(issueDate, "Issue Date cannot be Null");
+        Objects.requireNonNull(unit, "Period unit cannot be null.");
+
         // here we convert the total number of days from user selection of unit
         int totalDays = switch (unit) {
             case DAYS -> duration;
@@ -52,52 +496,177 @@ public class LibraryService {
         return issueDate.plusDays(totalDays);
     }
 
+    private int computeRenewalDays(PeriodUnit unit, int duration) {
+        Objects.requireNonNull(unit, "Period unit cannot be null.");
+
+        int totalDays = switch (unit) {
+            case DAYS -> duration;
+            case WEEKS -> duration * 7;
+            case MONTHS -> throw new IllegalArgumentException("Invalid Choice! Renewal period must be in DAYS or WEEKS.");
+        };
+
+        if (totalDays <= 0 || totalDays > 14) {
+            throw new IllegalArgumentException("Renewal duration is between 1 - 14 days.");
+        }
+        return totalDays;
+    }
 
     public void borrowBook(Book book, Member member, Scanner sc) {
         Objects.requireNonNull(book, "Book cannot be null.");
         Objects.requireNonNull(member, "Member cannot be null.");
         Objects.requireNonNull(sc, "Scanner cannot be null.");
 
+        if (!checkBorrowEligibility(book, member)) {
+            System.out.println("Sorry, the book " + book.getTitle() + " is is currently not available for borrowing.");
+            return; // we exit the method if it's not available
+        }
+
+        LocalDate issueDate = LocalDate.now();
+        LocalDate calculateDueDate = this.getDueDate(issueDate, sc);
+
+        Transaction newTransaction = issue(book, member, issueDate, calculateDueDate);
+        if (newTransaction == null) {
+            // someone else checked out this copy while we were asking for the period
+            System.out.println("Sorry, the book " + book.getTitle() + " is is currently not available for borrowing.");
+            return;
+        }
+
+        System.out.println("Book '" + book.getTitle() + "' borrowed successfully by " + member.getName() + ".");
+        System.out.println("Issue Date: " + newTransaction.getIssueDate());
+        System.out.println("Due Date: " + newTransaction.getDueDate());
+    }
+
+    // non-interactive borrow, nothing is printed. Throws instead of printing when the book is not available
+    public Transaction borrowBook(Book book, Member member, PeriodUnit unit, int duration) {
+        Objects.requireNonNull(book, "Book cannot be null.");
+        Objects.requireNonNull(member, "Member cannot be null.");
+
+        LocalDate issueDate = LocalDate.now();
+        LocalDate dueDate = computeDueDate(issueDate, unit, duration);
+
+        Transaction newTransaction = checkBorrowEligibility(book, member) ? issue(book, member, issueDate, dueDate) : null;
+        if (newTransaction == null) {
+            throw new IllegalStateException("The book " + book.getBookID() + " is currently not available for borrowing.");
+        }
+        return newTransaction;
+    }
+
+    // every check that happens before we ask for the period, returns false if the book is just out on loan
+    private boolean checkBorrowEligibility(Book book, Member member) {
         if (member.getPendingDues() > 0) {
+            metrics.rejected(Rejection.DUES);
             throw new IllegalArgumentException("Clear pending dues before borrowing book.\n Your Pending Dues is: ₹ " + member.getPendingDues());
-        } else {
-            if (!book.isPresent()) {
-                throw new IllegalArgumentException("This book has been permanently removed from our collection and is no longer available for borrowing.");
-            } else if (!book.getAvailable()) {
-                System.out.println("Sorry, the book " + book.getTitle() + " is is currently not available for borrowing.");
-                return; // we exit the method if it's not available
-            }
-
-            // here we check if the selected book is appropriate for members age
-            if (book.getContentRating().equalsIgnoreCase("PG-13") && member.getAge() < 13) {
-                throw new IllegalArgumentException("Age Restriction: This content is only available for viewers 13 years of age or older.");
-            } else if (book.getContentRating().equalsIgnoreCase("R") && member.getAge() < 18) {
-                throw new IllegalArgumentException("Age Restriction: This content is only available for viewers 18 years of age or older.");
-            }
+        }
+        if (!book.isPresent()) {
+            metrics.rejected(Rejection.REMOVED);
+            throw new IllegalArgumentException("This book has been permanently removed from our collection and is no longer available for borrowing.");
+        } else if (!book.getAvailable()) {
+            metrics.rejected(Rejection.UNAVAILABLE);
+            return false;
+        }
 
-            if (member.getBorrowedBooks().size() < member.getMaxBorrowLimit()) {
+        // here we check if the selected book is appropriate for members age
+        String restriction = ageRestriction(book, member);
+        if (restriction != null) {
+            metrics.rejected(Rejection.AGE_RESTRICTION);
+            throw new IllegalArgumentException(restriction);
+        }
 
-                LocalDate issueDate = LocalDate.now();
-                LocalDate calculateDueDate = this.getDueDate(issueDate, sc);
+        if (member.getBorrowedBooks().size() >= member.getMaxBorrowLimit()) {
+            metrics.rejected(Rejection.LIMIT_REACHED);
+            throw new IllegalArgumentException("Borrowed Limit Reached");
+        }
+        return true;
+    }
 
-                Transaction newTransaction = new Transaction(
-                        member.getMemberID(),
-                        book.getBookID(),
-                        issueDate,
-                        calculateDueDate
-                );
+    // the reason the member is too young for the book, or null if they may read it
+    public static String ageRestriction(Book book, Member member) {
+        if (book.getContentRating().equalsIgnoreCase("PG-13") && member.getAge() < 13) {
+            return "Age Restriction: This content is only available for viewers 13 years of age or older.";
+        } else if (book.getContentRating().equalsIgnoreCase("R") && member.getAge() < 18) {
+            return "Age Restriction: This content is only available for viewers 18 years of age or older.";
+        }
+        return null;
+    }
 
-                book.markAsBorrowed(newTransaction);
+    // puts the member on the waiting list of a copy that is out on loan. When it comes back it is issued to the
+    // first holder who may borrow it at that moment (teachers first), for the period given here
+    public Hold placeHold(Book book, Member member, PeriodUnit unit, int duration) {
+        Objects.requireNonNull(book, "Book cannot be null.");
+        Objects.requireNonNull(member, "Member cannot be null.");
 
-                member.addBookToBorrowedList(book); // the book now is borrowed
+        LocalDate today = LocalDate.now();
+        computeDueDate(today, unit, duration); // only to reject a bad period now rather than on return
 
-                System.out.println("Book '" + book.getTitle() + "' borrowed successfully by " + member.getName() + ".");
-                System.out.println("Issue Date: " + newTransaction.getIssueDate());
-                System.out.println("Due Date: " + newTransaction.getDueDate());
+        if (!book.isPresent()) {
+            throw new IllegalArgumentException("This book has been permanently removed from our collection and is no longer available for borrowing.");
+        }
+        String restriction = ageRestriction(book, member);
+        if (restriction != null) {
+            throw new IllegalArgumentException(restriction);
+        }
+        Transaction currentTransaction = book.getCurrentTransaction();
+        if (currentTransaction == null) {
+            throw new IllegalStateException("The book " + book.getBookID() + " is available, borrow it instead.");
+        }
+        if (currentTransaction.getMemberID().equals(member.getMemberID())) {
+            throw new IllegalStateException("The book " + book.getBookID() + " is already borrowed by you.");
+        }
+        Hold hold = holds.place(member.getMemberID(), book.getBookID(), unit, duration, today);
+        metrics.holdPlaced();
+        return hold;
+    }
 
-            } else {
+    // creates the loan, returns null if another caller got the copy first
+    private Transaction issue(Book book, Member member, LocalDate issueDate, LocalDate dueDate) {
+        long start = metrics.start();
+        Transaction newTransaction = new Transaction(
+                member.getMemberID(),
+                book.getBookID(),
+                issueDate,
+                dueDate
+        );
+
+        JournalEntry issue = JournalEntry.issue(newTransaction);
+        Lock change = enterChange();
+        try {
+            // the checks before were only a quick look, these two steps are what actually decide.
+            // first we take one of the member's slots, then the copy under its lock
+            if (!member.tryAddBookToBorrowedList(book)) {
+                metrics.rejected(Rejection.LIMIT_REACHED);
                 throw new IllegalArgumentException("Borrowed Limit Reached");
             }
+            synchronized (book) {
+                if (!book.isPresent()) {
+                    member.removeBookFromBorrowedList(book); // book got removed in the meantime
+                    metrics.rejected(Rejection.REMOVED);
+                    throw new IllegalStateException("Book " + book.getBookID() + " cannot be borrowed because it has been removed.");
+                }
+                if (!book.getAvailable()) {
+                    member.removeBookFromBorrowedList(book);
+                    metrics.rejected(Rejection.UNAVAILABLE);
+                    metrics.failed(Operation.BORROW, start);
+                    return null;
+                }
+                try {
+                    journal(issue);
+                } catch (RuntimeException e) {
+                    member.removeBookFromBorrowedList(book);
+                    throw e;
+                }
+                catalog.addOpenTransaction(newTransaction);
+                overdueScheduler.track(newTransaction);
+                book.markAsBorrowed(newTransaction);
+                catalog.refreshAvailability(book);
+            }
+            publish(issue);
+            metrics.completed(Operation.BORROW, start);
+            return newTransaction;
+        } catch (RuntimeException e) {
+            metrics.failed(Operation.BORROW, start);
+            throw e;
+        } finally {
+            change.unlock();
         }
     }
 
@@ -106,110 +675,305 @@ public class LibraryService {
         Objects.requireNonNull(member, "Member cannot be null.");
 
         Transaction currentTransaction = book.getCurrentTransaction();
+        long fine = completeReturn(book, member, currentTransaction);
+
+        System.out.println("Book '" + book.getTitle() + "' returned successfully by " + member.getName() + ".");
+        System.out.println("Return Date: " + currentTransaction.getReturnDate());
+        if (fine > 0) {
+            System.out.println("Fine incurred: ₹ " + fine);
+            System.out.println("Member's total pending dues: ₹ " + member.getPendingDues());
+        } else {
+            System.out.println("No fine incurred.");
+        }
+    }
 
+    // closes the loan and posts the fine, returns the fine
+    private long completeReturn(Book book, Member member, Transaction currentTransaction) {
+        long start = metrics.start();
+        try {
+            long fine = closeLoan(book, member, currentTransaction);
+            metrics.completed(Operation.RETURN, start);
+            metrics.fineCharged(fine);
+            return fine;
+        } catch (RuntimeException e) {
+            metrics.failed(Operation.RETURN, start);
+            throw e;
+        }
+    }
+
+    private long closeLoan(Book book, Member member, Transaction currentTransaction) {
         if (currentTransaction == null) {
             throw  new IllegalStateException("Book " + book.getBookID() + " is not currently borrowed.");
         }
+        // only the borrower can return it, otherwise the slot would be freed on the wrong member
+        if (!currentTransaction.getMemberID().equals(member.getMemberID())) {
+            throw new IllegalStateException("The book " + book.getBookID() + " is currently borrowed by someone else");
+        }
 
         // Check if the book is already returned or not
         if (currentTransaction.getReturnDate() != null) {
             throw new IllegalStateException("Book " + book.getBookID() + " already returned on " + currentTransaction.getReturnDate());
         }
 
-        LocalDate returnDate = LocalDate.now();
+        Hold hold = null;
+        Transaction nextTransaction = null;
+        long fine;
+        List<JournalEntry> entries = new ArrayList<>(2);
+        Lock change = enterChange();
+        try {
+            LocalDate returnDate = LocalDate.now();
+            synchronized (book) {
+                // if two desks return the same copy only the first one gets past here
+                if (book.getCurrentTransaction() != currentTransaction || currentTransaction.getReturnDate() != null) {
+                    throw new IllegalStateException("Book " + book.getBookID() + " is no longer on loan under transaction "
+                            + currentTransaction.getTransactionID() + ".");
+                }
+
+                // if someone is waiting, the copy goes straight from this loan to theirs
+                if (holds.hasHolds(book.getBookID())) {
+                    hold = holds.next(book.getBookID(), returnDate, waiting -> takesCopy(waiting, book));
+                }
+                // the late days the overdue run didn't charge yet, nothing can charge them meanwhile
+                fine = currentTransaction.fineUntil(returnDate);
+                entries.add(JournalEntry.returned(currentTransaction, returnDate, fine));
+                try {
+                    if (hold != null) {
+                        nextTransaction = new Transaction(hold.getMemberID(), book.getBookID(), returnDate,
+                                computeDueDate(returnDate, hold.getUnit(), hold.getDuration()));
+                        entries.add(JournalEntry.issue(nextTransaction));
+                    }
+                    journal(entries);
+                } catch (RuntimeException e) {
+                    if (hold != null) {
+                        catalog.getMember(hold.getMemberID()).removeBookFromBorrowedList(book);
+                        holds.putBack(hold);
+                    }
+                    throw e;
+                }
+
+                // journaled, from here on it is only applied
+                if (nextTransaction == null) {
+                    book.markAsReturned(currentTransaction);
+                } else {
+                    catalog.addOpenTransaction(nextTransaction);
+                    overdueScheduler.track(nextTransaction);
+                    book.handOver(currentTransaction, nextTransaction);
+                    hold.fulfilled(nextTransaction);
+                }
+                currentTransaction.setReturnDate(returnDate);
+                currentTransaction.accrueFineUntil(returnDate);
+
+                // Sets Dues in Member Class, through the ledger so the fine shows up on the member's statement.
+                // the RETURN entry carries it, so the ledger doesn't journal it again
+                if (fine > 0) {
+                    dues.charge(member, fine, currentTransaction.getTransactionID(), returnDate, null);
+                }
+
+                // this removes book from users borrowedBooks arraylist
+                member.removeBookFromBorrowedList(book);
+
+                catalog.closeTransaction(currentTransaction);
+                overdueScheduler.untrack(currentTransaction);
+                history.add(currentTransaction);
+                catalog.refreshAvailability(book);
+            }
+            entries.forEach(this::publish);
+        } finally {
+            change.unlock();
+        }
+        if (hold != null) {
+            metrics.holdFulfilled();
+            holds.fulfilled(hold, nextTransaction); // listeners run outside of the checkpoint lock
+        }
+        return fine;
+    }
 
-        // set return date before calculating fine
-        currentTransaction.setReturnDate(returnDate);
+    // same checks as a borrow at the desk. A holder who can't take the copy now keeps their place in the queue.
+    // true means the holder's borrow slot is already taken
+    private boolean takesCopy(Hold hold, Book book) {
+        Member member = catalog.findMember(hold.getMemberID());
+        return member != null
+                && member.getPendingDues() == 0
+                && ageRestriction(book, member) == null
+                && member.tryAddBookToBorrowedList(book);
+    }
 
-        // Calculates fine if returnDate is past dueDate
-        currentTransaction.calculateFine();
+    public void renewBook(Book book, Member member, Scanner sc) {
+        Objects.requireNonNull(book, "Book cannot be null.");
+        Objects.requireNonNull(member, "Member cannot be null.");
 
-        // Sets Dues in Member Class
-        member.setPendingDues(member.getPendingDues() + currentTransaction.getFine());
+        // before asking for renewal time, we'll check for any late submissions
+        Transaction currentTransaction = book.getCurrentTransaction();
+        checkRenewal(book, member, currentTransaction);
+        postOverdueFine(member, currentTransaction);
 
-        currentTransaction.resetFine();
+        // here we ask for what kind of period the user wants to renew
+        System.out.println("Choose borrow period unit: ");
+        System.out.println("1. DAYS");
+        System.out.println("2. WEEKS");
+        System.out.println("Enter Choice 1 or 2: ");
 
-        // this removes book from users borrowedBooks arraylist then marks its available and then puts today's date as return date
-        member.removeBookFromBorrowedList(book);
+        int choice = sc.nextInt();
 
-        book.markAsReturned();
+        PeriodUnit unit = switch (choice) {
+            case 1 -> PeriodUnit.DAYS;
+            case 2 -> PeriodUnit.WEEKS;
+            default -> throw new IllegalArgumentException("Invalid Choice!");
+        };
 
-        System.out.println("Book '" + book.getTitle() + "' returned successfully by " + member.getName() + ".");
-        System.out.println("Return Date: " + currentTransaction.getReturnDate());
-        if (currentTransaction.getFine() > 0) {
-            System.out.println("Fine incurred: ₹ " + currentTransaction.getFine());
-            System.out.println("Member's total pending dues: ₹ " + member.getPendingDues());
-        } else {
-            System.out.println("No fine incurred.");
-        }
+        System.out.println("Enter the duration (max limit for renewal is 14 days or 2 weeks): ");
+        int duration = sc.nextInt();
+
+        // this passes renewal info to Transaction to handle everything
+        extend(book, currentTransaction, computeRenewalDays(unit, duration));
+        System.out.println("Book '" + book.getTitle() + "' successfully renewed!");
+        System.out.println("New Due Date: " + currentTransaction.getDueDate());
+        System.out.println("Renewal recorded on: " + currentTransaction.getRenewalDate()); // Good for transparency
     }
 
-    public void renewBook(Book book, Member member, Scanner sc) {
+    // non-interactive renew, nothing is printed. The period is checked first so a bad request posts no fine
+    public Transaction renewBook(Book book, Member member, PeriodUnit unit, int duration) {
         Objects.requireNonNull(book, "Book cannot be null.");
         Objects.requireNonNull(member, "Member cannot be null.");
 
-        // we took the current transaction of the book which hold its current transaction
         Transaction currentTransaction = book.getCurrentTransaction();
+        renew(book, member, currentTransaction, unit, duration);
+        return currentTransaction;
+    }
+
+    // returns the fine posted for the days it was already late
+    private long renew(Book book, Member member, Transaction currentTransaction, PeriodUnit unit, int duration) {
+        int totalDays = computeRenewalDays(unit, duration);
+        checkRenewal(book, member, currentTransaction);
+        long fine = postOverdueFine(member, currentTransaction);
+        extend(book, currentTransaction, totalDays);
+        return fine;
+    }
 
+    private void checkRenewal(Book book, Member member, Transaction currentTransaction) {
         // to check if it's even borrowed at all
         if (currentTransaction == null) {
             throw new IllegalStateException("The book " + book.getBookID() + " is currently not borrowed");
         } else if (!currentTransaction.getMemberID().equals(member.getMemberID())) {
             // now from books current transaction we can get the id of the member currently borrowing it
             throw new IllegalStateException("The book " + book.getBookID() + " is currently borrowed by someone else");
-        } else {
-            // if the book is actually borrowed and by the correct member
-            // now we can continue with our renewal process
-
-
-            // before asking for renewal time, we'll check for any late submissions
-            LocalDate currentDate = LocalDate.now();
+        }
+    }
 
-            if (currentDate.isAfter(currentTransaction.getDueDate())) {
-                // this sets fine
-                currentTransaction.calculateFine();
-                member.setPendingDues(member.getPendingDues() + currentTransaction.getFine());
+    private void extend(Book book, Transaction currentTransaction, int totalDays) {
+        long start = metrics.start();
+        Lock change = enterChange();
+        try {
+            LocalDate today = LocalDate.now();
+            JournalEntry renewal;
+            synchronized (book) {
+                if (book.getCurrentTransaction() != currentTransaction) {
+                    throw new IllegalStateException("Book " + book.getBookID() + " is no longer on loan under transaction "
+                            + currentTransaction.getTransactionID() + ".");
+                }
+                // checks the renewal, changes nothing yet
+                renewal = JournalEntry.renew(currentTransaction, today, currentTransaction.dueDateAfterRenewal(totalDays));
+                journal(renewal);
+                currentTransaction.extendDueDate(totalDays, today);
+                overdueScheduler.reschedule(currentTransaction);
             }
+            publish(renewal);
+            metrics.completed(Operation.RENEW, start);
+        } catch (RuntimeException e) {
+            metrics.failed(Operation.RENEW, start);
+            throw e;
+        } finally {
+            change.unlock();
+        }
+    }
 
-            // here we ask for what kind of period the user wants to renew
-            System.out.println("Choose borrow period unit: ");
-            System.out.println("1. DAYS");
-            System.out.println("2. WEEKS");
-            System.out.println("Enter Choice 1 or 2: ");
-
-            int choice = sc.nextInt();
-
-            PeriodUnit unit = switch (choice) {
-                case 1 -> PeriodUnit.DAYS;
-                case 2 -> PeriodUnit.WEEKS;
-                default -> throw new IllegalArgumentException("Invalid Choice!");
-            };
+    private long postOverdueFine(Member member, Transaction currentTransaction) {
+        LocalDate currentDate = LocalDate.now();
 
-            System.out.println("Enter the duration (max limit for renewal is 14 days or 2 weeks): ");
-            int duration = sc.nextInt();
+        if (currentDate.isAfter(currentTransaction.getDueDate())) {
+            return accrueFine(currentTransaction, currentDate);
+        }
+        return 0;
+    }
 
-            int totalDays = 0;
-            if (unit == PeriodUnit.DAYS) {
-                totalDays = duration;
-            } else if (unit == PeriodUnit.WEEKS) {
-                totalDays = duration * 7;
+    // charges the late days of an open loan up to "today" that weren't charged yet
+    private long accrueFine(Transaction transaction, LocalDate today) {
+        Member member = catalog.findMember(transaction.getMemberID());
+        Book book = catalog.findBook(transaction.getBorrowedBookID());
+        if (member == null || book == null) {
+            return 0;
+        }
+        Lock change = enterChange();
+        try {
+            DuesLedger.Entry entry;
+            synchronized (book) { // a return of the same loan waits, it charges the rest itself
+                if (transaction.getReturnDate() != null) {
+                    return 0;
+                }
+                long fine = transaction.fineUntil(today);
+                if (fine == 0) {
+                    return 0;
+                }
+                // the ledger journals the FINE before the balance changes
+                entry = dues.charge(member, fine, transaction.getTransactionID(), today, this::journal);
+                transaction.accrueFineUntil(today);
             }
+            publish(entry.toJournalEntry());
+            metrics.fineCharged(entry.getAmount());
+            return entry.getAmount();
+        } finally {
+            change.unlock();
+        }
+    }
 
-            if (totalDays <= 0 || totalDays > 14) {
-                throw new IllegalArgumentException("Renewal duration is between 1 - 14 days.");
+    // runs one request without any console io, failures come back as a result instead of an exception
+    public CirculationResult process(CirculationRequest request) {
+        Objects.requireNonNull(request, "Request cannot be null.");
+        try {
+            Book book = catalog.getBook(request.getBookID());
+            Member member = catalog.getMember(request.getMemberID());
+
+            if (request instanceof BorrowRequest borrow) {
+                return CirculationResult.success(request, borrowBook(book, member, borrow.getUnit(), borrow.getDuration()), 0);
+            } else if (request instanceof ReturnRequest) {
+                Transaction currentTransaction = book.getCurrentTransaction();
+                return CirculationResult.success(request, currentTransaction, completeReturn(book, member, currentTransaction));
+            } else if (request instanceof RenewRequest renew) {
+                Transaction currentTransaction = book.getCurrentTransaction();
+                long fine = renew(book, member, currentTransaction, renew.getUnit(), renew.getDuration());
+                return CirculationResult.success(request, currentTransaction, fine);
             }
+            throw new IllegalArgumentException("Unknown request type: " + request.getClass().getSimpleName());
+        } catch (RuntimeException e) {
+            return CirculationResult.failure(request, e.getMessage());
+        }
+    }
+
+    // processes a whole batch, e.g. semester start issuing, and returns one result per request in the same order.
+    // requests for the same book run one after another in batch order, different books run in parallel
+    public List<CirculationResult> processBatch(List<? extends CirculationRequest> requests) {
+        Objects.requireNonNull(requests, "Requests cannot be null.");
 
-            // this passes renewal info to Transaction to handle everything
-            currentTransaction.extendDueDate(totalDays);
-            System.out.println("Book '" + book.getTitle() + "' successfully renewed!");
-            System.out.println("New Due Date: " + currentTransaction.getDueDate());
-            System.out.println("Renewal recorded on: " + currentTransaction.getRenewalDate()); // Good for transparency
+        Map<String, List<Integer>> positionsByBook = new LinkedHashMap<>();
+        for (int i = 0; i < requests.size(); i++) {
+            CirculationRequest request = Objects.requireNonNull(requests.get(i), "Request cannot be null.");
+            positionsByBook.computeIfAbsent(request.getBookID(), id -> new ArrayList<>()).add(i);
         }
+
+        CirculationResult[] results = new CirculationResult[requests.size()];
+        // every slot of the array is written by exactly one group, so no locking needed
+        new ArrayList<>(positionsByBook.values()).parallelStream().forEach(positions -> {
+            for (int position : positions) {
+                results[position] = process(requests.get(position));
+            }
+        });
+        return Arrays.asList(results);
     }
 
-//    public void searchBook(Book book) {
-//        // we here check if a book is available or not
-//        // this will require an SQL Table
-//    }
+    // searches title, author and genre, tolerates prefixes ("harr") and one typo ("tolkein"), best match first
+    public List<Book> searchBook(String query, int limit) {
+        Objects.requireNonNull(query, "Search query cannot be null.");
+        return searchIndex.search(query, limit);
+    }
 
 }
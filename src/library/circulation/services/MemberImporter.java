@@ -0,0 +1,236 @@
+package library.circulation.services;
+
+import library.circulation.models.Member;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+// Bulk import of a new intake of members from a csv file:
+//   name,age,occupation,email,password,phoneNumber
+// The calling thread reads and validates the rows (cheap), the BCrypt hashing (expensive) runs on a pool
+// sized to the cores. At most "maxInFlight" rows wait for hashing, after that the reader blocks, so a huge
+// file never piles up in memory. Bad rows don't stop the import, they end up in the report with their line number.
+public class MemberImporter {
+
+    private static final int COLUMNS = 6;
+
+    private final Consumer<Member> sink;
+    private final int workFactor;
+    private final int threads;
+    private final int maxInFlight;
+
+    // imports straight into the service's catalog
+    public MemberImporter(LibraryService service) {
+        this(service::addMember, Member.getPasswordWorkFactor(), Runtime.getRuntime().availableProcessors(), 1024);
+    }
+
+    public MemberImporter(Consumer<Member> sink, int workFactor, int threads, int maxInFlight) {
+        if (threads <= 0 || maxInFlight <= 0) {
+            throw new IllegalArgumentException("Threads and maxInFlight must be greater than 0.");
+        }
+        if (workFactor < 4 || workFactor > 31) {
+            throw new IllegalArgumentException("BCrypt work factor must be between 4 and 31.");
+        }
+        this.sink = Objects.requireNonNull(sink, "Sink cannot be null.");
+        this.workFactor = workFactor;
+        this.threads = threads;
+        this.maxInFlight = maxInFlight;
+    }
+
+    public ImportReport importFile(Path file) {
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            return importFrom(reader);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not read " + file, e);
+        }
+    }
+
+    public ImportReport importFrom(Reader input) {
+        Objects.requireNonNull(input, "Input cannot be null.");
+
+        BufferedReader reader = input instanceof BufferedReader buffered ? buffered : new BufferedReader(input);
+        List<RowError> errors = Collections.synchronizedList(new ArrayList<>());
+        AtomicInteger imported = new AtomicInteger();
+        Semaphore inFlight = new Semaphore(maxInFlight);
+        ExecutorService hashers = Executors.newFixedThreadPool(threads);
+
+        int lineNumber = 0;
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                if (line.isBlank() || (lineNumber == 1 && line.toLowerCase().startsWith("name,"))) {
+                    continue; // empty line or header
+                }
+
+                Row row;
+                try {
+                    row = parse(line);
+                } catch (IllegalArgumentException e) {
+                    errors.add(new RowError(lineNumber, e.getMessage()));
+                    continue;
+                }
+
+                // backpressure: wait here if the hashers are "maxInFlight" rows behind
+                inFlight.acquire();
+                int rowNumber = lineNumber;
+                hashers.execute(() -> {
+                    try {
+                        String hashedPassword = Member.hashPassword(row.password, workFactor);
+                        Member member = Member.withHashedPassword(row.name, row.age, row.occupation, row.email, hashedPassword, row.phoneNumber);
+                        sink.accept(member);
+                        imported.incrementAndGet();
+                    } catch (RuntimeException e) {
+                        errors.add(new RowError(rowNumber, e.getMessage()));
+                    } finally {
+                        inFlight.release();
+                    }
+                });
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not read line " + (lineNumber + 1), e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Import interrupted at line " + lineNumber, e);
+        } finally {
+            hashers.shutdown();
+            awaitQuietly(hashers);
+        }
+
+        List<RowError> sorted = new ArrayList<>(errors);
+        sorted.sort((a, b) -> Integer.compare(a.getLineNumber(), b.getLineNumber()));
+        return new ImportReport(imported.get(), sorted);
+    }
+
+    // checks everything except the BCrypt part, with the precompiled patterns from Member
+    private static Row parse(String line) {
+        List<String> fields = splitCsv(line);
+        if (fields.size() != COLUMNS) {
+            throw new IllegalArgumentException("Expected " + COLUMNS + " columns but found " + fields.size() + ".");
+        }
+        String name = fields.get(0);
+        if (name.isEmpty()) {
+            throw new IllegalArgumentException("Name cannot be empty.");
+        }
+        int age;
+        try {
+            age = Integer.parseInt(fields.get(1));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid age: " + fields.get(1));
+        }
+        String occupation = fields.get(2).toLowerCase();
+        if (!occupation.equals("student") && !occupation.equals("teacher")) {
+            throw new IllegalArgumentException("Invalid occupation!");
+        }
+        String email = Member.verifyEmail(fields.get(3));
+        String password = Member.verifyPassword(fields.get(4));
+        return new Row(name, age, occupation, email, password, fields.get(5));
+    }
+
+    // plain comma split that also understands "quoted, values" and "" inside quotes. DuesReconciler reads its files with it too
+    static List<String> splitCsv(String line) {
+        List<String> fields = new ArrayList<>(COLUMNS);
+        StringBuilder current = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    current.append('"');
+                    i++;
+                } else if (c == '"') {
+                    quoted = false;
+                } else {
+                    current.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(current.toString().trim());
+                current.setLength(0);
+            } else {
+                current.append(c);
+            }
+        }
+        fields.add(current.toString().trim());
+        return fields;
+    }
+
+    private static void awaitQuietly(ExecutorService executor) {
+        try {
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static final class Row {
+        final String name;
+        final int age;
+        final String occupation;
+        final String email;
+        final String password;
+        final String phoneNumber;
+
+        Row(String name, int age, String occupation, String email, String password, String phoneNumber) {
+            this.name = name;
+            this.age = age;
+            this.occupation = occupation;
+            this.email = email;
+            this.password = password;
+            this.phoneNumber = phoneNumber;
+        }
+    }
+
+    public static final class RowError {
+        private final int lineNumber;
+        private final String message;
+
+        RowError(int lineNumber, String message) {
+            this.lineNumber = lineNumber;
+            this.message = message;
+        }
+
+        public int getLineNumber() { return lineNumber; }
+        public String getMessage() { return message; }
+
+        @Override
+        public String toString() {
+            return "line " + lineNumber + ": " + message;
+        }
+    }
+
+    public static final class ImportReport {
+        private final int imported;
+        private final List<RowError> errors;
+
+        ImportReport(int imported, List<RowError> errors) {
+            this.imported = imported;
+            this.errors = Collections.unmodifiableList(errors);
+        }
+
+        public int getImported() { return imported; }
+        public List<RowError> getErrors() { return errors; }
+
+        @Override
+        public String toString() {
+            return "Imported " + imported + " members, " + errors.size() + " rows rejected.";
+        }
+    }
+}
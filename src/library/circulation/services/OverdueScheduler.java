@@ -0,0 +1,176 @@
+package library.circulation.services;
+
+import library.circulation.models.Transaction;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+// Keeps every open loan in a bucket for its due day (a timing wheel with one slot per day), so the nightly run
+// only looks at the buckets whose day has passed instead of scanning all open loans.
+//
+//   - a loan enters its bucket on issue, moves on renewal and leaves on return / removal
+//   - run(today) takes the passed buckets, reports those loans as newly overdue and moves them to the overdue set
+//   - then every overdue loan gets the late days since its last charge posted to the member's dues
+//     (Transaction.accrueFineUntil remembers how far it was charged, so returnBook only adds the rest)
+//
+// so one run costs O(newly overdue + overdue) and loans that are not late are never touched.
+public class OverdueScheduler implements AutoCloseable {
+
+    private static final System.Logger LOG = System.getLogger(OverdueScheduler.class.getName());
+    // after the desks close, so the run doesn't compete with the day's traffic
+    public static final LocalTime DEFAULT_RUN_TIME = LocalTime.of(2, 0);
+
+    // posts the accrued fine of one loan, LibraryService does it under its checkpoint lock and journals it
+    interface FineAccrual {
+        long accrue(Transaction transaction, LocalDate today);
+    }
+
+    private final FineAccrual fineAccrual;
+    private final ConcurrentSkipListMap<Long, Set<Transaction>> dueBuckets = new ConcurrentSkipListMap<>();
+    // which bucket a loan is in, we need it to find the loan again on return or renewal
+    private final Map<Transaction, Long> bucketOf = new ConcurrentHashMap<>();
+    private final Set<Transaction> overdue = ConcurrentHashMap.newKeySet();
+    private final List<Consumer<Transaction>> overdueListeners = new CopyOnWriteArrayList<>();
+
+    private ScheduledExecutorService timer;
+    private LocalTime runTime;
+
+    OverdueScheduler(FineAccrual fineAccrual) {
+        this.fineAccrual = Objects.requireNonNull(fineAccrual, "Fine accrual cannot be null.");
+    }
+
+    // called once for every loan that just became overdue, e.g. to send a reminder
+    public void addOverdueListener(Consumer<Transaction> listener) {
+        overdueListeners.add(Objects.requireNonNull(listener, "Listener cannot be null."));
+    }
+
+    void track(Transaction transaction) {
+        long day = transaction.getDueDate().toEpochDay();
+        bucketOf.put(transaction, day);
+        dueBuckets.computeIfAbsent(day, d -> ConcurrentHashMap.newKeySet()).add(transaction);
+    }
+
+    void untrack(Transaction transaction) {
+        Long day = bucketOf.remove(transaction);
+        if (day != null) {
+            dueBuckets.computeIfPresent(day, (d, loans) -> {
+                loans.remove(transaction);
+                return loans.isEmpty() ? null : loans;
+            });
+        }
+        overdue.remove(transaction);
+    }
+
+    // renewal moved the due date, a loan that was overdue goes back to waiting in its new bucket
+    void reschedule(Transaction transaction) {
+        untrack(transaction);
+        track(transaction);
+    }
+
+    public List<Transaction> getOverdueLoans() {
+        return new ArrayList<>(overdue);
+    }
+
+    public int getTrackedLoans() {
+        return bucketOf.size();
+    }
+
+    // one nightly run, returns how much was added to dues in total
+    public long run(LocalDate today) {
+        Objects.requireNonNull(today, "Today cannot be null.");
+
+        // every bucket before today has passed its due date
+        Map<Long, Set<Transaction>> passed = dueBuckets.headMap(today.toEpochDay(), false);
+        for (Long day : new ArrayList<>(passed.keySet())) {
+            Set<Transaction> loans = dueBuckets.remove(day);
+            if (loans == null) {
+                continue;
+            }
+            for (Transaction transaction : loans) {
+                // the loan might have been returned since we looked at the bucket
+                if (bucketOf.remove(transaction, day) && transaction.getReturnDate() == null) {
+                    overdue.add(transaction);
+                    for (Consumer<Transaction> listener : overdueListeners) {
+                        listener.accept(transaction);
+                    }
+                }
+            }
+        }
+
+        long total = 0;
+        for (Transaction transaction : overdue) {
+            if (transaction.getReturnDate() != null) {
+                overdue.remove(transaction); // returned while we were moving it here
+                continue;
+            }
+            total += fineAccrual.accrue(transaction, today);
+        }
+        return total;
+    }
+
+    public void start() {
+        start(DEFAULT_RUN_TIME);
+    }
+
+    // runs run(LocalDate.now()) right away, for the nights the service was down, and then every night at "runTime".
+    // each run schedules the next one from the clock, so a long run or a daylight saving change doesn't move it
+    public synchronized void start(LocalTime runTime) {
+        Objects.requireNonNull(runTime, "Run time cannot be null.");
+        if (timer != null) {
+            return;
+        }
+        this.runTime = runTime;
+        timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "overdue-scheduler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        timer.execute(this::nightlyRun);
+    }
+
+    private void nightlyRun() {
+        try {
+            long fined = run(LocalDate.now());
+            LOG.log(System.Logger.Level.INFO, "Overdue run charged {0} in fines", fined);
+        } catch (RuntimeException e) {
+            // logged and tried again the next night, an uncaught one would cancel every run after it
+            LOG.log(System.Logger.Level.ERROR, "Overdue run failed", e);
+        } finally {
+            scheduleNext();
+        }
+    }
+
+    private synchronized void scheduleNext() {
+        if (timer == null) {
+            return; // closed
+        }
+        ZonedDateTime now = ZonedDateTime.now();
+        ZonedDateTime next = now.with(runTime);
+        if (!next.isAfter(now)) {
+            next = now.plusDays(1).with(runTime);
+        }
+        timer.schedule(this::nightlyRun, Duration.between(now, next).toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public synchronized void close() {
+        if (timer != null) {
+            timer.shutdownNow();
+            timer = null;
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package library.circulation.services;
+
+import java.util.Objects;
+
+// one payment towards a member's dues, e.g. a row of the cashier's end of day sheet or of the online payment report.
+// The reference (receipt number, payment id) is optional, with one the same payment is never posted twice
+public final class Payment {
+    private final String memberID;
+    private final long amount;
+    private final String reference;
+
+    public Payment(String memberID, long amount, String reference) {
+        this.memberID = Objects.requireNonNull(memberID, "Member ID cannot be null.");
+        if (amount <= 0) {
+            throw new IllegalArgumentException("Amount must be greater than 0.");
+        }
+        this.amount = amount;
+        this.reference = reference;
+    }
+
+    // getters
+    public String getMemberID() { return memberID; }
+    public long getAmount() { return amount; }
+    public String getReference() { return reference; }
+
+    @Override
+    public String toString() {
+        return "Payment of ₹ " + amount + " by " + memberID + (reference == null ? "" : " (" + reference + ")");
+    }
+}
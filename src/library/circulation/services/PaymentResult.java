@@ -0,0 +1,43 @@
+package library.circulation.services;
+
+// outcome of one Payment in a batch. A DUPLICATE was posted before (same reference) and changed nothing this time
+public final class PaymentResult {
+
+    public enum Status { POSTED, DUPLICATE, FAILED }
+
+    private final Payment payment;
+    private final Status status;
+    private final DuesLedger.Entry entry;
+    private final String message;
+
+    private PaymentResult(Payment payment, Status status, DuesLedger.Entry entry, String message) {
+        this.payment = payment;
+        this.status = status;
+        this.entry = entry;
+        this.message = message;
+    }
+
+    static PaymentResult posted(Payment payment, DuesLedger.Entry entry) {
+        return new PaymentResult(payment, Status.POSTED, entry, null);
+    }
+
+    static PaymentResult duplicate(Payment payment) {
+        return new PaymentResult(payment, Status.DUPLICATE, null, "Payment " + payment.getReference() + " was already posted.");
+    }
+
+    static PaymentResult failure(Payment payment, String message) {
+        return new PaymentResult(payment, Status.FAILED, null, message);
+    }
+
+    // getters
+    public Payment getPayment() { return payment; }
+    public Status getStatus() { return status; }
+    // the ledger entry of a posted payment, null otherwise
+    public DuesLedger.Entry getEntry() { return entry; }
+    public String getMessage() { return message; }
+
+    @Override
+    public String toString() {
+        return payment + " -> " + status + (message == null ? "" : ": " + message);
+    }
+}
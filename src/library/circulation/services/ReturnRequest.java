@@ -0,0 +1,24 @@
+package library.circulation.services;
+
+import java.util.Objects;
+
+public final class ReturnRequest implements CirculationRequest {
+    private final String bookID;
+    private final String memberID;
+
+    public ReturnRequest(String bookID, String memberID) {
+        this.bookID = Objects.requireNonNull(bookID, "Book ID cannot be null.");
+        this.memberID = Objects.requireNonNull(memberID, "Member ID cannot be null.");
+    }
+
+    // getters
+    @Override
+    public String getBookID() { return bookID; }
+    @Override
+    public String getMemberID() { return memberID; }
+
+    @Override
+    public String toString() {
+        return "Return " + bookID + " by " + memberID;
+    }
+}
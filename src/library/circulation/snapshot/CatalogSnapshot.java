@@ -0,0 +1,436 @@
+package library.circulation.snapshot;
+
+import library.circulation.history.LoanHistory;
+import library.circulation.models.Book;
+import library.circulation.models.Member;
+import library.circulation.models.Transaction;
+import library.circulation.repository.CatalogRepository;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Objects;
+
+// Compact binary snapshot of books, members, open transactions, the loan history and the payment references already
+// posted, so startup does not have to replay years of journal. Layout (all big endian):
+//
+//   magic "LIBSNAP" + format version byte
+//   long journal sequence the snapshot is consistent with (replay the journal after it)
+//   long creation time in epoch millis
+//   5 sections (books, members, transactions, history, payment references), each: int block count, then blocks of
+//     [int record count][int byte length][records]
+//
+// Every block holds at most BLOCK_RECORDS records and can be decoded on its own, so loading reads the blocks
+// sequentially and decodes them in parallel. Only the history is decoded in order, its rows keep their order.
+// Dates are stored as epoch days.
+//
+// capture() only copies the changing parts (book state, dues, open loans) into plain arrays, which is quick.
+// Archived loans never change, so of the history only the number of rows is taken.
+// writeTo() then encodes and writes everything, normally on a background thread while circulation goes on.
+public final class CatalogSnapshot {
+
+    private static final byte[] MAGIC = "LIBSNAP".getBytes(StandardCharsets.US_ASCII);
+    private static final byte FORMAT_VERSION = 1;
+    private static final int BLOCK_RECORDS = 16_384;
+    private static final int NO_DATE = Integer.MIN_VALUE;
+
+    private final long journalSequence;
+    private final Book[] books;
+    private final boolean[] bookPresent;
+    private final Member[] members;
+    private final long[] memberDues;
+    private final Transaction[] transactions;
+    private final LocalDate[] renewalDates;
+    private final LocalDate[] currentDueDates;
+    private final LocalDate[] finedThrough;
+    private final long[] fines;
+    private final LoanHistory history;
+    private final int historyRows;
+    private final String[] references;
+
+    private CatalogSnapshot(long journalSequence, Book[] books, Member[] members, Transaction[] transactions,
+                            LoanHistory history, String[] references) {
+        this.journalSequence = journalSequence;
+        this.references = references;
+        this.books = books;
+        this.members = members;
+        this.transactions = transactions;
+        this.history = history;
+        this.historyRows = history.size();
+
+        this.bookPresent = new boolean[books.length];
+        for (int i = 0; i < books.length; i++) {
+            bookPresent[i] = books[i].isPresent();
+        }
+        this.memberDues = new long[members.length];
+        for (int i = 0; i < members.length; i++) {
+            memberDues[i] = members[i].getPendingDues();
+        }
+        this.renewalDates = new LocalDate[transactions.length];
+        this.currentDueDates = new LocalDate[transactions.length];
+        this.finedThrough = new LocalDate[transactions.length];
+        this.fines = new long[transactions.length];
+        for (int i = 0; i < transactions.length; i++) {
+            renewalDates[i] = transactions[i].getRenewalDate();
+            currentDueDates[i] = transactions[i].getDueDate();
+            finedThrough[i] = transactions[i].getFinedThrough();
+            fines[i] = transactions[i].getFine();
+        }
+    }
+
+    // the caller makes sure nothing changes while this runs (LibraryService holds its checkpoint lock)
+    public static CatalogSnapshot capture(CatalogRepository catalog, LoanHistory history, Collection<String> references,
+                                          long journalSequence) {
+        Objects.requireNonNull(catalog, "Catalog cannot be null.");
+        Objects.requireNonNull(history, "History cannot be null.");
+        Objects.requireNonNull(references, "References cannot be null.");
+        return new CatalogSnapshot(journalSequence,
+                catalog.allBooks().toArray(new Book[0]),
+                catalog.allMembers().toArray(new Member[0]),
+                catalog.allOpenTransactions().toArray(new Transaction[0]),
+                history,
+                references.toArray(new String[0]));
+    }
+
+    public long getJournalSequence() { return journalSequence; }
+
+    // ---------- writing ----------
+
+    // writes to a temp file first and then renames it, so a crash never leaves half a snapshot behind
+    public Path writeTo(Path file) {
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+
+            ByteBuffer header = ByteBuffer.allocate(MAGIC.length + 1 + 8 + 8);
+            header.put(MAGIC).put(FORMAT_VERSION).putLong(journalSequence).putLong(System.currentTimeMillis());
+            writeFully(out, header.flip());
+
+            writeSection(out, books.length, this::writeBook);
+            writeSection(out, members.length, this::writeMember);
+            writeSection(out, transactions.length, this::writeTransaction);
+            writeHistory(out);
+            writeSection(out, references.length, (data, index) -> data.writeUTF(references[index]));
+
+            out.force(true);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not write snapshot " + file, e);
+        }
+        try {
+            return Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not move snapshot into place " + file, e);
+        }
+    }
+
+    private interface RecordWriter {
+        void write(DataOutputStream out, int index) throws IOException;
+    }
+
+    private static void writeSection(FileChannel out, int count, RecordWriter writer) throws IOException {
+        int blocks = (count + BLOCK_RECORDS - 1) / BLOCK_RECORDS;
+        writeFully(out, ByteBuffer.allocate(4).putInt(blocks).flip());
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(BLOCK_RECORDS * 64);
+        for (int block = 0; block < blocks; block++) {
+            int from = block * BLOCK_RECORDS;
+            int to = Math.min(count, from + BLOCK_RECORDS);
+
+            bytes.reset();
+            DataOutputStream data = new DataOutputStream(bytes);
+            for (int i = from; i < to; i++) {
+                writer.write(data, i);
+            }
+            data.flush();
+
+            writeFully(out, ByteBuffer.allocate(8).putInt(to - from).putInt(bytes.size()).flip());
+            writeFully(out, ByteBuffer.wrap(bytes.toByteArray()));
+        }
+    }
+
+    // same block layout as writeSection, the rows are read straight out of the archive's columns
+    private void writeHistory(FileChannel out) throws IOException {
+        int blocks = (historyRows + BLOCK_RECORDS - 1) / BLOCK_RECORDS;
+        writeFully(out, ByteBuffer.allocate(4).putInt(blocks).flip());
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(BLOCK_RECORDS * 48);
+        for (int block = 0; block < blocks; block++) {
+            int from = block * BLOCK_RECORDS;
+            int to = Math.min(historyRows, from + BLOCK_RECORDS);
+
+            bytes.reset();
+            DataOutputStream data = new DataOutputStream(bytes);
+            try {
+                history.query().rows(from, to).forEach(row -> {
+                    try {
+                        writeHistoryRow(data, row);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            data.flush();
+
+            writeFully(out, ByteBuffer.allocate(8).putInt(to - from).putInt(bytes.size()).flip());
+            writeFully(out, ByteBuffer.wrap(bytes.toByteArray()));
+        }
+    }
+
+    private static void writeHistoryRow(DataOutputStream out, LoanHistory.Row row) throws IOException {
+        out.writeUTF(row.getTransactionID());
+        out.writeUTF(row.getMemberID());
+        out.writeUTF(row.getBookID());
+        out.writeInt(row.getIssueDay());
+        out.writeInt(row.getDueDay());
+        out.writeInt(row.getReturnDay());
+        out.writeInt(row.getRenewalDay());
+        out.writeLong(row.getFine());
+        out.writeByte(row.getRenewalCount());
+    }
+
+    private void writeBook(DataOutputStream out, int index) throws IOException {
+        Book book = books[index];
+        out.writeUTF(book.getBookID());
+        writeString(out, book.getTitle());
+        writeString(out, book.getAuthor());
+        writeString(out, book.getGenre());
+        writeString(out, book.getContentRating());
+        out.writeBoolean(bookPresent[index]);
+    }
+
+    private void writeMember(DataOutputStream out, int index) throws IOException {
+        Member member = members[index];
+        out.writeUTF(member.getMemberID());
+        writeString(out, member.getName());
+        out.writeInt(member.getAge());
+        writeString(out, member.getOccupation());
+        writeString(out, member.getEmail());
+        writeString(out, member.getHashedPassword());
+        writeString(out, member.getPhoneNumber());
+        writeDate(out, member.getJoinDate());
+        out.writeInt(member.getMaxBorrowLimit());
+        out.writeLong(memberDues[index]);
+    }
+
+    private void writeTransaction(DataOutputStream out, int index) throws IOException {
+        Transaction transaction = transactions[index];
+        out.writeUTF(transaction.getTransactionID());
+        out.writeUTF(transaction.getMemberID());
+        out.writeUTF(transaction.getBorrowedBookID());
+        writeDate(out, transaction.getIssueDate());
+        writeDate(out, transaction.getOriginalDueDate());
+        writeDate(out, renewalDates[index]);
+        writeDate(out, renewalDates[index] == null ? null : currentDueDates[index]);
+        writeDate(out, finedThrough[index]);
+        out.writeLong(fines[index]);
+    }
+
+    // ---------- loading ----------
+
+    // loads the snapshot into an empty catalog and history, adds the payment references to "references" and returns
+    // the journal sequence to replay from
+    public static long load(Path file, CatalogRepository catalog, LoanHistory history, Collection<String> references) {
+        Objects.requireNonNull(catalog, "Catalog cannot be null.");
+        Objects.requireNonNull(history, "History cannot be null.");
+        Objects.requireNonNull(references, "References cannot be null.");
+
+        try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer header = readFully(in, MAGIC.length + 1 + 8 + 8);
+            byte[] magic = new byte[MAGIC.length];
+            header.get(magic);
+            if (!Arrays.equals(magic, MAGIC)) {
+                throw new IllegalArgumentException(file + " is not a library snapshot.");
+            }
+            byte version = header.get();
+            if (version != FORMAT_VERSION) {
+                throw new IllegalArgumentException("Unsupported snapshot version " + version + ".");
+            }
+            long journalSequence = header.getLong();
+            header.getLong(); // creation time, only informative
+
+            // books and members don't depend on each other, transactions need both loaded first
+            decodeParallel(readSection(in), data -> catalog.addBook(readBook(data)));
+            decodeParallel(readSection(in), data -> catalog.addMember(readMember(data)));
+            decodeParallel(readSection(in), data -> restoreTransaction(readTransaction(data), catalog));
+            decodeInOrder(readSection(in), data -> readHistoryRow(data, history));
+            decodeInOrder(readSection(in), data -> references.add(data.readUTF()));
+            return journalSequence;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not read snapshot " + file, e);
+        }
+    }
+
+    private interface RecordReader {
+        void read(DataInputStream in) throws IOException;
+    }
+
+    private static final class Block {
+        final int records;
+        final byte[] bytes;
+
+        Block(int records, byte[] bytes) {
+            this.records = records;
+            this.bytes = bytes;
+        }
+    }
+
+    // reading the file is sequential, the blocks are only decoded afterwards
+    private static List<Block> readSection(FileChannel in) throws IOException {
+        int blocks = readFully(in, 4).getInt();
+        List<Block> section = new ArrayList<>(blocks);
+        for (int i = 0; i < blocks; i++) {
+            ByteBuffer blockHeader = readFully(in, 8);
+            int records = blockHeader.getInt();
+            int length = blockHeader.getInt();
+            section.add(new Block(records, readFully(in, length).array()));
+        }
+        return section;
+    }
+
+    private static void decodeParallel(List<Block> section, RecordReader reader) {
+        section.parallelStream().forEach(block -> {
+            DataInputStream data = new DataInputStream(new ByteArrayInputStream(block.bytes));
+            try {
+                for (int i = 0; i < block.records; i++) {
+                    reader.read(data);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException("Corrupt snapshot block", e);
+            }
+        });
+    }
+
+    private static void decodeInOrder(List<Block> section, RecordReader reader) {
+        for (Block block : section) {
+            DataInputStream data = new DataInputStream(new ByteArrayInputStream(block.bytes));
+            try {
+                for (int i = 0; i < block.records; i++) {
+                    reader.read(data);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException("Corrupt snapshot block", e);
+            }
+        }
+    }
+
+    private static void readHistoryRow(DataInputStream in, LoanHistory history) throws IOException {
+        String transactionID = in.readUTF();
+        String memberID = in.readUTF();
+        String bookID = in.readUTF();
+        int issueDay = in.readInt();
+        int dueDay = in.readInt();
+        int returnDay = in.readInt();
+        int renewalDay = in.readInt();
+        long fine = in.readLong();
+        int renewalCount = in.readByte();
+        history.restore(transactionID, memberID, bookID, issueDay, dueDay, returnDay, renewalDay, fine, renewalCount);
+    }
+
+    private static Book readBook(DataInputStream in) throws IOException {
+        String bookID = in.readUTF();
+        String title = readString(in);
+        String author = readString(in);
+        String genre = readString(in);
+        String contentRating = readString(in);
+        boolean present = in.readBoolean();
+        return Book.restore(bookID, title, author, genre, contentRating, present);
+    }
+
+    private static Member readMember(DataInputStream in) throws IOException {
+        String memberID = in.readUTF();
+        String name = readString(in);
+        int age = in.readInt();
+        String occupation = readString(in);
+        String email = readString(in);
+        String hashedPassword = readString(in);
+        String phoneNumber = readString(in);
+        LocalDate joinDate = readDate(in);
+        int maxBorrowLimit = in.readInt();
+        long pendingDues = in.readLong();
+        return Member.restore(memberID, name, age, occupation, email, hashedPassword, phoneNumber, joinDate, maxBorrowLimit, pendingDues);
+    }
+
+    private static Transaction readTransaction(DataInputStream in) throws IOException {
+        String transactionID = in.readUTF();
+        String memberID = in.readUTF();
+        String bookID = in.readUTF();
+        LocalDate issueDate = readDate(in);
+        LocalDate dueDate = readDate(in);
+        LocalDate renewalDate = readDate(in);
+        LocalDate extendedDueDate = readDate(in);
+        LocalDate finedThrough = readDate(in);
+        long fine = in.readLong();
+
+        Transaction transaction = Transaction.restore(transactionID, memberID, bookID, issueDate, dueDate);
+        if (renewalDate != null) {
+            transaction.restoreRenewal(renewalDate, extendedDueDate);
+        }
+        transaction.restoreFines(finedThrough, fine);
+        return transaction;
+    }
+
+    private static void restoreTransaction(Transaction transaction, CatalogRepository catalog) {
+        Book book = catalog.getBook(transaction.getBorrowedBookID());
+        Member member = catalog.getMember(transaction.getMemberID());
+        book.markAsBorrowed(transaction);
+        member.addBookToBorrowedList(book);
+        catalog.addOpenTransaction(transaction);
+        catalog.refreshAvailability(book);
+    }
+
+    // ---------- helpers ----------
+
+    // writeUTF can't store null, so every nullable string gets a flag in front
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    private static void writeDate(DataOutputStream out, LocalDate date) throws IOException {
+        out.writeInt(date == null ? NO_DATE : (int) date.toEpochDay());
+    }
+
+    private static LocalDate readDate(DataInputStream in) throws IOException {
+        int epochDay = in.readInt();
+        return epochDay == NO_DATE ? null : LocalDate.ofEpochDay(epochDay);
+    }
+
+    private static void writeFully(FileChannel out, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+    }
+
+    private static ByteBuffer readFully(FileChannel in, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (in.read(buffer) < 0) {
+                throw new IOException("Snapshot ends too early.");
+            }
+        }
+        return buffer.flip();
+    }
+}
@@ -0,0 +1,331 @@
+package library.circulation.storage;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+
+// Embedded RecordStore in one append-only file, nothing to install or run next to the library.
+//
+// Every write appends a record, a delete appends a tombstone, nothing in the file is ever overwritten:
+//
+//   [int body length][int crc32 of the body][body: byte kind, UTF id, codec bytes (puts only)]
+//
+// Only the ids stay on the heap, with where their newest record starts and how long it is, so a lookup is one map get
+// and one positional read. Opening the file reads it once from the front to build that index; a torn record at the
+// end (crash in the middle of a write) fails its checksum and is cut off.
+//
+// Older versions of a record are garbage. Once there is more garbage than live data the live records are copied to a
+// new file which then replaces the old one (compact), lookups wait for that.
+public class FileRecordStore<V> implements RecordStore<V> {
+
+    private static final byte PUT = 1;
+    private static final byte DELETE = 2;
+    private static final int HEADER = 8;
+    // the length shares a long with the position in the index
+    private static final int LENGTH_BITS = 24;
+    private static final int MAX_RECORD = (1 << LENGTH_BITS) - 1;
+    // don't bother compacting below this much garbage
+    private static final long MIN_COMPACT_BYTES = 16L << 20;
+
+    private final Path file;
+    private final RecordCodec<V> codec;
+    // id -> position << LENGTH_BITS | record length
+    private final Map<String, Long> index = new ConcurrentHashMap<>();
+    // lookups and appends share it, compact takes it alone because it swaps the channel
+    private final ReentrantReadWriteLock channelLock = new ReentrantReadWriteLock();
+
+    private volatile FileChannel channel;
+    // guarded by "this"
+    private long end;
+    private long liveBytes;
+    private long garbageBytes;
+
+    public FileRecordStore(Path file, RecordCodec<V> codec) {
+        this.file = Objects.requireNonNull(file, "File cannot be null.");
+        this.codec = Objects.requireNonNull(codec, "Codec cannot be null.");
+        try {
+            channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            end = readIndex();
+            if (end < channel.size()) {
+                channel.truncate(end); // the torn tail, appends continue after the last good record
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not open record store " + file, e);
+        }
+    }
+
+    @Override
+    public V load(String id) {
+        Objects.requireNonNull(id, "ID cannot be null.");
+
+        channelLock.readLock().lock();
+        try {
+            Long location = index.get(id);
+            if (location == null) {
+                return null;
+            }
+            ByteBuffer record = readAt(channel, location >>> LENGTH_BITS, (int) (location & MAX_RECORD));
+            DataInputStream in = new DataInputStream(
+                    new ByteArrayInputStream(record.array(), HEADER, record.capacity() - HEADER));
+            in.readByte(); // kind, always PUT for an id in the index
+            in.readUTF();
+            return codec.read(in);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not read record " + id + " from " + file, e);
+        } finally {
+            channelLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void store(String id, V record) {
+        Objects.requireNonNull(id, "ID cannot be null.");
+        Objects.requireNonNull(record, "Record cannot be null.");
+        storeAll(Map.of(id, record));
+    }
+
+    // the whole batch goes to disk in one write and one force
+    @Override
+    public synchronized void storeAll(Map<String, V> records) {
+        Objects.requireNonNull(records, "Records cannot be null.");
+        if (records.isEmpty()) {
+            return;
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(records.size() * 128);
+        String[] ids = new String[records.size()];
+        int[] lengths = new int[ids.length];
+        int i = 0;
+        for (Map.Entry<String, V> entry : records.entrySet()) {
+            ids[i] = Objects.requireNonNull(entry.getKey(), "ID cannot be null.");
+            lengths[i] = encode(bytes, PUT, ids[i], Objects.requireNonNull(entry.getValue(), "Record cannot be null."));
+            i++;
+        }
+        append(bytes, ids, lengths, PUT);
+    }
+
+    @Override
+    public synchronized void delete(String id) {
+        Objects.requireNonNull(id, "ID cannot be null.");
+        if (!index.containsKey(id)) {
+            return;
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        int length = encode(bytes, DELETE, id, null);
+        append(bytes, new String[] {id}, new int[] {length}, DELETE);
+    }
+
+    @Override
+    public int size() {
+        return index.size();
+    }
+
+    // bytes in the file that belong to overwritten or deleted records
+    public synchronized long getGarbageBytes() {
+        return garbageBytes;
+    }
+
+    public synchronized long getFileBytes() {
+        return end;
+    }
+
+    // copies the live records into a fresh file and swaps it in
+    public synchronized void compact() {
+        Path temp = file.resolveSibling(file.getFileName() + ".compact");
+        channelLock.writeLock().lock();
+        try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+
+            long position = 0;
+            Map<String, Long> moved = new HashMap<>(index.size() * 2);
+            for (Map.Entry<String, Long> entry : index.entrySet()) {
+                long location = entry.getValue();
+                int length = (int) (location & MAX_RECORD);
+                writeFully(out, readAt(channel, location >>> LENGTH_BITS, length), position);
+                moved.put(entry.getKey(), position << LENGTH_BITS | length);
+                position += length;
+            }
+            out.force(true);
+
+            // if anything above fails the old file, channel and index are all still good
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            channel.close();
+            channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            index.putAll(moved);
+            end = position;
+            liveBytes = position;
+            garbageBytes = 0;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not compact record store " + file, e);
+        } finally {
+            channelLock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        channelLock.writeLock().lock();
+        try {
+            channel.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not close record store " + file, e);
+        } finally {
+            channelLock.writeLock().unlock();
+        }
+    }
+
+    // ---------- writing ----------
+
+    // appends one record to "bytes" and returns its length, header included
+    private int encode(ByteArrayOutputStream bytes, byte kind, String id, V record) {
+        int start = bytes.size();
+        try {
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeLong(0); // header, filled in below once the body is known
+            out.writeByte(kind);
+            out.writeUTF(id);
+            if (record != null) {
+                codec.write(out, record);
+            }
+            out.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not encode record " + id, e);
+        }
+        int length = bytes.size() - start;
+        if (length > MAX_RECORD) {
+            throw new IllegalArgumentException("Record " + id + " is larger than " + MAX_RECORD + " bytes.");
+        }
+        return length;
+    }
+
+    // called under "this". The index only learns about the records once they are on disk
+    private void append(ByteArrayOutputStream bytes, String[] ids, int[] lengths, byte kind) {
+        byte[] batch = bytes.toByteArray();
+        CRC32 crc = new CRC32();
+        int offset = 0;
+        for (int length : lengths) {
+            crc.reset();
+            crc.update(batch, offset + HEADER, length - HEADER);
+            ByteBuffer.wrap(batch, offset, HEADER).putInt(length - HEADER).putInt((int) crc.getValue());
+            offset += length;
+        }
+
+        channelLock.readLock().lock();
+        try {
+            writeFully(channel, ByteBuffer.wrap(batch), end);
+            channel.force(false);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not write to record store " + file, e);
+        } finally {
+            channelLock.readLock().unlock();
+        }
+
+        long position = end;
+        for (int i = 0; i < ids.length; i++) {
+            Long old = kind == PUT ? index.put(ids[i], position << LENGTH_BITS | lengths[i]) : index.remove(ids[i]);
+            if (old != null) {
+                long oldLength = old & MAX_RECORD;
+                liveBytes -= oldLength;
+                garbageBytes += oldLength;
+            }
+            if (kind == PUT) {
+                liveBytes += lengths[i];
+            } else {
+                garbageBytes += lengths[i]; // a tombstone is only needed until the next compaction
+            }
+            position += lengths[i];
+        }
+        end = position;
+
+        if (garbageBytes > MIN_COMPACT_BYTES && garbageBytes > liveBytes) {
+            compact();
+        }
+    }
+
+    // ---------- opening ----------
+
+    // reads every record from the front and returns where the last good one ends
+    private long readIndex() throws IOException {
+        long position = 0;
+        CRC32 crc = new CRC32();
+        InputStream stream = new BufferedInputStream(Channels.newInputStream(channel.position(0)), 1 << 16);
+        DataInputStream in = new DataInputStream(stream);
+        byte[] body = new byte[256];
+        while (true) {
+            int bodyLength;
+            int checksum;
+            try {
+                bodyLength = in.readInt();
+                checksum = in.readInt();
+                if (bodyLength <= 0 || bodyLength > MAX_RECORD - HEADER) {
+                    return position;
+                }
+                if (body.length < bodyLength) {
+                    body = new byte[Math.max(bodyLength, body.length * 2)];
+                }
+                in.readFully(body, 0, bodyLength);
+            } catch (EOFException e) {
+                return position;
+            }
+            crc.reset();
+            crc.update(body, 0, bodyLength);
+            if ((int) crc.getValue() != checksum) {
+                return position;
+            }
+
+            DataInputStream record = new DataInputStream(new ByteArrayInputStream(body, 0, bodyLength));
+            byte kind = record.readByte();
+            String id = record.readUTF();
+            int length = HEADER + bodyLength;
+            Long old = kind == PUT ? index.put(id, position << LENGTH_BITS | length) : index.remove(id);
+            if (old != null) {
+                long oldLength = old & MAX_RECORD;
+                liveBytes -= oldLength;
+                garbageBytes += oldLength;
+            }
+            if (kind == PUT) {
+                liveBytes += length;
+            } else {
+                garbageBytes += length;
+            }
+            position += length;
+        }
+    }
+
+    // ---------- helpers ----------
+
+    private static ByteBuffer readAt(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException("Record store ends too early.");
+            }
+        }
+        return buffer.flip();
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer, position + buffer.position());
+        }
+    }
+}
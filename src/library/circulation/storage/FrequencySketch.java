@@ -0,0 +1,69 @@
+package library.circulation.storage;
+
+// How often each key was asked for lately, approximately: a count-min sketch with 4 bit counters, 16 in a long.
+// A key hashes to one counter in each of 4 rows and its frequency is the smallest of the 4, so collisions can only make
+// a key look more popular, never less.
+//
+// Counters stop at 15. After 10 increments per cached entry all counters are halved, so what was popular last week
+// fades and the sketch stays about recent traffic. Memory is one long per cached entry, whatever the number of keys.
+// Not thread safe, RecordCache only touches it under its policy lock
+final class FrequencySketch {
+
+    private static final long[] SEEDS = {0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L};
+    private static final long RESET_MASK = 0x7777777777777777L;
+
+    private final long[] table;
+    private final int tableMask;
+    private final int sampleSize;
+    private int additions;
+
+    FrequencySketch(int maximumSize) {
+        int length = Integer.highestOneBit(Math.max(maximumSize, 16) - 1) << 1;
+        table = new long[length];
+        tableMask = length - 1;
+        sampleSize = 10 * Math.max(maximumSize, 16);
+    }
+
+    int frequency(int hash) {
+        int frequency = Integer.MAX_VALUE;
+        for (int row = 0; row < 4; row++) {
+            frequency = Math.min(frequency, (int) ((table[indexOf(hash, row)] >>> offsetOf(hash, row)) & 15));
+        }
+        return frequency;
+    }
+
+    void increment(int hash) {
+        boolean added = false;
+        for (int row = 0; row < 4; row++) {
+            int index = indexOf(hash, row);
+            int offset = offsetOf(hash, row);
+            if (((table[index] >>> offset) & 15) != 15) {
+                table[index] += 1L << offset;
+                added = true;
+            }
+        }
+        if (added && ++additions == sampleSize) {
+            halve();
+        }
+    }
+
+    // ages every counter, the odd ones lose their last bit
+    private void halve() {
+        for (int i = 0; i < table.length; i++) {
+            table[i] = (table[i] >>> 1) & RESET_MASK;
+        }
+        additions /= 2;
+    }
+
+    // each row picks its own long, mixed with its own seed
+    private int indexOf(int hash, int row) {
+        long h = (hash + SEEDS[row]) * SEEDS[row];
+        h += h >>> 32;
+        return (int) h & tableMask;
+    }
+
+    // and one of the 16 counters in it, a different nibble of the hash per row
+    private static int offsetOf(int hash, int row) {
+        return ((hash >>> (row << 2)) & 15) << 2;
+    }
+}
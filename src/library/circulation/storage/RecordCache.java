@@ -0,0 +1,440 @@
+package library.circulation.storage;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Size bounded cache in front of a RecordStore, so the hot books and the active members are served from memory while
+// the long tail stays in the store.
+//
+// Reads go through: a miss loads the record from the store and keeps it. Writes go behind: store() and delete() only
+// change the cache and queue the change, a background thread hands the queue to the store in batches (storeAll) every
+// flush interval, or sooner once a batch is full. Until then a read finds the queued change, evicted or not.
+//
+// Which records stay is decided W-TinyLFU style. New records start in a small window (1% of the entries) kept in LRU
+// order. What falls out of the window only gets into the main part (probation + protected, LRU each) if it was asked
+// for more often than the record it would push out, FrequencySketch counts that. A record hit again in probation
+// moves up to protected. So a one-off scan over the whole catalog passes through the window without pushing out the
+// books people actually borrow, while a book that gets popular is let in after a few hits.
+//
+// The map of cached records is a ConcurrentHashMap, a hit never waits. The LRU lists and the sketch sit behind one
+// lock: a hit only updates them if it gets the lock right away (tryLock) and is skipped otherwise, which loses a bit of
+// accuracy under heavy load but keeps the readers from queueing up on it. Misses and writes always take it.
+//
+// usage:
+//     RecordStore<Book> books = new RecordCache<>(new FileRecordStore<>(path, RecordCodec.BOOK), 100_000);
+//     Book book = books.load("FAN_1001");
+//     ...
+//     books.close(); // flushes what is still queued
+public class RecordCache<V> implements RecordStore<V> {
+
+    private static final System.Logger LOG = System.getLogger(RecordCache.class.getName());
+    private static final int WINDOW_PERCENT = 1;
+    private static final int PROTECTED_PERCENT = 80;
+    // writes per storeAll call
+    private static final int FLUSH_BATCH = 4096;
+    // a writer that finds this many writes still queued flushes itself instead of queueing more
+    private static final int MAX_PENDING = 16 * FLUSH_BATCH;
+    private static final long DEFAULT_FLUSH_MILLIS = 200;
+
+    private final RecordStore<V> store;
+    private final int maximumSize;
+    private final int windowMax;
+    private final int protectedMax;
+
+    private final Map<String, Node<V>> data = new ConcurrentHashMap<>();
+    // id -> newest change not in the store yet
+    private final Map<String, Write<V>> pendingWrites = new ConcurrentHashMap<>();
+
+    // all of these only under the policy lock
+    private final ReentrantLock policyLock = new ReentrantLock();
+    private final FrequencySketch sketch;
+    private final Lru<V> window = new Lru<>();
+    private final Lru<V> probation = new Lru<>();
+    private final Lru<V> protectedRecords = new Lru<>();
+
+    private final Object flushLock = new Object();
+    private final ScheduledExecutorService flusher;
+    private final AtomicBoolean flushRequested = new AtomicBoolean();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder storeLoads = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder writesFlushed = new LongAdder();
+    private final LongAdder flushFailures = new LongAdder();
+
+    public RecordCache(RecordStore<V> store, int maximumSize) {
+        this(store, maximumSize, DEFAULT_FLUSH_MILLIS);
+    }
+
+    public RecordCache(RecordStore<V> store, int maximumSize, long flushIntervalMillis) {
+        this.store = Objects.requireNonNull(store, "Store cannot be null.");
+        if (maximumSize <= 0) {
+            throw new IllegalArgumentException("Maximum size must be greater than 0.");
+        }
+        if (flushIntervalMillis <= 0) {
+            throw new IllegalArgumentException("Flush interval must be greater than 0.");
+        }
+        this.maximumSize = maximumSize;
+        this.windowMax = Math.max(1, (int) ((long) maximumSize * WINDOW_PERCENT / 100));
+        this.protectedMax = (int) ((long) (maximumSize - windowMax) * PROTECTED_PERCENT / 100);
+        this.sketch = new FrequencySketch(maximumSize);
+
+        flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "record-cache-flush");
+            thread.setDaemon(true);
+            return thread;
+        });
+        flusher.scheduleWithFixedDelay(this::flushInBackground, flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    // ---------- RecordStore ----------
+
+    @Override
+    public V load(String id) {
+        Objects.requireNonNull(id, "ID cannot be null.");
+
+        Node<V> node = data.get(id);
+        if (node != null) {
+            hits.increment();
+            afterRead(node);
+            return node.value;
+        }
+
+        misses.increment();
+        boolean[] loaded = new boolean[1];
+        // concurrent misses on the same id wait for one load instead of all going to the store
+        node = data.computeIfAbsent(id, key -> {
+            V value = loadMissing(key);
+            if (value == null) {
+                return null;
+            }
+            loaded[0] = true;
+            return new Node<>(key, value);
+        });
+        if (node == null) {
+            return null;
+        }
+        if (loaded[0]) {
+            afterWrite(node);
+        } else {
+            afterRead(node);
+        }
+        return node.value;
+    }
+
+    @Override
+    public void store(String id, V record) {
+        Objects.requireNonNull(id, "ID cannot be null.");
+        Objects.requireNonNull(record, "Record cannot be null.");
+
+        // queued before the cache changes, so a miss on this id in between can't read the old record from the store
+        pendingWrites.put(id, new Write<>(record));
+        boolean[] created = new boolean[1];
+        Node<V> node = data.compute(id, (key, existing) -> {
+            if (existing != null) {
+                existing.value = record;
+                return existing;
+            }
+            created[0] = true;
+            return new Node<>(key, record);
+        });
+        if (created[0]) {
+            afterWrite(node);
+        } else {
+            afterRead(node);
+        }
+        afterQueued();
+    }
+
+    @Override
+    public void delete(String id) {
+        Objects.requireNonNull(id, "ID cannot be null.");
+
+        pendingWrites.put(id, new Write<>(null));
+        Node<V> node = data.remove(id);
+        if (node != null) {
+            policyLock.lock();
+            try {
+                unlink(node);
+            } finally {
+                policyLock.unlock();
+            }
+        }
+        afterQueued();
+    }
+
+    // what the store holds, writes still waiting for the flush are not counted
+    @Override
+    public int size() {
+        return store.size();
+    }
+
+    // hands every queued write to the store now
+    public void flush() {
+        synchronized (flushLock) { // one flush at a time, so an older write never lands after a newer one
+            int rounds = pendingWrites.size() / FLUSH_BATCH + 1;
+            for (int round = 0; round < rounds && !pendingWrites.isEmpty(); round++) {
+                Map<String, Write<V>> batch = new HashMap<>();
+                Map<String, V> records = new HashMap<>();
+                for (Map.Entry<String, Write<V>> entry : pendingWrites.entrySet()) {
+                    batch.put(entry.getKey(), entry.getValue());
+                    if (entry.getValue().record != null) {
+                        records.put(entry.getKey(), entry.getValue().record);
+                    }
+                    if (batch.size() == FLUSH_BATCH) {
+                        break;
+                    }
+                }
+
+                store.storeAll(records);
+                for (Map.Entry<String, Write<V>> entry : batch.entrySet()) {
+                    if (entry.getValue().record == null) {
+                        store.delete(entry.getKey());
+                    }
+                }
+                // only the write we stored leaves the queue, a newer one for the same id waits for the next round
+                for (Map.Entry<String, Write<V>> entry : batch.entrySet()) {
+                    pendingWrites.remove(entry.getKey(), entry.getValue());
+                }
+                writesFlushed.add(batch.size());
+            }
+        }
+    }
+
+    // stops the flusher, flushes what is left and closes the store
+    @Override
+    public void close() {
+        flusher.shutdown();
+        try {
+            flusher.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flush();
+        store.close();
+    }
+
+    // ---------- metrics ----------
+
+    public long getHits() { return hits.sum(); }
+    public long getMisses() { return misses.sum(); }
+    // misses the store had a record for, the rest were unknown ids or still queued
+    public long getStoreLoads() { return storeLoads.sum(); }
+    public long getEvictions() { return evictions.sum(); }
+    public long getWritesFlushed() { return writesFlushed.sum(); }
+    public long getFlushFailures() { return flushFailures.sum(); }
+    public int getPendingWrites() { return pendingWrites.size(); }
+    public int getCachedRecords() { return data.size(); }
+    public int getMaximumSize() { return maximumSize; }
+
+    public double getHitRate() {
+        long hitCount = hits.sum();
+        long total = hitCount + misses.sum();
+        return total == 0 ? 0 : (double) hitCount / total;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%,d of %,d cached, hit rate %.1f%% (%,d hits, %,d misses), %,d evicted, %,d writes flushed, %,d queued",
+                getCachedRecords(), maximumSize, getHitRate() * 100, getHits(), getMisses(), getEvictions(),
+                getWritesFlushed(), getPendingWrites());
+    }
+
+    // ---------- read / write helpers ----------
+
+    private V loadMissing(String id) {
+        Write<V> pending = pendingWrites.get(id);
+        if (pending != null) {
+            return pending.record; // null for a queued delete
+        }
+        V record = store.load(id);
+        if (record != null) {
+            storeLoads.increment();
+        }
+        return record;
+    }
+
+    private void afterQueued() {
+        if (pendingWrites.size() >= MAX_PENDING) {
+            flush(); // the store can't keep up, the writer waits for it instead of the queue growing without end
+        } else if (pendingWrites.size() >= FLUSH_BATCH && flushRequested.compareAndSet(false, true)) {
+            flusher.execute(this::flushInBackground);
+        }
+    }
+
+    private void flushInBackground() {
+        flushRequested.set(false);
+        try {
+            flush();
+        } catch (RuntimeException e) {
+            // the writes stay queued and are tried again on the next round
+            flushFailures.increment();
+            LOG.log(System.Logger.Level.WARNING, "Record cache flush failed, the writes stay queued", e);
+        }
+    }
+
+    // ---------- policy, everything below runs under the policy lock ----------
+
+    private void afterRead(Node<V> node) {
+        if (!policyLock.tryLock()) {
+            return;
+        }
+        try {
+            if (node.queue != null) { // evicted or deleted in the meantime
+                sketch.increment(node.hash);
+                onHit(node);
+            }
+        } finally {
+            policyLock.unlock();
+        }
+    }
+
+    private void afterWrite(Node<V> node) {
+        policyLock.lock();
+        try {
+            sketch.increment(node.hash);
+            if (node.queue != null || data.get(node.key) != node) {
+                return; // already placed, or deleted before we got here
+            }
+            window.addLast(node, Queue.WINDOW);
+            evict();
+        } finally {
+            policyLock.unlock();
+        }
+    }
+
+    private void onHit(Node<V> node) {
+        if (node.queue == Queue.WINDOW) {
+            window.moveToBack(node);
+        } else if (node.queue == Queue.PROBATION) {
+            // hit twice, it has earned a protected place. The oldest protected one goes back on probation if needed
+            probation.remove(node);
+            protectedRecords.addLast(node, Queue.PROTECTED);
+            if (protectedRecords.size > protectedMax) {
+                Node<V> demoted = protectedRecords.first();
+                protectedRecords.remove(demoted);
+                probation.addLast(demoted, Queue.PROBATION);
+            }
+        } else {
+            protectedRecords.moveToBack(node);
+        }
+    }
+
+    // the window's oldest record moves on to probation and, if the main part is full, has to be wanted more often than
+    // probation's oldest to stay. One of the two leaves the cache
+    private void evict() {
+        int mainMax = maximumSize - windowMax;
+        while (window.size > windowMax) {
+            Node<V> candidate = window.first();
+            window.remove(candidate);
+            probation.addLast(candidate, Queue.PROBATION);
+            if (probation.size + protectedRecords.size <= mainMax) {
+                continue;
+            }
+            Node<V> victim = probation.first();
+            if (victim != candidate && sketch.frequency(candidate.hash) > sketch.frequency(victim.hash)) {
+                evict(victim);
+            } else {
+                evict(candidate);
+            }
+        }
+    }
+
+    private void evict(Node<V> node) {
+        unlink(node);
+        if (data.remove(node.key, node)) {
+            evictions.increment();
+        }
+    }
+
+    private void unlink(Node<V> node) {
+        if (node.queue == Queue.WINDOW) {
+            window.remove(node);
+        } else if (node.queue == Queue.PROBATION) {
+            probation.remove(node);
+        } else if (node.queue == Queue.PROTECTED) {
+            protectedRecords.remove(node);
+        }
+    }
+
+    private enum Queue { WINDOW, PROBATION, PROTECTED }
+
+    private static final class Node<V> {
+        final String key;
+        final int hash;
+        volatile V value;
+        // the list it is in and its neighbours there, under the policy lock. queue is null while in no list
+        Queue queue;
+        Node<V> previous;
+        Node<V> next;
+
+        Node(String key, V value) {
+            this.key = key;
+            this.hash = spread(key.hashCode());
+            this.value = value;
+        }
+
+        private static int spread(int h) {
+            h ^= h >>> 17;
+            h *= 0xed5ad4bb;
+            return h ^ (h >>> 11);
+        }
+    }
+
+    // a queued store (record set) or delete (record null). Compared by identity, so flush only takes the write it stored
+    private static final class Write<V> {
+        final V record;
+
+        Write(V record) {
+            this.record = record;
+        }
+    }
+
+    // doubly linked list through the nodes themselves, oldest first
+    private static final class Lru<V> {
+        private final Node<V> head = new Node<>("", null);
+        int size;
+
+        Lru() {
+            head.previous = head;
+            head.next = head;
+        }
+
+        Node<V> first() {
+            return head.next == head ? null : head.next;
+        }
+
+        void addLast(Node<V> node, Queue queue) {
+            node.queue = queue;
+            node.previous = head.previous;
+            node.next = head;
+            head.previous.next = node;
+            head.previous = node;
+            size++;
+        }
+
+        void remove(Node<V> node) {
+            node.previous.next = node.next;
+            node.next.previous = node.previous;
+            node.previous = null;
+            node.next = null;
+            node.queue = null;
+            size--;
+        }
+
+        void moveToBack(Node<V> node) {
+            Queue queue = node.queue;
+            remove(node);
+            addLast(node, queue);
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package library.circulation.storage;
+
+import library.circulation.models.Book;
+import library.circulation.models.Member;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.time.LocalDate;
+
+// turns one record into bytes and back, FileRecordStore keeps what this writes.
+//
+// Only the record itself is stored: the loan a book is out on and the books a member has at home belong to the open
+// transactions, which stay in the catalog (and in the snapshot). A Book comes back available, or removed if it was.
+public interface RecordCodec<V> {
+
+    void write(DataOutputStream out, V record) throws IOException;
+
+    V read(DataInputStream in) throws IOException;
+
+    RecordCodec<Book> BOOK = new RecordCodec<>() {
+        @Override
+        public void write(DataOutputStream out, Book book) throws IOException {
+            out.writeUTF(book.getBookID());
+            writeString(out, book.getTitle());
+            writeString(out, book.getAuthor());
+            writeString(out, book.getGenre());
+            writeString(out, book.getContentRating());
+            out.writeBoolean(book.isPresent());
+        }
+
+        @Override
+        public Book read(DataInputStream in) throws IOException {
+            String bookID = in.readUTF();
+            String title = readString(in);
+            String author = readString(in);
+            String genre = readString(in);
+            String contentRating = readString(in);
+            boolean present = in.readBoolean();
+            return Book.restore(bookID, title, author, genre, contentRating, present);
+        }
+    };
+
+    RecordCodec<Member> MEMBER = new RecordCodec<>() {
+        @Override
+        public void write(DataOutputStream out, Member member) throws IOException {
+            out.writeUTF(member.getMemberID());
+            writeString(out, member.getName());
+            out.writeInt(member.getAge());
+            writeString(out, member.getOccupation());
+            writeString(out, member.getEmail());
+            writeString(out, member.getHashedPassword());
+            writeString(out, member.getPhoneNumber());
+            LocalDate joinDate = member.getJoinDate();
+            out.writeBoolean(joinDate != null);
+            if (joinDate != null) {
+                out.writeLong(joinDate.toEpochDay());
+            }
+            out.writeInt(member.getMaxBorrowLimit());
+            out.writeLong(member.getPendingDues());
+        }
+
+        @Override
+        public Member read(DataInputStream in) throws IOException {
+            String memberID = in.readUTF();
+            String name = readString(in);
+            int age = in.readInt();
+            String occupation = readString(in);
+            String email = readString(in);
+            String hashedPassword = readString(in);
+            String phoneNumber = readString(in);
+            LocalDate joinDate = in.readBoolean() ? LocalDate.ofEpochDay(in.readLong()) : null;
+            int maxBorrowLimit = in.readInt();
+            long pendingDues = in.readLong();
+            return Member.restore(memberID, name, age, occupation, email, hashedPassword, phoneNumber, joinDate,
+                    maxBorrowLimit, pendingDues);
+        }
+    };
+
+    // writeUTF can't store null, so every nullable string gets a flag in front, same as the snapshot
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+}
@@ -0,0 +1,27 @@
+package library.circulation.storage;
+
+import java.util.Map;
+
+// Where Book and Member records live once they don't all fit on the heap: a key-value store by id.
+// FileRecordStore is the embedded one, a sql table can implement the same thing later. RecordCache sits in front
+// of any of them.
+public interface RecordStore<V> extends AutoCloseable {
+
+    // null if there is no record with this id
+    V load(String id);
+
+    void store(String id, V record);
+
+    // a batch of writes, stores can make this a lot cheaper than one store() after the other
+    default void storeAll(Map<String, V> records) {
+        records.forEach(this::store);
+    }
+
+    // nothing happens if there is no record with this id
+    void delete(String id);
+
+    int size();
+
+    @Override
+    void close();
+}
@@ -1,5 +1,28 @@
 package library.models;
 
+import library.circulation.services.CatalogImporter;
+import library.circulation.services.LibraryService;
+
+import java.nio.file.Path;
+import java.util.Objects;
+import java.util.function.Consumer;
+
+// back office work on the library's catalog, the things the front desk doesn't do
 public class Admin {
 
+    private final LibraryService service;
+
+    public Admin(LibraryService service) {
+        this.service = Objects.requireNonNull(service, "Service cannot be null.");
+    }
+
+    // loads an acquisition feed, one "title,author,genre,contentRating" per line (csv or tsv), see CatalogImporter
+    public CatalogImporter.ImportReport importCatalog(Path feed) {
+        return new CatalogImporter(service).importFile(feed);
+    }
+
+    // same, "progress" hears about every chunk of the file as it goes in
+    public CatalogImporter.ImportReport importCatalog(Path feed, Consumer<CatalogImporter.Progress> progress) {
+        return new CatalogImporter(service).importFile(feed, progress);
+    }
 }